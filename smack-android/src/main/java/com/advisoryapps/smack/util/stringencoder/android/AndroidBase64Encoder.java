@@ -18,6 +18,8 @@ package com.advisoryapps.smack.util.stringencoder.android;
 
 import android.util.Base64;
 
+import com.advisoryapps.smack.util.stringencoder.Base64CharSequence;
+
 /**
  * A Base 64 encoding implementation based on android.util.Base64.
  * @author Florian Schmaus
@@ -55,4 +57,9 @@ public final class AndroidBase64Encoder implements com.advisoryapps.smack.util.s
     public byte[] encode(byte[] input) {
         return Base64.encode(input, BASE64_ENCODER_FLAGS);
     }
+
+    @Override
+    public CharSequence encodeToCharSequence(byte[] input) {
+        return new Base64CharSequence(input);
+    }
 }
@@ -38,13 +38,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
@@ -75,11 +76,13 @@ import com.advisoryapps.smack.SmackException.AlreadyLoggedInException;
 import com.advisoryapps.smack.SmackException.NoResponseException;
 import com.advisoryapps.smack.SmackException.NotConnectedException;
 import com.advisoryapps.smack.SmackException.NotLoggedInException;
+import com.advisoryapps.smack.SmackException.OutgoingQueueFullException;
 import com.advisoryapps.smack.SmackException.ResourceBindingNotOfferedException;
 import com.advisoryapps.smack.SmackException.SecurityRequiredByClientException;
 import com.advisoryapps.smack.SmackException.SecurityRequiredException;
 import com.advisoryapps.smack.SmackException.SmackWrappedException;
 import com.advisoryapps.smack.SmackFuture.InternalSmackFuture;
+import com.advisoryapps.smack.StanzaListenerRegistry.MatchingListenerCallback;
 import com.advisoryapps.smack.XMPPException.FailedNonzaException;
 import com.advisoryapps.smack.XMPPException.StreamErrorException;
 import com.advisoryapps.smack.XMPPException.XMPPErrorException;
@@ -119,6 +122,7 @@ import com.advisoryapps.smack.util.DNSUtil;
 import com.advisoryapps.smack.util.Objects;
 import com.advisoryapps.smack.util.PacketParserUtils;
 import com.advisoryapps.smack.util.ParserUtils;
+import com.advisoryapps.smack.util.PrioritizedBlockingQueueWithShutdown;
 import com.advisoryapps.smack.util.StringUtils;
 import com.advisoryapps.smack.util.dns.HostAddress;
 import com.advisoryapps.smack.util.dns.SmackDaneProvider;
@@ -182,6 +186,11 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
      */
     private static final AtomicInteger connectionCounter = new AtomicInteger(0);
 
+    /**
+     * The namespace of XEP-0199: XMPP Ping, see {@link #isPriorityStanza(Stanza)}.
+     */
+    private static final String PING_NAMESPACE = "urn:xmpp:ping";
+
     static {
         // Ensure the SmackConfiguration class is loaded by calling a method in it.
         SmackConfiguration.getVersion();
@@ -194,6 +203,42 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     protected final Set<ConnectionListener> connectionListeners =
             new CopyOnWriteArraySet<>();
 
+    private final Set<OutgoingQueueWatermarkListener> outgoingQueueWatermarkListeners = new CopyOnWriteArraySet<>();
+
+    /**
+     * The futures of the stanzas sent via {@link #sendStanzaAsync(Stanza)}, which are completed once the stanza was
+     * written and flushed, i.e. when the stanza sending listeners are notified. Stanzas do not override equals(), hence they are looked up by identity.
+     */
+    private final Map<Stanza, InternalSmackFuture<Stanza, SmackException>> pendingSendFutures = new ConcurrentHashMap<>();
+
+    /**
+     * The watermark callback implementations with an outgoing element queue should set on their queue.
+     */
+    protected final PrioritizedBlockingQueueWithShutdown.WatermarkCallback outgoingQueueWatermarkCallback =
+                    new PrioritizedBlockingQueueWithShutdown.WatermarkCallback() {
+        @Override
+        public void highWatermarkReached(int queuedElements) {
+            for (OutgoingQueueWatermarkListener listener : outgoingQueueWatermarkListeners) {
+                try {
+                    listener.highWatermarkReached(AbstractXMPPConnection.this, queuedElements);
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Outgoing queue watermark listener threw exception", e);
+                }
+            }
+        }
+
+        @Override
+        public void lowWatermarkReached(int queuedElements) {
+            for (OutgoingQueueWatermarkListener listener : outgoingQueueWatermarkListeners) {
+                try {
+                    listener.lowWatermarkReached(AbstractXMPPConnection.this, queuedElements);
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Outgoing queue watermark listener threw exception", e);
+                }
+            }
+        }
+    };
+
     /**
      * A collection of StanzaCollectors which collects packets for a specified filter
      * and perform blocking and polling operations on the result queue.
@@ -204,20 +249,35 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
      * The alternative would be a synchronized HashSet, but this would mean a
      * synchronized block around every usage of <code>collectors</code>.
      * </p>
+     * <p>
+     * Only collectors whose stanza filter does not determine the stanza ID of the collected stanzas are kept in this
+     * collection. The others, which are the vast majority as they are usually waiting for the reply to an IQ request,
+     * are found in {@link #collectorsByStanzaId}.
+     * </p>
      */
     private final Collection<StanzaCollector> collectors = new ConcurrentLinkedQueue<>();
 
-    private final Map<StanzaListener, ListenerWrapper> recvListeners = new LinkedHashMap<>();
+    /**
+     * StanzaCollectors keyed by the stanza ID their filter requires, so that the collector(s) of a reply can be looked
+     * up in constant time regardless of the number of outstanding requests. If there is already a collector for the
+     * same stanza ID, then the collector is added to {@link #collectors} instead.
+     */
+    private final ConcurrentMap<String, StanzaCollector> collectorsByStanzaId = new ConcurrentHashMap<>();
+
+    /**
+     * Stanza listeners that will be notified, in order per listener, when a new stanza was received.
+     */
+    private final StanzaListenerRegistry recvListeners = new StanzaListenerRegistry();
 
     /**
      * List of PacketListeners that will be notified synchronously when a new stanza was received.
      */
-    private final Map<StanzaListener, ListenerWrapper> syncRecvListeners = new LinkedHashMap<>();
+    private final StanzaListenerRegistry syncRecvListeners = new StanzaListenerRegistry();
 
     /**
      * List of PacketListeners that will be notified asynchronously when a new stanza was received.
      */
-    private final Map<StanzaListener, ListenerWrapper> asyncRecvListeners = new LinkedHashMap<>();
+    private final StanzaListenerRegistry asyncRecvListeners = new StanzaListenerRegistry();
 
     /**
      * List of PacketListeners that will be notified when a new stanza was sent.
@@ -787,6 +847,20 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
 
     @Override
     public final void sendStanza(Stanza stanza) throws NotConnectedException, InterruptedException {
+        prepareStanzaForSending(stanza);
+        sendStanzaInternal(stanza);
+    }
+
+    /**
+     * Prepare the given stanza for sending by setting its 'from' attribute according to the connection's from mode and
+     * invoking the stanza interceptors. Implementations overriding {@link #trySendStanza(Stanza)} must call this
+     * method only once the stanza is certain to be accepted, e.g. after capacity in the outgoing queue was reserved, so
+     * that a rejected stanza is left unchanged.
+     *
+     * @param stanza the stanza to prepare.
+     * @throws NotConnectedException if the connection is not connected.
+     */
+    protected final void prepareStanzaForSending(Stanza stanza) throws NotConnectedException {
         Objects.requireNonNull(stanza, "Stanza must not be null");
         assert stanza instanceof Message || stanza instanceof Presence || stanza instanceof IQ;
 
@@ -805,7 +879,63 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         // Invoke interceptors for the new stanza that is about to be sent. Interceptors may modify
         // the content of the stanza.
         firePacketInterceptors(stanza);
-        sendStanzaInternal(stanza);
+    }
+
+    @Override
+    public SmackFuture<Stanza, SmackException> sendStanzaAsync(Stanza stanza) {
+        InternalSmackFuture<Stanza, SmackException> future = new InternalSmackFuture<>();
+        // Register the future before the stanza is scheduled, as it may get written right away.
+        pendingSendFutures.put(stanza, future);
+
+        SmackException exception;
+        try {
+            if (trySendStanza(stanza)) {
+                return future;
+            }
+            exception = new OutgoingQueueFullException(this);
+        } catch (NotConnectedException e) {
+            exception = e;
+        }
+
+        pendingSendFutures.remove(stanza);
+        future.setException(exception);
+        return future;
+    }
+
+    /**
+     * Check whether the given stanza should be put into the priority lane of an outgoing element queue. These are
+     * IQ responses and pings, whose delay would cause the remote entity to run into a timeout.
+     *
+     * @param stanza the stanza.
+     * @return <code>true</code> if the stanza should be prioritized.
+     */
+    protected static boolean isPriorityStanza(Stanza stanza) {
+        if (!(stanza instanceof IQ)) {
+            return false;
+        }
+        IQ iq = (IQ) stanza;
+        return iq.isResponseIQ() || PING_NAMESPACE.equals(iq.getChildElementNamespace());
+    }
+
+    @Override
+    public boolean addOutgoingQueueWatermarkListener(OutgoingQueueWatermarkListener listener) {
+        return outgoingQueueWatermarkListeners.add(listener);
+    }
+
+    @Override
+    public boolean removeOutgoingQueueWatermarkListener(OutgoingQueueWatermarkListener listener) {
+        return outgoingQueueWatermarkListeners.remove(listener);
+    }
+
+    private void failPendingSendFutures(SmackException exception) {
+        if (pendingSendFutures.isEmpty()) {
+            return;
+        }
+        for (Iterator<InternalSmackFuture<Stanza, SmackException>> it = pendingSendFutures.values().iterator(); it.hasNext();) {
+            InternalSmackFuture<Stanza, SmackException> future = it.next();
+            it.remove();
+            future.setException(exception);
+        }
     }
 
     /**
@@ -882,6 +1012,9 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
             for (StanzaCollector collector : collectors) {
                 collector.notifyConnectionError(exception);
             }
+            for (StanzaCollector collector : collectorsByStanzaId.values()) {
+                collector.notifyConnectionError(exception);
+            }
             SmackWrappedException smackWrappedException = new SmackWrappedException(exception);
             tlsHandled.reportGenericFailure(smackWrappedException);
             saslFeatureReceived.reportGenericFailure(smackWrappedException);
@@ -992,12 +1125,19 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     public StanzaCollector createStanzaCollector(StanzaCollector.Configuration configuration) {
         StanzaCollector collector = new StanzaCollector(this, configuration);
         // Add the collector to the list of active collectors.
-        collectors.add(collector);
+        String stanzaId = StanzaListenerRegistry.getRequiredStanzaId(collector.getStanzaFilter());
+        if (stanzaId == null || collectorsByStanzaId.putIfAbsent(stanzaId, collector) != null) {
+            collectors.add(collector);
+        }
         return collector;
     }
 
     @Override
     public void removeStanzaCollector(StanzaCollector collector) {
+        String stanzaId = StanzaListenerRegistry.getRequiredStanzaId(collector.getStanzaFilter());
+        if (stanzaId != null && collectorsByStanzaId.remove(stanzaId, collector)) {
+            return;
+        }
         collectors.remove(collector);
     }
 
@@ -1006,17 +1146,12 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         if (stanzaListener == null) {
             throw new NullPointerException("Given stanza listener must not be null");
         }
-        ListenerWrapper wrapper = new ListenerWrapper(stanzaListener, stanzaFilter);
-        synchronized (recvListeners) {
-            recvListeners.put(stanzaListener, wrapper);
-        }
+        recvListeners.add(stanzaListener, stanzaFilter);
     }
 
     @Override
     public final boolean removeStanzaListener(StanzaListener stanzaListener) {
-        synchronized (recvListeners) {
-            return recvListeners.remove(stanzaListener) != null;
-        }
+        return recvListeners.remove(stanzaListener);
     }
 
     @Override
@@ -1024,17 +1159,12 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         if (packetListener == null) {
             throw new NullPointerException("Packet listener is null.");
         }
-        ListenerWrapper wrapper = new ListenerWrapper(packetListener, packetFilter);
-        synchronized (syncRecvListeners) {
-            syncRecvListeners.put(packetListener, wrapper);
-        }
+        syncRecvListeners.add(packetListener, packetFilter);
     }
 
     @Override
     public boolean removeSyncStanzaListener(StanzaListener packetListener) {
-        synchronized (syncRecvListeners) {
-            return syncRecvListeners.remove(packetListener) != null;
-        }
+        return syncRecvListeners.remove(packetListener);
     }
 
     @Override
@@ -1042,17 +1172,12 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         if (packetListener == null) {
             throw new NullPointerException("Packet listener is null.");
         }
-        ListenerWrapper wrapper = new ListenerWrapper(packetListener, packetFilter);
-        synchronized (asyncRecvListeners) {
-            asyncRecvListeners.put(packetListener, wrapper);
-        }
+        asyncRecvListeners.add(packetListener, packetFilter);
     }
 
     @Override
     public boolean removeAsyncStanzaListener(StanzaListener packetListener) {
-        synchronized (asyncRecvListeners) {
-            return asyncRecvListeners.remove(packetListener) != null;
-        }
+        return asyncRecvListeners.remove(packetListener);
     }
 
     @Override
@@ -1093,6 +1218,13 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         }
         Stanza packet = (Stanza) sendTopLevelStreamElement;
 
+        if (!pendingSendFutures.isEmpty()) {
+            InternalSmackFuture<Stanza, SmackException> sendFuture = pendingSendFutures.remove(packet);
+            if (sendFuture != null) {
+                sendFuture.setResult(packet);
+            }
+        }
+
         final List<StanzaListener> listenersToNotify = new LinkedList<>();
         synchronized (sendListeners) {
             for (ListenerWrapper listenerWrapper : sendListeners.values()) {
@@ -1398,67 +1530,43 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
             }
         }
 
-        // First handle the async recv listeners. Note that this code is very similar to what follows a few lines below,
-        // the only difference is that asyncRecvListeners is used here and that the packet listeners are started in
-        // their own thread.
-        final Collection<StanzaListener> listenersToNotify = new LinkedList<>();
-        extractMatchingListeners(packet, asyncRecvListeners, listenersToNotify);
-        for (final StanzaListener listener : listenersToNotify) {
-            asyncGoLimited(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        listener.processStanza(packet);
-                    } catch (Exception e) {
-                        LOGGER.log(Level.SEVERE, "Exception in async packet listener", e);
-                    }
-                }
-            });
-        }
+        // First handle the async recv listeners. Note that the matching listeners are looked up in the same way for
+        // all three kinds of receive listeners, the only difference is how the listeners are invoked.
+        asyncRecvListeners.forEachMatching(packet, asyncRecvListenerInvoker);
 
-        // Loop through all collectors and notify the appropriate ones.
+        // Notify the collector waiting for a stanza with this ID, if any, and loop through all collectors which could
+        // not be keyed by a stanza ID.
+        final String stanzaId = packet.getStanzaId();
+        if (stanzaId != null) {
+            StanzaCollector collector = collectorsByStanzaId.get(stanzaId);
+            if (collector != null) {
+                collector.processStanza(packet);
+            }
+        }
         for (StanzaCollector collector : collectors) {
             collector.processStanza(packet);
         }
 
-        listenersToNotify.clear();
-        extractMatchingListeners(packet, recvListeners, listenersToNotify);
-        for (StanzaListener stanzaListener : listenersToNotify) {
-            inOrderListeners.performAsyncButOrdered(stanzaListener, () -> {
-                try {
-                    stanzaListener.processStanza(packet);
-                }
-                catch (NotConnectedException e) {
-                    LOGGER.log(Level.WARNING, "Got not connected exception, aborting", e);
-                }
-                catch (Exception e) {
-                    LOGGER.log(Level.SEVERE, "Exception in packet listener", e);
-                }
-            });
-        }
+        recvListeners.forEachMatching(packet, recvListenerInvoker);
 
-        // Notify the receive listeners interested in the packet
-        listenersToNotify.clear();
-        extractMatchingListeners(packet, syncRecvListeners, listenersToNotify);
+        // Notify the receive listeners interested in the packet. Synchronous listeners are invoked in the order they
+        // were registered.
+        final List<StanzaListener> listenersToNotify = syncRecvListeners.getMatchingListeners(packet);
+        if (listenersToNotify.isEmpty()) {
+            return;
+        }
         // Decouple incoming stanza processing from listener invocation. Unlike async listeners, this uses a single
         // threaded executor service and therefore keeps the order.
         ASYNC_BUT_ORDERED.performAsyncButOrdered(this, new Runnable() {
             @Override
             public void run() {
-                // As listeners are able to remove themselves and because the timepoint where it is decided to invoke a
-                // listener is a different timepoint where the listener is actually invoked (here), we have to check
-                // again if the listener is still active.
-                Iterator<StanzaListener> it = listenersToNotify.iterator();
-                synchronized (syncRecvListeners) {
-                    while (it.hasNext()) {
-                        StanzaListener stanzaListener = it.next();
-                        if (!syncRecvListeners.containsKey(stanzaListener)) {
-                            // The listener was removed from syncRecvListener, also remove him from listenersToNotify.
-                            it.remove();
-                        }
-                    }
-                }
                 for (StanzaListener listener : listenersToNotify) {
+                    // As listeners are able to remove themselves and because the timepoint where it is decided to
+                    // invoke a listener is a different timepoint where the listener is actually invoked (here), we have
+                    // to check again if the listener is still active.
+                    if (!syncRecvListeners.contains(listener)) {
+                        continue;
+                    }
                     try {
                         listener.processStanza(packet);
                     } catch (NotConnectedException e) {
@@ -1472,16 +1580,46 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         });
     }
 
-    private static void extractMatchingListeners(Stanza stanza, Map<StanzaListener, ListenerWrapper> listeners,
-                    Collection<StanzaListener> listenersToNotify) {
-        synchronized (listeners) {
-            for (ListenerWrapper listenerWrapper : listeners.values()) {
-                if (listenerWrapper.filterMatches(stanza)) {
-                    listenersToNotify.add(listenerWrapper.getListener());
+    /**
+     * Invokes a matching async receive listener. Created once per connection, so that looking up the listeners
+     * matching an incoming stanza does not allocate.
+     */
+    private final MatchingListenerCallback asyncRecvListenerInvoker = new MatchingListenerCallback() {
+        @Override
+        public void onMatchingListener(final StanzaListener listener, final Stanza stanza) {
+            asyncGoLimited(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        listener.processStanza(stanza);
+                    } catch (Exception e) {
+                        LOGGER.log(Level.SEVERE, "Exception in async packet listener", e);
+                    }
                 }
-            }
+            });
         }
-    }
+    };
+
+    /**
+     * Invokes a matching receive listener, ordered per listener. Created once per connection, like
+     * {@link #asyncRecvListenerInvoker}.
+     */
+    private final MatchingListenerCallback recvListenerInvoker = new MatchingListenerCallback() {
+        @Override
+        public void onMatchingListener(final StanzaListener stanzaListener, final Stanza stanza) {
+            inOrderListeners.performAsyncButOrdered(stanzaListener, () -> {
+                try {
+                    stanzaListener.processStanza(stanza);
+                }
+                catch (NotConnectedException e) {
+                    LOGGER.log(Level.WARNING, "Got not connected exception, aborting", e);
+                }
+                catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, "Exception in packet listener", e);
+                }
+            });
+        }
+    };
 
     /**
      * Sets whether the connection has already logged in the server. This method assures that the
@@ -1514,6 +1652,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     }
 
     void callConnectionClosedListener() {
+        failPendingSendFutures(new NotConnectedException(this, "Connection closed before the stanza was sent"));
         for (ConnectionListener listener : connectionListeners) {
             try {
                 listener.connectionClosed();
@@ -1527,6 +1666,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     }
 
     private void callConnectionClosedOnErrorListener(Exception e) {
+        failPendingSendFutures(new NotConnectedException(this, "Connection closed on error before the stanza was sent"));
         boolean logWarning = true;
         if (e instanceof StreamErrorException) {
             StreamErrorException see = (StreamErrorException) e;
@@ -19,11 +19,13 @@ package com.advisoryapps.smack;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
+import java.util.concurrent.TimeUnit;
 
 import com.advisoryapps.smack.SmackReactor.ChannelSelectedCallback;
 import com.advisoryapps.smack.fsm.AbstractXmppStateMachineConnection;
 import com.advisoryapps.smack.fsm.StateDescriptor;
 import com.advisoryapps.smack.fsm.StateDescriptorGraph.GraphVertex;
+import com.advisoryapps.smack.util.ByteBufferPool;
 
 public abstract class AbstractXmppNioConnection extends AbstractXmppStateMachineConnection {
 
@@ -47,4 +49,26 @@ public abstract class AbstractXmppNioConnection extends AbstractXmppStateMachine
         SMACK_REACTOR.setInterestOps(selectionKey, interestOps);
     }
 
+    /**
+     * Schedule an action which will be performed by the reactor thread owning the given selection key.
+     *
+     * @param selectionKey the selection key of the channel.
+     * @param runnable the action.
+     * @param delay the delay after which the action is performed.
+     * @param unit the unit of the delay.
+     * @return the scheduled action.
+     */
+    protected ScheduledAction schedule(SelectionKey selectionKey, Runnable runnable, long delay, TimeUnit unit) {
+        return SMACK_REACTOR.schedule(runnable, delay, unit, selectionKey);
+    }
+
+    /**
+     * Get the pool of direct byte buffers of the reactor. Buffers acquired from this pool may be used for the outgoing
+     * data of this connection and must be released once they are no longer referenced by the connection.
+     *
+     * @return the pool of direct byte buffers.
+     */
+    protected ByteBufferPool getDirectByteBufferPool() {
+        return SMACK_REACTOR.getDirectByteBufferPool();
+    }
 }
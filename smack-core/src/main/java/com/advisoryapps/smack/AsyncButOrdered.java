@@ -16,11 +16,14 @@
  */
 package com.advisoryapps.smack;
 
+import java.util.ArrayDeque;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.Queue;
-import java.util.WeakHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Helper class to perform an operation asynchronous but keeping the order in respect to a given key.
@@ -46,23 +49,57 @@ import java.util.concurrent.Executor;
  * key.
  * </p>
  *
+ * <p>
+ * The pending runnables are kept in per-key queues, which only exist while there are pending runnables for the key.
+ * The queues are spread over a fixed number of lock stripes, so that invocations for different keys rarely contend on
+ * the same lock.
+ * </p>
+ *
  * @param <K> the type of the key
  * @since 4.3
  */
 public class AsyncButOrdered<K> {
 
-    private final Map<K, Queue<Runnable>> pendingRunnables = new WeakHashMap<>();
+    private static final int STRIPES = 32;
 
-    private final Map<K, Boolean> threadActiveMap = new WeakHashMap<>();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Stripe<K>[] stripes = new Stripe[STRIPES];
 
     private final Executor executor;
 
+    private final int maxQueuedRunnablesPerKey;
+
+    private final AtomicInteger queuedRunnables = new AtomicInteger();
+
+    // TODO: Use LongAdder once Smack's minimum Android API level is 24 or higher.
+    private final AtomicLong executedRunnables = new AtomicLong();
+
+    private final AtomicLong maxQueueLatencyNanos = new AtomicLong();
+
     public AsyncButOrdered() {
         this(null);
     }
 
     public AsyncButOrdered(Executor executor) {
+        this(executor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a new instance with a bounded number of pending runnables per key.
+     *
+     * @param executor the executor to run the runnables, or <code>null</code> to use Smack's cached thread pool.
+     * @param maxQueuedRunnablesPerKey the maximum number of pending runnables per key.
+     * @since 4.4.0
+     */
+    public AsyncButOrdered(Executor executor, int maxQueuedRunnablesPerKey) {
+        if (maxQueuedRunnablesPerKey <= 0) {
+            throw new IllegalArgumentException("The maximum number of queued runnables per key must be positive");
+        }
         this.executor = executor;
+        this.maxQueuedRunnablesPerKey = maxQueuedRunnablesPerKey;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe<>();
+        }
     }
 
     /**
@@ -71,37 +108,30 @@ public class AsyncButOrdered<K> {
      * @param key the key deriving the order
      * @param runnable the {@link Runnable} to run
      * @return true if a new thread was created
+     * @throws RejectedExecutionException if there are already the maximum number of pending runnables for the key.
      */
     public boolean performAsyncButOrdered(K key, Runnable runnable) {
-        Queue<Runnable> keyQueue;
-        synchronized (pendingRunnables) {
-            keyQueue = pendingRunnables.get(key);
-            if (keyQueue == null) {
-                keyQueue = new ConcurrentLinkedQueue<>();
-                pendingRunnables.put(key, keyQueue);
-            }
-        }
-
-        keyQueue.add(runnable);
+        Stripe<K> stripe = stripeFor(key);
+        QueuedRunnable queuedRunnable = new QueuedRunnable(runnable);
 
+        KeyQueue keyQueue;
         boolean newHandler;
-        synchronized (threadActiveMap) {
-            Boolean threadActive = threadActiveMap.get(key);
-            if (threadActive == null) {
-                threadActive = false;
-                threadActiveMap.put(key, threadActive);
-            }
-
-            newHandler = !threadActive;
+        synchronized (stripe) {
+            keyQueue = stripe.keyQueues.get(key);
+            newHandler = keyQueue == null;
             if (newHandler) {
-                Handler handler = new Handler(keyQueue, key);
-                threadActiveMap.put(key, true);
-                if (executor == null) {
-                    AbstractXMPPConnection.asyncGo(handler);
-                } else {
-                    executor.execute(handler);
-                }
+                keyQueue = new KeyQueue();
+                stripe.keyQueues.put(key, keyQueue);
+            } else if (keyQueue.runnables.size() >= maxQueuedRunnablesPerKey) {
+                throw new RejectedExecutionException("There are already " + keyQueue.runnables.size()
+                                + " pending runnables for " + key);
             }
+            keyQueue.runnables.add(queuedRunnable);
+        }
+        queuedRunnables.incrementAndGet();
+
+        if (newHandler) {
+            startHandler(new Handler(stripe, key, keyQueue));
         }
 
         return newHandler;
@@ -116,39 +146,115 @@ public class AsyncButOrdered<K> {
         };
     }
 
+    /**
+     * Get the number of runnables which are currently pending, i.e. queued but not yet started.
+     *
+     * @return the number of pending runnables.
+     * @since 4.4.0
+     */
+    public int getQueuedRunnablesCount() {
+        return queuedRunnables.get();
+    }
+
+    /**
+     * Get the number of runnables which have been executed.
+     *
+     * @return the number of executed runnables.
+     * @since 4.4.0
+     */
+    public long getExecutedRunnablesCount() {
+        return executedRunnables.get();
+    }
+
+    /**
+     * Get the maximum time a runnable was pending before it was started, i.e. the maximum latency caused by the
+     * ordering in respect to a key.
+     *
+     * @param unit the time unit of the returned value.
+     * @return the maximum queue latency.
+     * @since 4.4.0
+     */
+    public long getMaxQueueLatency(TimeUnit unit) {
+        return unit.convert(maxQueueLatencyNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    private Stripe<K> stripeFor(K key) {
+        int hash = key.hashCode();
+        // Spread the higher bits, similar to what HashMap does.
+        hash ^= hash >>> 16;
+        return stripes[hash & (STRIPES - 1)];
+    }
+
+    private void startHandler(Handler handler) {
+        if (executor == null) {
+            AbstractXMPPConnection.asyncGo(handler);
+        } else {
+            executor.execute(handler);
+        }
+    }
+
+    private void recordQueueLatency(long latencyNanos) {
+        long currentMax;
+        do {
+            currentMax = maxQueueLatencyNanos.get();
+            if (latencyNanos <= currentMax) {
+                return;
+            }
+        } while (!maxQueueLatencyNanos.compareAndSet(currentMax, latencyNanos));
+    }
+
+    private static final class Stripe<K> {
+        private final Map<K, KeyQueue> keyQueues = new HashMap<>();
+    }
+
+    private static final class KeyQueue {
+        private final ArrayDeque<QueuedRunnable> runnables = new ArrayDeque<>();
+    }
+
+    private static final class QueuedRunnable {
+        private final Runnable runnable;
+        private final long queuedTimestamp = System.nanoTime();
+
+        private QueuedRunnable(Runnable runnable) {
+            this.runnable = runnable;
+        }
+    }
+
     private class Handler implements Runnable {
-        private final Queue<Runnable> keyQueue;
+        private final Stripe<K> stripe;
         private final K key;
+        private final KeyQueue keyQueue;
 
-        Handler(Queue<Runnable> keyQueue, K key) {
-            this.keyQueue = keyQueue;
+        Handler(Stripe<K> stripe, K key, KeyQueue keyQueue) {
+            this.stripe = stripe;
             this.key = key;
+            this.keyQueue = keyQueue;
         }
 
         @Override
         public void run() {
-            mainloop:
             while (true) {
-                Runnable runnable = null;
-                while ((runnable = keyQueue.poll()) != null) {
-                    try {
-                        runnable.run();
-                    } catch (Throwable t) {
-                        // The run() method threw, this handler thread is going to terminate because of that. Ensure we note
-                        // that in the map.
-                        synchronized (threadActiveMap) {
-                            threadActiveMap.put(key, false);
-                        }
-                        throw t;
+                QueuedRunnable queuedRunnable;
+                synchronized (stripe) {
+                    queuedRunnable = keyQueue.runnables.poll();
+                    if (queuedRunnable == null) {
+                        // The queue is empty, stop this handler. The next invocation for the key will start a new one.
+                        stripe.keyQueues.remove(key);
+                        return;
                     }
                 }
+                queuedRunnables.decrementAndGet();
+                recordQueueLatency(System.nanoTime() - queuedRunnable.queuedTimestamp);
 
-                synchronized (threadActiveMap) {
-                    // If the queue is empty, stop this handler, otherwise continue looping.
-                    if (keyQueue.isEmpty()) {
-                        threadActiveMap.put(key, false);
-                        break mainloop;
-                    }
+                try {
+                    queuedRunnable.runnable.run();
+                } catch (Throwable t) {
+                    // The run() method threw, this handler thread is going to terminate because of that. Ensure that
+                    // the remaining runnables of the key are run by a new handler.
+                    startHandler(new Handler(stripe, key, keyQueue));
+                    throw t;
+                } finally {
+                    executedRunnables.incrementAndGet();
                 }
             }
         }
@@ -0,0 +1,146 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.advisoryapps.smack.SmackFuture.InternalSmackFuture;
+import com.advisoryapps.smack.util.ExceptionCallback;
+import com.advisoryapps.smack.util.SuccessCallback;
+
+/**
+ * Helper to share asynchronous requests between concurrent callers. If a request for a key is issued while another
+ * request for the same key is still in flight, then no new request is sent, instead the returned future is completed
+ * with the result of the request in flight. Once a request completed, the next request for its key is sent again.
+ *
+ * @param <K> the type of the key identifying a request.
+ * @param <V> the type of the result.
+ * @param <E> the type of the exception.
+ * @since 4.4.0
+ */
+public class InFlightRequests<K, V, E extends Exception> {
+
+    /**
+     * A request which can be shared between concurrent callers.
+     *
+     * @param <V> the type of the result.
+     * @param <E> the type of the exception.
+     */
+    public interface Request<V, E extends Exception> {
+        /**
+         * Send the request. Invoked only if there is no request for the same key in flight.
+         *
+         * @return a future for the result of the request.
+         */
+        SmackFuture<V, E> send();
+    }
+
+    private final Map<K, InFlightRequest> inFlightRequests = new ConcurrentHashMap<>();
+
+    /**
+     * Get a future for the result of the given request. The request is only sent if there is no request for the same
+     * key in flight.
+     *
+     * @param key the key identifying the request.
+     * @param request the request.
+     * @return a future for the result of the request.
+     */
+    public SmackFuture<V, E> request(final K key, Request<V, E> request) {
+        InternalSmackFuture<V, E> future = new InternalSmackFuture<>();
+
+        final InFlightRequest inFlightRequest = new InFlightRequest();
+        inFlightRequest.addFuture(future);
+        InFlightRequest existingInFlightRequest = inFlightRequests.putIfAbsent(key, inFlightRequest);
+        if (existingInFlightRequest != null) {
+            existingInFlightRequest.addFuture(future);
+            return future;
+        }
+
+        SmackFuture<V, E> requestFuture;
+        try {
+            requestFuture = request.send();
+        } catch (RuntimeException e) {
+            inFlightRequests.remove(key, inFlightRequest);
+            throw e;
+        }
+
+        requestFuture.onSuccess(new SuccessCallback<V>() {
+            @Override
+            public void onSuccess(V result) {
+                inFlightRequests.remove(key, inFlightRequest);
+                inFlightRequest.complete(result, null);
+            }
+        }).onError(new ExceptionCallback<E>() {
+            @Override
+            public void processException(E exception) {
+                inFlightRequests.remove(key, inFlightRequest);
+                inFlightRequest.complete(null, exception);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Get the number of requests currently in flight.
+     *
+     * @return the number of requests in flight.
+     */
+    public int size() {
+        return inFlightRequests.size();
+    }
+
+    private final class InFlightRequest {
+        private final List<InternalSmackFuture<V, E>> futures = new ArrayList<>(2);
+        private boolean completed;
+        private V result;
+        private E exception;
+
+        private void addFuture(InternalSmackFuture<V, E> future) {
+            synchronized (this) {
+                if (!completed) {
+                    futures.add(future);
+                    return;
+                }
+            }
+            // We lost the race against the completion of the request in flight.
+            completeFuture(future, result, exception);
+        }
+
+        private void complete(V result, E exception) {
+            synchronized (this) {
+                this.result = result;
+                this.exception = exception;
+                completed = true;
+            }
+            for (InternalSmackFuture<V, E> future : futures) {
+                completeFuture(future, result, exception);
+            }
+        }
+
+        private void completeFuture(InternalSmackFuture<V, E> future, V result, E exception) {
+            if (exception != null) {
+                future.setException(exception);
+            } else {
+                future.setResult(result);
+            }
+        }
+    }
+}
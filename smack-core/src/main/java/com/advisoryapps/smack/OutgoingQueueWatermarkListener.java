@@ -0,0 +1,48 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack;
+
+/**
+ * Implementors of this interface will be notified when the number of elements waiting in the outgoing queue of a
+ * connection crosses the queue's watermarks. This allows to apply backpressure, e.g. by pausing the production of
+ * stanzas once the high watermark was reached until the low watermark is reached again. Use
+ * {@link XMPPConnection#addOutgoingQueueWatermarkListener(OutgoingQueueWatermarkListener)} to add new listeners.
+ * <p>
+ * The methods are invoked by the thread which caused the watermark to be crossed, which may be Smack's writer thread,
+ * hence implementations must not block.
+ * </p>
+ */
+public interface OutgoingQueueWatermarkListener {
+
+    /**
+     * Notification that the number of queued outgoing elements reached the high watermark.
+     *
+     * @param connection the connection.
+     * @param queuedElements the number of queued elements.
+     */
+    void highWatermarkReached(XMPPConnection connection, int queuedElements);
+
+    /**
+     * Notification that the number of queued outgoing elements dropped to the low watermark, after the high watermark
+     * was reached.
+     *
+     * @param connection the connection.
+     * @param queuedElements the number of queued elements.
+     */
+    void lowWatermarkReached(XMPPConnection connection, int queuedElements);
+
+}
@@ -315,6 +315,19 @@ public abstract class SmackException extends Exception {
         }
     }
 
+    /**
+     * Exception thrown if a stanza could not be scheduled for sending because the outgoing element queue of the
+     * connection is full.
+     */
+    public static class OutgoingQueueFullException extends SmackException {
+
+        private static final long serialVersionUID = 1L;
+
+        public OutgoingQueueFullException(XMPPConnection connection) {
+            super("The outgoing element queue of " + connection + " is full");
+        }
+    }
+
     public static class FeatureNotSupportedException extends SmackException {
 
         /**
@@ -130,19 +130,12 @@ public abstract class SmackFuture<V, E extends Exception> implements Future<V>,
     public final synchronized V get(long timeout, TimeUnit unit)
                     throws InterruptedException, ExecutionException, TimeoutException {
         final long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
-        while (result != null && exception != null) {
+        while (result == null && exception == null && !cancelled) {
             final long waitTimeRemaining = deadline - System.currentTimeMillis();
-            if (waitTimeRemaining > 0) {
-                futureWait(waitTimeRemaining);
+            if (waitTimeRemaining <= 0) {
+                throw new TimeoutException();
             }
-        }
-
-        if (cancelled) {
-            throw new CancellationException();
-        }
-
-        if (result == null || exception == null) {
-            throw new TimeoutException();
+            futureWait(waitTimeRemaining);
         }
 
         return getOrThrowExecutionException();
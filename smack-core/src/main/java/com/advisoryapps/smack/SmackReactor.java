@@ -32,15 +32,20 @@ import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.advisoryapps.smack.util.ByteBufferPool;
+
 /**
  * The SmackReactor for non-blocking I/O.
  * <p>
@@ -48,7 +53,16 @@ import java.util.logging.Logger;
  * <ul>
  * <li>Multiple reactor threads</li>
  * <li>Scheduled actions</li>
+ * <li>Optional independent selector loops</li>
  * </ul>
+ * <p>
+ * By default, all channels are registered with a single shared selector, which is served by multiple reactor threads.
+ * If many channels are handled by the reactor, the contention on the shared selector may become significant. In this
+ * case, independent selector loops can be enabled via {@link #setSelectorLoopCount(int)}. Every independent selector
+ * loop has its own selector and is served by a single reactor thread. A channel is assigned to the least loaded
+ * selector loop when it is registered and stays with this loop. Interest Ops changes and scheduled actions of the
+ * channel are routed to the loop owning the channel.
+ * </p>
  *
  * <pre>
  *
@@ -74,65 +88,101 @@ public class SmackReactor {
 
     private static final int PENDING_SET_INTEREST_OPS_MAX_BATCH_SIZE = 1024;
 
+    private static final int DIRECT_BYTE_BUFFER_SIZE = 4096;
+
+    private static final int MAX_POOLED_DIRECT_BYTE_BUFFERS = 256;
+
+    /**
+     * The upper bounds, in microseconds, of the buckets of the callback duration histogram. The last bucket of the
+     * histogram collects all durations exceeding the last bound.
+     */
+    private static final long[] CALLBACK_DURATION_HISTOGRAM_BOUNDS_MICROS = { 10, 100, 1000, 10000, 100000 };
+
     private static SmackReactor INSTANCE;
 
-    static synchronized SmackReactor getInstance() {
+    /**
+     * Get the default reactor instance, which is used by all NIO based connections.
+     *
+     * @return the default reactor instance.
+     */
+    public static synchronized SmackReactor getInstance() {
         if (INSTANCE == null) {
             INSTANCE = new SmackReactor("DefaultReactor");
         }
         return INSTANCE;
     }
 
-    private final Selector selector;
     private final String reactorName;
 
-    private final List<Reactor> reactorThreads = Collections.synchronizedList(new ArrayList<>());
-
-    private final DelayQueue<ScheduledAction> scheduledActions = new DelayQueue<>();
-
-    private final Lock registrationLock = new ReentrantLock();
-
     /**
-     * The semaphore protecting the handling of the actions. Note that it is
-     * initialized with -1, which basically means that one thread will always do I/O using
-     * select().
+     * The shared selector loop, served by multiple reactor threads. It handles the scheduled actions which are not
+     * bound to a channel, and all channels if there are no independent selector loops.
      */
-    private final Semaphore actionsSemaphore = new Semaphore(-1, false);
+    private final SelectorLoop sharedSelectorLoop;
 
-    private final Queue<SelectionKey> pendingSelectionKeys = new ConcurrentLinkedQueue<>();
+    private final List<SelectorLoop> independentSelectorLoops = new CopyOnWriteArrayList<>();
 
-    private final Queue<SetInterestOps> pendingSetInterestOps = new ConcurrentLinkedQueue<>();
+    private final ByteBufferPool directByteBufferPool = new ByteBufferPool(DIRECT_BYTE_BUFFER_SIZE,
+                    MAX_POOLED_DIRECT_BYTE_BUFFERS, true);
 
     SmackReactor(String reactorName) {
         this.reactorName = reactorName;
 
-        try {
-            selector = Selector.open();
-        }
-        catch (IOException e) {
-            throw new IllegalStateException(e);
-        }
-
+        sharedSelectorLoop = new SelectorLoop(reactorName, false);
         setReactorThreadCount(DEFAULT_REACTOR_THREAD_COUNT);
     }
 
     SelectionKey registerWithSelector(SelectableChannel channel, int ops, ChannelSelectedCallback callback)
             throws ClosedChannelException {
-        SelectionKeyAttachment selectionKeyAttachment = new SelectionKeyAttachment(callback);
+        SelectorLoop selectorLoop = getSelectorLoopFor(channel);
+        return selectorLoop.registerWithSelector(channel, ops, callback);
+    }
 
-        registrationLock.lock();
-        try {
-            selector.wakeup();
-            return channel.register(selector, ops, selectionKeyAttachment);
-        } finally {
-            registrationLock.unlock();
+    /**
+     * Get the selector loop for the given channel. If the channel is already registered with one of the selector loops,
+     * then this loop is returned. Otherwise the least loaded independent selector loop is returned, or the shared one
+     * if there are no independent selector loops.
+     *
+     * @param channel the channel.
+     * @return the selector loop for the channel.
+     */
+    private SelectorLoop getSelectorLoopFor(SelectableChannel channel) {
+        if (channel.keyFor(sharedSelectorLoop.selector) != null) {
+            return sharedSelectorLoop;
+        }
+
+        SelectorLoop leastLoadedSelectorLoop = null;
+        int leastRegisteredChannels = Integer.MAX_VALUE;
+        for (SelectorLoop selectorLoop : independentSelectorLoops) {
+            if (channel.keyFor(selectorLoop.selector) != null) {
+                return selectorLoop;
+            }
+
+            int registeredChannels = selectorLoop.getRegisteredChannelCount();
+            if (registeredChannels < leastRegisteredChannels) {
+                leastLoadedSelectorLoop = selectorLoop;
+                leastRegisteredChannels = registeredChannels;
+            }
+        }
+
+        if (leastLoadedSelectorLoop == null) {
+            return sharedSelectorLoop;
         }
+        return leastLoadedSelectorLoop;
     }
 
     void setInterestOps(SelectionKey selectionKey, int interestOps) {
-        SetInterestOps setInterestOps = new SetInterestOps(selectionKey, interestOps);
-        pendingSetInterestOps.add(setInterestOps);
-        selector.wakeup();
+        SelectionKeyAttachment selectionKeyAttachment = (SelectionKeyAttachment) selectionKey.attachment();
+        selectionKeyAttachment.selectorLoop.setInterestOps(selectionKey, interestOps);
+    }
+
+    /**
+     * Get the pool of direct byte buffers shared by all connections using this reactor.
+     *
+     * @return the pool of direct byte buffers.
+     */
+    ByteBufferPool getDirectByteBufferPool() {
+        return directByteBufferPool;
     }
 
     private static final class SetInterestOps {
@@ -146,199 +196,293 @@ public class SmackReactor {
     }
 
     ScheduledAction schedule(Runnable runnable, long delay, TimeUnit unit) {
-        long releaseTimeEpoch = System.currentTimeMillis() + unit.toMillis(delay);
-        Date releaseTimeDate = new Date(releaseTimeEpoch);
-        ScheduledAction scheduledAction = new ScheduledAction(runnable, releaseTimeDate, this);
-        scheduledActions.add(scheduledAction);
-        selector.wakeup();
-        return scheduledAction;
+        return sharedSelectorLoop.schedule(runnable, delay, unit);
+    }
+
+    /**
+     * Schedule an action which will be performed by the selector loop owning the given selection key.
+     *
+     * @param runnable the action.
+     * @param delay the delay after which the action is performed.
+     * @param unit the unit of the delay.
+     * @param selectionKey the selection key.
+     * @return the scheduled action.
+     */
+    ScheduledAction schedule(Runnable runnable, long delay, TimeUnit unit, SelectionKey selectionKey) {
+        SelectionKeyAttachment selectionKeyAttachment = (SelectionKeyAttachment) selectionKey.attachment();
+        return selectionKeyAttachment.selectorLoop.schedule(runnable, delay, unit);
     }
 
     boolean cancel(ScheduledAction scheduledAction) {
-        return scheduledActions.remove(scheduledAction);
+        if (sharedSelectorLoop.scheduledActions.remove(scheduledAction)) {
+            return true;
+        }
+        for (SelectorLoop selectorLoop : independentSelectorLoops) {
+            if (selectorLoop.scheduledActions.remove(scheduledAction)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private class Reactor extends Thread {
+    public interface ChannelSelectedCallback {
+        void onChannelSelected(SelectableChannel channel, SelectionKey selectionKey);
+    }
 
-        private volatile long shutdownRequestTimestamp = -1;
+    public void setReactorThreadCount(int reactorThreadCount) {
+        if (reactorThreadCount < 2) {
+            throw new IllegalArgumentException("Must have at least two reactor threads, but you requested " + reactorThreadCount);
+        }
 
-        @Override
-        public void run() {
-            try {
-                reactorLoop();
-            } finally {
-                if (shutdownRequestTimestamp > 0) {
-                    long shutDownDelay = System.currentTimeMillis() - shutdownRequestTimestamp;
-                    LOGGER.info(this + " shut down after " + shutDownDelay + "ms");
-                } else {
-                    boolean contained = reactorThreads.remove(this);
-                    assert contained;
-                }
+        sharedSelectorLoop.setReactorThreadCount(reactorThreadCount);
+    }
+
+    /**
+     * Set the number of independent selector loops. Channels which are registered afterwards will be distributed over
+     * the independent selector loops. Since a channel stays with the selector loop it was registered with, the number
+     * of independent selector loops can only be increased.
+     *
+     * @param selectorLoopCount the number of independent selector loops.
+     */
+    public void setSelectorLoopCount(int selectorLoopCount) {
+        synchronized (independentSelectorLoops) {
+            int currentSelectorLoopCount = independentSelectorLoops.size();
+            if (selectorLoopCount < currentSelectorLoopCount) {
+                throw new IllegalArgumentException("The number of independent selector loops can not be decreased from "
+                                + currentSelectorLoopCount + " to " + selectorLoopCount);
+            }
+
+            for (int i = currentSelectorLoopCount; i < selectorLoopCount; i++) {
+                SelectorLoop selectorLoop = new SelectorLoop(reactorName + " Loop #" + i, true);
+                selectorLoop.setReactorThreadCount(1);
+                independentSelectorLoops.add(selectorLoop);
             }
         }
+    }
 
-        private void reactorLoop() {
-            // Loop until reactor shutdown was requested.
-            while (shutdownRequestTimestamp < 0) {
-                handleScheduledActionsOrPerformSelect();
+    public int getSelectorLoopCount() {
+        return independentSelectorLoops.size();
+    }
 
-                handlePendingSelectionKeys();
-            }
+    /**
+     * Get the statistics of the selector loops of this reactor. The first entry is always the shared selector loop.
+     *
+     * @return the statistics of the selector loops.
+     */
+    public List<SelectorLoopStats> getStats() {
+        List<SelectorLoopStats> stats = new ArrayList<>(1 + independentSelectorLoops.size());
+        stats.add(new SelectorLoopStats(sharedSelectorLoop));
+        for (SelectorLoop selectorLoop : independentSelectorLoops) {
+            stats.add(new SelectorLoopStats(selectorLoop));
         }
+        return stats;
+    }
 
-        @SuppressWarnings("LockNotBeforeTry")
-        private void handleScheduledActionsOrPerformSelect() {
-            ScheduledAction dueScheduledAction = null;
+    /**
+     * Shut down all reactor threads of this reactor and close the selectors of its selector loops. The reactor can
+     * not be used afterwards. This is meant for reactors other than the default instance, e.g. in unit tests.
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting for the reactor threads.
+     */
+    void shutdown() throws InterruptedException {
+        sharedSelectorLoop.shutdown();
+        for (SelectorLoop selectorLoop : independentSelectorLoops) {
+            selectorLoop.shutdown();
+        }
+    }
 
-            boolean permitToHandleScheduledActions = actionsSemaphore.tryAcquire();
-            if (permitToHandleScheduledActions) {
-                try {
-                    dueScheduledAction = scheduledActions.poll();
-                } finally {
-                    actionsSemaphore.release();
-                }
-            }
+    private final class SelectorLoop {
 
-            if (dueScheduledAction != null) {
-                dueScheduledAction.action.run();
-                return;
-            }
+        private final String name;
 
-            ScheduledAction nextScheduledAction = scheduledActions.peek();
+        /**
+         * If the loop is independent, then it is served by a single reactor thread, which may set the interest Ops
+         * directly.
+         */
+        private final boolean independent;
 
-            long selectWait;
-            if (nextScheduledAction == null) {
-                // There is no next scheduled action, wait indefinitely in select() or until another thread invokes
-                // selector.wakeup().
-                selectWait = 0;
-            } else {
-                selectWait = nextScheduledAction.getTimeToDueMillis();
-            }
+        private final Selector selector;
 
-            if (selectWait < 0) {
-                // A scheduled action was just released and become ready to execute.
-                return;
-            }
+        private final List<Reactor> reactorThreads = Collections.synchronizedList(new ArrayList<>());
 
-            int newSelectedKeysCount = 0;
-            List<SelectionKey> selectedKeys;
-            synchronized (selector) {
-                // Before we call select, we handle the pending the interest Ops. This will not block since no other
-                // thread is currently in select() at this time.
-                // Note: This was put deliberately before the registration lock. It may cause more synchronization but
-                // allows for more parallelism.
-                // Hopefully that assumption is right.
-                int myHandledPendingSetInterestOps = 0;
-                for (SetInterestOps setInterestOps; (setInterestOps = pendingSetInterestOps.poll()) != null;) {
-                    setInterestOpsCancelledKeySafe(setInterestOps.selectionKey, setInterestOps.interestOps);
-
-                    if (myHandledPendingSetInterestOps++ >= PENDING_SET_INTEREST_OPS_MAX_BATCH_SIZE) {
-                        // This thread has handled enough "set pending interest ops" requests. Wakeup another one to
-                        // handle the remaining (if any).
-                        selector.wakeup();
-                        break;
-                    }
-                }
+        private final DelayQueue<ScheduledAction> scheduledActions = new DelayQueue<>();
 
-                // Ensure that a wakeup() in registerWithSelector() gives the corresponding
-                // register() in the same method the chance to actually register the channel. In
-                // other words: This construct ensures that there is never another select()
-                // between a corresponding wakeup() and register() calls.
-                // See also https://stackoverflow.com/a/1112809/194894
-                registrationLock.lock();
-                registrationLock.unlock();
+        private final Lock registrationLock = new ReentrantLock();
 
-                try {
-                    newSelectedKeysCount = selector.select(selectWait);
-                } catch (IOException e) {
-                    LOGGER.log(Level.SEVERE, "IOException while using select()", e);
-                    return;
-                }
+        /**
+         * The semaphore protecting the handling of the actions. Note that it is
+         * initialized with -1 for the shared loop, which basically means that one thread will always do I/O using
+         * select(). The single thread of an independent loop handles the actions as well as the I/O.
+         */
+        private final Semaphore actionsSemaphore;
 
-                if (newSelectedKeysCount == 0) {
-                    return;
-                }
+        private final Queue<SelectionKey> pendingSelectionKeys = new ConcurrentLinkedQueue<>();
 
-                // Copy the selected-key set over to selectedKeys, remove the keys from the
-                // selected key set and loose interest of the key OPs for the time being.
-                // Note that we perform this operation in two steps in order to maximize the
-                // timespan setRacing() is set.
-                Set<SelectionKey> selectedKeySet = selector.selectedKeys();
-                for (SelectionKey selectionKey : selectedKeySet) {
-                    SelectionKeyAttachment selectionKeyAttachment = (SelectionKeyAttachment) selectionKey.attachment();
-                    selectionKeyAttachment.setRacing();
-                }
-                for (SelectionKey selectionKey : selectedKeySet) {
-                    setInterestOpsCancelledKeySafe(selectionKey, 0);
-                }
+        private final Queue<SetInterestOps> pendingSetInterestOps = new ConcurrentLinkedQueue<>();
 
-                selectedKeys = new ArrayList<>(selectedKeySet.size());
-                selectedKeys.addAll(selectedKeySet);
-                selectedKeySet.clear();
-            }
+        // TODO: Use LongAdder once Smack's minimum Android API level is 24 or higher.
+        private final AtomicLong selectCount = new AtomicLong();
+        private final AtomicLong selectedKeysCount = new AtomicLong();
+        private final AtomicLong wakeupCount = new AtomicLong();
+        private final AtomicLong handledScheduledActionsCount = new AtomicLong();
+        private final AtomicLong directSetInterestOpsCount = new AtomicLong();
+        private final AtomicLongArray callbackDurationHistogram = new AtomicLongArray(
+                        CALLBACK_DURATION_HISTOGRAM_BOUNDS_MICROS.length + 1);
 
-            int selectedKeysCount = selectedKeys.size();
-            int currentReactorThreadCount = reactorThreads.size();
-            int myKeyCount;
-            if (selectedKeysCount > currentReactorThreadCount) {
-                myKeyCount = selectedKeysCount / currentReactorThreadCount;
-            } else {
-                myKeyCount = selectedKeysCount;
-            }
+        private SelectorLoop(String name, boolean independent) {
+            this.name = name;
+            this.independent = independent;
 
-            final Level reactorSelectStatsLogLevel = Level.FINE;
-            if (LOGGER.isLoggable(reactorSelectStatsLogLevel)) {
-                LOGGER.log(reactorSelectStatsLogLevel,
-                                "New selected key count: " + newSelectedKeysCount
-                                + ". Total selected key count " + selectedKeysCount
-                                + ". My key count: " + myKeyCount
-                                + ". Current reactor thread count: " + currentReactorThreadCount);
+            try {
+                selector = Selector.open();
             }
-
-            Collection<SelectionKey> mySelectedKeys = new ArrayList<>(myKeyCount);
-            Iterator<SelectionKey> it = selectedKeys.iterator();
-            for (int i = 0; i < myKeyCount; i++) {
-                SelectionKey selectionKey = it.next();
-                mySelectedKeys.add(selectionKey);
+            catch (IOException e) {
+                throw new IllegalStateException(e);
             }
-            while (it.hasNext()) {
-                // Drain to pendingSelectionKeys.
-                SelectionKey selectionKey = it.next();
-                pendingSelectionKeys.add(selectionKey);
+
+            actionsSemaphore = new Semaphore(independent ? 0 : -1, false);
+        }
+
+        private void wakeup() {
+            wakeupCount.incrementAndGet();
+            selector.wakeup();
+        }
+
+        private int getRegisteredChannelCount() {
+            // Note that the key set of a selector is not thread-safe, but we only need an estimate here.
+            return selector.keys().size();
+        }
+
+        private boolean isReactorThread() {
+            Thread currentThread = Thread.currentThread();
+            return currentThread instanceof Reactor && ((Reactor) currentThread).getSelectorLoop() == this;
+        }
+
+        private SelectionKey registerWithSelector(SelectableChannel channel, int ops, ChannelSelectedCallback callback)
+                throws ClosedChannelException {
+            SelectionKeyAttachment selectionKeyAttachment = new SelectionKeyAttachment(callback, this);
+
+            registrationLock.lock();
+            try {
+                wakeup();
+                return channel.register(selector, ops, selectionKeyAttachment);
+            } finally {
+                registrationLock.unlock();
             }
+        }
 
-            if (selectedKeysCount - myKeyCount > 0) {
-                // There where pending selection keys: Wakeup another reactor thread to handle them.
-                selector.wakeup();
+        private void setInterestOps(SelectionKey selectionKey, int interestOps) {
+            if (independent && isReactorThread()) {
+                // The single reactor thread of this independent loop is the one calling us, hence it is not blocked in
+                // select() and we can set the interest Ops directly, without the need to wakeup the selector.
+                directSetInterestOpsCount.incrementAndGet();
+                setInterestOpsCancelledKeySafe(selectionKey, interestOps);
+                return;
             }
 
-            handleSelectedKeys(mySelectedKeys);
+            SetInterestOps setInterestOps = new SetInterestOps(selectionKey, interestOps);
+            pendingSetInterestOps.add(setInterestOps);
+            wakeup();
         }
 
-        private void handlePendingSelectionKeys() {
-            final int pendingSelectionKeysSize = pendingSelectionKeys.size();
-            if (pendingSelectionKeysSize == 0) {
-                return;
+        private ScheduledAction schedule(Runnable runnable, long delay, TimeUnit unit) {
+            long releaseTimeEpoch = System.currentTimeMillis() + unit.toMillis(delay);
+            Date releaseTimeDate = new Date(releaseTimeEpoch);
+            ScheduledAction scheduledAction = new ScheduledAction(runnable, releaseTimeDate, SmackReactor.this);
+            scheduledActions.add(scheduledAction);
+            // The single reactor thread of an independent loop will consider the new action before its next select(),
+            // hence there is no need to wakeup the selector if it is the one scheduling the action.
+            if (!independent || !isReactorThread()) {
+                wakeup();
             }
+            return scheduledAction;
+        }
 
-            int currentReactorThreadCount = reactorThreads.size();
-            int myKeyCount = pendingSelectionKeysSize / currentReactorThreadCount;
-            Collection<SelectionKey> selectedKeys = new ArrayList<>(myKeyCount);
-            for (int i = 0; i < myKeyCount; i++) {
-                SelectionKey selectionKey = pendingSelectionKeys.poll();
-                if (selectionKey == null) {
-                    // We lost a race and can abort here since the pendingSelectionKeys queue is empty.
-                    break;
+        private void setReactorThreadCount(int reactorThreadCount) {
+            synchronized (reactorThreads) {
+                int deltaThreads = reactorThreadCount - reactorThreads.size();
+                if (deltaThreads > 0) {
+                    // Start new reactor thread. Note that we start the threads before we increase the permits of the
+                    // actionsSemaphore.
+                    for (int i = 0; i < deltaThreads; i++) {
+                        Reactor reactor = new Reactor();
+                        reactor.setDaemon(true);
+                        reactor.setName("Smack " + name + " Thread #" + i);
+                        reactorThreads.add(reactor);
+                        reactor.start();
+                    }
+
+                    actionsSemaphore.release(deltaThreads);
+                } else {
+                    // Stop existing reactor threads. First we change the sign of deltaThreads, then we decrease the
+                    // permits of the actionsSemaphore *before* we signal the selected reactor threads that they should
+                    // shut down.
+                    deltaThreads -= deltaThreads;
+
+                    for (int i = deltaThreads - 1; i > 0; i--) {
+                        // Note that this could potentially block forever, starving on the unfair semaphore.
+                        actionsSemaphore.acquireUninterruptibly();
+                    }
+
+                    for (int i = deltaThreads - 1; i > 0; i--) {
+                        Reactor reactor = reactorThreads.remove(i);
+                        reactor.requestShutdown();
+                    }
+
+                    wakeup();
+                }
+            }
+        }
+
+        private void shutdown() throws InterruptedException {
+            List<Reactor> reactors;
+            synchronized (reactorThreads) {
+                reactors = new ArrayList<>(reactorThreads);
+                reactorThreads.clear();
+            }
+            for (Reactor reactor : reactors) {
+                reactor.requestShutdown();
+            }
+            for (Reactor reactor : reactors) {
+                // Only one reactor thread of the shared loop is in select() at a time, the others are waiting for the
+                // selector's monitor. Hence keep waking up the selector until every thread noticed the shutdown request.
+                while (reactor.isAlive()) {
+                    wakeup();
+                    reactor.join(10);
                 }
-                selectedKeys.add(selectionKey);
             }
 
-            if (!pendingSelectionKeys.isEmpty()) {
-                // There are more pending selection keys, wakeup a thread blocked in select() to handle them.
-                selector.wakeup();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not close selector of " + name, e);
+            }
+        }
+
+        private void recordCallbackDuration(long durationNanos) {
+            long durationMicros = TimeUnit.NANOSECONDS.toMicros(durationNanos);
+            int bucket = 0;
+            while (bucket < CALLBACK_DURATION_HISTOGRAM_BOUNDS_MICROS.length
+                            && durationMicros >= CALLBACK_DURATION_HISTOGRAM_BOUNDS_MICROS[bucket]) {
+                bucket++;
             }
+            callbackDurationHistogram.incrementAndGet(bucket);
+        }
 
-            handleSelectedKeys(selectedKeys);
+        private void handleSelectedKeys(Collection<SelectionKey> selectedKeys) {
+            for (SelectionKey selectionKey : selectedKeys) {
+                SelectableChannel channel = selectionKey.channel();
+                SelectionKeyAttachment selectionKeyAttachment = (SelectionKeyAttachment) selectionKey.attachment();
+                ChannelSelectedCallback channelSelectedCallback = selectionKeyAttachment.weaeklyReferencedChannelSelectedCallback.get();
+                if (channelSelectedCallback != null) {
+                    long callbackStart = System.nanoTime();
+                    channelSelectedCallback.onChannelSelected(channel, selectionKey);
+                    recordCallbackDuration(System.nanoTime() - callbackStart);
+                }
+                else {
+                    selectionKey.cancel();
+                }
+            }
         }
 
         private void setInterestOpsCancelledKeySafe(SelectionKey selectionKey, int interestOps) {
@@ -353,74 +497,270 @@ public class SmackReactor {
             }
         }
 
-        void requestShutdown() {
-            shutdownRequestTimestamp = System.currentTimeMillis();
-        }
-    }
+        private class Reactor extends Thread {
+
+            private volatile long shutdownRequestTimestamp = -1;
 
-    private static void handleSelectedKeys(Collection<SelectionKey> selectedKeys) {
-        for (SelectionKey selectionKey : selectedKeys) {
-            SelectableChannel channel = selectionKey.channel();
-            SelectionKeyAttachment selectionKeyAttachment = (SelectionKeyAttachment) selectionKey.attachment();
-            ChannelSelectedCallback channelSelectedCallback = selectionKeyAttachment.weaeklyReferencedChannelSelectedCallback.get();
-            if (channelSelectedCallback != null) {
-                channelSelectedCallback.onChannelSelected(channel, selectionKey);
+            private SelectorLoop getSelectorLoop() {
+                return SelectorLoop.this;
             }
-            else {
-                selectionKey.cancel();
+
+            @Override
+            public void run() {
+                try {
+                    reactorLoop();
+                } finally {
+                    if (shutdownRequestTimestamp > 0) {
+                        long shutDownDelay = System.currentTimeMillis() - shutdownRequestTimestamp;
+                        LOGGER.info(this + " shut down after " + shutDownDelay + "ms");
+                    } else {
+                        boolean contained = reactorThreads.remove(this);
+                        assert contained;
+                    }
+                }
             }
-        }
-    }
 
-    public interface ChannelSelectedCallback {
-        void onChannelSelected(SelectableChannel channel, SelectionKey selectionKey);
-    }
+            private void reactorLoop() {
+                // Loop until reactor shutdown was requested.
+                while (shutdownRequestTimestamp < 0) {
+                    handleScheduledActionsOrPerformSelect();
 
-    public void setReactorThreadCount(int reactorThreadCount) {
-        if (reactorThreadCount < 2) {
-            throw new IllegalArgumentException("Must have at least two reactor threads, but you requested " + reactorThreadCount);
-        }
+                    handlePendingSelectionKeys();
+                }
+            }
+
+            @SuppressWarnings("LockNotBeforeTry")
+            private void handleScheduledActionsOrPerformSelect() {
+                ScheduledAction dueScheduledAction = null;
+
+                boolean permitToHandleScheduledActions = actionsSemaphore.tryAcquire();
+                if (permitToHandleScheduledActions) {
+                    try {
+                        dueScheduledAction = scheduledActions.poll();
+                    } finally {
+                        actionsSemaphore.release();
+                    }
+                }
+
+                if (dueScheduledAction != null) {
+                    handledScheduledActionsCount.incrementAndGet();
+                    dueScheduledAction.action.run();
+                    return;
+                }
+
+                ScheduledAction nextScheduledAction = scheduledActions.peek();
+
+                long selectWait;
+                if (nextScheduledAction == null) {
+                    // There is no next scheduled action, wait indefinitely in select() or until another thread invokes
+                    // selector.wakeup().
+                    selectWait = 0;
+                } else {
+                    selectWait = nextScheduledAction.getTimeToDueMillis();
+                }
+
+                if (selectWait < 0) {
+                    // A scheduled action was just released and become ready to execute.
+                    return;
+                }
+
+                int newSelectedKeysCount = 0;
+                List<SelectionKey> selectedKeys;
+                synchronized (selector) {
+                    // Before we call select, we handle the pending the interest Ops. This will not block since no other
+                    // thread is currently in select() at this time.
+                    // Note: This was put deliberately before the registration lock. It may cause more synchronization
+                    // but allows for more parallelism.
+                    // Hopefully that assumption is right.
+                    int myHandledPendingSetInterestOps = 0;
+                    for (SetInterestOps setInterestOps; (setInterestOps = pendingSetInterestOps.poll()) != null;) {
+                        setInterestOpsCancelledKeySafe(setInterestOps.selectionKey, setInterestOps.interestOps);
+
+                        if (myHandledPendingSetInterestOps++ >= PENDING_SET_INTEREST_OPS_MAX_BATCH_SIZE) {
+                            // This thread has handled enough "set pending interest ops" requests. Wakeup another one to
+                            // handle the remaining (if any).
+                            wakeup();
+                            break;
+                        }
+                    }
+
+                    // Ensure that a wakeup() in registerWithSelector() gives the corresponding
+                    // register() in the same method the chance to actually register the channel. In
+                    // other words: This construct ensures that there is never another select()
+                    // between a corresponding wakeup() and register() calls.
+                    // See also https://stackoverflow.com/a/1112809/194894
+                    registrationLock.lock();
+                    registrationLock.unlock();
+
+                    try {
+                        selectCount.incrementAndGet();
+                        newSelectedKeysCount = selector.select(selectWait);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.SEVERE, "IOException while using select()", e);
+                        return;
+                    }
+
+                    if (newSelectedKeysCount == 0) {
+                        return;
+                    }
+
+                    selectedKeysCount.addAndGet(newSelectedKeysCount);
+
+                    // Copy the selected-key set over to selectedKeys, remove the keys from the
+                    // selected key set and loose interest of the key OPs for the time being.
+                    // Note that we perform this operation in two steps in order to maximize the
+                    // timespan setRacing() is set.
+                    Set<SelectionKey> selectedKeySet = selector.selectedKeys();
+                    for (SelectionKey selectionKey : selectedKeySet) {
+                        SelectionKeyAttachment selectionKeyAttachment = (SelectionKeyAttachment) selectionKey.attachment();
+                        selectionKeyAttachment.setRacing();
+                    }
+                    for (SelectionKey selectionKey : selectedKeySet) {
+                        setInterestOpsCancelledKeySafe(selectionKey, 0);
+                    }
+
+                    selectedKeys = new ArrayList<>(selectedKeySet.size());
+                    selectedKeys.addAll(selectedKeySet);
+                    selectedKeySet.clear();
+                }
+
+                int selectedKeysCount = selectedKeys.size();
+                int currentReactorThreadCount = reactorThreads.size();
+                int myKeyCount;
+                if (selectedKeysCount > currentReactorThreadCount) {
+                    myKeyCount = selectedKeysCount / currentReactorThreadCount;
+                } else {
+                    myKeyCount = selectedKeysCount;
+                }
 
-        synchronized (reactorThreads) {
-            int deltaThreads = reactorThreadCount - reactorThreads.size();
-            if (deltaThreads > 0) {
-                // Start new reactor thread. Note that we start the threads before we increase the permits of the
-                // actionsSemaphore.
-                for (int i = 0; i < deltaThreads; i++) {
-                    Reactor reactor = new Reactor();
-                    reactor.setDaemon(true);
-                    reactor.setName("Smack " + reactorName + " Thread #" + i);
-                    reactorThreads.add(reactor);
-                    reactor.start();
+                final Level reactorSelectStatsLogLevel = Level.FINE;
+                if (LOGGER.isLoggable(reactorSelectStatsLogLevel)) {
+                    LOGGER.log(reactorSelectStatsLogLevel,
+                                    "New selected key count: " + newSelectedKeysCount
+                                    + ". Total selected key count " + selectedKeysCount
+                                    + ". My key count: " + myKeyCount
+                                    + ". Current reactor thread count: " + currentReactorThreadCount);
                 }
 
-                actionsSemaphore.release(deltaThreads);
-            } else {
-                // Stop existing reactor threads. First we change the sign of deltaThreads, then we decrease the permits
-                // of the actionsSemaphore *before* we signal the selected reactor threads that they should shut down.
-                deltaThreads -= deltaThreads;
+                Collection<SelectionKey> mySelectedKeys = new ArrayList<>(myKeyCount);
+                Iterator<SelectionKey> it = selectedKeys.iterator();
+                for (int i = 0; i < myKeyCount; i++) {
+                    SelectionKey selectionKey = it.next();
+                    mySelectedKeys.add(selectionKey);
+                }
+                while (it.hasNext()) {
+                    // Drain to pendingSelectionKeys.
+                    SelectionKey selectionKey = it.next();
+                    pendingSelectionKeys.add(selectionKey);
+                }
 
-                for (int i = deltaThreads - 1; i > 0; i--) {
-                    // Note that this could potentially block forever, starving on the unfair semaphore.
-                    actionsSemaphore.acquireUninterruptibly();
+                if (selectedKeysCount - myKeyCount > 0) {
+                    // There where pending selection keys: Wakeup another reactor thread to handle them.
+                    wakeup();
                 }
 
-                for (int i = deltaThreads - 1; i > 0; i--) {
-                    Reactor reactor = reactorThreads.remove(i);
-                    reactor.requestShutdown();
+                handleSelectedKeys(mySelectedKeys);
+            }
+
+            private void handlePendingSelectionKeys() {
+                final int pendingSelectionKeysSize = pendingSelectionKeys.size();
+                if (pendingSelectionKeysSize == 0) {
+                    return;
                 }
 
-                selector.wakeup();
+                int currentReactorThreadCount = reactorThreads.size();
+                int myKeyCount = pendingSelectionKeysSize / currentReactorThreadCount;
+                Collection<SelectionKey> selectedKeys = new ArrayList<>(myKeyCount);
+                for (int i = 0; i < myKeyCount; i++) {
+                    SelectionKey selectionKey = pendingSelectionKeys.poll();
+                    if (selectionKey == null) {
+                        // We lost a race and can abort here since the pendingSelectionKeys queue is empty.
+                        break;
+                    }
+                    selectedKeys.add(selectionKey);
+                }
+
+                if (!pendingSelectionKeys.isEmpty()) {
+                    // There are more pending selection keys, wakeup a thread blocked in select() to handle them.
+                    wakeup();
+                }
+
+                handleSelectedKeys(selectedKeys);
             }
+
+            void requestShutdown() {
+                shutdownRequestTimestamp = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Statistics of a selector loop of the reactor.
+     */
+    public static final class SelectorLoopStats {
+        public final String name;
+        public final boolean independent;
+        public final int reactorThreadCount;
+        public final int registeredChannels;
+        public final long selectCount;
+        public final long selectedKeysCount;
+        public final long wakeupCount;
+        public final long handledScheduledActionsCount;
+        public final long directSetInterestOpsCount;
+
+        /**
+         * The upper bounds, in microseconds, of the callback duration histogram buckets.
+         */
+        public final List<Long> callbackDurationHistogramBoundsMicros;
+
+        /**
+         * The callback duration histogram. Contains one more bucket than there are bounds, the last bucket counts the
+         * callbacks which exceeded the last bound.
+         */
+        public final List<Long> callbackDurationHistogram;
+
+        private SelectorLoopStats(SelectorLoop selectorLoop) {
+            name = selectorLoop.name;
+            independent = selectorLoop.independent;
+            reactorThreadCount = selectorLoop.reactorThreads.size();
+            registeredChannels = selectorLoop.getRegisteredChannelCount();
+            selectCount = selectorLoop.selectCount.get();
+            selectedKeysCount = selectorLoop.selectedKeysCount.get();
+            wakeupCount = selectorLoop.wakeupCount.get();
+            handledScheduledActionsCount = selectorLoop.handledScheduledActionsCount.get();
+            directSetInterestOpsCount = selectorLoop.directSetInterestOpsCount.get();
+
+            List<Long> bounds = new ArrayList<>(CALLBACK_DURATION_HISTOGRAM_BOUNDS_MICROS.length);
+            for (long bound : CALLBACK_DURATION_HISTOGRAM_BOUNDS_MICROS) {
+                bounds.add(bound);
+            }
+            callbackDurationHistogramBoundsMicros = Collections.unmodifiableList(bounds);
+
+            List<Long> histogram = new ArrayList<>(selectorLoop.callbackDurationHistogram.length());
+            for (int i = 0; i < selectorLoop.callbackDurationHistogram.length(); i++) {
+                histogram.add(selectorLoop.callbackDurationHistogram.get(i));
+            }
+            callbackDurationHistogram = Collections.unmodifiableList(histogram);
+        }
+
+        @Override
+        public String toString() {
+            return name + " (independent: " + independent + ", threads: " + reactorThreadCount + ", channels: "
+                            + registeredChannels + ", selects: " + selectCount + ", selected-keys: " + selectedKeysCount
+                            + ", wakeups: " + wakeupCount + ", scheduled-actions: " + handledScheduledActionsCount
+                            + ", direct-set-interest-ops: " + directSetInterestOpsCount + ", callback-durations: "
+                            + callbackDurationHistogram + ')';
         }
     }
 
     public static final class SelectionKeyAttachment {
         private final WeakReference<ChannelSelectedCallback> weaeklyReferencedChannelSelectedCallback;
+        private final SelectorLoop selectorLoop;
         private final AtomicBoolean reactorThreadRacing = new AtomicBoolean();
 
-        private SelectionKeyAttachment(ChannelSelectedCallback channelSelectedCallback) {
+        private SelectionKeyAttachment(ChannelSelectedCallback channelSelectedCallback, SelectorLoop selectorLoop) {
             this.weaeklyReferencedChannelSelectedCallback = new WeakReference<>(channelSelectedCallback);
+            this.selectorLoop = selectorLoop;
         }
 
         private void setRacing() {
@@ -0,0 +1,513 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.advisoryapps.smack.filter.AbstractListFilter;
+import com.advisoryapps.smack.filter.AndFilter;
+import com.advisoryapps.smack.filter.FlexibleStanzaTypeFilter;
+import com.advisoryapps.smack.filter.FromMatchesFilter;
+import com.advisoryapps.smack.filter.IQReplyFilter;
+import com.advisoryapps.smack.filter.StanzaExtensionFilter;
+import com.advisoryapps.smack.filter.StanzaFilter;
+import com.advisoryapps.smack.filter.StanzaIdFilter;
+import com.advisoryapps.smack.filter.StanzaTypeFilter;
+import com.advisoryapps.smack.packet.ExtensionElement;
+import com.advisoryapps.smack.packet.Stanza;
+
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.Jid;
+
+/**
+ * A registry of stanza listeners and their filters, optimized for looking up the listeners matching an incoming
+ * stanza.
+ * <p>
+ * The registry is copy-on-write: every modification creates a new immutable snapshot, so that looking up the
+ * matching listeners is lock free. Listeners are indexed by a necessary condition derived from their filter, which is
+ * either the stanza ID of a {@link StanzaIdFilter} or {@link IQReplyFilter}, the bare JID of a
+ * {@link FromMatchesFilter}, the namespace of a {@link StanzaExtensionFilter} or the stanza type of a
+ * {@link StanzaTypeFilter} or {@link FlexibleStanzaTypeFilter}. {@link AndFilter}s are searched for the most selective
+ * of those conditions. Only listeners whose index key is satisfied by the stanza have their filter evaluated.
+ * Listeners with filters that can not be indexed are evaluated for every stanza.
+ * </p>
+ * <p>
+ * Listeners requiring a stanza ID are not part of the snapshot, as there are usually many of them, e.g. one for every
+ * outstanding {@link XMPPConnection#sendIqRequestAsync(com.advisoryapps.smack.packet.IQ)}, and they come and go at a
+ * high rate. They are kept in concurrent maps instead.
+ * </p>
+ * <p>
+ * Note that the filter of a listener is always evaluated before the listener is reported as matching, the index is
+ * only used to avoid evaluating filters which can not match. Since filters of an {@link AndFilter} can only be added,
+ * but not removed, a condition derived at registration time remains a necessary condition.
+ * </p>
+ */
+final class StanzaListenerRegistry {
+
+    /**
+     * Callback for the listeners matching a stanza. The stanza is passed to the callback, so that a single instance
+     * can be reused for all stanzas.
+     */
+    interface MatchingListenerCallback {
+        void onMatchingListener(StanzaListener stanzaListener, Stanza stanza);
+    }
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    /**
+     * Listeners whose filter requires a particular stanza ID, keyed by that ID. Those are typically short lived, e.g.
+     * waiting for the response of an IQ request, and a lot of them may exist at the same time. Hence they are not part
+     * of the copy-on-write snapshot but kept in concurrent maps, which makes adding and removing them O(1). If there is
+     * already a listener for the same stanza ID, then the listener is added to the snapshot instead.
+     */
+    private final ConcurrentMap<String, Entry> byStanzaId = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<StanzaListener, Entry> stanzaIdKeyed = new ConcurrentHashMap<>();
+
+    /**
+     * Sequence number used to keep track of the registration order.
+     */
+    private long nextSequenceNumber;
+
+    /**
+     * Add the given listener with the given filter. If the listener was already registered, then its filter is
+     * replaced while the listener keeps its position in the registration order.
+     *
+     * @param stanzaListener the stanza listener.
+     * @param stanzaFilter the stanza filter, may be <code>null</code> to match all stanzas.
+     */
+    synchronized void add(StanzaListener stanzaListener, StanzaFilter stanzaFilter) {
+        long sequenceNumber;
+        Entry existing = get(stanzaListener);
+        if (existing != null) {
+            sequenceNumber = existing.sequenceNumber;
+            removeEntry(existing);
+        } else {
+            sequenceNumber = nextSequenceNumber++;
+        }
+
+        Entry entry = new Entry(stanzaListener, stanzaFilter, sequenceNumber);
+        IndexKey indexKey = entry.indexKey;
+        if (indexKey.kind == IndexKind.stanzaId && byStanzaId.putIfAbsent((String) indexKey.key, entry) == null) {
+            stanzaIdKeyed.put(stanzaListener, entry);
+            return;
+        }
+
+        Snapshot.Builder builder = snapshot.asBuilder();
+        builder.all.put(stanzaListener, entry);
+        builder.addToIndex(entry);
+        snapshot = builder.build();
+    }
+
+    synchronized boolean remove(StanzaListener stanzaListener) {
+        Entry existing = get(stanzaListener);
+        if (existing == null) {
+            return false;
+        }
+        removeEntry(existing);
+        return true;
+    }
+
+    boolean contains(StanzaListener stanzaListener) {
+        return stanzaIdKeyed.containsKey(stanzaListener) || snapshot.all.containsKey(stanzaListener);
+    }
+
+    int size() {
+        return stanzaIdKeyed.size() + snapshot.all.size();
+    }
+
+    private Entry get(StanzaListener stanzaListener) {
+        Entry entry = stanzaIdKeyed.get(stanzaListener);
+        if (entry != null) {
+            return entry;
+        }
+        return snapshot.all.get(stanzaListener);
+    }
+
+    private void removeEntry(Entry entry) {
+        if (entry.indexKey.kind == IndexKind.stanzaId && byStanzaId.remove((String) entry.indexKey.key, entry)) {
+            stanzaIdKeyed.remove(entry.stanzaListener);
+            return;
+        }
+
+        Snapshot.Builder builder = snapshot.asBuilder();
+        builder.all.remove(entry.stanzaListener);
+        builder.removeFromIndex(entry);
+        snapshot = builder.build();
+    }
+
+    /**
+     * Invoke the callback for every listener whose filter matches the given stanza. The listeners are not necessarily
+     * reported in their registration order, use {@link #getMatchingListeners(Stanza)} if the order is significant.
+     * Apart from the copy of the stanza's extensions, which is only made if there are listeners indexed by namespace,
+     * the lookup does not allocate.
+     *
+     * @param stanza the stanza.
+     * @param callback the callback invoked for every matching listener.
+     */
+    void forEachMatching(Stanza stanza, MatchingListenerCallback callback) {
+        forEachMatching(snapshot, stanza, callback, null);
+    }
+
+    /**
+     * Get the listeners whose filter matches the given stanza, in their registration order. Nothing is allocated if
+     * no listener matches.
+     *
+     * @param stanza the stanza.
+     * @return a list of the matching listeners.
+     */
+    List<StanzaListener> getMatchingListeners(Stanza stanza) {
+        List<Entry> matchingEntries = forEachMatching(snapshot, stanza, null, null);
+        if (matchingEntries == null) {
+            return Collections.emptyList();
+        }
+
+        final int matchingEntriesCount = matchingEntries.size();
+        if (matchingEntriesCount == 1) {
+            return Collections.singletonList(matchingEntries.get(0).stanzaListener);
+        }
+        Collections.sort(matchingEntries);
+        List<StanzaListener> matchingListeners = new ArrayList<>(matchingEntriesCount);
+        for (Entry entry : matchingEntries) {
+            matchingListeners.add(entry.stanzaListener);
+        }
+        return matchingListeners;
+    }
+
+    /**
+     * Report every entry matching the given stanza either to the callback or to the list of matching entries. If no
+     * callback is given, then the list is created once the first matching entry is found.
+     *
+     * @return the list of matching entries, or <code>null</code> if a callback was given or no entry matched.
+     */
+    private List<Entry> forEachMatching(Snapshot snapshot, Stanza stanza, MatchingListenerCallback callback,
+                    List<Entry> matchingEntries) {
+        if (!byStanzaId.isEmpty()) {
+            String stanzaId = stanza.getStanzaId();
+            if (stanzaId != null) {
+                Entry entry = byStanzaId.get(stanzaId);
+                if (entry != null) {
+                    matchingEntries = invokeMatching(entry, stanza, callback, matchingEntries);
+                }
+            }
+        }
+
+        if (snapshot.all.isEmpty()) {
+            return matchingEntries;
+        }
+
+        if (!snapshot.byFrom.isEmpty()) {
+            Jid from = stanza.getFrom();
+            if (from != null) {
+                matchingEntries = invokeMatching(snapshot.byFrom.get(from.asBareJid()), stanza, callback,
+                                matchingEntries);
+            }
+        }
+
+        if (!snapshot.byNamespace.isEmpty()) {
+            List<ExtensionElement> extensions = stanza.getExtensions();
+            final int extensionCount = extensions.size();
+            outerloop:
+            for (int i = 0; i < extensionCount; i++) {
+                String namespace = extensions.get(i).getNamespace();
+                // Multiple extensions may share the same namespace, make sure that every namespace bucket is only
+                // considered once.
+                for (int j = 0; j < i; j++) {
+                    if (namespace.equals(extensions.get(j).getNamespace())) {
+                        continue outerloop;
+                    }
+                }
+                matchingEntries = invokeMatching(snapshot.byNamespace.get(namespace), stanza, callback,
+                                matchingEntries);
+            }
+        }
+
+        if (!snapshot.byType.isEmpty()) {
+            for (Class<?> clazz = stanza.getClass(); clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+                matchingEntries = invokeMatching(snapshot.byType.get(clazz), stanza, callback, matchingEntries);
+            }
+        }
+
+        return invokeMatching(snapshot.unindexed, stanza, callback, matchingEntries);
+    }
+
+    private static List<Entry> invokeMatching(Entry[] entries, Stanza stanza, MatchingListenerCallback callback,
+                    List<Entry> matchingEntries) {
+        if (entries == null) {
+            return matchingEntries;
+        }
+        for (Entry entry : entries) {
+            matchingEntries = invokeMatching(entry, stanza, callback, matchingEntries);
+        }
+        return matchingEntries;
+    }
+
+    private static List<Entry> invokeMatching(Entry entry, Stanza stanza, MatchingListenerCallback callback,
+                    List<Entry> matchingEntries) {
+        if (!entry.filterMatches(stanza)) {
+            return matchingEntries;
+        }
+        if (callback != null) {
+            callback.onMatchingListener(entry.stanzaListener, stanza);
+            return null;
+        }
+        if (matchingEntries == null) {
+            matchingEntries = new ArrayList<>();
+        }
+        matchingEntries.add(entry);
+        return matchingEntries;
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        private final StanzaListener stanzaListener;
+        private final StanzaFilter stanzaFilter;
+        private final long sequenceNumber;
+        private final IndexKey indexKey;
+
+        private Entry(StanzaListener stanzaListener, StanzaFilter stanzaFilter, long sequenceNumber) {
+            this.stanzaListener = stanzaListener;
+            this.stanzaFilter = stanzaFilter;
+            this.sequenceNumber = sequenceNumber;
+            this.indexKey = IndexKey.from(stanzaFilter);
+        }
+
+        private boolean filterMatches(Stanza stanza) {
+            return stanzaFilter == null || stanzaFilter.accept(stanza);
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Long.compare(sequenceNumber, other.sequenceNumber);
+        }
+    }
+
+    /**
+     * Get the stanza ID a stanza must have in order to be accepted by the given filter.
+     *
+     * @param stanzaFilter the stanza filter.
+     * @return the required stanza ID, or <code>null</code> if it can not be determined.
+     */
+    static String getRequiredStanzaId(StanzaFilter stanzaFilter) {
+        if (stanzaFilter instanceof IQReplyFilter) {
+            return ((IQReplyFilter) stanzaFilter).getStanzaId();
+        } else if (stanzaFilter instanceof StanzaIdFilter) {
+            return ((StanzaIdFilter) stanzaFilter).getStanzaId();
+        } else if (stanzaFilter instanceof AndFilter) {
+            for (StanzaFilter filter : ((AbstractListFilter) stanzaFilter).getFilters()) {
+                String stanzaId = getRequiredStanzaId(filter);
+                if (stanzaId != null) {
+                    return stanzaId;
+                }
+            }
+        }
+        return null;
+    }
+
+    private enum IndexKind {
+        stanzaId,
+        from,
+        namespace,
+        type,
+        none,
+    }
+
+    private static final class IndexKey {
+        private static final IndexKey NONE = new IndexKey(IndexKind.none, null);
+
+        private final IndexKind kind;
+        private final Object key;
+
+        private IndexKey(IndexKind kind, Object key) {
+            this.kind = kind;
+            this.key = key;
+        }
+
+        private static IndexKey from(StanzaFilter stanzaFilter) {
+            if (stanzaFilter instanceof IQReplyFilter || stanzaFilter instanceof StanzaIdFilter) {
+                String stanzaId = getRequiredStanzaId(stanzaFilter);
+                if (stanzaId != null) {
+                    return new IndexKey(IndexKind.stanzaId, stanzaId);
+                }
+            } else if (stanzaFilter instanceof FromMatchesFilter) {
+                Jid address = ((FromMatchesFilter) stanzaFilter).getAddress();
+                if (address != null) {
+                    return new IndexKey(IndexKind.from, address.asBareJid());
+                }
+            } else if (stanzaFilter instanceof StanzaExtensionFilter) {
+                String namespace = ((StanzaExtensionFilter) stanzaFilter).getNamespace();
+                return new IndexKey(IndexKind.namespace, namespace);
+            } else if (stanzaFilter instanceof StanzaTypeFilter) {
+                return forType(((StanzaTypeFilter) stanzaFilter).getStanzaType());
+            } else if (stanzaFilter instanceof FlexibleStanzaTypeFilter) {
+                return forType(((FlexibleStanzaTypeFilter<?>) stanzaFilter).getStanzaType());
+            } else if (stanzaFilter instanceof AndFilter) {
+                // Select the most selective key of all filters of the AND filter, as every one of them is a necessary
+                // condition.
+                IndexKey best = NONE;
+                for (StanzaFilter filter : ((AbstractListFilter) stanzaFilter).getFilters()) {
+                    IndexKey indexKey = from(filter);
+                    if (indexKey.kind.ordinal() < best.kind.ordinal()) {
+                        best = indexKey;
+                    }
+                }
+                return best;
+            }
+            return NONE;
+        }
+
+        private static IndexKey forType(Class<?> stanzaType) {
+            // The stanza class hierarchy is walked upwards when dispatching, which does not find interfaces.
+            if (stanzaType.isInterface()) {
+                return NONE;
+            }
+            return new IndexKey(IndexKind.type, stanzaType);
+        }
+    }
+
+    private static final class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(Collections.<StanzaListener, Entry>emptyMap(),
+                        Collections.<BareJid, Entry[]>emptyMap(), Collections.<String, Entry[]>emptyMap(),
+                        Collections.<Class<?>, Entry[]>emptyMap(), NO_ENTRIES);
+
+        private final Map<StanzaListener, Entry> all;
+        private final Map<BareJid, Entry[]> byFrom;
+        private final Map<String, Entry[]> byNamespace;
+        private final Map<Class<?>, Entry[]> byType;
+        private final Entry[] unindexed;
+
+        private Snapshot(Map<StanzaListener, Entry> all, Map<BareJid, Entry[]> byFrom,
+                        Map<String, Entry[]> byNamespace, Map<Class<?>, Entry[]> byType, Entry[] unindexed) {
+            this.all = all;
+            this.byFrom = byFrom;
+            this.byNamespace = byNamespace;
+            this.byType = byType;
+            this.unindexed = unindexed;
+        }
+
+        private Builder asBuilder() {
+            return new Builder(this);
+        }
+
+        private static final class Builder {
+            private final Map<StanzaListener, Entry> all;
+            private final Map<BareJid, Entry[]> byFrom;
+            private final Map<String, Entry[]> byNamespace;
+            private final Map<Class<?>, Entry[]> byType;
+            private Entry[] unindexed;
+
+            private Builder(Snapshot snapshot) {
+                all = new LinkedHashMap<>(snapshot.all);
+                byFrom = new HashMap<>(snapshot.byFrom);
+                byNamespace = new HashMap<>(snapshot.byNamespace);
+                byType = new HashMap<>(snapshot.byType);
+                unindexed = snapshot.unindexed;
+            }
+
+            @SuppressWarnings("unchecked")
+            private void addToIndex(Entry entry) {
+                IndexKey indexKey = entry.indexKey;
+                switch (indexKey.kind) {
+                case from:
+                case namespace:
+                case type:
+                    Map<Object, Entry[]> index = (Map<Object, Entry[]>) getIndex(indexKey.kind);
+                    index.put(indexKey.key, append(index.get(indexKey.key), entry));
+                    break;
+                case stanzaId:
+                    // Only reached if there is already a listener for the same stanza ID.
+                case none:
+                    unindexed = append(unindexed, entry);
+                    break;
+                }
+            }
+
+            @SuppressWarnings("unchecked")
+            private void removeFromIndex(Entry entry) {
+                IndexKey indexKey = entry.indexKey;
+                switch (indexKey.kind) {
+                case from:
+                case namespace:
+                case type:
+                    Map<Object, Entry[]> index = (Map<Object, Entry[]>) getIndex(indexKey.kind);
+                    Entry[] entries = remove(index.get(indexKey.key), entry);
+                    if (entries.length == 0) {
+                        index.remove(indexKey.key);
+                    } else {
+                        index.put(indexKey.key, entries);
+                    }
+                    break;
+                case stanzaId:
+                case none:
+                    unindexed = remove(unindexed, entry);
+                    break;
+                }
+            }
+
+            private Map<?, Entry[]> getIndex(IndexKind kind) {
+                switch (kind) {
+                case from:
+                    return byFrom;
+                case namespace:
+                    return byNamespace;
+                case type:
+                    return byType;
+                default:
+                    throw new AssertionError();
+                }
+            }
+
+            private Snapshot build() {
+                return new Snapshot(all, byFrom, byNamespace, byType, unindexed);
+            }
+
+            private static Entry[] append(Entry[] entries, Entry entry) {
+                if (entries == null) {
+                    return new Entry[] { entry };
+                }
+                Entry[] newEntries = Arrays.copyOf(entries, entries.length + 1);
+                newEntries[entries.length] = entry;
+                return newEntries;
+            }
+
+            private static Entry[] remove(Entry[] entries, Entry entry) {
+                if (entries == null) {
+                    return NO_ENTRIES;
+                }
+                for (int i = 0; i < entries.length; i++) {
+                    if (entries[i] != entry) {
+                        continue;
+                    }
+                    Entry[] newEntries = new Entry[entries.length - 1];
+                    System.arraycopy(entries, 0, newEntries, 0, i);
+                    System.arraycopy(entries, i + 1, newEntries, i, entries.length - i - 1);
+                    return newEntries;
+                }
+                return entries;
+            }
+        }
+    }
+}
@@ -20,6 +20,8 @@ import java.util.concurrent.TimeUnit;
 
 import com.advisoryapps.smack.SmackException.NoResponseException;
 import com.advisoryapps.smack.SmackException.NotConnectedException;
+import com.advisoryapps.smack.SmackException.OutgoingQueueFullException;
+import com.advisoryapps.smack.SmackFuture.InternalSmackFuture;
 import com.advisoryapps.smack.XMPPException.XMPPErrorException;
 import com.advisoryapps.smack.filter.IQReplyFilter;
 import com.advisoryapps.smack.filter.StanzaFilter;
@@ -225,6 +227,57 @@ public interface XMPPConnection {
      */
     boolean trySendStanza(Stanza stanza, long timeout, TimeUnit unit)  throws NotConnectedException, InterruptedException;
 
+    /**
+     * Send the given stanza without blocking. The returned future is completed with the stanza once it was written
+     * and flushed to the underlying socket. If the stanza could not be scheduled for sending, for example because the
+     * outgoing element queue is full, or the connection was closed before the stanza was written, then the future is
+     * completed with an exception. Use {@link #addOutgoingQueueWatermarkListener(OutgoingQueueWatermarkListener)} to
+     * get notified when the outgoing element queue fills up and drains again.
+     * <p>
+     * The default implementation maps this method to {@link #trySendStanza(Stanza)} and completes the future as soon
+     * as the stanza was scheduled for sending, i.e. before it was written. Implementations with an outgoing element
+     * queue should override this method.
+     * </p>
+     *
+     * @param stanza the stanza to send.
+     * @return a SmackFuture which is completed once the stanza was written to the wire.
+     */
+    default SmackFuture<Stanza, SmackException> sendStanzaAsync(Stanza stanza) {
+        InternalSmackFuture<Stanza, SmackException> future = new InternalSmackFuture<>();
+        try {
+            if (trySendStanza(stanza)) {
+                future.setResult(stanza);
+            } else {
+                future.setException(new OutgoingQueueFullException(this));
+            }
+        } catch (NotConnectedException e) {
+            future.setException(e);
+        }
+        return future;
+    }
+
+    /**
+     * Add a listener which is notified when the number of elements in the outgoing element queue crosses the queue's
+     * watermarks. Connection implementations without an outgoing element queue will never notify the listener, the
+     * default implementation does not add the listener and returns <code>false</code>.
+     *
+     * @param listener the listener to add.
+     * @return <code>true</code> if the listener was not already added.
+     */
+    default boolean addOutgoingQueueWatermarkListener(OutgoingQueueWatermarkListener listener) {
+        return false;
+    }
+
+    /**
+     * Remove an outgoing queue watermark listener.
+     *
+     * @param listener the listener to remove.
+     * @return <code>true</code> if the listener was removed.
+     */
+    default boolean removeOutgoingQueueWatermarkListener(OutgoingQueueWatermarkListener listener) {
+        return false;
+    }
+
     /**
      * Send a Nonza.
      * <p>
@@ -65,6 +65,25 @@ public abstract class AbstractFromToMatchesFilter implements StanzaFilter {
 
     protected abstract Jid getAddressToCompare(Stanza stanza);
 
+    /**
+     * Get the address this filter matches against. If {@link #isIgnoreResourcepart()} returns <code>true</code>, then
+     * this is always a bare JID.
+     *
+     * @return the address, or <code>null</code> if this filter matches stanzas without the address set.
+     */
+    public final Jid getAddress() {
+        return address;
+    }
+
+    /**
+     * Check if this filter compares only the bare part of the addresses.
+     *
+     * @return <code>true</code> if the resourcepart is ignored, <code>false</code> otherwise.
+     */
+    public final boolean isIgnoreResourcepart() {
+        return ignoreResourcepart;
+    }
+
     @Override
     public final String toString() {
         String matchMode = ignoreResourcepart ? "ignoreResourcepart" : "full";
@@ -19,6 +19,7 @@ package com.advisoryapps.smack.filter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import com.advisoryapps.smack.util.Objects;
@@ -62,6 +63,15 @@ public abstract class AbstractListFilter implements StanzaFilter {
         filters.add(filter);
     }
 
+    /**
+     * Get the filters of this list filter.
+     *
+     * @return an unmodifiable view of the filters.
+     */
+    public List<StanzaFilter> getFilters() {
+        return Collections.unmodifiableList(filters);
+    }
+
     @Override
     public final String toString() {
         StringBuilder sb = new StringBuilder();
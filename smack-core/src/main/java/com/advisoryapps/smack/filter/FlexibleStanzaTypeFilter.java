@@ -51,6 +51,15 @@ public abstract class FlexibleStanzaTypeFilter<S extends Stanza> implements Stan
 
     protected abstract boolean acceptSpecific(S packet);
 
+    /**
+     * Get the type of stanzas this filter accepts. A stanza not of this type will never be accepted by this filter.
+     *
+     * @return the stanza type.
+     */
+    public final Class<S> getStanzaType() {
+        return stanzaType;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + ": " + stanzaType.toString();
@@ -128,6 +128,16 @@ public class IQReplyFilter implements StanzaFilter {
         }
     }
 
+    /**
+     * Get the stanza ID of the IQ request this filter matches replies for. Only stanzas with this ID are accepted by
+     * this filter.
+     *
+     * @return the stanza ID of the request.
+     */
+    public final String getStanzaId() {
+        return packetId;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -52,6 +52,15 @@ public class StanzaIdFilter implements StanzaFilter {
         return stanzaId.equals(stanza.getStanzaId());
     }
 
+    /**
+     * Get the stanza ID this filter matches.
+     *
+     * @return the stanza ID.
+     */
+    public String getStanzaId() {
+        return stanzaId;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + ": id=" + stanzaId;
@@ -310,6 +310,23 @@ public abstract class AbstractXmppStateMachineConnection extends AbstractXMPPCon
         // Skip the enclosing stream open what is guaranteed to be there.
         parser.next();
 
+        parseAndProcessElement(parser);
+    }
+
+    /**
+     * Parse and process the top level stream element(s) the given parser is positioned at. The parser must report
+     * END_DOCUMENT once all elements have been processed.
+     *
+     * @param parser the parser positioned at the START_ELEMENT event of a top level stream element.
+     * @throws XmlPullParserException if an XML pull parser exception occurs.
+     * @throws IOException if an I/O exception occurs.
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @throws StreamErrorException if a stream error was received.
+     * @throws SmackException if Smack detected an exceptional situation.
+     * @throws SmackParsingException if the element could not be parsed.
+     */
+    protected final void parseAndProcessElement(XmlPullParser parser) throws XmlPullParserException, IOException,
+                    InterruptedException, StreamErrorException, SmackException, SmackParsingException {
         XmlPullParser.Event event = parser.getEventType();
         outerloop: while (true) {
             switch (event) {
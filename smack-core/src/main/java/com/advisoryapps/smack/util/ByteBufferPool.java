@@ -0,0 +1,114 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe pool of equally sized {@link ByteBuffer}s. If the pool is empty, then {@link #acquire()} will allocate
+ * a new buffer. Released buffers are kept until the pool reaches its maximum size, further released buffers are left to
+ * the garbage collector.
+ */
+public final class ByteBufferPool {
+
+    private final int bufferSize;
+
+    private final boolean direct;
+
+    private final BlockingQueue<ByteBuffer> pooledBuffers;
+
+    // TODO: Use LongAdder once Smack's minimum Android API level is 24 or higher.
+    private final AtomicLong allocatedBuffers = new AtomicLong();
+    private final AtomicLong acquiredBuffers = new AtomicLong();
+    private final AtomicLong discardedBuffers = new AtomicLong();
+
+    public ByteBufferPool(int bufferSize, int maxPooledBuffers, boolean direct) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive, but was " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.pooledBuffers = new ArrayBlockingQueue<>(maxPooledBuffers);
+    }
+
+    /**
+     * Acquire a cleared buffer from this pool.
+     *
+     * @return a cleared buffer with a capacity of {@link #getBufferSize()}.
+     */
+    public ByteBuffer acquire() {
+        acquiredBuffers.incrementAndGet();
+        ByteBuffer buffer = pooledBuffers.poll();
+        if (buffer == null) {
+            allocatedBuffers.incrementAndGet();
+            if (direct) {
+                return ByteBuffer.allocateDirect(bufferSize);
+            }
+            return ByteBuffer.allocate(bufferSize);
+        }
+        return buffer;
+    }
+
+    /**
+     * Release a buffer, previously acquired from this pool, back into the pool. The caller must not use the buffer
+     * afterwards.
+     *
+     * @param buffer the buffer to release.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || buffer.isDirect() != direct) {
+            throw new IllegalArgumentException("The buffer " + buffer + " was not acquired from this pool");
+        }
+
+        buffer.clear();
+        if (!pooledBuffers.offer(buffer)) {
+            discardedBuffers.incrementAndGet();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public int getPooledBufferCount() {
+        return pooledBuffers.size();
+    }
+
+    /**
+     * Get the number of buffers this pool had to allocate because there was no pooled buffer available.
+     *
+     * @return the number of allocated buffers.
+     */
+    public long getAllocatedBufferCount() {
+        return allocatedBuffers.get();
+    }
+
+    public long getAcquiredBufferCount() {
+        return acquiredBuffers.get();
+    }
+
+    public long getDiscardedBufferCount() {
+        return discardedBuffers.get();
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The duration of the last run of a repeated operation, for example a phase of a negotiation. Durations are measured
+ * with {@link System#nanoTime()}, hence they are not affected by changes of the system clock.
+ * <pre>{@code
+ * long start = LastDuration.start();
+ * doSomething();
+ * somethingDuration.stop(start);
+ * }</pre>
+ *
+ * @since 4.4.0
+ */
+public final class LastDuration {
+
+    private volatile long lastDurationNanos = -1;
+
+    /**
+     * Get the start timestamp of a run.
+     *
+     * @return the timestamp to pass to {@link #stop(long)} once the run finished.
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the run that started at the given timestamp as the last run.
+     *
+     * @param start the timestamp returned by {@link #start()}.
+     * @return the duration of the run in milliseconds.
+     */
+    public long stop(long start) {
+        long durationNanos = System.nanoTime() - start;
+        lastDurationNanos = durationNanos;
+        return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+    }
+
+    /**
+     * Get the duration of the last run in milliseconds.
+     *
+     * @return the duration of the last run in milliseconds or <code>-1</code> if there was no run yet.
+     */
+    public long getMillis() {
+        long durationNanos = lastDurationNanos;
+        if (durationNanos < 0) {
+            return -1;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+    }
+}
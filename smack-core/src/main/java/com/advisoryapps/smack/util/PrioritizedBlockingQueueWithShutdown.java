@@ -0,0 +1,626 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.util;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded blocking queue with two lanes, a priority lane and a normal lane, which can be shut down. Elements in the
+ * priority lane are always taken before elements in the normal lane, and each lane has its own capacity, so that a
+ * full normal lane never blocks the insertion of priority elements. Within a lane, elements are ordered FIFO.
+ * <p>
+ * Like {@link ArrayBlockingQueueWithShutdown}, blocking operations throw an {@link InterruptedException} if the queue
+ * was shut down while waiting.
+ * </p>
+ * <p>
+ * Optionally a {@link WatermarkCallback} can be set, which is invoked once the total number of queued elements reaches
+ * the high watermark, and again once it drops to the low watermark afterwards. The callback is invoked without holding
+ * the queue's lock, by the thread which caused the watermark to be crossed.
+ * </p>
+ * <p>
+ * Capacity in a lane can be reserved with {@link #tryReserve(boolean)} before the element to insert is prepared. A
+ * reservation must either be redeemed with {@link #putReserved(Object, boolean)} or released with
+ * {@link #cancelReservation(boolean)}.
+ * </p>
+ *
+ * @param <E> the type of elements held in this queue.
+ */
+public class PrioritizedBlockingQueueWithShutdown<E> {
+
+    public interface WatermarkCallback {
+        void highWatermarkReached(int queuedElements);
+
+        void lowWatermarkReached(int queuedElements);
+    }
+
+    private enum WatermarkEvent {
+        none,
+        high,
+        low,
+    }
+
+    private final ArrayDeque<E> priorityLane;
+
+    private final ArrayDeque<E> normalLane;
+
+    private final int priorityCapacity;
+
+    private final int normalCapacity;
+
+    private int priorityReserved;
+
+    private int normalReserved;
+
+    private final ReentrantLock lock;
+
+    private final Condition notEmpty;
+
+    private final Condition priorityLaneNotFull;
+
+    private final Condition normalLaneNotFull;
+
+    private volatile boolean isShutdown;
+
+    private int lowWatermark;
+
+    private int highWatermark;
+
+    private WatermarkCallback watermarkCallback;
+
+    private boolean aboveHighWatermark;
+
+    public PrioritizedBlockingQueueWithShutdown(int normalCapacity, int priorityCapacity) {
+        this(normalCapacity, priorityCapacity, false);
+    }
+
+    public PrioritizedBlockingQueueWithShutdown(int normalCapacity, int priorityCapacity, boolean fair) {
+        if (normalCapacity <= 0 || priorityCapacity <= 0) {
+            throw new IllegalArgumentException("Capacities must be positive");
+        }
+        this.normalCapacity = normalCapacity;
+        this.priorityCapacity = priorityCapacity;
+        priorityLane = new ArrayDeque<>(priorityCapacity);
+        normalLane = new ArrayDeque<>(normalCapacity);
+        lock = new ReentrantLock(fair);
+        notEmpty = lock.newCondition();
+        priorityLaneNotFull = lock.newCondition();
+        normalLaneNotFull = lock.newCondition();
+    }
+
+    /**
+     * Set the watermarks and the callback to invoke once they are crossed. The watermarks refer to the total number
+     * of queued elements, i.e. the elements of both lanes.
+     *
+     * @param lowWatermark the low watermark.
+     * @param highWatermark the high watermark, must be greater than the low watermark.
+     * @param watermarkCallback the callback, or <code>null</code> to disable watermark notifications.
+     */
+    public void setWatermarks(int lowWatermark, int highWatermark, WatermarkCallback watermarkCallback) {
+        if (lowWatermark < 0 || highWatermark <= lowWatermark) {
+            throw new IllegalArgumentException("Invalid watermarks: low=" + lowWatermark + " high=" + highWatermark);
+        }
+        lock.lock();
+        try {
+            this.lowWatermark = lowWatermark;
+            this.highWatermark = highWatermark;
+            this.watermarkCallback = watermarkCallback;
+            aboveHighWatermark = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ArrayDeque<E> laneFor(boolean priority) {
+        return priority ? priorityLane : normalLane;
+    }
+
+    private boolean isFull(boolean priority) {
+        if (priority) {
+            return priorityLane.size() + priorityReserved >= priorityCapacity;
+        }
+        return normalLane.size() + normalReserved >= normalCapacity;
+    }
+
+    private void reserve(boolean priority) {
+        if (priority) {
+            priorityReserved++;
+        } else {
+            normalReserved++;
+        }
+    }
+
+    private void release(boolean priority) {
+        if (priority) {
+            if (priorityReserved == 0) {
+                throw new IllegalStateException("No capacity reserved in the priority lane");
+            }
+            priorityReserved--;
+        } else {
+            if (normalReserved == 0) {
+                throw new IllegalStateException("No capacity reserved in the normal lane");
+            }
+            normalReserved--;
+        }
+    }
+
+    private Condition notFullConditionFor(boolean priority) {
+        return priority ? priorityLaneNotFull : normalLaneNotFull;
+    }
+
+    private int count() {
+        return priorityLane.size() + normalLane.size();
+    }
+
+    private WatermarkEvent insert(E e, boolean priority) {
+        laneFor(priority).add(e);
+        notEmpty.signal();
+
+        if (watermarkCallback != null && !aboveHighWatermark && count() >= highWatermark) {
+            aboveHighWatermark = true;
+            return WatermarkEvent.high;
+        }
+        return WatermarkEvent.none;
+    }
+
+    private E extract() {
+        E e = priorityLane.poll();
+        if (e != null) {
+            priorityLaneNotFull.signal();
+        } else {
+            e = normalLane.poll();
+            normalLaneNotFull.signal();
+        }
+        return e;
+    }
+
+    private WatermarkEvent checkLowWatermark() {
+        if (watermarkCallback != null && aboveHighWatermark && count() <= lowWatermark) {
+            aboveHighWatermark = false;
+            return WatermarkEvent.low;
+        }
+        return WatermarkEvent.none;
+    }
+
+    private void invokeWatermarkCallback(WatermarkEvent watermarkEvent, WatermarkCallback watermarkCallback,
+                    int queuedElements) {
+        switch (watermarkEvent) {
+        case high:
+            watermarkCallback.highWatermarkReached(queuedElements);
+            break;
+        case low:
+            watermarkCallback.lowWatermarkReached(queuedElements);
+            break;
+        case none:
+            break;
+        }
+    }
+
+    private void checkNotShutdown() throws InterruptedException {
+        if (isShutdown) {
+            throw new InterruptedException("Queue was already shut down");
+        }
+    }
+
+    /**
+     * Shutdown the queue. Threads currently waiting for the queue to become non-empty or non-full will unblock (and
+     * usually throw an InterruptedException).
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            isShutdown = true;
+            notEmpty.signalAll();
+            priorityLaneNotFull.signalAll();
+            normalLaneNotFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Start the queue. Newly created instances will be started automatically, thus this only needs to be called after
+     * {@link #shutdown()}.
+     */
+    public void start() {
+        lock.lock();
+        try {
+            isShutdown = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isShutdown() {
+        return isShutdown;
+    }
+
+    /**
+     * Inserts the specified element into the given lane, waiting if necessary for space to become available.
+     *
+     * @param e the element to add.
+     * @param priority <code>true</code> if the element should be put into the priority lane.
+     * @throws InterruptedException if interrupted while waiting or if the queue was shut down.
+     */
+    public void put(E e, boolean priority) throws InterruptedException {
+        Objects.requireNonNull(e);
+        WatermarkEvent watermarkEvent;
+        WatermarkCallback watermarkCallback;
+        int queuedElements;
+        lock.lockInterruptibly();
+        try {
+            Condition notFull = notFullConditionFor(priority);
+            while (isFull(priority)) {
+                try {
+                    notFull.await();
+                    checkNotShutdown();
+                } catch (InterruptedException ie) {
+                    notFull.signal();
+                    throw ie;
+                }
+            }
+            watermarkEvent = insert(e, priority);
+            watermarkCallback = this.watermarkCallback;
+            queuedElements = count();
+        } finally {
+            lock.unlock();
+        }
+        invokeWatermarkCallback(watermarkEvent, watermarkCallback, queuedElements);
+    }
+
+    /**
+     * Inserts the specified element into the given lane if there is space available and the queue is not shut down.
+     *
+     * @param e the element to add.
+     * @param priority <code>true</code> if the element should be put into the priority lane.
+     * @return <code>true</code> if the element was added, <code>false</code> otherwise.
+     */
+    public boolean offer(E e, boolean priority) {
+        Objects.requireNonNull(e);
+        WatermarkEvent watermarkEvent;
+        WatermarkCallback watermarkCallback;
+        int queuedElements;
+        lock.lock();
+        try {
+            if (isShutdown || isFull(priority)) {
+                return false;
+            }
+            watermarkEvent = insert(e, priority);
+            watermarkCallback = this.watermarkCallback;
+            queuedElements = count();
+        } finally {
+            lock.unlock();
+        }
+        invokeWatermarkCallback(watermarkEvent, watermarkCallback, queuedElements);
+        return true;
+    }
+
+    /**
+     * Inserts the specified element into the given lane, waiting up to the specified time for space to become
+     * available.
+     *
+     * @param e the element to add.
+     * @param priority <code>true</code> if the element should be put into the priority lane.
+     * @param timeout how long to wait before giving up, in units of {@code unit}.
+     * @param unit a {@code TimeUnit} determining how to interpret the {@code timeout} parameter.
+     * @return <code>true</code> if the element was added, <code>false</code> if the timeout elapsed before.
+     * @throws InterruptedException if interrupted while waiting or if the queue was shut down.
+     */
+    public boolean offer(E e, boolean priority, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(e);
+        long nanos = unit.toNanos(timeout);
+        WatermarkEvent watermarkEvent;
+        WatermarkCallback watermarkCallback;
+        int queuedElements;
+        lock.lockInterruptibly();
+        try {
+            Condition notFull = notFullConditionFor(priority);
+            while (isFull(priority)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                try {
+                    nanos = notFull.awaitNanos(nanos);
+                    checkNotShutdown();
+                } catch (InterruptedException ie) {
+                    notFull.signal();
+                    throw ie;
+                }
+            }
+            watermarkEvent = insert(e, priority);
+            watermarkCallback = this.watermarkCallback;
+            queuedElements = count();
+        } finally {
+            lock.unlock();
+        }
+        invokeWatermarkCallback(watermarkEvent, watermarkCallback, queuedElements);
+        return true;
+    }
+
+    /**
+     * Reserve capacity for one element in the given lane if there is space available and the queue is not shut down.
+     *
+     * @param priority <code>true</code> if the capacity should be reserved in the priority lane.
+     * @return <code>true</code> if the capacity was reserved, <code>false</code> otherwise.
+     */
+    public boolean tryReserve(boolean priority) {
+        lock.lock();
+        try {
+            if (isShutdown || isFull(priority)) {
+                return false;
+            }
+            reserve(priority);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserve capacity for one element in the given lane, waiting up to the specified time for space to become
+     * available.
+     *
+     * @param priority <code>true</code> if the capacity should be reserved in the priority lane.
+     * @param timeout how long to wait before giving up, in units of {@code unit}.
+     * @param unit a {@code TimeUnit} determining how to interpret the {@code timeout} parameter.
+     * @return <code>true</code> if the capacity was reserved, <code>false</code> if the timeout elapsed before.
+     * @throws InterruptedException if interrupted while waiting or if the queue was shut down.
+     */
+    public boolean tryReserve(boolean priority, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Condition notFull = notFullConditionFor(priority);
+            while (isFull(priority)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                try {
+                    nanos = notFull.awaitNanos(nanos);
+                    checkNotShutdown();
+                } catch (InterruptedException ie) {
+                    notFull.signal();
+                    throw ie;
+                }
+            }
+            reserve(priority);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Inserts the specified element into the given lane using capacity previously reserved with
+     * {@link #tryReserve(boolean)}. This never blocks.
+     *
+     * @param e the element to add.
+     * @param priority <code>true</code> if the element should be put into the priority lane.
+     * @throws IllegalStateException if no capacity was reserved in the given lane.
+     */
+    public void putReserved(E e, boolean priority) {
+        Objects.requireNonNull(e);
+        WatermarkEvent watermarkEvent;
+        WatermarkCallback watermarkCallback;
+        int queuedElements;
+        lock.lock();
+        try {
+            release(priority);
+            watermarkEvent = insert(e, priority);
+            watermarkCallback = this.watermarkCallback;
+            queuedElements = count();
+        } finally {
+            lock.unlock();
+        }
+        invokeWatermarkCallback(watermarkEvent, watermarkCallback, queuedElements);
+    }
+
+    /**
+     * Release capacity previously reserved with {@link #tryReserve(boolean)} without inserting an element.
+     *
+     * @param priority <code>true</code> if the capacity was reserved in the priority lane.
+     * @throws IllegalStateException if no capacity was reserved in the given lane.
+     */
+    public void cancelReservation(boolean priority) {
+        lock.lock();
+        try {
+            release(priority);
+            notFullConditionFor(priority).signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Offer the given element to the normal lane and shut down the queue afterwards. As all other elements in the
+     * normal lane are taken before, this can be used to enqueue a final element, e.g. a stream close.
+     *
+     * @param e the element to add.
+     * @return <code>true</code> if the element was added, <code>false</code> otherwise.
+     */
+    public boolean offerAndShutdown(E e) {
+        Objects.requireNonNull(e);
+        lock.lock();
+        try {
+            boolean res = offer(e, false);
+            shutdown();
+            return res;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves and removes the head of this queue, waiting if necessary until an element becomes available. Elements
+     * of the priority lane are retrieved first.
+     *
+     * @return the head of this queue.
+     * @throws InterruptedException if interrupted while waiting or if the queue was shut down.
+     */
+    public E take() throws InterruptedException {
+        E e;
+        WatermarkEvent watermarkEvent;
+        WatermarkCallback watermarkCallback;
+        int queuedElements;
+        lock.lockInterruptibly();
+        try {
+            checkNotShutdown();
+            try {
+                while (count() == 0) {
+                    notEmpty.await();
+                    checkNotShutdown();
+                }
+            } catch (InterruptedException ie) {
+                notEmpty.signal();
+                throw ie;
+            }
+            e = extract();
+            watermarkEvent = checkLowWatermark();
+            watermarkCallback = this.watermarkCallback;
+            queuedElements = count();
+        } finally {
+            lock.unlock();
+        }
+        invokeWatermarkCallback(watermarkEvent, watermarkCallback, queuedElements);
+        return e;
+    }
+
+    /**
+     * Retrieves and removes the head of this queue, or returns <code>null</code> if this queue is empty. Elements of
+     * the priority lane are retrieved first.
+     *
+     * @return the head of this queue, or <code>null</code> if this queue is empty.
+     */
+    public E poll() {
+        E e;
+        WatermarkEvent watermarkEvent;
+        WatermarkCallback watermarkCallback;
+        int queuedElements;
+        lock.lock();
+        try {
+            if (count() == 0) {
+                return null;
+            }
+            e = extract();
+            watermarkEvent = checkLowWatermark();
+            watermarkCallback = this.watermarkCallback;
+            queuedElements = count();
+        } finally {
+            lock.unlock();
+        }
+        invokeWatermarkCallback(watermarkEvent, watermarkCallback, queuedElements);
+        return e;
+    }
+
+    /**
+     * Retrieves and removes the head of this queue, waiting up to the specified time if necessary for an element to
+     * become available. Elements of the priority lane are retrieved first.
+     *
+     * @param timeout how long to wait before giving up, in units of {@code unit}.
+     * @param unit a {@code TimeUnit} determining how to interpret the {@code timeout} parameter.
+     * @return the head of this queue, or <code>null</code> if the timeout elapsed before an element became available.
+     * @throws InterruptedException if interrupted while waiting or if the queue was shut down.
+     */
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        E e;
+        WatermarkEvent watermarkEvent;
+        WatermarkCallback watermarkCallback;
+        int queuedElements;
+        lock.lockInterruptibly();
+        try {
+            checkNotShutdown();
+            try {
+                while (count() == 0) {
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                    checkNotShutdown();
+                }
+            } catch (InterruptedException ie) {
+                notEmpty.signal();
+                throw ie;
+            }
+            e = extract();
+            watermarkEvent = checkLowWatermark();
+            watermarkCallback = this.watermarkCallback;
+            queuedElements = count();
+        } finally {
+            lock.unlock();
+        }
+        invokeWatermarkCallback(watermarkEvent, watermarkCallback, queuedElements);
+        return e;
+    }
+
+    /**
+     * Remove all elements from this queue and add them to the given collection, the elements of the priority lane
+     * first.
+     *
+     * @param c the collection to transfer the elements into.
+     * @return the number of elements transferred.
+     */
+    public int drainTo(Collection<? super E> c) {
+        WatermarkEvent watermarkEvent;
+        WatermarkCallback watermarkCallback;
+        int drained;
+        lock.lock();
+        try {
+            drained = count();
+            c.addAll(priorityLane);
+            c.addAll(normalLane);
+            priorityLane.clear();
+            normalLane.clear();
+            priorityLaneNotFull.signalAll();
+            normalLaneNotFull.signalAll();
+            watermarkEvent = checkLowWatermark();
+            watermarkCallback = this.watermarkCallback;
+        } finally {
+            lock.unlock();
+        }
+        invokeWatermarkCallback(watermarkEvent, watermarkCallback, 0);
+        return drained;
+    }
+
+    public void clear() {
+        drainTo(new ArrayDeque<E>(0));
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return count();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int getNormalCapacity() {
+        return normalCapacity;
+    }
+
+    public int getPriorityCapacity() {
+        return priorityCapacity;
+    }
+}
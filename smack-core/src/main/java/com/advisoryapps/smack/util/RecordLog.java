@@ -0,0 +1,482 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of records. The file starts with a magic number and a version, followed by the records. Every
+ * record consists of its type, the length of its payload, the payload and a CRC32 checksum of the former.
+ * <p>
+ * If the application crashed while appending records, then the incomplete or corrupt trailing data is discarded the
+ * next time the log is opened. Records are never rewritten once they have been appended, instead users of the log
+ * {@link #replace(byte[]) replace} the whole file with a snapshot of their state from time to time. The size of the
+ * file is limited to 2 GiB.
+ * </p>
+ * <p>
+ * Opening the log reads the records sequentially, later reads can use a {@link #getMappedBuffer() memory-mapped
+ * buffer} of the file. Java provides no way to unmap such a buffer, the mapping is released once the buffer has been
+ * garbage collected. Some platforms, e.g. Windows, do not allow to truncate or to replace a file while it is mapped,
+ * hence truncating the file after a failed append or replacing the file may fail there until the buffer has been
+ * collected. A failed replacement leaves the log unchanged.
+ * </p>
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ *
+ * @since 4.4.0
+ */
+public class RecordLog implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(RecordLog.class.getName());
+
+    /**
+     * The length of the file's header, i.e. the magic number and the version.
+     */
+    public static final int FILE_HEADER_LENGTH = 8;
+
+    /**
+     * The length of a record's header, i.e. its type and the length of its payload.
+     */
+    public static final int RECORD_HEADER_LENGTH = 5;
+
+    /**
+     * The length of a record without its payload, i.e. its header and its checksum.
+     */
+    public static final int RECORD_OVERHEAD = RECORD_HEADER_LENGTH + 4;
+
+    /**
+     * Handles the records read while a log is opened.
+     */
+    public interface RecordHandler {
+
+        /**
+         * Handle a record of the log. If the record is invalid, then it and all following records are discarded.
+         *
+         * @param type the type of the record.
+         * @param payload the payload of the record.
+         * @param payloadPosition the position of the payload in the file.
+         * @throws IOException if the record is invalid.
+         */
+        void handleRecord(byte type, ByteBuffer payload, long payloadPosition) throws IOException;
+    }
+
+    private final File file;
+
+    private final int magic;
+
+    private final int version;
+
+    private RandomAccessFile randomAccessFile;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer mappedBuffer;
+
+    /**
+     * The position after the last complete record.
+     */
+    private long end;
+
+    RecordLog(File file, int magic, int version) {
+        this.file = file;
+        this.magic = magic;
+        this.version = version;
+    }
+
+    /**
+     * Open the log in the given file and read its records. The file is created if it does not exist.
+     *
+     * @param file the file of the log.
+     * @param magic the magic number at the beginning of the file.
+     * @param version the version of the file's format.
+     * @param handler the handler of the records.
+     * @return the log.
+     * @throws IOException if the file could not be opened or has not the given magic number and version.
+     */
+    public static RecordLog open(File file, int magic, int version, RecordHandler handler) throws IOException {
+        RecordLog log = new RecordLog(file, magic, version);
+        log.load(handler);
+        return log;
+    }
+
+    /**
+     * Create a new log in the given file which contains the given records. An existing file is replaced.
+     *
+     * @param file the file of the log.
+     * @param magic the magic number at the beginning of the file.
+     * @param version the version of the file's format.
+     * @param records the records, as built by a {@link RecordBuilder}.
+     * @return the log.
+     * @throws IOException if the file could not be created.
+     */
+    public static RecordLog create(File file, int magic, int version, byte[] records) throws IOException {
+        RecordLog log = new RecordLog(file, magic, version);
+        File tempFile = log.writeTempFile(records);
+        if (!log.renameTo(tempFile)) {
+            deleteTempFile(tempFile);
+            throw new IOException("Could not rename " + tempFile + " to " + file);
+        }
+        log.openFile();
+        log.end = FILE_HEADER_LENGTH + records.length;
+        return log;
+    }
+
+    void load(RecordHandler handler) throws IOException {
+        openFile();
+        try {
+            readRecords(handler);
+        }
+        catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private void readRecords(RecordHandler handler) throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            end = write(ByteBuffer.wrap(header()), 0);
+            return;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(file + " exceeds the maximum size of a record log");
+        }
+        if (size < FILE_HEADER_LENGTH) {
+            throw new IOException(file + " is not a record log");
+        }
+
+        long position = FILE_HEADER_LENGTH;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != magic) {
+                throw new IOException(file + " does not start with the magic number 0x" + Integer.toHexString(magic));
+            }
+            int fileVersion = in.readInt();
+            if (fileVersion != version) {
+                throw new IOException(file + " has the unsupported version " + fileVersion);
+            }
+
+            byte[] recordHeader = new byte[RECORD_HEADER_LENGTH];
+            while (size - position >= RECORD_OVERHEAD) {
+                in.readFully(recordHeader);
+                ByteBuffer recordHeaderBuffer = ByteBuffer.wrap(recordHeader);
+                byte type = recordHeaderBuffer.get();
+                int length = recordHeaderBuffer.getInt();
+                if (length < 0 || size - position - RECORD_OVERHEAD < length) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (in.readInt() != checksum(recordHeader, payload)) {
+                    break;
+                }
+                try {
+                    handler.handleRecord(type, ByteBuffer.wrap(payload), position + RECORD_HEADER_LENGTH);
+                }
+                catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+                    LOGGER.log(Level.WARNING, "Could not read record of " + file, e);
+                    break;
+                }
+                position += RECORD_OVERHEAD + length;
+            }
+        }
+
+        if (position < size) {
+            LOGGER.warning("Discarding incomplete or corrupt data at the end of " + file + " (" + (size - position)
+                            + " bytes)");
+            channel.truncate(position);
+        }
+        end = position;
+    }
+
+    /**
+     * Get the size of the log's file in bytes.
+     *
+     * @return the size of the file.
+     */
+    public long getSize() {
+        return end;
+    }
+
+    /**
+     * Append the given records to the log. If appending fails, then the file is truncated to its previous size.
+     *
+     * @param records the records, as built by a {@link RecordBuilder}.
+     * @return the position of the first appended record in the file.
+     * @throws IOException if the records could not be appended.
+     */
+    public long append(byte[] records) throws IOException {
+        if (end + records.length > Integer.MAX_VALUE) {
+            throw new IOException("Appending to " + file + " would exceed the maximum size of a record log");
+        }
+        long position = end;
+        try {
+            end = write(ByteBuffer.wrap(records), end);
+        }
+        catch (IOException e) {
+            mappedBuffer = null;
+            try {
+                // Do not leave a partially written record behind.
+                channel.truncate(end);
+            }
+            catch (IOException truncateException) {
+                LOGGER.log(Level.FINE, "Could not truncate " + file, truncateException);
+            }
+            throw e;
+        }
+        return position;
+    }
+
+    /**
+     * Replace the log's file with a new file which contains only the given records. The new file is written
+     * completely before it replaces the current file, hence if replacing fails, then the log remains unchanged.
+     *
+     * @param records the records, as built by a {@link RecordBuilder}.
+     * @return the position of the first record in the new file.
+     * @throws IOException if the file could not be replaced.
+     */
+    public long replace(byte[] records) throws IOException {
+        File tempFile = writeTempFile(records);
+
+        // Release the current file before it is replaced, see the class documentation.
+        mappedBuffer = null;
+        randomAccessFile.close();
+        boolean renamed = renameTo(tempFile);
+        openFile();
+        if (!renamed) {
+            deleteTempFile(tempFile);
+            throw new IOException("Could not rename " + tempFile + " to " + file);
+        }
+        end = FILE_HEADER_LENGTH + records.length;
+        return FILE_HEADER_LENGTH;
+    }
+
+    /**
+     * Get a read-only buffer of the log's file, which is positioned at the beginning of the file.
+     *
+     * @return a buffer of the file.
+     * @throws IOException if the file could not be mapped.
+     */
+    public ByteBuffer getMappedBuffer() throws IOException {
+        if (mappedBuffer == null || mappedBuffer.capacity() < end) {
+            // Appended records are not necessarily visible through an existing mapping, hence map the file again.
+            mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+        }
+        return mappedBuffer.duplicate();
+    }
+
+    /**
+     * Force all appended records to the storage device and close the log.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        mappedBuffer = null;
+        try {
+            channel.force(false);
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+    boolean renameTo(File tempFile) {
+        return tempFile.renameTo(file);
+    }
+
+    private void openFile() throws IOException {
+        RandomAccessFile newRandomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile = newRandomAccessFile;
+        channel = newRandomAccessFile.getChannel();
+        mappedBuffer = null;
+    }
+
+    private File writeTempFile(byte[] records) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream tempOut = new FileOutputStream(tempFile)) {
+            tempOut.write(header());
+            tempOut.write(records);
+            tempOut.getFD().sync();
+        }
+        catch (IOException e) {
+            deleteTempFile(tempFile);
+            throw e;
+        }
+        return tempFile;
+    }
+
+    private static void deleteTempFile(File tempFile) {
+        if (tempFile.isFile() && !tempFile.delete()) {
+            LOGGER.fine("Could not delete " + tempFile);
+        }
+    }
+
+    private long write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    private byte[] header() {
+        return ByteBuffer.allocate(FILE_HEADER_LENGTH).putInt(magic).putInt(version).array();
+    }
+
+    private static int checksum(byte[] recordHeader, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(recordHeader);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Read a string which was written by {@link RecordBuilder#writeString(String)}.
+     *
+     * @param buffer the buffer to read from.
+     * @return the string, which may be <code>null</code>.
+     * @throws BufferUnderflowException if the buffer does not contain the complete string.
+     * @throws IllegalArgumentException if the length of the string is invalid.
+     */
+    public static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds records which can be appended to a {@link RecordLog}. The payload of the current record is written with
+     * the write methods, {@link #endRecord(byte)} then adds the record.
+     */
+    public static final class RecordBuilder {
+
+        private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+
+        private final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+
+        private final DataOutputStream payload = new DataOutputStream(payloadBytes);
+
+        public RecordBuilder writeByte(int value) {
+            try {
+                payload.writeByte(value);
+            }
+            catch (IOException e) {
+                // Should never happen, as we write to a byte array.
+                throw new AssertionError(e);
+            }
+            return this;
+        }
+
+        public RecordBuilder writeInt(int value) {
+            try {
+                payload.writeInt(value);
+            }
+            catch (IOException e) {
+                // Should never happen, as we write to a byte array.
+                throw new AssertionError(e);
+            }
+            return this;
+        }
+
+        public RecordBuilder write(byte[] bytes) {
+            payloadBytes.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        /**
+         * Write the given string, which may be <code>null</code>, prefixed with its length.
+         *
+         * @param string the string.
+         * @return a reference to this builder.
+         */
+        public RecordBuilder writeString(String string) {
+            if (string == null) {
+                return writeInt(-1);
+            }
+            byte[] bytes = StringUtils.toUtf8Bytes(string);
+            return writeInt(bytes.length).write(bytes);
+        }
+
+        /**
+         * Get the length of the current record's payload written so far.
+         *
+         * @return the length of the payload.
+         */
+        public int getPayloadLength() {
+            return payloadBytes.size();
+        }
+
+        /**
+         * Add the current record with the given type.
+         *
+         * @param type the type of the record.
+         * @return the offset of the record's payload in the built records.
+         */
+        public int endRecord(byte type) {
+            byte[] payloadArray = payloadBytes.toByteArray();
+            payloadBytes.reset();
+            byte[] recordHeader = ByteBuffer.allocate(RECORD_HEADER_LENGTH).put(type).putInt(payloadArray.length).array();
+            byte[] checksum = ByteBuffer.allocate(4).putInt(checksum(recordHeader, payloadArray)).array();
+
+            int payloadOffset = records.size() + RECORD_HEADER_LENGTH;
+            records.write(recordHeader, 0, recordHeader.length);
+            records.write(payloadArray, 0, payloadArray.length);
+            records.write(checksum, 0, checksum.length);
+            return payloadOffset;
+        }
+
+        /**
+         * Get the number of bytes of the records added so far.
+         *
+         * @return the size of the records.
+         */
+        public int size() {
+            return records.size();
+        }
+
+        public byte[] toByteArray() {
+            return records.toByteArray();
+        }
+    }
+}
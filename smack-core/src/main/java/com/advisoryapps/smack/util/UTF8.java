@@ -18,6 +18,8 @@ package com.advisoryapps.smack.util;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 
 public class UTF8 {
 
@@ -36,4 +38,16 @@ public class UTF8 {
     public static ByteBuffer encode(String string) {
         return utf8Charset.encode(string);
     }
+
+    /**
+     * Create a new UTF-8 encoder which, like {@link #encode(String)}, replaces malformed input instead of reporting an
+     * error.
+     *
+     * @return a new UTF-8 encoder.
+     */
+    public static CharsetEncoder newEncoder() {
+        return utf8Charset.newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
 }
@@ -0,0 +1,186 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import com.advisoryapps.smack.util.stringencoder.Base64CharSequence;
+
+/**
+ * An {@link Appendable} which encodes the appended characters as UTF-8 into buffers acquired from a
+ * {@link ByteBufferPool}. This allows to serialize an {@link XmlStringBuilder} in a single pass straight into byte
+ * buffers, using {@link XmlStringBuilder#appendXmlTo(Appendable, com.advisoryapps.smack.packet.XmlEnvironment)}.
+ * <p>
+ * After all characters of a unit, e.g. a top level stream element, have been appended, {@link #finish()} must be
+ * called. Afterwards the encoded buffers can be retrieved via {@link #poll()}. The ownership of the retrieved buffers
+ * is transferred to the caller, who is responsible to release them into the pool once they are no longer used.
+ * </p>
+ * <p>
+ * Instances of this class are not thread-safe.
+ * </p>
+ */
+public final class Utf8ByteBufferSink implements Appendable {
+
+    private static final int DEFAULT_CHAR_BUFFER_SIZE = 1024;
+
+    private final ByteBufferPool byteBufferPool;
+
+    private final CharsetEncoder encoder = UTF8.newEncoder();
+
+    /**
+     * The characters which have been appended but are not yet encoded. The buffer is always in "write mode".
+     */
+    private final CharBuffer charBuffer;
+
+    private final Queue<ByteBuffer> encodedBuffers = new ArrayDeque<>();
+
+    private ByteBuffer currentBuffer;
+
+    private long encodedBytes;
+
+    public Utf8ByteBufferSink(ByteBufferPool byteBufferPool) {
+        this(byteBufferPool, DEFAULT_CHAR_BUFFER_SIZE);
+    }
+
+    public Utf8ByteBufferSink(ByteBufferPool byteBufferPool, int charBufferSize) {
+        this.byteBufferPool = byteBufferPool;
+        // We need at least room for a surrogate pair.
+        this.charBuffer = CharBuffer.allocate(Math.max(2, charBufferSize));
+    }
+
+    @Override
+    public Utf8ByteBufferSink append(CharSequence csq) {
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Utf8ByteBufferSink append(CharSequence csq, int start, int end) {
+        int position = start;
+        while (position < end) {
+            if (!charBuffer.hasRemaining()) {
+                encode(false);
+            }
+
+            int chunkEnd = Math.min(end, position + charBuffer.remaining());
+            int charBufferPosition = charBuffer.position();
+            // Copy the characters in bulk where possible, as this is considerably faster than charAt().
+            if (csq instanceof String) {
+                ((String) csq).getChars(position, chunkEnd, charBuffer.array(),
+                                charBuffer.arrayOffset() + charBufferPosition);
+                charBuffer.position(charBufferPosition + chunkEnd - position);
+            } else if (csq instanceof StringBuilder) {
+                ((StringBuilder) csq).getChars(position, chunkEnd, charBuffer.array(),
+                                charBuffer.arrayOffset() + charBufferPosition);
+                charBuffer.position(charBufferPosition + chunkEnd - position);
+            } else if (csq instanceof Base64CharSequence) {
+                ((Base64CharSequence) csq).getChars(position, chunkEnd, charBuffer.array(),
+                                charBuffer.arrayOffset() + charBufferPosition);
+                charBuffer.position(charBufferPosition + chunkEnd - position);
+            } else {
+                for (int i = position; i < chunkEnd; i++) {
+                    charBuffer.put(csq.charAt(i));
+                }
+            }
+            position = chunkEnd;
+        }
+        return this;
+    }
+
+    @Override
+    public Utf8ByteBufferSink append(char c) {
+        if (!charBuffer.hasRemaining()) {
+            encode(false);
+        }
+        charBuffer.put(c);
+        return this;
+    }
+
+    /**
+     * Encode all pending characters and make the encoded buffers available via {@link #poll()}.
+     */
+    public void finish() {
+        encode(true);
+
+        // The UTF-8 encoder has no internal state which needs to be flushed, hence flush() will never overflow.
+        CoderResult coderResult = encoder.flush(currentBuffer);
+        assert coderResult.isUnderflow();
+        encoder.reset();
+
+        completeCurrentBuffer();
+    }
+
+    /**
+     * Retrieve the next encoded buffer. The buffer is ready to be read from, i.e. it was already flipped.
+     *
+     * @return the next encoded buffer or <code>null</code> if there is none.
+     */
+    public ByteBuffer poll() {
+        return encodedBuffers.poll();
+    }
+
+    public boolean hasEncodedBuffers() {
+        return !encodedBuffers.isEmpty();
+    }
+
+    /**
+     * Get the total number of bytes which have been encoded by this sink.
+     *
+     * @return the number of encoded bytes.
+     */
+    public long getEncodedBytes() {
+        return encodedBytes;
+    }
+
+    private void encode(boolean endOfInput) {
+        charBuffer.flip();
+        while (true) {
+            if (currentBuffer == null) {
+                currentBuffer = byteBufferPool.acquire();
+            }
+
+            CoderResult coderResult = encoder.encode(charBuffer, currentBuffer, endOfInput);
+            if (coderResult.isOverflow()) {
+                completeCurrentBuffer();
+                continue;
+            }
+
+            // The encoder is configured to replace malformed input, hence the result must be an underflow, which means
+            // that all (complete) characters have been encoded. There may be a remaining high surrogate, whose low
+            // surrogate was not yet appended, which is kept by compact() below.
+            assert coderResult.isUnderflow();
+            break;
+        }
+        charBuffer.compact();
+    }
+
+    private void completeCurrentBuffer() {
+        ByteBuffer buffer = currentBuffer;
+        if (buffer == null) {
+            return;
+        }
+        currentBuffer = null;
+
+        buffer.flip();
+        encodedBytes += buffer.remaining();
+        encodedBuffers.add(buffer);
+    }
+}
@@ -638,7 +638,17 @@ public class XmlStringBuilder implements Appendable, CharSequence, Element {
         return res;
     }
 
-    private void appendXmlTo(Appendable appendable, XmlEnvironment enclosingXmlEnvironment) throws IOException {
+    /**
+     * Append the XML of this <code>XmlStringBuilder</code> to the given sink, e.g. a {@link Writer}, a
+     * {@link java.nio.CharBuffer} or a {@link Utf8ByteBufferSink}. This walks the fragments, including the fragments
+     * of nested <code>XmlStringBuilder</code>s, in a single pass and appends them one-by-one, without creating an
+     * intermediate String of the whole XML.
+     *
+     * @param appendable the sink to append to.
+     * @param enclosingXmlEnvironment the enclosing XML environment.
+     * @throws IOException if the sink throws an I/O error.
+     */
+    public void appendXmlTo(Appendable appendable, XmlEnvironment enclosingXmlEnvironment) throws IOException {
         for (CharSequence csq : sb.getAsList()) {
             if (csq instanceof XmlStringBuilder) {
                 ((XmlStringBuilder) csq).appendXmlTo(appendable, enclosingXmlEnvironment);
@@ -646,7 +656,7 @@ public class XmlStringBuilder implements Appendable, CharSequence, Element {
             else if (csq instanceof XmlNsAttribute) {
                 XmlNsAttribute xmlNsAttribute = (XmlNsAttribute) csq;
                 if (!xmlNsAttribute.value.equals(enclosingXmlEnvironment.getEffectiveNamespace())) {
-                    sb.append(xmlNsAttribute);
+                    appendable.append(xmlNsAttribute.xmlFragment);
                     enclosingXmlEnvironment = new XmlEnvironment(xmlNsAttribute.value);
                 }
             }
@@ -50,6 +50,19 @@ public class Base64 {
         return base64encoder.encode(input);
     }
 
+    /**
+     * Encode the given bytes with the configured encoder. Unlike {@link #encodeToString(byte[])}, the encoder may
+     * return a view which computes the characters on demand, the bytes must hence not be modified while the returned
+     * CharSequence is in use.
+     *
+     * @param input the bytes to encode.
+     * @return the padded Base64 encoding of the bytes.
+     * @since 4.4.0
+     */
+    public static final CharSequence encodeToCharSequence(byte[] input) {
+        return base64encoder.encodeToCharSequence(input);
+    }
+
     public static final String decodeToString(String string) {
         byte[] bytes = decode(string);
         return new String(bytes, StandardCharsets.UTF_8);
@@ -91,5 +104,18 @@ public class Base64 {
         String encodeToStringWithoutPadding(byte[] input);
 
         byte[] encode(byte[] input);
+
+        /**
+         * Encode the given bytes. Encoders which produce the standard encoding of RFC 4648 § 4 may return a
+         * {@link Base64CharSequence}, which avoids creating an intermediate String of the encoded data. The default
+         * implementation uses {@link #encodeToString(byte[])}.
+         *
+         * @param input the bytes to encode.
+         * @return the padded Base64 encoding of the bytes.
+         * @since 4.4.0
+         */
+        default CharSequence encodeToCharSequence(byte[] input) {
+            return encodeToString(input);
+        }
     }
 }
@@ -0,0 +1,143 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.util.stringencoder;
+
+/**
+ * A {@link CharSequence} view of the padded Base64 encoding (RFC 4648 § 4) of a byte array. The characters are
+ * computed on demand from the bytes, hence appending this to an {@link Appendable} which reads the characters one by
+ * one, like {@link com.advisoryapps.smack.util.Utf8ByteBufferSink}, does not create an intermediate String of the
+ * encoded data.
+ * <p>
+ * The byte array is not copied, it must not be modified while this view is in use.
+ * </p>
+ * <p>
+ * Use {@link Base64#encodeToCharSequence(byte[])} instead of creating instances directly, so that the configured
+ * {@link Base64.Encoder} decides how the bytes are encoded. The bundled encoders, which produce the standard encoding,
+ * return an instance of this class.
+ * </p>
+ *
+ * @since 4.4.0
+ */
+public final class Base64CharSequence implements CharSequence {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+                    .toCharArray();
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+    private final int encodedLength;
+
+    public Base64CharSequence(byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+
+    public Base64CharSequence(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > bytes.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.encodedLength = (length + 2) / 3 * 4;
+    }
+
+    @Override
+    public int length() {
+        return encodedLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= encodedLength) {
+            throw new IndexOutOfBoundsException();
+        }
+        // Every group of 4 characters encodes a group of 3 bytes.
+        int byteIndex = index / 4 * 3;
+        int remainingBytes = length - byteIndex;
+        int b0 = bytes[offset + byteIndex] & 0xff;
+        int b1 = remainingBytes > 1 ? bytes[offset + byteIndex + 1] & 0xff : 0;
+        int b2 = remainingBytes > 2 ? bytes[offset + byteIndex + 2] & 0xff : 0;
+        switch (index % 4) {
+        case 0:
+            return ALPHABET[b0 >>> 2];
+        case 1:
+            return ALPHABET[((b0 & 0x03) << 4) | (b1 >>> 4)];
+        case 2:
+            if (remainingBytes < 2) {
+                return '=';
+            }
+            return ALPHABET[((b1 & 0x0f) << 2) | (b2 >>> 6)];
+        default:
+            if (remainingBytes < 3) {
+                return '=';
+            }
+            return ALPHABET[b2 & 0x3f];
+        }
+    }
+
+    /**
+     * Copy the characters from <code>srcBegin</code> (inclusive) to <code>srcEnd</code> (exclusive) into the
+     * destination array, like {@link String#getChars(int, int, char[], int)}. This encodes whole groups of bytes at
+     * once and is hence considerably faster than calling {@link #charAt(int)} for every character.
+     *
+     * @param srcBegin the index of the first character to copy.
+     * @param srcEnd the index after the last character to copy.
+     * @param dst the destination array.
+     * @param dstBegin the start offset in the destination array.
+     */
+    public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+        if (srcBegin < 0 || srcBegin > srcEnd || srcEnd > encodedLength) {
+            throw new IndexOutOfBoundsException();
+        }
+        int index = srcBegin;
+        int dstIndex = dstBegin;
+        // Leading characters of a partial group.
+        while (index < srcEnd && index % 4 != 0) {
+            dst[dstIndex++] = charAt(index++);
+        }
+        // Whole groups of 3 bytes, excluding a final group which may need padding.
+        int wholeGroupsEnd = Math.min(srcEnd, length / 3 * 4) & ~3;
+        int byteIndex = offset + index / 4 * 3;
+        while (index < wholeGroupsEnd) {
+            int group = (bytes[byteIndex] & 0xff) << 16 | (bytes[byteIndex + 1] & 0xff) << 8 | (bytes[byteIndex + 2] & 0xff);
+            dst[dstIndex] = ALPHABET[group >>> 18];
+            dst[dstIndex + 1] = ALPHABET[(group >>> 12) & 0x3f];
+            dst[dstIndex + 2] = ALPHABET[(group >>> 6) & 0x3f];
+            dst[dstIndex + 3] = ALPHABET[group & 0x3f];
+            byteIndex += 3;
+            dstIndex += 4;
+            index += 4;
+        }
+        // Trailing characters, including the padding.
+        while (index < srcEnd) {
+            dst[dstIndex++] = charAt(index++);
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[encodedLength];
+        getChars(0, encodedLength, chars, 0);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class AsyncButOrderedTest {
+
+    @Test
+    public void runnablesAreExecutedInOrderPerKey() throws InterruptedException {
+        final int keys = 100;
+        final int runnablesPerKey = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            AsyncButOrdered<Integer> asyncButOrdered = new AsyncButOrdered<>(executor);
+            final CountDownLatch done = new CountDownLatch(keys * runnablesPerKey);
+            final List<List<Integer>> results = new ArrayList<>(keys);
+            for (int key = 0; key < keys; key++) {
+                results.add(Collections.synchronizedList(new ArrayList<Integer>()));
+            }
+
+            for (int i = 0; i < runnablesPerKey; i++) {
+                for (int key = 0; key < keys; key++) {
+                    final List<Integer> result = results.get(key);
+                    final int value = i;
+                    asyncButOrdered.performAsyncButOrdered(key, new Runnable() {
+                        @Override
+                        public void run() {
+                            result.add(value);
+                            done.countDown();
+                        }
+                    });
+                }
+            }
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            for (List<Integer> result : results) {
+                assertEquals(runnablesPerKey, result.size());
+                for (int i = 0; i < runnablesPerKey; i++) {
+                    assertEquals(i, result.get(i).intValue());
+                }
+            }
+            assertEquals(0, asyncButOrdered.getQueuedRunnablesCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void pendingRunnablesPerKeyAreBounded() throws InterruptedException {
+        final List<Runnable> handlers = new ArrayList<>();
+        // An executor which does not run the handlers right away.
+        AsyncButOrdered<String> asyncButOrdered = new AsyncButOrdered<>(command -> handlers.add(command), 2);
+        Runnable noop = () -> { };
+
+        assertTrue(asyncButOrdered.performAsyncButOrdered("a", noop));
+        assertFalse(asyncButOrdered.performAsyncButOrdered("a", noop));
+        assertThrows(RejectedExecutionException.class, () -> asyncButOrdered.performAsyncButOrdered("a", noop));
+        assertTrue(asyncButOrdered.performAsyncButOrdered("b", noop));
+        assertEquals(3, asyncButOrdered.getQueuedRunnablesCount());
+        assertEquals(2, handlers.size());
+
+        Thread.sleep(5);
+        for (Runnable handler : handlers) {
+            handler.run();
+        }
+        assertEquals(0, asyncButOrdered.getQueuedRunnablesCount());
+        assertEquals(3, asyncButOrdered.getExecutedRunnablesCount());
+        assertTrue(asyncButOrdered.getMaxQueueLatency(TimeUnit.MILLISECONDS) >= 5);
+
+        // Once the handler for a key finished, a new one is started for the next runnable.
+        assertTrue(asyncButOrdered.performAsyncButOrdered("a", noop));
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.advisoryapps.smack.SmackFuture.InternalSmackFuture;
+
+import org.junit.Test;
+
+public class InFlightRequestsTest {
+
+    @Test
+    public void concurrentRequestsForTheSameKeyAreShared() throws Exception {
+        InFlightRequests<String, String, Exception> inFlightRequests = new InFlightRequests<>();
+        final AtomicInteger sentRequests = new AtomicInteger();
+        final InternalSmackFuture<String, Exception> requestFuture = new InternalSmackFuture<>();
+        InFlightRequests.Request<String, Exception> request = new InFlightRequests.Request<String, Exception>() {
+            @Override
+            public SmackFuture<String, Exception> send() {
+                sentRequests.incrementAndGet();
+                return requestFuture;
+            }
+        };
+
+        SmackFuture<String, Exception> first = inFlightRequests.request("key", request);
+        SmackFuture<String, Exception> second = inFlightRequests.request("key", request);
+        assertEquals(1, sentRequests.get());
+        assertEquals(1, inFlightRequests.size());
+
+        requestFuture.setResult("result");
+        assertEquals("result", first.get(5, TimeUnit.SECONDS));
+        assertEquals("result", second.get(5, TimeUnit.SECONDS));
+
+        // Once the request completed, the next request for the key is sent again.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (inFlightRequests.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, inFlightRequests.size());
+        inFlightRequests.request("key", request);
+        assertEquals(2, sentRequests.get());
+    }
+}
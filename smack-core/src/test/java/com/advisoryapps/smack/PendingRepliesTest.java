@@ -0,0 +1,100 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.advisoryapps.smack.filter.StanzaIdFilter;
+import com.advisoryapps.smack.packet.IQ;
+import com.advisoryapps.smack.packet.Message;
+import com.advisoryapps.smack.packet.TestIQ;
+
+import org.junit.jupiter.api.Test;
+
+public class PendingRepliesTest {
+
+    private static final int IN_FLIGHT_REQUESTS = 10000;
+
+    @Test
+    public void manyOutstandingCollectorsAreResolvedByStanzaId() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+
+        List<IQ> requests = new ArrayList<>(IN_FLIGHT_REQUESTS);
+        List<StanzaCollector> collectors = new ArrayList<>(IN_FLIGHT_REQUESTS);
+        for (int i = 0; i < IN_FLIGHT_REQUESTS; i++) {
+            IQ request = new TestIQ();
+            requests.add(request);
+            collectors.add(connection.createStanzaCollectorAndSend(request));
+        }
+
+        // Reply in reverse order, so that the collector of the reply is never the first one registered.
+        for (int i = IN_FLIGHT_REQUESTS - 1; i >= 0; i--) {
+            connection.processStanza(IQ.createResultIQ(requests.get(i)));
+        }
+
+        for (int i = 0; i < IN_FLIGHT_REQUESTS; i++) {
+            IQ result = collectors.get(i).nextResultOrThrow();
+            assertEquals(requests.get(i).getStanzaId(), result.getStanzaId());
+        }
+    }
+
+    @Test
+    public void manyOutstandingFuturesAreResolvedByStanzaId() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+
+        List<IQ> requests = new ArrayList<>(IN_FLIGHT_REQUESTS);
+        List<SmackFuture<IQ, Exception>> futures = new ArrayList<>(IN_FLIGHT_REQUESTS);
+        for (int i = 0; i < IN_FLIGHT_REQUESTS; i++) {
+            IQ request = new TestIQ();
+            requests.add(request);
+            futures.add(connection.sendIqRequestAsync(request));
+        }
+
+        for (int i = IN_FLIGHT_REQUESTS - 1; i >= 0; i--) {
+            connection.processStanza(IQ.createResultIQ(requests.get(i)));
+        }
+
+        for (int i = 0; i < IN_FLIGHT_REQUESTS; i++) {
+            IQ result = futures.get(i).getOrThrow();
+            assertEquals(requests.get(i).getStanzaId(), result.getStanzaId());
+        }
+    }
+
+    @Test
+    public void collectorsWithTheSameStanzaIdAllCollect() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+
+        Message message = new Message();
+        StanzaCollector first = connection.createStanzaCollector(new StanzaIdFilter(message));
+        StanzaCollector second = connection.createStanzaCollector(new StanzaIdFilter(message));
+
+        connection.processStanza(message);
+        assertSame(message, first.pollResult());
+        assertSame(message, second.pollResult());
+
+        first.cancel();
+        second.cancel();
+        connection.processStanza(message);
+        assertNull(first.pollResult());
+        assertNull(second.pollResult());
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.advisoryapps.smack.SmackReactor.ChannelSelectedCallback;
+import com.advisoryapps.smack.SmackReactor.SelectorLoopStats;
+
+import org.junit.jupiter.api.Test;
+
+public class SmackReactorTest {
+
+    @Test
+    public void channelsAreDistributedOverIndependentSelectorLoops() throws IOException, InterruptedException {
+        SmackReactor reactor = new SmackReactor("TestReactor");
+        reactor.setSelectorLoopCount(2);
+
+        final int channelCount = 4;
+        CountDownLatch readLatch = new CountDownLatch(channelCount);
+        List<Pipe> pipes = new ArrayList<>(channelCount);
+        try {
+            // Keep strong references to the callbacks, as the reactor only references them weakly.
+            List<ChannelSelectedCallback> callbacks = new ArrayList<>(channelCount);
+            for (int i = 0; i < channelCount; i++) {
+                Pipe pipe = Pipe.open();
+                pipe.source().configureBlocking(false);
+                pipes.add(pipe);
+
+                ChannelSelectedCallback callback = (channel, selectionKey) -> {
+                    ByteBuffer buffer = ByteBuffer.allocate(16);
+                    try {
+                        if (((Pipe.SourceChannel) channel).read(buffer) > 0) {
+                            readLatch.countDown();
+                        }
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                    reactor.setInterestOps(selectionKey, SelectionKey.OP_READ);
+                };
+                callbacks.add(callback);
+                reactor.registerWithSelector(pipe.source(), SelectionKey.OP_READ, callback);
+            }
+
+            for (Pipe pipe : pipes) {
+                pipe.sink().write(ByteBuffer.wrap(new byte[] { 42 }));
+            }
+            assertTrue(readLatch.await(10, TimeUnit.SECONDS));
+
+            List<SelectorLoopStats> stats = reactor.getStats();
+            assertEquals(3, stats.size());
+            assertFalse(stats.get(0).independent);
+            assertEquals(0, stats.get(0).registeredChannels);
+            for (SelectorLoopStats independentStats : stats.subList(1, 3)) {
+                assertTrue(independentStats.independent);
+                assertEquals(1, independentStats.reactorThreadCount);
+                assertEquals(channelCount / 2, independentStats.registeredChannels);
+            }
+
+            // The callback duration is recorded after the callback returned, so wait until all durations are recorded.
+            long deadline = System.currentTimeMillis() + 10000;
+            while (getRecordedCallbackCount(reactor) < channelCount && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(getRecordedCallbackCount(reactor) >= channelCount);
+        } finally {
+            // Shut the reactor down before closing the pipes, so that no callback observes a closed channel. Close the
+            // sources first, as closing a sink would make its source readable (EOF).
+            reactor.shutdown();
+            for (Pipe pipe : pipes) {
+                pipe.source().close();
+                pipe.sink().close();
+            }
+        }
+    }
+
+    private static long getRecordedCallbackCount(SmackReactor reactor) {
+        long recordedCallbacks = 0;
+        for (SelectorLoopStats loopStats : reactor.getStats()) {
+            for (long bucket : loopStats.callbackDurationHistogram) {
+                recordedCallbacks += bucket;
+            }
+        }
+        return recordedCallbacks;
+    }
+
+    @Test
+    public void scheduledActionsAreRoutedToTheOwningLoop() throws IOException, InterruptedException {
+        SmackReactor reactor = new SmackReactor("TestReactor");
+        reactor.setSelectorLoopCount(1);
+
+        Pipe pipe = Pipe.open();
+        try {
+            pipe.source().configureBlocking(false);
+            ChannelSelectedCallback callback = (channel, selectionKey) -> { };
+            SelectionKey selectionKey = reactor.registerWithSelector(pipe.source(), 0, callback);
+
+            CountDownLatch actionLatch = new CountDownLatch(1);
+            List<String> threadNames = new ArrayList<>(1);
+            reactor.schedule(() -> {
+                threadNames.add(Thread.currentThread().getName());
+                actionLatch.countDown();
+            }, 1, TimeUnit.MILLISECONDS, selectionKey);
+            assertTrue(actionLatch.await(10, TimeUnit.SECONDS));
+
+            assertTrue(threadNames.get(0).contains("Loop #0"), threadNames.get(0));
+            assertEquals(1, reactor.getStats().get(1).handledScheduledActionsCount);
+        } finally {
+            reactor.shutdown();
+            pipe.source().close();
+            pipe.sink().close();
+        }
+    }
+
+    @Test
+    public void selectorLoopCountCanNotBeDecreased() throws InterruptedException {
+        SmackReactor reactor = new SmackReactor("TestReactor");
+        try {
+            reactor.setSelectorLoopCount(1);
+            assertThrows(IllegalArgumentException.class, () -> reactor.setSelectorLoopCount(0));
+            assertEquals(1, reactor.getSelectorLoopCount());
+        } finally {
+            reactor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.advisoryapps.smack.filter.AndFilter;
+import com.advisoryapps.smack.filter.FromMatchesFilter;
+import com.advisoryapps.smack.filter.MessageTypeFilter;
+import com.advisoryapps.smack.filter.NotFilter;
+import com.advisoryapps.smack.filter.StanzaExtensionFilter;
+import com.advisoryapps.smack.filter.StanzaIdFilter;
+import com.advisoryapps.smack.filter.StanzaTypeFilter;
+import com.advisoryapps.smack.packet.Message;
+import com.advisoryapps.smack.packet.Presence;
+import com.advisoryapps.smack.packet.StandardExtensionElement;
+import com.advisoryapps.smack.packet.Stanza;
+
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.JidTestUtil;
+
+public class StanzaListenerRegistryTest {
+
+    private static final StanzaListener LISTENER_1 = new NoopStanzaListener();
+    private static final StanzaListener LISTENER_2 = new NoopStanzaListener();
+    private static final StanzaListener LISTENER_3 = new NoopStanzaListener();
+    private static final StanzaListener LISTENER_4 = new NoopStanzaListener();
+
+    @Test
+    public void matchingListenersAreReportedInRegistrationOrder() {
+        StanzaListenerRegistry registry = new StanzaListenerRegistry();
+        registry.add(LISTENER_1, null);
+        registry.add(LISTENER_2, FromMatchesFilter.create(JidTestUtil.BARE_JID_1));
+        registry.add(LISTENER_3, new StanzaExtensionFilter("foo", "urn:example:foo"));
+        registry.add(LISTENER_4, StanzaTypeFilter.MESSAGE);
+
+        Message message = new Message();
+        message.setFrom(JidTestUtil.FULL_JID_1_RESOURCE_1);
+        message.addExtension(StandardExtensionElement.builder("foo", "urn:example:foo").build());
+
+        List<StanzaListener> matching = registry.getMatchingListeners(message);
+        assertEquals(Arrays.asList(LISTENER_1, LISTENER_2, LISTENER_3, LISTENER_4), matching);
+    }
+
+    @Test
+    public void indexedListenersAreNotReportedForNonMatchingStanzas() {
+        StanzaListenerRegistry registry = new StanzaListenerRegistry();
+        registry.add(LISTENER_1, FromMatchesFilter.create(JidTestUtil.DUMMY_AT_EXAMPLE_ORG));
+        registry.add(LISTENER_2, new StanzaExtensionFilter("urn:example:foo"));
+        registry.add(LISTENER_3, MessageTypeFilter.CHAT);
+        registry.add(LISTENER_4, new AndFilter(StanzaTypeFilter.PRESENCE,
+                        FromMatchesFilter.create(JidTestUtil.BARE_JID_1)));
+
+        Presence presence = new Presence(Presence.Type.available);
+        presence.setFrom(JidTestUtil.FULL_JID_1_RESOURCE_1);
+        assertEquals(Collections.singletonList(LISTENER_4), registry.getMatchingListeners(presence));
+
+        Message message = new Message();
+        message.setType(Message.Type.chat);
+        message.setFrom(JidTestUtil.FULL_JID_1_RESOURCE_1);
+        assertEquals(Collections.singletonList(LISTENER_3), registry.getMatchingListeners(message));
+    }
+
+    @Test
+    public void extensionsWithTheSameNamespaceAreOnlyConsideredOnce() {
+        StanzaListenerRegistry registry = new StanzaListenerRegistry();
+        registry.add(LISTENER_1, new StanzaExtensionFilter("urn:example:foo"));
+
+        Stanza message = new Message();
+        message.addExtension(StandardExtensionElement.builder("foo", "urn:example:foo").build());
+        message.addExtension(StandardExtensionElement.builder("bar", "urn:example:foo").build());
+
+        assertEquals(Collections.singletonList(LISTENER_1), registry.getMatchingListeners(message));
+    }
+
+    @Test
+    public void listenersForTheSameStanzaId() {
+        StanzaListenerRegistry registry = new StanzaListenerRegistry();
+        Message message = new Message();
+        registry.add(LISTENER_1, new StanzaIdFilter(message));
+        registry.add(LISTENER_2, new AndFilter(StanzaTypeFilter.MESSAGE, new StanzaIdFilter(message)));
+        registry.add(LISTENER_3, new StanzaIdFilter("other-id"));
+
+        assertEquals(Arrays.asList(LISTENER_1, LISTENER_2), registry.getMatchingListeners(message));
+
+        assertTrue(registry.remove(LISTENER_1));
+        assertEquals(Collections.singletonList(LISTENER_2), registry.getMatchingListeners(message));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void opaqueFiltersAreEvaluated() {
+        StanzaListenerRegistry registry = new StanzaListenerRegistry();
+        registry.add(LISTENER_1, new NotFilter(StanzaTypeFilter.MESSAGE));
+
+        assertTrue(registry.getMatchingListeners(new Message()).isEmpty());
+        assertEquals(Collections.singletonList(LISTENER_1), registry.getMatchingListeners(new Presence(Presence.Type.available)));
+    }
+
+    @Test
+    public void replacingAndRemovingListeners() {
+        StanzaListenerRegistry registry = new StanzaListenerRegistry();
+        registry.add(LISTENER_1, StanzaTypeFilter.MESSAGE);
+        registry.add(LISTENER_2, null);
+        // Replacing the filter keeps the position of the listener.
+        registry.add(LISTENER_1, StanzaTypeFilter.PRESENCE);
+        assertEquals(2, registry.size());
+
+        Presence presence = new Presence(Presence.Type.available);
+        assertEquals(Arrays.asList(LISTENER_1, LISTENER_2), registry.getMatchingListeners(presence));
+        assertEquals(Collections.singletonList(LISTENER_2), registry.getMatchingListeners(new Message()));
+
+        assertTrue(registry.remove(LISTENER_1));
+        assertFalse(registry.remove(LISTENER_1));
+        assertFalse(registry.contains(LISTENER_1));
+        assertTrue(registry.contains(LISTENER_2));
+        assertEquals(Collections.singletonList(LISTENER_2), registry.getMatchingListeners(presence));
+    }
+
+    @Test
+    public void callbackIsInvokedWithTheStanza() {
+        StanzaListenerRegistry registry = new StanzaListenerRegistry();
+        registry.add(LISTENER_1, StanzaTypeFilter.MESSAGE);
+        registry.add(LISTENER_2, StanzaTypeFilter.PRESENCE);
+
+        final List<StanzaListener> listeners = new ArrayList<>();
+        final List<Stanza> stanzas = new ArrayList<>();
+        StanzaListenerRegistry.MatchingListenerCallback callback = new StanzaListenerRegistry.MatchingListenerCallback() {
+            @Override
+            public void onMatchingListener(StanzaListener stanzaListener, Stanza stanza) {
+                listeners.add(stanzaListener);
+                stanzas.add(stanza);
+            }
+        };
+
+        Message message = new Message();
+        Presence presence = new Presence(Presence.Type.available);
+        registry.forEachMatching(message, callback);
+        registry.forEachMatching(presence, callback);
+
+        assertEquals(Arrays.asList(LISTENER_1, LISTENER_2), listeners);
+        assertEquals(Arrays.<Stanza>asList(message, presence), stanzas);
+    }
+
+    private static class NoopStanzaListener implements StanzaListener {
+        @Override
+        public void processStanza(Stanza packet) {
+        }
+    }
+}
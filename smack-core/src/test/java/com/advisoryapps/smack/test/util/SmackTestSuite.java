@@ -20,6 +20,7 @@ import java.util.Base64;
 
 import com.advisoryapps.smack.SmackConfiguration;
 import com.advisoryapps.smack.util.stringencoder.Base64.Encoder;
+import com.advisoryapps.smack.util.stringencoder.Base64CharSequence;
 
 /**
  * The SmackTestSuite takes care of initializing Smack for the unit tests. For example the Base64
@@ -51,6 +52,11 @@ public class SmackTestSuite {
                 return Base64.getEncoder().encode(input);
             }
 
+            @Override
+            public CharSequence encodeToCharSequence(byte[] input) {
+                return new Base64CharSequence(input);
+            }
+
         });
     }
 }
@@ -0,0 +1,70 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+public class ByteBufferPoolTest {
+
+    @Test
+    public void releasedBuffersAreReused() {
+        ByteBufferPool pool = new ByteBufferPool(16, 1, true);
+
+        ByteBuffer first = pool.acquire();
+        assertTrue(first.isDirect());
+        first.put((byte) 42);
+        pool.release(first);
+
+        ByteBuffer second = pool.acquire();
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(16, second.limit());
+
+        assertEquals(1, pool.getAllocatedBufferCount());
+        assertEquals(2, pool.getAcquiredBufferCount());
+    }
+
+    @Test
+    public void buffersExceedingThePoolSizeAreDiscarded() {
+        ByteBufferPool pool = new ByteBufferPool(16, 1, false);
+
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        assertNotSame(first, second);
+
+        pool.release(first);
+        pool.release(second);
+
+        assertEquals(1, pool.getPooledBufferCount());
+        assertEquals(1, pool.getDiscardedBufferCount());
+    }
+
+    @Test
+    public void foreignBuffersAreRejected() {
+        ByteBufferPool pool = new ByteBufferPool(16, 1, true);
+        assertThrows(IllegalArgumentException.class, () -> pool.release(ByteBuffer.allocate(16)));
+        assertThrows(IllegalArgumentException.class, () -> pool.release(ByteBuffer.allocateDirect(32)));
+    }
+}
@@ -19,7 +19,9 @@ package com.advisoryapps.smack.util;
 import java.io.IOException;
 import java.net.BindException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,10 +37,14 @@ public class NetworkUtil {
 
         ServerSocket serverSocket = null;
         for (int port = portMin; port <= portMax; port++) {
+            // Create the server socket by a channel, as required by e.g. the local SOCKS5 proxy.
+            ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
             try {
-                serverSocket = new ServerSocket(port, backlog, loopbackAddress);
+                serverSocketChannel.socket().bind(new InetSocketAddress(loopbackAddress, port), backlog);
+                serverSocket = serverSocketChannel.socket();
                 break;
             } catch (BindException e) {
+                serverSocketChannel.close();
                 LOGGER.log(Level.FINEST, "Could not bind port " + port + ", trying next", e);
             }
         }
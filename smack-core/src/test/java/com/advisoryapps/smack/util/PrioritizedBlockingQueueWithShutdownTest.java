@@ -0,0 +1,163 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class PrioritizedBlockingQueueWithShutdownTest {
+
+    @Test
+    public void priorityElementsAreTakenFirst() throws InterruptedException {
+        PrioritizedBlockingQueueWithShutdown<String> queue = new PrioritizedBlockingQueueWithShutdown<>(3, 2);
+        queue.put("normal-1", false);
+        queue.put("normal-2", false);
+        queue.put("priority-1", true);
+        queue.put("normal-3", false);
+        queue.put("priority-2", true);
+
+        assertEquals(5, queue.size());
+        assertEquals("priority-1", queue.take());
+        assertEquals("priority-2", queue.take());
+        assertEquals("normal-1", queue.take());
+        assertEquals("normal-2", queue.poll());
+        assertEquals("normal-3", queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void fullNormalLaneDoesNotBlockPriorityLane() throws InterruptedException {
+        PrioritizedBlockingQueueWithShutdown<String> queue = new PrioritizedBlockingQueueWithShutdown<>(2, 1);
+        assertTrue(queue.offer("normal-1", false));
+        assertTrue(queue.offer("normal-2", false));
+        assertFalse(queue.offer("normal-3", false));
+        assertFalse(queue.offer("normal-3", false, 10, TimeUnit.MILLISECONDS));
+
+        assertTrue(queue.offer("priority-1", true));
+        assertFalse(queue.offer("priority-2", true));
+
+        List<String> drained = new ArrayList<>();
+        assertEquals(3, queue.drainTo(drained));
+        assertEquals(Arrays.asList("priority-1", "normal-1", "normal-2"), drained);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void watermarksAreReportedWithHysteresis() throws InterruptedException {
+        final List<String> events = new ArrayList<>();
+        PrioritizedBlockingQueueWithShutdown<Integer> queue = new PrioritizedBlockingQueueWithShutdown<>(10, 2);
+        queue.setWatermarks(1, 3, new PrioritizedBlockingQueueWithShutdown.WatermarkCallback() {
+            @Override
+            public void highWatermarkReached(int queuedElements) {
+                events.add("high:" + queuedElements);
+            }
+
+            @Override
+            public void lowWatermarkReached(int queuedElements) {
+                events.add("low:" + queuedElements);
+            }
+        });
+
+        for (int i = 0; i < 5; i++) {
+            queue.put(i, false);
+        }
+        assertEquals(Arrays.asList("high:3"), events);
+
+        for (int i = 0; i < 3; i++) {
+            queue.take();
+        }
+        assertEquals(Arrays.asList("high:3"), events);
+        queue.take();
+        assertEquals(Arrays.asList("high:3", "low:1"), events);
+
+        queue.put(42, true);
+        queue.put(43, true);
+        assertEquals(Arrays.asList("high:3", "low:1", "high:3"), events);
+    }
+
+    @Test
+    public void timedPollReturnsNullOnTimeout() throws InterruptedException {
+        PrioritizedBlockingQueueWithShutdown<String> queue = new PrioritizedBlockingQueueWithShutdown<>(1, 1);
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+
+        queue.put("foo", false);
+        assertEquals("foo", queue.poll(10, TimeUnit.MILLISECONDS));
+
+        queue.shutdown();
+        assertThrows(InterruptedException.class, () -> queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shutdownUnblocksTakingThreads() throws InterruptedException {
+        final PrioritizedBlockingQueueWithShutdown<String> queue = new PrioritizedBlockingQueueWithShutdown<>(1, 1);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                queue.shutdown();
+            }
+        };
+        thread.start();
+
+        assertThrows(InterruptedException.class, () -> queue.take());
+        assertTrue(queue.isShutdown());
+        assertFalse(queue.offer("foo", false));
+
+        queue.start();
+        assertTrue(queue.offerAndShutdown("bar"));
+        assertTrue(queue.isShutdown());
+        assertEquals("bar", queue.poll());
+        thread.join();
+    }
+
+    @Test
+    public void reservedCapacityIsNotAvailableToOtherElements() throws InterruptedException {
+        PrioritizedBlockingQueueWithShutdown<String> queue = new PrioritizedBlockingQueueWithShutdown<>(2, 1);
+        assertTrue(queue.tryReserve(false));
+        assertTrue(queue.offer("normal-1", false));
+        assertFalse(queue.offer("normal-2", false));
+        assertFalse(queue.tryReserve(false, 10, TimeUnit.MILLISECONDS));
+        assertEquals(1, queue.size());
+
+        queue.putReserved("normal-2", false);
+        assertEquals(2, queue.size());
+        assertThrows(IllegalStateException.class, () -> queue.putReserved("normal-3", false));
+
+        assertEquals("normal-1", queue.take());
+        assertTrue(queue.tryReserve(false));
+        queue.cancelReservation(false);
+        assertThrows(IllegalStateException.class, () -> queue.cancelReservation(false));
+        assertTrue(queue.offer("normal-3", false));
+
+        queue.shutdown();
+        assertFalse(queue.tryReserve(true));
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RecordLogTest {
+
+    private static final int MAGIC = 0x54455354;
+
+    private static final int VERSION = 1;
+
+    private static final byte RECORD_TYPE = 1;
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void recordsSurviveReopening() throws IOException {
+        File file = new File(tempDir, "log");
+        List<String> strings = new ArrayList<>();
+        RecordLog log = RecordLog.open(file, MAGIC, VERSION, collector(strings, null));
+        RecordLog.RecordBuilder records = new RecordLog.RecordBuilder();
+        records.writeString("foo").endRecord(RECORD_TYPE);
+        int barOffset = records.writeString("bar").endRecord(RECORD_TYPE);
+        long position = log.append(records.toByteArray());
+        log.close();
+
+        List<Long> payloadPositions = new ArrayList<>();
+        log = RecordLog.open(file, MAGIC, VERSION, collector(strings, payloadPositions));
+        assertEquals(2, strings.size());
+        assertEquals("bar", strings.get(1));
+        assertEquals(position + barOffset, (long) payloadPositions.get(1));
+
+        ByteBuffer buffer = log.getMappedBuffer();
+        buffer.position((int) (position + barOffset));
+        assertEquals("bar", RecordLog.readString(buffer));
+        log.close();
+    }
+
+    @Test
+    public void corruptTrailingRecordIsDiscarded() throws IOException {
+        File file = new File(tempDir, "log");
+        RecordLog log = RecordLog.open(file, MAGIC, VERSION, collector(new ArrayList<String>(), null));
+        log.append(records("foo"));
+        long sizeAfterFirstRecord = log.getSize();
+        log.append(records("bar"));
+        log.close();
+
+        // Flip a bit of the second record's payload, which invalidates its checksum.
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(sizeAfterFirstRecord + RecordLog.RECORD_HEADER_LENGTH + 4);
+            randomAccessFile.write('c');
+        }
+
+        List<String> strings = new ArrayList<>();
+        log = RecordLog.open(file, MAGIC, VERSION, collector(strings, null));
+        assertEquals(1, strings.size());
+        assertEquals(sizeAfterFirstRecord, log.getSize());
+        assertEquals(sizeAfterFirstRecord, file.length());
+        log.close();
+    }
+
+    @Test
+    public void failedRenameLeavesTheLogUnchanged() throws IOException {
+        File file = new File(tempDir, "log");
+        RecordLog log = new RecordLog(file, MAGIC, VERSION) {
+            @Override
+            boolean renameTo(File tempFile) {
+                return false;
+            }
+        };
+        log.load(collector(new ArrayList<String>(), null));
+        log.append(records("foo"));
+
+        assertThrows(IOException.class, () -> log.replace(records("bar")));
+        assertFalse(new File(tempDir, "log.tmp").exists());
+        log.append(records("baz"));
+        log.close();
+
+        List<String> strings = new ArrayList<>();
+        RecordLog.open(file, MAGIC, VERSION, collector(strings, null)).close();
+        assertEquals(2, strings.size());
+        assertEquals("foo", strings.get(0));
+        assertEquals("baz", strings.get(1));
+    }
+
+    @Test
+    public void openingAFileWithAnotherMagicNumberFails() throws IOException {
+        File file = new File(tempDir, "log");
+        RecordLog.create(file, MAGIC + 1, VERSION, records("foo")).close();
+        assertThrows(IOException.class, () -> RecordLog.open(file, MAGIC, VERSION, collector(null, null)));
+    }
+
+    private static byte[] records(String... strings) {
+        RecordLog.RecordBuilder records = new RecordLog.RecordBuilder();
+        for (String string : strings) {
+            records.writeString(string).endRecord(RECORD_TYPE);
+        }
+        return records.toByteArray();
+    }
+
+    private static RecordLog.RecordHandler collector(final List<String> strings, final List<Long> payloadPositions) {
+        return new RecordLog.RecordHandler() {
+            @Override
+            public void handleRecord(byte type, ByteBuffer payload, long payloadPosition) {
+                strings.add(RecordLog.readString(payload));
+                if (payloadPositions != null) {
+                    payloadPositions.add(payloadPosition);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.advisoryapps.smack.packet.Message;
+import com.advisoryapps.smack.packet.StandardExtensionElement;
+import com.advisoryapps.smack.packet.StreamOpen;
+import com.advisoryapps.smack.packet.XmlEnvironment;
+
+import org.junit.jupiter.api.Test;
+
+public class Utf8ByteBufferSinkTest {
+
+    private static final XmlEnvironment CLIENT_XML_ENVIRONMENT = new XmlEnvironment(StreamOpen.CLIENT_NAMESPACE);
+
+    @Test
+    public void encodesAcrossBufferBoundaries() {
+        // Use tiny buffers so that multi-byte characters and surrogate pairs cross the buffer boundaries.
+        ByteBufferPool pool = new ByteBufferPool(5, 4, false);
+        Utf8ByteBufferSink sink = new Utf8ByteBufferSink(pool, 3);
+
+        String string = "Smack äöü € 😀 end";
+        sink.append(string.substring(0, 8)).append(new StringBuilder(string.substring(8, 13))).append(string, 13,
+                        string.length() - 1).append(string.charAt(string.length() - 1));
+        sink.finish();
+
+        byte[] expected = string.getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected.length, sink.getEncodedBytes());
+        assertEquals(string, new String(drain(sink), StandardCharsets.UTF_8));
+        assertFalse(sink.hasEncodedBuffers());
+    }
+
+    @Test
+    public void sinkIsReusableAfterFinish() {
+        Utf8ByteBufferSink sink = new Utf8ByteBufferSink(new ByteBufferPool(16, 4, true));
+
+        sink.append("<first/>");
+        sink.finish();
+        assertEquals("<first/>", new String(drain(sink), StandardCharsets.UTF_8));
+
+        sink.append("<second/>");
+        sink.finish();
+        assertEquals("<second/>", new String(drain(sink), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void streamedXmlEqualsToXml() throws IOException {
+        Message message = new Message();
+        message.setStanzaId("id-1");
+        message.setBody("Héllo");
+        message.addExtension(StandardExtensionElement.builder("foo", "urn:example:foo")
+                        .addElement("bar", "baz")
+                        .build());
+
+        XmlStringBuilder xml = (XmlStringBuilder) message.toXML(StreamOpen.CLIENT_NAMESPACE);
+        String expected = xml.toXML(CLIENT_XML_ENVIRONMENT).toString();
+        assertTrue(expected.contains("xmlns='urn:example:foo'"));
+
+        StringWriter writer = new StringWriter();
+        xml.appendXmlTo(writer, CLIENT_XML_ENVIRONMENT);
+        assertEquals(expected, writer.toString());
+
+        CharBuffer charBuffer = CharBuffer.allocate(expected.length());
+        xml.appendXmlTo(charBuffer, CLIENT_XML_ENVIRONMENT);
+        charBuffer.flip();
+        assertEquals(expected, charBuffer.toString());
+
+        Utf8ByteBufferSink sink = new Utf8ByteBufferSink(new ByteBufferPool(32, 4, true), 16);
+        xml.appendXmlTo(sink, CLIENT_XML_ENVIRONMENT);
+        sink.finish();
+        assertEquals(expected, new String(drain(sink), StandardCharsets.UTF_8));
+    }
+
+    private static byte[] drain(Utf8ByteBufferSink sink) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer;
+        while ((buffer = sink.poll()) != null) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer.get());
+            }
+        }
+        return out.toByteArray();
+    }
+}
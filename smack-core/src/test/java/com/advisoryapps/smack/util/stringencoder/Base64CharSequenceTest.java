@@ -0,0 +1,73 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.util.stringencoder;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class Base64CharSequenceTest {
+
+    @Test
+    public void encodesLikeRfc4648() {
+        // Test vectors from RFC 4648 § 10.
+        String[][] vectors = new String[][] {
+            { "", "" },
+            { "f", "Zg==" },
+            { "fo", "Zm8=" },
+            { "foo", "Zm9v" },
+            { "foob", "Zm9vYg==" },
+            { "fooba", "Zm9vYmE=" },
+            { "foobar", "Zm9vYmFy" },
+        };
+        for (String[] vector : vectors) {
+            byte[] bytes = vector[0].getBytes(StandardCharsets.US_ASCII);
+            Base64CharSequence base64 = new Base64CharSequence(bytes);
+            assertEquals(vector[1].length(), base64.length());
+            assertEquals(vector[1], base64.toString());
+        }
+    }
+
+    @Test
+    public void encodesHighBitsAndRanges() {
+        byte[] bytes = new byte[] { 0x42, (byte) 0xfb, (byte) 0xff, (byte) 0xbf, 0x42 };
+        assertEquals("+/+/", new Base64CharSequence(bytes, 1, 3).toString());
+        assertEquals("/w==", new Base64CharSequence(bytes, 2, 1).toString());
+    }
+
+    @Test
+    public void getCharsEqualsCharAt() {
+        byte[] bytes = new byte[100];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 37);
+        }
+        for (int length = 95; length <= 100; length++) {
+            Base64CharSequence base64 = new Base64CharSequence(bytes, 0, length);
+            for (int start = 0; start < 6; start++) {
+                for (int end = base64.length() - 6; end <= base64.length(); end++) {
+                    char[] chars = new char[end - start];
+                    base64.getChars(start, end, chars, 0);
+                    for (int i = start; i < end; i++) {
+                        assertEquals(base64.charAt(i), chars[i - start]);
+                    }
+                }
+            }
+        }
+    }
+}
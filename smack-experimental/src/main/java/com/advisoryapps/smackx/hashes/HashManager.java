@@ -33,6 +33,9 @@ import static com.advisoryapps.smackx.hashes.HashManager.ALGORITHM.SHA_256;
 import static com.advisoryapps.smackx.hashes.HashManager.ALGORITHM.SHA_384;
 import static com.advisoryapps.smackx.hashes.HashManager.ALGORITHM.SHA_512;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -103,6 +106,40 @@ public final class HashManager extends Manager {
         return new HashElement(algorithm, hash(algorithm, data));
     }
 
+    /**
+     * Calculate the hashes of all data of the given input stream for several algorithms in a single pass. The stream
+     * is read until its end, but not closed.
+     *
+     * @param inputStream the input stream.
+     * @param algorithms the hash algorithms.
+     * @return the hash elements, in the order of the given algorithms.
+     * @throws IOException if reading from the stream failed.
+     * @see StreamingHasher
+     * @since 4.4.0
+     */
+    public static List<HashElement> calculateHashElements(InputStream inputStream, ALGORITHM... algorithms)
+                    throws IOException {
+        StreamingHasher hasher = new StreamingHasher(algorithms);
+        hasher.update(inputStream);
+        return hasher.digest();
+    }
+
+    /**
+     * Calculate the hashes of the given file for several algorithms in a single pass.
+     *
+     * @param file the file.
+     * @param algorithms the hash algorithms.
+     * @return the hash elements, in the order of the given algorithms.
+     * @throws IOException if reading the file failed.
+     * @see StreamingHasher
+     * @since 4.4.0
+     */
+    public static List<HashElement> calculateHashElements(File file, ALGORITHM... algorithms) throws IOException {
+        StreamingHasher hasher = new StreamingHasher(algorithms);
+        hasher.update(file);
+        return hasher.digest();
+    }
+
     public static HashElement assembleHashElement(ALGORITHM algorithm, byte[] hash) {
         return new HashElement(algorithm, hash);
     }
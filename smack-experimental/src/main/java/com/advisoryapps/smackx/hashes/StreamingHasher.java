@@ -0,0 +1,330 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smackx.hashes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.advisoryapps.smack.util.CloseableUtil;
+
+import com.advisoryapps.smackx.hashes.element.HashElement;
+
+/**
+ * Computes the hashes of several algorithms in a single pass over the data. Data can be fed in chunks, so that large
+ * files never have to be held in memory, and the resulting {@link HashElement}s can be used directly, e.g. for Jingle
+ * file transfer or HTTP file upload metadata.
+ * <p>
+ * If an {@link Executor} is given, every sufficiently large chunk is hashed by all algorithms in parallel. The
+ * {@code update} methods still only return once all algorithms have processed the chunk, so the caller may reuse its
+ * buffer afterwards. Instances of this class are not thread-safe.
+ * </p>
+ * <pre>{@code
+ * StreamingHasher hasher = new StreamingHasher(ALGORITHM.SHA_256, ALGORITHM.BLAKE2B256);
+ * hasher.update(file);
+ * List<HashElement> hashes = hasher.digest();
+ * }</pre>
+ *
+ * @since 4.4.0
+ */
+public final class StreamingHasher {
+
+    /**
+     * The default size of the buffer used to read from streams and channels.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Chunks smaller than this are always hashed sequentially, as handing them to the executor costs more than it
+     * saves.
+     */
+    static final int PARALLEL_THRESHOLD = 16 * 1024;
+
+    private final List<HashManager.ALGORITHM> algorithms;
+
+    private final MessageDigest[] digests;
+
+    private final Executor executor;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private long length;
+
+    /**
+     * Create a new hasher computing the hashes of the given algorithms sequentially.
+     *
+     * @param algorithms the hash algorithms.
+     */
+    public StreamingHasher(HashManager.ALGORITHM... algorithms) {
+        this(Arrays.asList(algorithms), null);
+    }
+
+    /**
+     * Create a new hasher.
+     *
+     * @param algorithms the hash algorithms.
+     * @param executor the executor used to compute the hashes of the algorithms in parallel, or <code>null</code> to
+     *        compute them sequentially in the calling thread.
+     */
+    public StreamingHasher(Collection<HashManager.ALGORITHM> algorithms, Executor executor) {
+        this.algorithms = Collections.unmodifiableList(new ArrayList<>(algorithms));
+        this.digests = new MessageDigest[this.algorithms.size()];
+        for (int i = 0; i < digests.length; i++) {
+            digests[i] = HashManager.getMessageDigest(this.algorithms.get(i));
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Get the hash algorithms of this hasher.
+     *
+     * @return the hash algorithms.
+     */
+    public List<HashManager.ALGORITHM> getAlgorithms() {
+        return algorithms;
+    }
+
+    /**
+     * Set the size of the buffer used by {@link #update(InputStream)} and {@link #update(FileChannel)}.
+     *
+     * @param bufferSize the buffer size in bytes.
+     */
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Get the number of bytes hashed since the creation or the last reset of this hasher.
+     *
+     * @return the number of bytes hashed.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Update the hashes with the given data.
+     *
+     * @param data the data.
+     * @param offset the offset of the data in the array.
+     * @param len the number of bytes to hash.
+     */
+    public void update(final byte[] data, final int offset, final int len) {
+        if (executor == null || digests.length < 2 || len < PARALLEL_THRESHOLD) {
+            for (MessageDigest digest : digests) {
+                digest.update(data, offset, len);
+            }
+        } else {
+            updateInParallel(new DigestUpdate() {
+                @Override
+                public void update(MessageDigest digest) {
+                    digest.update(data, offset, len);
+                }
+            });
+        }
+        length += len;
+    }
+
+    /**
+     * Update the hashes with the given data.
+     *
+     * @param data the data.
+     */
+    public void update(byte[] data) {
+        update(data, 0, data.length);
+    }
+
+    /**
+     * Update the hashes with the remaining bytes of the given buffer. On return, the position of the buffer equals its
+     * limit.
+     *
+     * @param buffer the buffer.
+     */
+    public void update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            int len = buffer.remaining();
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), len);
+            buffer.position(buffer.limit());
+            return;
+        }
+
+        final ByteBuffer data = buffer;
+        final int len = data.remaining();
+        if (executor == null || digests.length < 2 || len < PARALLEL_THRESHOLD) {
+            for (MessageDigest digest : digests) {
+                digest.update(data.duplicate());
+            }
+        } else {
+            updateInParallel(new DigestUpdate() {
+                @Override
+                public void update(MessageDigest digest) {
+                    digest.update(data.duplicate());
+                }
+            });
+        }
+        buffer.position(buffer.limit());
+        length += len;
+    }
+
+    /**
+     * Update the hashes with all data of the given input stream. The stream is read until its end, but not closed.
+     *
+     * @param inputStream the input stream.
+     * @throws IOException if reading from the stream failed.
+     */
+    public void update(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            update(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Update the hashes with all data of the given channel, starting at its current position. The channel is read until
+     * its end, but not closed.
+     *
+     * @param channel the file channel.
+     * @throws IOException if reading from the channel failed.
+     */
+    public void update(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            update(buffer);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Update the hashes with the content of the given file.
+     *
+     * @param file the file.
+     * @throws IOException if reading the file failed.
+     */
+    public void update(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            update(fis.getChannel());
+        }
+        finally {
+            CloseableUtil.maybeClose(fis);
+        }
+    }
+
+    /**
+     * Complete the hash computations and reset this hasher, so that it can be reused.
+     *
+     * @return the hashes, in the order of the algorithms given on construction.
+     */
+    public List<HashElement> digest() {
+        List<HashElement> hashes = new ArrayList<>(digests.length);
+        for (int i = 0; i < digests.length; i++) {
+            hashes.add(HashManager.assembleHashElement(algorithms.get(i), digests[i].digest()));
+        }
+        length = 0;
+        return hashes;
+    }
+
+    /**
+     * Discard the data hashed so far.
+     */
+    public void reset() {
+        for (MessageDigest digest : digests) {
+            digest.reset();
+        }
+        length = 0;
+    }
+
+    private void updateInParallel(final DigestUpdate digestUpdate) {
+        final CountDownLatch latch = new CountDownLatch(digests.length - 1);
+        final RuntimeException[] failures = new RuntimeException[digests.length];
+        for (int i = 1; i < digests.length; i++) {
+            final int index = i;
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        digestUpdate.update(digests[index]);
+                    }
+                    catch (RuntimeException e) {
+                        failures[index] = e;
+                    }
+                    finally {
+                        latch.countDown();
+                    }
+                }
+            };
+            try {
+                executor.execute(task);
+            }
+            catch (RejectedExecutionException e) {
+                task.run();
+            }
+        }
+
+        // Let the calling thread do a share of the work instead of just waiting.
+        try {
+            digestUpdate.update(digests[0]);
+        }
+        catch (RuntimeException e) {
+            failures[0] = e;
+        }
+
+        // The data must not be touched by the caller before all digests have processed it, hence wait even if
+        // interrupted and restore the interrupt status afterwards.
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        // The latch establishes a happens-before relation with the writes to the failures array.
+        for (RuntimeException failure : failures) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private interface DigestUpdate {
+        void update(MessageDigest digest);
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smackx.httpfileupload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import com.advisoryapps.smack.util.CloseableUtil;
+
+import com.advisoryapps.smackx.hashes.HashManager;
+import com.advisoryapps.smackx.hashes.StreamingHasher;
+import com.advisoryapps.smackx.hashes.element.HashElement;
+import com.advisoryapps.smackx.httpfileupload.element.Slot;
+
+/**
+ * The upload of a file to the PUT URL of a slot. The file is read through its {@link FileChannel} and streamed in
+ * fixed-length mode. The hashes of the file are computed in the same pass. Failed uploads are
+ * retried, since PUT requests are idempotent.
+ */
+final class HttpFileUpload {
+
+    private static final Logger LOGGER = Logger.getLogger(HttpFileUpload.class.getName());
+
+    /**
+     * The delay before the first retry of a failed upload, the following retries back off linearly.
+     */
+    static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final File file;
+
+    private final Slot slot;
+
+    private final SSLSocketFactory tlsSocketFactory;
+
+    private final int bufferSize;
+
+    private final int maxAttempts;
+
+    private final List<HashManager.ALGORITHM> hashAlgorithms;
+
+    HttpFileUpload(File file, Slot slot, SSLSocketFactory tlsSocketFactory, int bufferSize, int maxAttempts,
+                    List<HashManager.ALGORITHM> hashAlgorithms) {
+        this.file = file;
+        this.slot = slot;
+        this.tlsSocketFactory = tlsSocketFactory;
+        this.bufferSize = bufferSize;
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        this.hashAlgorithms = hashAlgorithms;
+    }
+
+    /**
+     * Upload the file, retrying failed attempts.
+     *
+     * @param listener upload progress listener or null.
+     * @return the hashes of the file, in the order of the requested algorithms.
+     * @throws IOException if the last attempt to upload the file failed.
+     * @throws InterruptedException if the calling thread was interrupted while waiting to retry.
+     */
+    List<HashElement> upload(UploadProgressListener listener) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return uploadOnce(listener);
+            }
+            catch (RetryableUploadException e) {
+                if (attempt >= maxAttempts) {
+                    throw e.getIOException();
+                }
+                LOGGER.log(Level.FINE, "Attempt " + attempt + " to upload " + file + " failed, retrying", e);
+            }
+            Thread.sleep(attempt * RETRY_DELAY_MILLIS);
+        }
+    }
+
+    private List<HashElement> uploadOnce(UploadProgressListener listener) throws IOException {
+        final long fileSize = file.length();
+
+        StreamingHasher hasher = new StreamingHasher(hashAlgorithms, null);
+
+        final URL putUrl = slot.getPutUrl();
+
+        final HttpURLConnection urlConnection;
+        try {
+            urlConnection = (HttpURLConnection) putUrl.openConnection();
+        }
+        catch (IOException e) {
+            throw new RetryableUploadException(e);
+        }
+
+        try {
+            urlConnection.setRequestMethod("PUT");
+            urlConnection.setUseCaches(false);
+            urlConnection.setDoOutput(true);
+            urlConnection.setFixedLengthStreamingMode(fileSize);
+            urlConnection.setRequestProperty("Content-Type", "application/octet-stream");
+            for (Entry<String, String> header : slot.getHeaders().entrySet()) {
+                urlConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            if (tlsSocketFactory != null && urlConnection instanceof HttpsURLConnection) {
+                HttpsURLConnection httpsUrlConnection = (HttpsURLConnection) urlConnection;
+                httpsUrlConnection.setSSLSocketFactory(tlsSocketFactory);
+            }
+
+            // Open the file before connecting, so that we fail without a request if the file can not be read.
+            FileInputStream fis = new FileInputStream(file);
+            try {
+                OutputStream outputStream = urlConnection.getOutputStream();
+                try {
+                    if (listener != null) {
+                        listener.onUploadProgress(0, fileSize);
+                    }
+
+                    write(fis.getChannel(), fileSize, outputStream, hasher, listener);
+                }
+                finally {
+                    try {
+                        outputStream.close();
+                    }
+                    catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Exception while closing output stream", e);
+                    }
+                }
+            }
+            catch (IOException e) {
+                throw new RetryableUploadException(e);
+            }
+            finally {
+                CloseableUtil.maybeClose(fis, LOGGER);
+            }
+
+            int status;
+            try {
+                status = urlConnection.getResponseCode();
+            }
+            catch (IOException e) {
+                throw new RetryableUploadException(e);
+            }
+            switch (status) {
+            case HttpURLConnection.HTTP_OK:
+            case HttpURLConnection.HTTP_CREATED:
+            case HttpURLConnection.HTTP_NO_CONTENT:
+                break;
+            default:
+                String message = "Error response " + status + " from server during file upload: "
+                                + urlConnection.getResponseMessage() + ", file size: " + fileSize + ", put URL: "
+                                + putUrl;
+                if (status >= 500) {
+                    // Server errors may be temporary.
+                    throw new RetryableUploadException(message);
+                }
+                throw new IOException(message);
+            }
+        }
+        finally {
+            urlConnection.disconnect();
+        }
+
+        return hasher.digest();
+    }
+
+    private void write(FileChannel channel, long fileSize, OutputStream outputStream, StreamingHasher hasher,
+                    UploadProgressListener listener) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        long bytesSend = 0;
+        int bytesRead;
+        while ((bytesRead = channel.read(byteBuffer)) != -1) {
+            bytesSend += write(buffer, bytesRead, outputStream, hasher);
+            byteBuffer.clear();
+
+            if (listener != null) {
+                listener.onUploadProgress(bytesSend, fileSize);
+            }
+        }
+    }
+
+    private static int write(byte[] buffer, int length, OutputStream outputStream, StreamingHasher hasher)
+                    throws IOException {
+        outputStream.write(buffer, 0, length);
+        hasher.update(buffer, 0, length);
+        return length;
+    }
+
+    /**
+     * An upload failure that may be temporary, like a network error or a server error.
+     */
+    private static final class RetryableUploadException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private RetryableUploadException(String message) {
+            super(message);
+        }
+
+        private RetryableUploadException(IOException cause) {
+            super(cause.getMessage());
+            initCause(cause);
+        }
+
+        private IOException getIOException() {
+            Throwable cause = getCause();
+            if (cause instanceof IOException) {
+                return (IOException) cause;
+            }
+            return this;
+        }
+    }
+}
@@ -16,22 +16,27 @@
  */
 package com.advisoryapps.smackx.httpfileupload;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
 
@@ -46,6 +51,8 @@ import com.advisoryapps.smack.XMPPException;
 
 import com.advisoryapps.smackx.disco.ServiceDiscoveryManager;
 import com.advisoryapps.smackx.disco.packet.DiscoverInfo;
+import com.advisoryapps.smackx.hashes.HashManager;
+import com.advisoryapps.smackx.hashes.element.HashElement;
 import com.advisoryapps.smackx.httpfileupload.UploadService.Version;
 import com.advisoryapps.smackx.httpfileupload.element.Slot;
 import com.advisoryapps.smackx.httpfileupload.element.SlotRequest;
@@ -95,6 +102,12 @@ public final class HttpFileUploadManager extends Manager {
 
     private SSLSocketFactory tlsSocketFactory;
 
+    private int uploadBufferSize = 64 * 1024;
+
+    private int maxUploadAttempts = 3;
+
+    private final ThreadPoolExecutor uploadExecutor;
+
     /**
      * Obtain the HttpFileUploadManager responsible for a connection.
      *
@@ -115,6 +128,18 @@ public final class HttpFileUploadManager extends Manager {
     private HttpFileUploadManager(XMPPConnection connection) {
         super(connection);
 
+        uploadExecutor = new ThreadPoolExecutor(4, 4, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                        new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable runnable) {
+                                Thread thread = new Thread(runnable);
+                                thread.setName("Smack HTTP File Upload");
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+        uploadExecutor.allowCoreThreadTimeOut(true);
+
         connection.addConnectionListener(new AbstractConnectionListener() {
             @Override
             public void authenticated(XMPPConnection connection, boolean resumed) {
@@ -385,85 +410,178 @@ public final class HttpFileUploadManager extends Manager {
         setTlsContext(sslContext);
     }
 
-    private void uploadFile(final File file, final Slot slot, UploadProgressListener listener) throws IOException {
-        final long fileSize = file.length();
+    /**
+     * Set the size of the buffer used to upload a file. Default is 64 KiB.
+     *
+     * @param uploadBufferSize the buffer size in bytes.
+     * @since 4.4.0
+     */
+    public void setUploadBufferSize(int uploadBufferSize) {
+        if (uploadBufferSize <= 0) {
+            throw new IllegalArgumentException("Upload buffer size must be positive");
+        }
+        this.uploadBufferSize = uploadBufferSize;
+    }
 
-        // Construct the FileInputStream first to make sure we can actually read the file.
-        final FileInputStream fis = new FileInputStream(file);
+    /**
+     * Get the size of the buffer used to upload a file.
+     *
+     * @return the buffer size in bytes.
+     * @since 4.4.0
+     */
+    public int getUploadBufferSize() {
+        return uploadBufferSize;
+    }
 
-        final URL putUrl = slot.getPutUrl();
+    /**
+     * Set how often the upload of a file to its slot is attempted. An upload is retried if it failed because of a
+     * network error or a server error (5xx). Default is 3.
+     *
+     * @param maxUploadAttempts the maximum number of attempts, at least 1.
+     * @since 4.4.0
+     */
+    public void setMaxUploadAttempts(int maxUploadAttempts) {
+        if (maxUploadAttempts < 1) {
+            throw new IllegalArgumentException("There must be at least one upload attempt");
+        }
+        this.maxUploadAttempts = maxUploadAttempts;
+    }
 
-        final HttpURLConnection urlConnection = (HttpURLConnection) putUrl.openConnection();
+    /**
+     * Get how often the upload of a file to its slot is attempted.
+     *
+     * @return the maximum number of attempts.
+     * @since 4.4.0
+     */
+    public int getMaxUploadAttempts() {
+        return maxUploadAttempts;
+    }
 
-        urlConnection.setRequestMethod("PUT");
-        urlConnection.setUseCaches(false);
-        urlConnection.setDoOutput(true);
-        urlConnection.setFixedLengthStreamingMode(fileSize);
-        urlConnection.setRequestProperty("Content-Type", "application/octet-stream");
-        for (Entry<String, String> header : slot.getHeaders().entrySet()) {
-            urlConnection.setRequestProperty(header.getKey(), header.getValue());
+    /**
+     * Set how many files are uploaded concurrently by {@link #uploadFiles(Collection, UploadProgressListener,
+     * HashManager.ALGORITHM...)}. Default is 4.
+     *
+     * @param maxConcurrentUploads the maximum number of concurrent uploads.
+     * @since 4.4.0
+     */
+    public void setMaxConcurrentUploads(int maxConcurrentUploads) {
+        if (maxConcurrentUploads < 1) {
+            throw new IllegalArgumentException("There must be at least one concurrent upload");
         }
-
-        final SSLSocketFactory tlsSocketFactory = this.tlsSocketFactory;
-        if (tlsSocketFactory != null && urlConnection instanceof HttpsURLConnection) {
-            HttpsURLConnection httpsUrlConnection = (HttpsURLConnection) urlConnection;
-            httpsUrlConnection.setSSLSocketFactory(tlsSocketFactory);
+        synchronized (uploadExecutor) {
+            // The core pool size must never exceed the maximum pool size.
+            if (maxConcurrentUploads > uploadExecutor.getMaximumPoolSize()) {
+                uploadExecutor.setMaximumPoolSize(maxConcurrentUploads);
+                uploadExecutor.setCorePoolSize(maxConcurrentUploads);
+            } else {
+                uploadExecutor.setCorePoolSize(maxConcurrentUploads);
+                uploadExecutor.setMaximumPoolSize(maxConcurrentUploads);
+            }
         }
+    }
 
-        try {
-            OutputStream outputStream = urlConnection.getOutputStream();
-
-            long bytesSend = 0;
+    /**
+     * Get how many files are uploaded concurrently.
+     *
+     * @return the maximum number of concurrent uploads.
+     * @since 4.4.0
+     */
+    public int getMaxConcurrentUploads() {
+        return uploadExecutor.getMaximumPoolSize();
+    }
 
-            if (listener != null) {
-                listener.onUploadProgress(0, fileSize);
+    /**
+     * Request slots for and upload the given files to the HTTP file upload service, computing the hashes of the files
+     * with the given algorithms while they are uploaded.
+     * <p>
+     * The files are uploaded concurrently, at most {@link #getMaxConcurrentUploads()} at a time. The listener is
+     * informed about the aggregated progress of all files, possibly from different threads. If the upload of one file
+     * fails, then the uploads of the remaining files are cancelled. Note that this is a synchronous call -- Smack waits
+     * until all files are uploaded.
+     * </p>
+     *
+     * @param files the files to be uploaded.
+     * @param listener upload progress listener or null.
+     * @param hashAlgorithms the algorithms of the hashes to compute.
+     * @return the uploaded files, in the order of the given files.
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @throws XMPPException.XMPPErrorException if there was an XMPP error returned.
+     * @throws SmackException if Smack detected an exceptional situation.
+     * @throws IOException if an I/O error occured.
+     * @since 4.4.0
+     */
+    public List<UploadedFile> uploadFiles(Collection<File> files, UploadProgressListener listener,
+                    HashManager.ALGORITHM... hashAlgorithms) throws InterruptedException,
+                    XMPPException.XMPPErrorException, SmackException, IOException {
+        long totalBytes = 0;
+        for (File file : files) {
+            if (!file.isFile()) {
+                throw new FileNotFoundException("The path " + file.getAbsolutePath() + " is not a file");
             }
+            totalBytes += file.length();
+        }
 
-            BufferedInputStream inputStream = new BufferedInputStream(fis);
-
-            // TODO Factor in extra static method (and re-use e.g. in bytestream code).
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            try {
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                    bytesSend += bytesRead;
-
-                    if (listener != null) {
-                        listener.onUploadProgress(bytesSend, fileSize);
-                    }
+        final List<HashManager.ALGORITHM> algorithms = Arrays.asList(hashAlgorithms);
+        final AggregatedUploadProgress progress = listener != null ? new AggregatedUploadProgress(listener, totalBytes)
+                        : null;
+
+        List<Future<UploadedFile>> futures = new ArrayList<>(files.size());
+        for (final File file : files) {
+            final UploadProgressListener fileListener = progress != null ? progress.newFileListener() : null;
+            futures.add(uploadExecutor.submit(new Callable<UploadedFile>() {
+                @Override
+                public UploadedFile call() throws Exception {
+                    Slot slot = requestSlot(file.getName(), file.length(), "application/octet-stream");
+                    List<HashElement> hashes = newUpload(file, slot, algorithms).upload(fileListener);
+                    return new UploadedFile(file, slot.getGetUrl(), hashes);
                 }
+            }));
+        }
+
+        List<UploadedFile> uploadedFiles = new ArrayList<>(futures.size());
+        try {
+            for (Future<UploadedFile> future : futures) {
+                uploadedFiles.add(future.get());
             }
-            finally {
-                try {
-                    inputStream.close();
-                }
-                catch (IOException e) {
-                    LOGGER.log(Level.WARNING, "Exception while closing input stream", e);
-                }
-                try {
-                    outputStream.close();
-                }
-                catch (IOException e) {
-                    LOGGER.log(Level.WARNING, "Exception while closing output stream", e);
-                }
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
-
-            int status = urlConnection.getResponseCode();
-            switch (status) {
-            case HttpURLConnection.HTTP_OK:
-            case HttpURLConnection.HTTP_CREATED:
-            case HttpURLConnection.HTTP_NO_CONTENT:
-                break;
-            default:
-                throw new IOException("Error response " + status + " from server during file upload: "
-                                + urlConnection.getResponseMessage() + ", file size: " + fileSize + ", put URL: "
-                                + putUrl);
+            if (cause instanceof SmackException) {
+                throw (SmackException) cause;
+            }
+            if (cause instanceof XMPPException.XMPPErrorException) {
+                throw (XMPPException.XMPPErrorException) cause;
             }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
         }
         finally {
-            urlConnection.disconnect();
+            // Cancel the uploads which are still pending, if an upload failed or we got interrupted.
+            for (Future<UploadedFile> future : futures) {
+                future.cancel(true);
+            }
         }
+
+        return uploadedFiles;
+    }
+
+    private void uploadFile(final File file, final Slot slot, UploadProgressListener listener)
+                    throws IOException, InterruptedException {
+        List<HashManager.ALGORITHM> hashAlgorithms = Collections.emptyList();
+        newUpload(file, slot, hashAlgorithms).upload(listener);
+    }
+
+    private HttpFileUpload newUpload(File file, Slot slot, List<HashManager.ALGORITHM> hashAlgorithms) {
+        return new HttpFileUpload(file, slot, tlsSocketFactory, uploadBufferSize, maxUploadAttempts,
+                        hashAlgorithms);
     }
 
     public static UploadService.Version namespaceToVersion(String namespace) {
@@ -485,4 +603,33 @@ public final class HttpFileUploadManager extends Manager {
     private static boolean containsHttpFileUploadNamespace(DiscoverInfo discoverInfo) {
         return discoverInfo.containsFeature(NAMESPACE) || discoverInfo.containsFeature(NAMESPACE_0_2);
     }
+
+    private static final class AggregatedUploadProgress {
+        private final UploadProgressListener listener;
+        private final long totalBytes;
+        private long uploadedBytes;
+
+        private AggregatedUploadProgress(UploadProgressListener listener, long totalBytes) {
+            this.listener = listener;
+            this.totalBytes = totalBytes;
+        }
+
+        private UploadProgressListener newFileListener() {
+            return new UploadProgressListener() {
+                private long fileUploadedBytes;
+
+                @Override
+                public void onUploadProgress(long uploadedBytes, long totalBytes) {
+                    long delta = uploadedBytes - fileUploadedBytes;
+                    fileUploadedBytes = uploadedBytes;
+                    progress(delta);
+                }
+            };
+        }
+
+        private synchronized void progress(long delta) {
+            uploadedBytes += delta;
+            listener.onUploadProgress(uploadedBytes, totalBytes);
+        }
+    }
 }
@@ -0,0 +1,70 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smackx.httpfileupload;
+
+import java.io.File;
+import java.net.URL;
+import java.util.List;
+
+import com.advisoryapps.smackx.hashes.element.HashElement;
+
+/**
+ * A file uploaded to a HTTP File Upload service.
+ *
+ * @since 4.4.0
+ */
+public final class UploadedFile {
+
+    private final File file;
+
+    private final URL url;
+
+    private final List<HashElement> hashes;
+
+    UploadedFile(File file, URL url, List<HashElement> hashes) {
+        this.file = file;
+        this.url = url;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Get the file that was uploaded.
+     *
+     * @return the uploaded file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the public URL for sharing the uploaded file.
+     *
+     * @return the GET URL of the file.
+     */
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * Get the hashes of the file which were computed while uploading it.
+     *
+     * @return the hashes of the file, in the order of the requested algorithms.
+     */
+    public List<HashElement> getHashes() {
+        return hashes;
+    }
+}
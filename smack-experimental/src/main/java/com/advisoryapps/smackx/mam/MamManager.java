@@ -17,6 +17,7 @@
 package com.advisoryapps.smackx.mam;
 
 import java.text.ParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -24,7 +25,9 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.WeakHashMap;
+import java.util.logging.Logger;
 
 import com.advisoryapps.smack.ConnectionCreationListener;
 import com.advisoryapps.smack.Manager;
@@ -36,6 +39,7 @@ import com.advisoryapps.smack.XMPPConnection;
 import com.advisoryapps.smack.XMPPConnectionRegistry;
 import com.advisoryapps.smack.XMPPException.XMPPErrorException;
 import com.advisoryapps.smack.filter.IQReplyFilter;
+import com.advisoryapps.smack.filter.OrFilter;
 import com.advisoryapps.smack.packet.IQ;
 import com.advisoryapps.smack.packet.Message;
 import com.advisoryapps.smack.packet.Stanza;
@@ -51,6 +55,7 @@ import com.advisoryapps.smackx.mam.element.MamPrefsIQ;
 import com.advisoryapps.smackx.mam.element.MamPrefsIQ.DefaultBehavior;
 import com.advisoryapps.smackx.mam.element.MamQueryIQ;
 import com.advisoryapps.smackx.mam.filter.MamResultFilter;
+import com.advisoryapps.smackx.mam.store.MamStore;
 import com.advisoryapps.smackx.muc.MultiUserChat;
 import com.advisoryapps.smackx.rsm.packet.RSMSet;
 import com.advisoryapps.smackx.xdata.FormField;
@@ -142,6 +147,39 @@ import org.jxmpp.jid.Jid;
  * }
  * </pre>
  *
+ * <h2>Streaming the archive</h2>
+ *
+ * If you want to process all messages of a potentially big result set, e.g. when synchronizing a local copy of the
+ * archive, use {@link #streamArchive(MamQueryArgs, boolean)}. The returned {@link MamResultIterator} yields the results
+ * as they arrive, pages through the archive on its own and optionally requests the next page while you are processing
+ * the current one. At most two pages are held in memory at any time.
+ *
+ * <pre>
+ * {@code
+ * try (MamResultIterator iterator = mamManager.streamArchive(mamQueryArgs, true)) {
+ *     while (iterator.hasNext()) {
+ *         MamResultExtension result = iterator.next();
+ *         ...
+ *     }
+ * }
+ * }
+ * </pre>
+ *
+ * <h2>Keeping a local copy of the archive</h2>
+ *
+ * Instead of querying the archive again after every login, you can keep a local copy of it in a {@link MamStore},
+ * for example a {@link com.advisoryapps.smackx.mam.store.FileMamStore}. Once a store has been set with
+ * {@link #setMamStore(MamStore)}, {@link #catchUp(int)} fetches only the messages which were archived after the latest
+ * message in the store. Messages which have already been fetched are then read from the store.
+ *
+ * <pre>
+ * {@code
+ * mamManager.setMamStore(FileMamStore.open(file));
+ * mamManager.catchUp(100);
+ * List<MamResultExtension> lastMessages = mamManager.getMamStore().getMostRecentResults(mamManager.getArchiveAddress(), 20);
+ * }
+ * </pre>
+ *
  * <h2>Get the supported form fields</h2>
  *
  * You can use {@link #retrieveFormFields()} to retrieve a list of the supported additional form fields by this archive.
@@ -165,6 +203,8 @@ public final class MamManager extends Manager {
         });
     }
 
+    private static final Logger LOGGER = Logger.getLogger(MamManager.class.getName());
+
     private static final String FORM_FIELD_WITH = "with";
     private static final String FORM_FIELD_START = "start";
     private static final String FORM_FIELD_END = "end";
@@ -215,6 +255,8 @@ public final class MamManager extends Manager {
 
     private final ServiceDiscoveryManager serviceDiscoveryManager;
 
+    private MamStore mamStore;
+
     private MamManager(XMPPConnection connection, Jid archiveAddress) {
         super(connection);
         this.archiveAddress = archiveAddress;
@@ -471,6 +513,133 @@ public final class MamManager extends Manager {
         return queryArchive(mamQueryIQ);
     }
 
+    /**
+     * Stream the results of the given query. The query is issued right away, the results are yielded by the returned
+     * iterator as they arrive. Once all results of a page have been received, the iterator automatically requests the
+     * next page, until the archive reports that the result set is complete. If the query arguments request the last
+     * page, e.g. via {@link MamQueryArgs.Builder#queryLastPage()}, then the iterator pages backwards through the archive.
+     * <p>
+     * The page size is determined by {@link MamQueryArgs.Builder#setResultPageSize(Integer)}. If
+     * <code>prefetch</code> is <code>true</code>, then the next page is requested as soon as the current page was
+     * received completely, instead of once the consumer has processed it.
+     * </p>
+     * <p>
+     * The iterator should be closed if it is not consumed completely.
+     * </p>
+     *
+     * @param mamQueryArgs the query arguments.
+     * @param prefetch if the next page should be requested while the current one is processed.
+     * @return an iterator over the results of the query.
+     * @throws NotConnectedException if the XMPP connection is not connected.
+     * @throws NotLoggedInException if the XMPP connection is not authenticated.
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @since 4.4.0
+     */
+    public MamResultIterator streamArchive(MamQueryArgs mamQueryArgs, boolean prefetch)
+                    throws NotConnectedException, NotLoggedInException, InterruptedException {
+        String queryId = StringUtils.secureUniqueRandomString();
+        String node = mamQueryArgs.node;
+        DataForm dataForm = mamQueryArgs.getDataForm();
+
+        MamQueryIQ mamQueryIQ = new MamQueryIQ(queryId, node, dataForm);
+        mamQueryIQ.setType(IQ.Type.set);
+        mamQueryIQ.setTo(archiveAddress);
+
+        mamQueryArgs.maybeAddRsmSet(mamQueryIQ);
+
+        int pageSize = mamQueryArgs.maxResults != null ? mamQueryArgs.maxResults : -1;
+        boolean backwards = mamQueryArgs.beforeUid != null;
+        MamResultIterator iterator = new MamResultIterator(node, dataForm, pageSize, backwards, prefetch);
+        iterator.start(mamQueryIQ);
+        return iterator;
+    }
+
+    /**
+     * Set the store which keeps a local copy of this archive. Use {@link #catchUp(int)} to synchronize the store with
+     * the archive.
+     *
+     * @param mamStore the store or <code>null</code>.
+     * @since 4.4.0
+     */
+    public void setMamStore(MamStore mamStore) {
+        this.mamStore = mamStore;
+    }
+
+    /**
+     * Get the store which keeps a local copy of this archive.
+     *
+     * @return the store or <code>null</code> if none was set.
+     * @since 4.4.0
+     */
+    public MamStore getMamStore() {
+        return mamStore;
+    }
+
+    /**
+     * Fetch the messages which have been archived after the latest message in this manager's {@link MamStore} and add
+     * them to the store. If the store does not contain any message of this archive yet, then the whole archive is
+     * fetched. The results are added to the store page by page, hence a catch-up which is interrupted, e.g. because the
+     * connection was lost, can simply be resumed later on.
+     * <p>
+     * If the store fails to add the results, then the catch-up is aborted, so that the store never misses messages in
+     * the middle of the archive.
+     * </p>
+     *
+     * @param pageSize the number of messages to fetch per page.
+     * @return the number of messages fetched from the archive.
+     * @throws NoResponseException if there was no response from the remote entity.
+     * @throws XMPPErrorException if there was an XMPP error returned, e.g. because the archive does not know the
+     *         latest stored message any more.
+     * @throws NotConnectedException if the XMPP connection is not connected.
+     * @throws NotLoggedInException if the XMPP connection is not authenticated.
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @throws IllegalStateException if no store has been set.
+     * @since 4.4.0
+     */
+    public int catchUp(int pageSize) throws NoResponseException, XMPPErrorException, NotConnectedException,
+                    NotLoggedInException, InterruptedException {
+        final MamStore mamStore = this.mamStore;
+        if (mamStore == null) {
+            throw new IllegalStateException("No MamStore set");
+        }
+        getAuthenticatedConnectionOrThrow();
+        final Jid archiveAddress = getArchiveAddress();
+
+        MamQueryArgs.Builder mamQueryArgsBuilder = MamQueryArgs.builder().setResultPageSizeTo(pageSize);
+        String latestStanzaId = mamStore.getLatestStanzaId(archiveAddress);
+        if (latestStanzaId != null) {
+            mamQueryArgsBuilder.afterUid(latestStanzaId);
+        }
+
+        int fetchedResults = 0;
+        List<MamResultExtension> results = new ArrayList<>(pageSize);
+        try (MamResultIterator iterator = streamArchive(mamQueryArgsBuilder.build(), true)) {
+            while (iterator.hasNext()) {
+                results.add(iterator.next());
+                if (results.size() < pageSize) {
+                    continue;
+                }
+                if (!addResultsToStore(mamStore, archiveAddress, results)) {
+                    return fetchedResults;
+                }
+                fetchedResults += results.size();
+                results.clear();
+            }
+        }
+        if (!results.isEmpty() && addResultsToStore(mamStore, archiveAddress, results)) {
+            fetchedResults += results.size();
+        }
+        return fetchedResults;
+    }
+
+    private static boolean addResultsToStore(MamStore mamStore, Jid archiveAddress, List<MamResultExtension> results) {
+        boolean added = mamStore.addResults(archiveAddress, results);
+        if (!added) {
+            LOGGER.warning("Could not add results of " + archiveAddress + " to " + mamStore + ", aborting catch-up");
+        }
+        return added;
+    }
+
     private static FormField getWithFormField(Jid withJid) {
         return FormField.builder(FORM_FIELD_WITH)
                         .addValue(withJid.toString())
@@ -641,6 +810,210 @@ public final class MamManager extends Manager {
         }
     }
 
+    /**
+     * An iterator over the results of a MAM query, which pages through the archive on its own. Obtain an instance via
+     * {@link MamManager#streamArchive(MamQueryArgs, boolean)}.
+     * <p>
+     * Note that {@link #hasNext()} may block while waiting for further results. Instances are not thread-safe.
+     * </p>
+     *
+     * @since 4.4.0
+     */
+    public final class MamResultIterator implements AutoCloseable {
+        private final String node;
+        private final DataForm form;
+        private final int pageSize;
+        private final boolean backwards;
+        private final boolean prefetch;
+
+        private final ArrayDeque<MamResultExtension> results = new ArrayDeque<>();
+
+        private Page currentPage;
+        private Page nextPage;
+
+        private int receivedPages;
+        private boolean closed;
+
+        private MamResultIterator(String node, DataForm form, int pageSize, boolean backwards, boolean prefetch) {
+            this.node = node;
+            this.form = form;
+            this.pageSize = pageSize;
+            this.backwards = backwards;
+            this.prefetch = prefetch;
+        }
+
+        private void start(MamQueryIQ mamQueryIq) throws NotConnectedException, NotLoggedInException,
+                        InterruptedException {
+            currentPage = requestPage(mamQueryIq);
+        }
+
+        /**
+         * Check if there are further results, waiting for them if necessary.
+         *
+         * @return <code>true</code> if there is a further result.
+         * @throws NoResponseException if there was no response from the archive.
+         * @throws XMPPErrorException if the archive returned an error.
+         * @throws NotConnectedException if the XMPP connection is not connected.
+         * @throws NotLoggedInException if the XMPP connection is not authenticated.
+         * @throws InterruptedException if the calling thread was interrupted.
+         */
+        public boolean hasNext() throws NoResponseException, XMPPErrorException, NotConnectedException,
+                        NotLoggedInException, InterruptedException {
+            while (results.isEmpty()) {
+                if (closed || currentPage == null) {
+                    return false;
+                }
+                if (currentPage.mamFin == null) {
+                    receive(currentPage);
+                    continue;
+                }
+
+                // All results of the current page have been consumed, continue with the next page, if any.
+                Page finishedPage = currentPage;
+                if (nextPage != null) {
+                    currentPage = nextPage;
+                    nextPage = null;
+                } else {
+                    currentPage = requestNextPage(finishedPage.mamFin);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Get the next result. Use {@link #hasNext()} to check if there is a further result first.
+         *
+         * @return the next result.
+         * @throws NoSuchElementException if there is no further result available.
+         */
+        public MamResultExtension next() {
+            MamResultExtension result = results.poll();
+            if (result == null) {
+                throw new NoSuchElementException();
+            }
+            return result;
+        }
+
+        /**
+         * Get the number of pages received completely so far.
+         *
+         * @return the number of received pages.
+         */
+        public int getReceivedPagesCount() {
+            return receivedPages;
+        }
+
+        /**
+         * Stop the iteration. No further pages are requested and results which are still in flight are ignored.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            results.clear();
+            if (currentPage != null) {
+                currentPage.collector.cancel();
+                currentPage = null;
+            }
+            if (nextPage != null) {
+                nextPage.collector.cancel();
+                nextPage = null;
+            }
+        }
+
+        private void receive(Page page) throws NoResponseException, XMPPErrorException, NotConnectedException,
+                        NotLoggedInException, InterruptedException {
+            Stanza stanza = page.collector.nextResult();
+            if (stanza == null) {
+                StanzaCollector collector = page.collector;
+                close();
+                if (!connection().isConnected()) {
+                    throw new NotConnectedException(connection(), collector.getStanzaFilter());
+                }
+                throw NoResponseException.newWith(connection(), collector.getStanzaFilter());
+            }
+
+            // Process everything that is already available, so that we learn about the end of the page as early as
+            // possible.
+            do {
+                if (stanza instanceof Message) {
+                    results.add(MamResultExtension.from((Message) stanza));
+                    continue;
+                }
+
+                page.collector.cancel();
+                try {
+                    XMPPErrorException.ifHasErrorThenThrow(stanza);
+                }
+                catch (XMPPErrorException e) {
+                    close();
+                    throw e;
+                }
+                page.mamFin = (MamFinIQ) stanza;
+                receivedPages++;
+                if (prefetch && page == currentPage && nextPage == null) {
+                    nextPage = requestNextPage(page.mamFin);
+                }
+                return;
+            } while ((stanza = page.collector.pollResult()) != null);
+        }
+
+        private Page requestNextPage(MamFinIQ mamFin) throws NotConnectedException, NotLoggedInException,
+                        InterruptedException {
+            if (mamFin.isComplete()) {
+                return null;
+            }
+            RSMSet resultRsmSet = mamFin.getRSMSet();
+            if (resultRsmSet == null) {
+                return null;
+            }
+            String uid = backwards ? resultRsmSet.getFirst() : resultRsmSet.getLast();
+            if (uid == null) {
+                // The page was empty.
+                return null;
+            }
+            RSMSet.PageDirection pageDirection = backwards ? RSMSet.PageDirection.before : RSMSet.PageDirection.after;
+
+            String queryId = StringUtils.secureUniqueRandomString();
+            MamQueryIQ mamQueryIQ = new MamQueryIQ(queryId, node, form);
+            mamQueryIQ.setType(IQ.Type.set);
+            mamQueryIQ.setTo(archiveAddress);
+            mamQueryIQ.addExtension(new RSMSet(pageSize, uid, pageDirection));
+
+            return requestPage(mamQueryIQ);
+        }
+
+        private Page requestPage(MamQueryIQ mamQueryIq) throws NotConnectedException, NotLoggedInException,
+                        InterruptedException {
+            final XMPPConnection connection = getAuthenticatedConnectionOrThrow();
+            // The results and the final IQ response of a page are collected by a single collector, which keeps them in
+            // the order they were received. The results of a page are send before the final response.
+            StanzaCollector.Configuration collectorConfiguration = StanzaCollector.newConfiguration()
+                    .setStanzaFilter(new OrFilter(new MamResultFilter(mamQueryIq), new IQReplyFilter(mamQueryIq, connection)));
+            if (pageSize > 0) {
+                // A page consists of at most pageSize results followed by the final response.
+                collectorConfiguration.setSize(pageSize + 1);
+            }
+            StanzaCollector collector = connection.createStanzaCollector(collectorConfiguration);
+            try {
+                connection.sendStanza(mamQueryIq);
+            }
+            catch (NotConnectedException | InterruptedException e) {
+                collector.cancel();
+                throw e;
+            }
+            return new Page(collector);
+        }
+    }
+
+    private static final class Page {
+        private final StanzaCollector collector;
+        private MamFinIQ mamFin;
+
+        private Page(StanzaCollector collector) {
+            this.collector = collector;
+        }
+    }
+
     public static final class MamQueryPage {
         private final MamFinIQ mamFin;
         private final List<Message> mamResultCarrierMessages;
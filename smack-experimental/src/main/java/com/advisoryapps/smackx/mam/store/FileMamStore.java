@@ -0,0 +1,322 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smackx.mam.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.advisoryapps.smack.parsing.SmackParsingException;
+import com.advisoryapps.smack.util.PacketParserUtils;
+import com.advisoryapps.smack.util.RecordLog;
+import com.advisoryapps.smack.util.StringUtils;
+import com.advisoryapps.smack.xml.XmlPullParser;
+import com.advisoryapps.smack.xml.XmlPullParserException;
+
+import com.advisoryapps.smackx.mam.element.MamElements.MamResultExtension;
+import com.advisoryapps.smackx.mam.provider.MamResultProvider;
+
+import org.jxmpp.jid.Jid;
+
+/**
+ * A {@link MamStore} which keeps the results of all archives in a single {@link RecordLog}. Results are never
+ * rewritten once they have been appended, resetting an archive appends a record which marks all previous results of
+ * the archive as removed. The file is memory-mapped for reading, only an index of the stanza-ids and the positions of
+ * the results is kept on the heap.
+ * <p>
+ * If the application crashed while appending results, then the incomplete trailing record is discarded the next time
+ * the store is opened. The size of the file is limited to 2 GiB.
+ * </p>
+ *
+ * @since 4.4.0
+ */
+public final class FileMamStore implements MamStore, Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(FileMamStore.class.getName());
+
+    /**
+     * The magic number "SMAM" at the beginning of the file.
+     */
+    private static final int MAGIC = 0x534d414d;
+
+    private static final int VERSION = 1;
+
+    private static final byte RECORD_TYPE_RESULT = 1;
+
+    private static final byte RECORD_TYPE_RESET = 2;
+
+    private static final MamResultProvider MAM_RESULT_PROVIDER = new MamResultProvider();
+
+    private final File file;
+
+    private final Map<String, Archive> archives = new HashMap<>();
+
+    private RecordLog log;
+
+    private FileMamStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Open the store in the given file. The file is created if it does not exist.
+     *
+     * @param file the file of the store.
+     * @return the store.
+     * @throws IOException if the file could not be opened or is not a MAM store.
+     */
+    public static FileMamStore open(File file) throws IOException {
+        final FileMamStore store = new FileMamStore(file);
+        store.log = RecordLog.open(file, MAGIC, VERSION, new RecordLog.RecordHandler() {
+            @Override
+            public void handleRecord(byte type, ByteBuffer payload, long payloadPosition) throws IOException {
+                store.loadRecord(type, payload, payloadPosition);
+            }
+        });
+        return store;
+    }
+
+    private void loadRecord(byte type, ByteBuffer payload, long payloadPosition) throws IOException {
+        String archiveKey = RecordLog.readString(payload);
+        switch (type) {
+        case RECORD_TYPE_RESULT:
+            String stanzaId = RecordLog.readString(payload);
+            getOrCreateArchive(archiveKey).add(stanzaId, payloadPosition + payload.position(), payload.remaining());
+            break;
+        case RECORD_TYPE_RESET:
+            archives.remove(archiveKey);
+            break;
+        default:
+            throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    @Override
+    public synchronized boolean addResults(Jid archiveAddress, Collection<MamResultExtension> results) {
+        String archiveKey = archiveAddress.toString();
+        Archive archive = archives.get(archiveKey);
+        RecordLog.RecordBuilder records = new RecordLog.RecordBuilder();
+        List<String> stanzaIds = new ArrayList<>(results.size());
+        List<Integer> xmlOffsets = new ArrayList<>(results.size());
+        List<Integer> xmlLengths = new ArrayList<>(results.size());
+        Set<String> batchStanzaIds = new HashSet<>(results.size());
+        for (MamResultExtension result : results) {
+            String stanzaId = result.getId();
+            if ((archive != null && archive.contains(stanzaId)) || !batchStanzaIds.add(stanzaId)) {
+                continue;
+            }
+
+            // The query ID only has a meaning for the query which returned the result, hence it is not stored.
+            MamResultExtension storedResult = new MamResultExtension(null, stanzaId, result.getForwarded());
+            byte[] xml = StringUtils.toUtf8Bytes(storedResult.toXML().toString());
+
+            records.writeString(archiveKey).writeString(stanzaId);
+            int xmlOffset = records.getPayloadLength();
+            records.write(xml);
+            stanzaIds.add(stanzaId);
+            xmlOffsets.add(records.endRecord(RECORD_TYPE_RESULT) + xmlOffset);
+            xmlLengths.add(xml.length);
+        }
+
+        if (stanzaIds.isEmpty()) {
+            return true;
+        }
+        long position = append(records);
+        if (position < 0) {
+            return false;
+        }
+
+        archive = getOrCreateArchive(archiveKey);
+        for (int i = 0; i < stanzaIds.size(); i++) {
+            archive.add(stanzaIds.get(i), position + xmlOffsets.get(i), xmlLengths.get(i));
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized String getLatestStanzaId(Jid archiveAddress) {
+        Archive archive = archives.get(archiveAddress.toString());
+        if (archive == null) {
+            return null;
+        }
+        return archive.records.get(archive.records.size() - 1).stanzaId;
+    }
+
+    @Override
+    public synchronized boolean contains(Jid archiveAddress, String stanzaId) {
+        Archive archive = archives.get(archiveAddress.toString());
+        return archive != null && archive.contains(stanzaId);
+    }
+
+    @Override
+    public synchronized int getResultsCount(Jid archiveAddress) {
+        Archive archive = archives.get(archiveAddress.toString());
+        if (archive == null) {
+            return 0;
+        }
+        return archive.records.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the result with the given stanza-id is not stored, then an empty list is returned.
+     * </p>
+     */
+    @Override
+    public synchronized List<MamResultExtension> getResultsAfter(Jid archiveAddress, String afterStanzaId, int max) {
+        Archive archive = archives.get(archiveAddress.toString());
+        if (archive == null) {
+            return Collections.emptyList();
+        }
+        int from = 0;
+        if (afterStanzaId != null) {
+            Record afterRecord = archive.recordsByStanzaId.get(afterStanzaId);
+            if (afterRecord == null) {
+                return Collections.emptyList();
+            }
+            from = afterRecord.index + 1;
+        }
+        int to = (int) Math.min((long) from + max, archive.records.size());
+        return readResults(archive.records, from, to);
+    }
+
+    @Override
+    public synchronized List<MamResultExtension> getMostRecentResults(Jid archiveAddress, int max) {
+        Archive archive = archives.get(archiveAddress.toString());
+        if (archive == null) {
+            return Collections.emptyList();
+        }
+        int to = archive.records.size();
+        int from = Math.max(0, to - max);
+        return readResults(archive.records, from, to);
+    }
+
+    @Override
+    public synchronized boolean resetArchive(Jid archiveAddress) {
+        String archiveKey = archiveAddress.toString();
+        if (!archives.containsKey(archiveKey)) {
+            return true;
+        }
+        RecordLog.RecordBuilder record = new RecordLog.RecordBuilder();
+        record.writeString(archiveKey).endRecord(RECORD_TYPE_RESET);
+        if (append(record) < 0) {
+            return false;
+        }
+        archives.remove(archiveKey);
+        return true;
+    }
+
+    /**
+     * Get the size of the store's file in bytes.
+     *
+     * @return the size of the file.
+     */
+    public synchronized long getFileSize() {
+        return log.getSize();
+    }
+
+    /**
+     * Force all appended results to the storage device and close the store.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        log.close();
+    }
+
+    private long append(RecordLog.RecordBuilder records) {
+        try {
+            return log.append(records.toByteArray());
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Exception while appending to " + file, e);
+            return -1;
+        }
+    }
+
+    private List<MamResultExtension> readResults(List<Record> records, int from, int to) {
+        List<MamResultExtension> results = new ArrayList<>(to - from);
+        try {
+            ByteBuffer buffer = log.getMappedBuffer();
+            for (int i = from; i < to; i++) {
+                Record record = records.get(i);
+                byte[] xml = new byte[record.xmlLength];
+                buffer.position((int) record.xmlPosition);
+                buffer.get(xml);
+
+                XmlPullParser parser = PacketParserUtils.getParserFor(new String(xml, StandardCharsets.UTF_8));
+                results.add(MAM_RESULT_PROVIDER.parse(parser));
+            }
+        }
+        catch (IOException | XmlPullParserException | SmackParsingException e) {
+            LOGGER.log(Level.SEVERE, "Exception while reading results from " + file, e);
+            return null;
+        }
+        return results;
+    }
+
+    private Archive getOrCreateArchive(String archiveKey) {
+        Archive archive = archives.get(archiveKey);
+        if (archive == null) {
+            archive = new Archive();
+            archives.put(archiveKey, archive);
+        }
+        return archive;
+    }
+
+    private static final class Archive {
+        private final List<Record> records = new ArrayList<>();
+        private final Map<String, Record> recordsByStanzaId = new HashMap<>();
+
+        private boolean contains(String stanzaId) {
+            return recordsByStanzaId.containsKey(stanzaId);
+        }
+
+        private void add(String stanzaId, long xmlPosition, int xmlLength) {
+            Record record = new Record(stanzaId, records.size(), xmlPosition, xmlLength);
+            records.add(record);
+            recordsByStanzaId.put(stanzaId, record);
+        }
+    }
+
+    private static final class Record {
+        private final String stanzaId;
+        private final int index;
+        private final long xmlPosition;
+        private final int xmlLength;
+
+        private Record(String stanzaId, int index, long xmlPosition, int xmlLength) {
+            this.stanzaId = stanzaId;
+            this.index = index;
+            this.xmlPosition = xmlPosition;
+            this.xmlLength = xmlLength;
+        }
+    }
+}
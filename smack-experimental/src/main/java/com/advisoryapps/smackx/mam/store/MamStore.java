@@ -0,0 +1,103 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smackx.mam.store;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.advisoryapps.smackx.mam.element.MamElements.MamResultExtension;
+
+import org.jxmpp.jid.Jid;
+
+/**
+ * A local store for the results of Message Archive Management (MAM, XEP-0313) archives. The results are stored per
+ * archive address and keyed by their archive stanza-id, which allows a client to only fetch the part of an archive
+ * it has not seen yet, see {@link com.advisoryapps.smackx.mam.MamManager#catchUp(int)}.
+ * <p>
+ * Within an archive, the results are kept in the order they were added, which is expected to be the order of the
+ * archive.
+ * </p>
+ *
+ * @since 4.4.0
+ */
+public interface MamStore {
+
+    /**
+     * Add the given results of an archive to this store. Results whose stanza-id is already contained in the store
+     * are ignored.
+     *
+     * @param archiveAddress the address of the archive the results belong to.
+     * @param results the results, in archive order.
+     * @return <code>true</code> if successful.
+     */
+    boolean addResults(Jid archiveAddress, Collection<MamResultExtension> results);
+
+    /**
+     * Get the stanza-id of the latest result stored for the given archive.
+     *
+     * @param archiveAddress the address of the archive.
+     * @return the stanza-id of the latest stored result or <code>null</code> if there are none.
+     */
+    String getLatestStanzaId(Jid archiveAddress);
+
+    /**
+     * Check if this store contains the result with the given stanza-id.
+     *
+     * @param archiveAddress the address of the archive.
+     * @param stanzaId the stanza-id of the result.
+     * @return <code>true</code> if the result is stored.
+     */
+    boolean contains(Jid archiveAddress, String stanzaId);
+
+    /**
+     * Get the number of results stored for the given archive.
+     *
+     * @param archiveAddress the address of the archive.
+     * @return the number of stored results.
+     */
+    int getResultsCount(Jid archiveAddress);
+
+    /**
+     * Get up to <code>max</code> results following the result with the given stanza-id, oldest first. If there was an
+     * error while reading the store, then <code>null</code> is returned.
+     *
+     * @param archiveAddress the address of the archive.
+     * @param afterStanzaId the stanza-id of the result to start after, or <code>null</code> to start with the oldest
+     *        stored result.
+     * @param max the maximum number of results to return.
+     * @return a list of results or <code>null</code>.
+     */
+    List<MamResultExtension> getResultsAfter(Jid archiveAddress, String afterStanzaId, int max);
+
+    /**
+     * Get the <code>max</code> most recent results of the given archive, oldest first. If there was an error while
+     * reading the store, then <code>null</code> is returned.
+     *
+     * @param archiveAddress the address of the archive.
+     * @param max the maximum number of results to return.
+     * @return a list of results or <code>null</code>.
+     */
+    List<MamResultExtension> getMostRecentResults(Jid archiveAddress, int max);
+
+    /**
+     * Remove all results of the given archive from this store.
+     *
+     * @param archiveAddress the address of the archive.
+     * @return <code>true</code> if successful.
+     */
+    boolean resetArchive(Jid archiveAddress);
+}
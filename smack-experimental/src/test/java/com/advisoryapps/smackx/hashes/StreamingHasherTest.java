@@ -0,0 +1,135 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smackx.hashes;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.advisoryapps.smack.test.util.SmackTestSuite;
+
+import com.advisoryapps.smackx.hashes.HashManager.ALGORITHM;
+import com.advisoryapps.smackx.hashes.element.HashElement;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StreamingHasherTest extends SmackTestSuite {
+
+    private static final ALGORITHM[] ALGORITHMS = new ALGORITHM[] {
+                    ALGORITHM.SHA_1, ALGORITHM.SHA_256, ALGORITHM.SHA3_256, ALGORITHM.BLAKE2B256, ALGORITHM.BLAKE2B512 };
+
+    // Not a multiple of the buffer size.
+    private static final byte[] DATA = new byte[3 * StreamingHasher.DEFAULT_BUFFER_SIZE + 4711];
+
+    static {
+        new Random(42).nextBytes(DATA);
+    }
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void hashInputStreamInOnePass() throws IOException {
+        List<HashElement> hashes = HashManager.calculateHashElements(new ByteArrayInputStream(DATA), ALGORITHMS);
+        assertHashes(hashes);
+    }
+
+    @Test
+    public void hashFile() throws IOException {
+        File file = new File(tempDir, "data");
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(DATA);
+        }
+        finally {
+            fos.close();
+        }
+
+        List<HashElement> hashes = HashManager.calculateHashElements(file, ALGORITHMS);
+        assertHashes(hashes);
+    }
+
+    @Test
+    public void hashInParallel() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(ALGORITHMS.length);
+        try {
+            StreamingHasher hasher = new StreamingHasher(Arrays.asList(ALGORITHMS), executor);
+            hasher.update(new ByteArrayInputStream(DATA));
+            assertEquals(DATA.length, hasher.getLength());
+            assertHashes(hasher.digest());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void hashDirectByteBuffersInChunks() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            StreamingHasher hasher = new StreamingHasher(Arrays.asList(ALGORITHMS), executor);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(StreamingHasher.PARALLEL_THRESHOLD * 2);
+            int offset = 0;
+            while (offset < DATA.length) {
+                int length = Math.min(buffer.capacity(), DATA.length - offset);
+                buffer.clear();
+                buffer.put(DATA, offset, length);
+                buffer.flip();
+                hasher.update(buffer);
+                assertEquals(buffer.limit(), buffer.position());
+                offset += length;
+            }
+            assertHashes(hasher.digest());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void hasherCanBeReused() {
+        StreamingHasher hasher = new StreamingHasher(ALGORITHMS);
+        hasher.update(new byte[] { 1, 2, 3 });
+        hasher.reset();
+        hasher.update(DATA);
+        assertHashes(hasher.digest());
+
+        assertEquals(0, hasher.getLength());
+        hasher.update(DATA, 0, DATA.length);
+        assertHashes(hasher.digest());
+    }
+
+    private static void assertHashes(List<HashElement> hashes) {
+        assertEquals(ALGORITHMS.length, hashes.size());
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            HashElement hash = hashes.get(i);
+            assertEquals(ALGORITHMS[i], hash.getAlgorithm());
+            assertArrayEquals(HashManager.hash(ALGORITHMS[i], DATA), hash.getHash());
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smackx.httpfileupload;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.advisoryapps.smack.DummyConnection;
+import com.advisoryapps.smack.packet.IQ;
+import com.advisoryapps.smack.packet.TopLevelStreamElement;
+
+import com.advisoryapps.smackx.InitExtensions;
+import com.advisoryapps.smackx.disco.packet.DiscoverInfo;
+import com.advisoryapps.smackx.disco.packet.DiscoverItems;
+import com.advisoryapps.smackx.hashes.HashManager;
+import com.advisoryapps.smackx.hashes.element.HashElement;
+import com.advisoryapps.smackx.httpfileupload.element.Slot;
+import com.advisoryapps.smackx.httpfileupload.element.SlotRequest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class HttpFileUploadTest extends InitExtensions {
+
+    private static final List<HashManager.ALGORITHM> HASH_ALGORITHMS = Arrays.asList(HashManager.ALGORITHM.SHA_256,
+                    HashManager.ALGORITHM.BLAKE2B256);
+
+    @TempDir
+    File tempDir;
+
+    private HttpServer server;
+
+    private ExecutorService serverExecutor;
+
+    private final Map<String, byte[]> uploads = new ConcurrentHashMap<>();
+
+    /**
+     * The number of the next requests that should fail with a server error.
+     */
+    private final AtomicInteger failingRequests = new AtomicInteger();
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+                if (failingRequests.getAndDecrement() > 0) {
+                    exchange.sendResponseHeaders(503, -1);
+                } else {
+                    uploads.put(exchange.getRequestURI().getPath(), body.toByteArray());
+                    exchange.sendResponseHeaders(201, -1);
+                }
+                exchange.close();
+            }
+        });
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void uploadStreamsFileAndComputesHashes() throws Exception {
+        byte[] data = randomData(100000);
+        File file = createFile("file", data);
+
+        List<HashElement> hashes = new HttpFileUpload(file, slotFor("/file"), null, 1000, 1, HASH_ALGORITHMS)
+                        .upload(null);
+
+        assertArrayEquals(data, uploads.get("/file"));
+        assertHashes(data, hashes);
+    }
+
+    @Test
+    public void uploadReportsProgress() throws Exception {
+        byte[] data = randomData(1000000);
+        File file = createFile("file", data);
+
+        final AtomicLong reportedBytes = new AtomicLong();
+        UploadProgressListener listener = new UploadProgressListener() {
+            @Override
+            public void onUploadProgress(long uploadedBytes, long totalBytes) {
+                reportedBytes.set(uploadedBytes);
+            }
+        };
+        List<HashElement> hashes = new HttpFileUpload(file, slotFor("/file"), null, 64 * 1024, 1, HASH_ALGORITHMS)
+                        .upload(listener);
+
+        assertArrayEquals(data, uploads.get("/file"));
+        assertEquals(data.length, reportedBytes.get());
+        assertHashes(data, hashes);
+    }
+
+    @Test
+    public void failedUploadIsRetried() throws Exception {
+        byte[] data = randomData(5000);
+        File file = createFile("file", data);
+        failingRequests.set(1);
+
+        List<HashElement> hashes = new HttpFileUpload(file, slotFor("/file"), null, 1000, 2, HASH_ALGORITHMS)
+                        .upload(null);
+
+        // The hashes of the failed attempt must not leak into the ones of the successful attempt.
+        assertArrayEquals(data, uploads.get("/file"));
+        assertHashes(data, hashes);
+    }
+
+    @Test
+    public void uploadFailsOnceAllAttemptsFailed() throws Exception {
+        File file = createFile("file", randomData(5000));
+        failingRequests.set(2);
+
+        final HttpFileUpload upload = new HttpFileUpload(file, slotFor("/file"), null, 1000, 2,
+                        HASH_ALGORITHMS);
+        assertThrows(IOException.class, () -> upload.upload(null));
+        assertEquals(0, uploads.size());
+    }
+
+    @Test
+    public void uploadFilesConcurrently() throws Exception {
+        final DummyConnection connection = new DummyConnection();
+        final AtomicBoolean uploadServiceRunning = new AtomicBoolean(true);
+        Thread uploadService = new Thread() {
+            @Override
+            public void run() {
+                while (uploadServiceRunning.get()) {
+                    TopLevelStreamElement element = connection.getSentPacket(1);
+                    if (element instanceof IQ) {
+                        answer(connection, (IQ) element);
+                    }
+                }
+            }
+        };
+        uploadService.setDaemon(true);
+        uploadService.start();
+        try {
+            connection.connect();
+            connection.login();
+
+            HttpFileUploadManager manager = HttpFileUploadManager.getInstanceFor(connection);
+            manager.discoverUploadService();
+            manager.setMaxConcurrentUploads(3);
+            manager.setUploadBufferSize(4096);
+
+            List<File> files = new ArrayList<>();
+            List<byte[]> datas = new ArrayList<>();
+            long totalBytes = 0;
+            for (int i = 0; i < 8; i++) {
+                byte[] data = randomData(20000 + i * 1000);
+                datas.add(data);
+                files.add(createFile("file" + i, data));
+                totalBytes += data.length;
+            }
+
+            final AtomicLong reportedBytes = new AtomicLong();
+            final AtomicLong reportedTotalBytes = new AtomicLong();
+            UploadProgressListener listener = new UploadProgressListener() {
+                @Override
+                public void onUploadProgress(long uploadedBytes, long totalBytes) {
+                    reportedBytes.set(uploadedBytes);
+                    reportedTotalBytes.set(totalBytes);
+                }
+            };
+
+            List<UploadedFile> uploadedFiles = manager.uploadFiles(files, listener,
+                            HASH_ALGORITHMS.toArray(new HashManager.ALGORITHM[0]));
+
+            assertEquals(files.size(), uploadedFiles.size());
+            for (int i = 0; i < files.size(); i++) {
+                UploadedFile uploadedFile = uploadedFiles.get(i);
+                assertEquals(files.get(i), uploadedFile.getFile());
+                assertEquals("/file" + i, uploadedFile.getUrl().getPath());
+                assertArrayEquals(datas.get(i), uploads.get("/file" + i));
+                assertHashes(datas.get(i), uploadedFile.getHashes());
+            }
+            assertEquals(totalBytes, reportedBytes.get());
+            assertEquals(totalBytes, reportedTotalBytes.get());
+        }
+        finally {
+            uploadServiceRunning.set(false);
+            uploadService.join();
+            connection.disconnect();
+        }
+    }
+
+    private void answer(DummyConnection connection, IQ request) {
+        if (request.getType() != IQ.Type.get) {
+            return;
+        }
+        IQ response;
+        if (request instanceof DiscoverInfo) {
+            DiscoverInfo discoverInfo = new DiscoverInfo();
+            discoverInfo.addFeature(HttpFileUploadManager.NAMESPACE);
+            response = discoverInfo;
+        } else if (request instanceof DiscoverItems) {
+            response = new DiscoverItems();
+        } else if (request instanceof SlotRequest) {
+            response = slotFor("/" + ((SlotRequest) request).getFilename());
+        } else {
+            return;
+        }
+        response.setType(IQ.Type.result);
+        response.setFrom(request.getTo());
+        response.setTo(request.getFrom());
+        response.setStanzaId(request.getStanzaId());
+        connection.processStanza(response);
+    }
+
+    private Slot slotFor(String path) {
+        try {
+            URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+            return new Slot(url, url);
+        }
+        catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private File createFile(String name, byte[] data) throws IOException {
+        File file = new File(tempDir, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        return file;
+    }
+
+    private static byte[] randomData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static void assertHashes(byte[] data, List<HashElement> hashes) {
+        assertEquals(HASH_ALGORITHMS.size(), hashes.size());
+        for (int i = 0; i < hashes.size(); i++) {
+            HashElement hash = hashes.get(i);
+            assertEquals(HASH_ALGORITHMS.get(i), hash.getAlgorithm());
+            assertArrayEquals(HashManager.hash(HASH_ALGORITHMS.get(i), data), hash.getHash());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smackx.mam;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.advisoryapps.smack.DummyConnection;
+import com.advisoryapps.smack.packet.IQ;
+import com.advisoryapps.smack.packet.Message;
+import com.advisoryapps.smack.packet.Stanza;
+
+import com.advisoryapps.smackx.InitExtensions;
+import com.advisoryapps.smackx.forward.packet.Forwarded;
+import com.advisoryapps.smackx.mam.element.MamElements.MamResultExtension;
+import com.advisoryapps.smackx.mam.element.MamFinIQ;
+import com.advisoryapps.smackx.mam.element.MamQueryIQ;
+import com.advisoryapps.smackx.mam.store.FileMamStore;
+import com.advisoryapps.smackx.rsm.packet.RSMSet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CatchUpTest extends InitExtensions {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void catchUpOnlyFetchesNewMessages() throws Exception {
+        MockArchiveConnection connection = new MockArchiveConnection();
+        connection.connect();
+        connection.login();
+        MamManager mamManager = MamManager.getInstanceFor(connection);
+        FileMamStore mamStore = FileMamStore.open(new File(tempDir, "mam-store"));
+        mamManager.setMamStore(mamStore);
+
+        connection.archive("1", "2", "3", "4", "5");
+        assertEquals(5, mamManager.catchUp(2));
+        assertEquals(3, connection.queries.size());
+        assertNull(connection.queries.get(0).getAfter());
+
+        connection.queries.clear();
+        connection.archive("6", "7");
+        assertEquals(2, mamManager.catchUp(2));
+        assertEquals("5", connection.queries.get(0).getAfter());
+
+        connection.queries.clear();
+        assertEquals(0, mamManager.catchUp(2));
+        assertEquals(1, connection.queries.size());
+        assertEquals("7", connection.queries.get(0).getAfter());
+
+        assertEquals(7, mamStore.getResultsCount(mamManager.getArchiveAddress()));
+        List<MamResultExtension> mostRecentResults = mamStore.getMostRecentResults(mamManager.getArchiveAddress(), 1);
+        assertEquals("7", mostRecentResults.get(0).getId());
+        mamStore.close();
+    }
+
+    /**
+     * A connection which serves MAM queries from an archive held in memory.
+     */
+    private static final class MockArchiveConnection extends DummyConnection {
+        private final List<String> archivedIds = new ArrayList<>();
+        private final List<RSMSet> queries = new ArrayList<>();
+
+        private void archive(String... ids) {
+            for (String id : ids) {
+                archivedIds.add(id);
+            }
+        }
+
+        @Override
+        protected void sendStanzaInternal(Stanza stanza) {
+            if (!(stanza instanceof MamQueryIQ)) {
+                super.sendStanzaInternal(stanza);
+                return;
+            }
+            MamQueryIQ query = (MamQueryIQ) stanza;
+            RSMSet requestRsmSet = RSMSet.from(query);
+            queries.add(requestRsmSet);
+
+            int from = requestRsmSet.getAfter() == null ? 0 : archivedIds.indexOf(requestRsmSet.getAfter()) + 1;
+            int to = Math.min(from + requestRsmSet.getMax(), archivedIds.size());
+            for (int i = from; i < to; i++) {
+                Message archivedMessage = new Message();
+                archivedMessage.setBody("Message " + archivedIds.get(i));
+                Message resultCarrier = new Message();
+                resultCarrier.addExtension(new MamResultExtension(query.getQueryId(), archivedIds.get(i),
+                                new Forwarded(archivedMessage)));
+                processStanza(resultCarrier);
+            }
+
+            RSMSet resultRsmSet;
+            if (from < to) {
+                resultRsmSet = new RSMSet(null, null, archivedIds.size(), from, archivedIds.get(to - 1), -1,
+                                archivedIds.get(from), from);
+            } else {
+                resultRsmSet = new RSMSet(null, null, archivedIds.size(), -1, null, -1, null, -1);
+            }
+            MamFinIQ mamFinIQ = new MamFinIQ(query.getQueryId(), resultRsmSet, to == archivedIds.size(), false);
+            mamFinIQ.setType(IQ.Type.result);
+            mamFinIQ.setStanzaId(query.getStanzaId());
+            processStanza(mamFinIQ);
+        }
+    }
+}
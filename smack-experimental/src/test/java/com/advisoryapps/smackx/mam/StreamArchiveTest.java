@@ -0,0 +1,114 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smackx.mam;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.advisoryapps.smack.DummyConnection;
+import com.advisoryapps.smack.packet.IQ;
+import com.advisoryapps.smack.packet.Message;
+
+import com.advisoryapps.smackx.InitExtensions;
+import com.advisoryapps.smackx.forward.packet.Forwarded;
+import com.advisoryapps.smackx.mam.MamManager.MamQueryArgs;
+import com.advisoryapps.smackx.mam.MamManager.MamResultIterator;
+import com.advisoryapps.smackx.mam.element.MamElements.MamResultExtension;
+import com.advisoryapps.smackx.mam.element.MamFinIQ;
+import com.advisoryapps.smackx.mam.element.MamQueryIQ;
+import com.advisoryapps.smackx.rsm.packet.RSMSet;
+
+import org.junit.jupiter.api.Test;
+
+public class StreamArchiveTest extends InitExtensions {
+
+    @Test
+    public void resultsAreStreamedAndNextPageIsPrefetched() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        MamManager mamManager = MamManager.getInstanceFor(connection);
+        MamQueryArgs mamQueryArgs = MamQueryArgs.builder().setResultPageSizeTo(2).build();
+
+        MamResultIterator iterator = mamManager.streamArchive(mamQueryArgs, true);
+        MamQueryIQ firstPageQuery = connection.getSentPacket(5);
+        assertEquals(2, RSMSet.from(firstPageQuery).getMax());
+        answerPage(connection, firstPageQuery, false, "1", "2");
+
+        assertTrue(iterator.hasNext());
+        assertEquals("1", iterator.next().getId());
+        // The first page was received completely, hence the second page has already been requested.
+        MamQueryIQ secondPageQuery = connection.getSentPacket(5);
+        RSMSet secondPageRsmSet = RSMSet.from(secondPageQuery);
+        assertEquals("2", secondPageRsmSet.getAfter());
+        assertEquals(2, secondPageRsmSet.getMax());
+        answerPage(connection, secondPageQuery, false, "3", "4");
+
+        assertTrue(iterator.hasNext());
+        assertEquals("2", iterator.next().getId());
+        assertTrue(iterator.hasNext());
+        assertEquals("3", iterator.next().getId());
+
+        MamQueryIQ thirdPageQuery = connection.getSentPacket(5);
+        assertEquals("4", RSMSet.from(thirdPageQuery).getAfter());
+        answerPage(connection, thirdPageQuery, true, "5");
+
+        assertTrue(iterator.hasNext());
+        assertEquals("4", iterator.next().getId());
+        assertTrue(iterator.hasNext());
+        assertEquals("5", iterator.next().getId());
+        assertFalse(iterator.hasNext());
+        assertEquals(3, iterator.getReceivedPagesCount());
+        // The archive reported that the result set is complete, no further page must be requested.
+        assertNull(connection.getSentPacket(0));
+    }
+
+    @Test
+    public void closingStopsTheIteration() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        MamManager mamManager = MamManager.getInstanceFor(connection);
+        MamQueryArgs mamQueryArgs = MamQueryArgs.builder().setResultPageSizeTo(2).build();
+
+        MamResultIterator iterator = mamManager.streamArchive(mamQueryArgs, false);
+        MamQueryIQ firstPageQuery = connection.getSentPacket(5);
+        answerPage(connection, firstPageQuery, false, "1", "2");
+
+        assertTrue(iterator.hasNext());
+        assertEquals("1", iterator.next().getId());
+        // Without prefetching, the next page is only requested once the current page has been consumed.
+        assertNull(connection.getSentPacket(0));
+
+        iterator.close();
+        assertFalse(iterator.hasNext());
+        assertNull(connection.getSentPacket(0));
+    }
+
+    private static void answerPage(DummyConnection connection, MamQueryIQ query, boolean complete, String... ids) {
+        for (String id : ids) {
+            Message archivedMessage = new Message();
+            archivedMessage.setBody("Message " + id);
+            Message resultCarrier = new Message();
+            resultCarrier.addExtension(new MamResultExtension(query.getQueryId(), id, new Forwarded(archivedMessage)));
+            connection.processStanza(resultCarrier);
+        }
+        RSMSet rsmSet = new RSMSet(null, null, -1, -1, ids[ids.length - 1], -1, ids[0], -1);
+        MamFinIQ mamFinIQ = new MamFinIQ(query.getQueryId(), rsmSet, complete, false);
+        mamFinIQ.setType(IQ.Type.result);
+        mamFinIQ.setStanzaId(query.getStanzaId());
+        connection.processStanza(mamFinIQ);
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smackx.mam.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.advisoryapps.smack.packet.Message;
+
+import com.advisoryapps.smackx.InitExtensions;
+import com.advisoryapps.smackx.forward.packet.Forwarded;
+import com.advisoryapps.smackx.mam.element.MamElements.MamResultExtension;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.jxmpp.jid.EntityBareJid;
+import org.jxmpp.jid.JidTestUtil;
+
+public class FileMamStoreTest extends InitExtensions {
+
+    private static final EntityBareJid ARCHIVE = JidTestUtil.BARE_JID_1;
+    private static final EntityBareJid OTHER_ARCHIVE = JidTestUtil.BARE_JID_2;
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void resultsSurviveReopening() throws IOException {
+        File file = new File(tempDir, "mam-store");
+        FileMamStore store = FileMamStore.open(file);
+        assertNull(store.getLatestStanzaId(ARCHIVE));
+
+        assertTrue(store.addResults(ARCHIVE, results("1", "2", "3")));
+        assertTrue(store.addResults(OTHER_ARCHIVE, results("a")));
+        // Already stored results are ignored.
+        assertTrue(store.addResults(ARCHIVE, results("3", "4")));
+        store.close();
+
+        store = FileMamStore.open(file);
+        assertEquals(4, store.getResultsCount(ARCHIVE));
+        assertEquals("4", store.getLatestStanzaId(ARCHIVE));
+        assertEquals("a", store.getLatestStanzaId(OTHER_ARCHIVE));
+        assertTrue(store.contains(ARCHIVE, "2"));
+        assertFalse(store.contains(OTHER_ARCHIVE, "2"));
+
+        assertEquals(Arrays.asList("1", "2"), ids(store.getResultsAfter(ARCHIVE, null, 2)));
+        assertEquals(Arrays.asList("3", "4"), ids(store.getResultsAfter(ARCHIVE, "2", 10)));
+        assertEquals(Arrays.asList("3", "4"), ids(store.getMostRecentResults(ARCHIVE, 2)));
+
+        MamResultExtension result = store.getResultsAfter(ARCHIVE, "3", 1).get(0);
+        assertNull(result.getQueryId());
+        assertEquals("Message 4", ((Message) result.getForwarded().getForwardedStanza()).getBody());
+        store.close();
+    }
+
+    @Test
+    public void resetRemovesOnlyTheResultsOfTheArchive() throws IOException {
+        File file = new File(tempDir, "mam-store");
+        FileMamStore store = FileMamStore.open(file);
+        store.addResults(ARCHIVE, results("1", "2"));
+        store.addResults(OTHER_ARCHIVE, results("a"));
+        assertTrue(store.resetArchive(ARCHIVE));
+        store.addResults(ARCHIVE, results("3"));
+        store.close();
+
+        store = FileMamStore.open(file);
+        assertEquals(Arrays.asList("3"), ids(store.getMostRecentResults(ARCHIVE, 10)));
+        assertEquals(1, store.getResultsCount(OTHER_ARCHIVE));
+        store.close();
+    }
+
+    @Test
+    public void incompleteTrailingRecordIsDiscarded() throws IOException {
+        File file = new File(tempDir, "mam-store");
+        FileMamStore store = FileMamStore.open(file);
+        store.addResults(ARCHIVE, results("1"));
+        long sizeAfterFirstResult = store.getFileSize();
+        store.addResults(ARCHIVE, results("2"));
+        long sizeAfterSecondResult = store.getFileSize();
+        store.close();
+
+        // Simulate a crash while the second result was appended.
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(sizeAfterSecondResult - 3);
+        }
+
+        store = FileMamStore.open(file);
+        assertEquals(sizeAfterFirstResult, store.getFileSize());
+        assertEquals("1", store.getLatestStanzaId(ARCHIVE));
+        store.addResults(ARCHIVE, results("2"));
+        assertEquals(Arrays.asList("1", "2"), ids(store.getResultsAfter(ARCHIVE, null, 10)));
+        store.close();
+    }
+
+    @Test
+    public void openingAFileWhichIsNoStoreFails() throws IOException {
+        File file = new File(tempDir, "not-a-mam-store");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.writeBytes("Hello World");
+        }
+        assertThrows(IOException.class, () -> FileMamStore.open(file));
+    }
+
+    private static List<MamResultExtension> results(String... ids) {
+        List<MamResultExtension> results = new ArrayList<>(ids.length);
+        for (String id : ids) {
+            Message message = new Message();
+            message.setBody("Message " + id);
+            results.add(new MamResultExtension("query-id", id, new Forwarded(message)));
+        }
+        return results;
+    }
+
+    private static List<String> ids(List<MamResultExtension> results) {
+        List<String> ids = new ArrayList<>(results.size());
+        for (MamResultExtension result : results) {
+            ids.add(result.getId());
+        }
+        return ids;
+    }
+}
@@ -20,12 +20,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketTimeoutException;
+import java.util.Arrays;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import com.advisoryapps.smack.SmackException.NotConnectedException;
 import com.advisoryapps.smack.SmackException.NotLoggedInException;
+import com.advisoryapps.smack.SmackFuture;
 import com.advisoryapps.smack.StanzaListener;
 import com.advisoryapps.smack.XMPPConnection;
 import com.advisoryapps.smack.filter.AndFilter;
@@ -35,7 +37,8 @@ import com.advisoryapps.smack.packet.IQ;
 import com.advisoryapps.smack.packet.Message;
 import com.advisoryapps.smack.packet.Stanza;
 import com.advisoryapps.smack.packet.StanzaError;
-import com.advisoryapps.smack.util.stringencoder.Base64;
+import com.advisoryapps.smack.util.ExceptionCallback;
+import com.advisoryapps.smack.util.SuccessCallback;
 
 import com.advisoryapps.smackx.bytestreams.BytestreamSession;
 import com.advisoryapps.smackx.bytestreams.ibb.packet.Close;
@@ -85,6 +88,9 @@ public class InBandBytestreamSession implements BytestreamSession {
     /* flag to indicate if session is closed */
     private boolean isClosed = false;
 
+    /* maximum number of data IQs which may be sent without having been acknowledged */
+    private volatile int maxInFlightDataPackets = 1;
+
     /**
      * Constructor.
      *
@@ -158,6 +164,38 @@ public class InBandBytestreamSession implements BytestreamSession {
         this.closeBothStreamsEnabled = closeBothStreamsEnabled;
     }
 
+    /**
+     * Returns the maximum number of data packets which are sent without waiting for their
+     * acknowledgement. Default is 1, i.e. every data packet must be acknowledged before the next
+     * one is sent.
+     *
+     * @return the maximum number of unacknowledged data packets.
+     * @since 4.4.0
+     */
+    public int getMaxInFlightDataPackets() {
+        return maxInFlightDataPackets;
+    }
+
+    /**
+     * Sets the maximum number of data packets which are sent without waiting for their
+     * acknowledgement. A value greater than 1 pipelines the data packets, so that the throughput
+     * is no longer limited to one block per round trip. This only applies to sessions using IQ
+     * stanzas, as data packets sent in message stanzas are not acknowledged.
+     * <p>
+     * If a data packet is not acknowledged, then the session is closed and the error is thrown by
+     * the next write, flush or close of the output stream.
+     * </p>
+     *
+     * @param maxInFlightDataPackets the maximum number of unacknowledged data packets.
+     * @since 4.4.0
+     */
+    public void setMaxInFlightDataPackets(int maxInFlightDataPackets) {
+        if (maxInFlightDataPackets < 1) {
+            throw new IllegalArgumentException("The maximum number of in flight data packets must be at least 1");
+        }
+        this.maxInFlightDataPackets = maxInFlightDataPackets;
+    }
+
     @Override
     public void close() throws IOException {
         closeByLocal(true); // close input stream
@@ -641,6 +679,15 @@ public class InBandBytestreamSession implements BytestreamSession {
          */
         protected abstract void writeToXML(DataPacketExtension data) throws IOException, NotConnectedException, InterruptedException;
 
+        /**
+         * Waits until all data packets written to the XMPP stream have been acknowledged, if the
+         * stanza type used requires acknowledgements.
+         *
+         * @throws IOException if a data packet was not acknowledged
+         */
+        protected void awaitAcknowledgements() throws IOException {
+        }
+
         @Override
         public synchronized void write(int b) throws IOException {
             if (this.isClosed) {
@@ -729,6 +776,7 @@ public class InBandBytestreamSession implements BytestreamSession {
                 throw new IOException("Stream is closed");
             }
             flushBuffer();
+            awaitAcknowledgements();
         }
 
         private synchronized void flushBuffer() throws IOException {
@@ -738,10 +786,9 @@ public class InBandBytestreamSession implements BytestreamSession {
                 return;
             }
 
-            // create data packet
-            String enc = Base64.encodeToString(buffer, 0, bufferPointer);
-            DataPacketExtension data = new DataPacketExtension(byteStreamRequest.getSessionID(),
-                            this.seq, enc);
+            // create data packet, the data is Base64 encoded when the packet is serialized
+            DataPacketExtension data = DataPacketExtension.from(byteStreamRequest.getSessionID(),
+                            this.seq, Arrays.copyOf(buffer, bufferPointer));
 
             // write to XMPP stream
             try {
@@ -766,7 +813,15 @@ public class InBandBytestreamSession implements BytestreamSession {
             if (isClosed) {
                 return;
             }
-            InBandBytestreamSession.this.closeByLocal(false);
+            try {
+                if (maxInFlightDataPackets > 1) {
+                    // wait for the pipelined data packets, so that an error is thrown instead of being ignored
+                    flush();
+                }
+            }
+            finally {
+                InBandBytestreamSession.this.closeByLocal(false);
+            }
         }
 
         /**
@@ -783,6 +838,7 @@ public class InBandBytestreamSession implements BytestreamSession {
             try {
                 if (flush) {
                     flushBuffer();
+                    awaitAcknowledgements();
                 }
             }
             catch (IOException e) {
@@ -801,12 +857,23 @@ public class InBandBytestreamSession implements BytestreamSession {
      */
     private class IQIBBOutputStream extends IBBOutputStream {
 
+        /* number of data packets sent but not yet acknowledged */
+        private int inFlightDataPackets;
+
+        /* the first error of a pipelined data packet */
+        private IOException inFlightError;
+
         @Override
         protected synchronized void writeToXML(DataPacketExtension data) throws IOException {
             // create IQ stanza containing data packet
             IQ iq = new Data(data);
             iq.setTo(remoteJID);
 
+            if (maxInFlightDataPackets > 1) {
+                writePipelined(iq, data.getSeq());
+                return;
+            }
+
             try {
                 connection.createStanzaCollectorAndSend(iq).nextResultOrThrow();
             }
@@ -824,6 +891,68 @@ public class InBandBytestreamSession implements BytestreamSession {
 
         }
 
+        private synchronized void writePipelined(IQ iq, final long seq) throws IOException {
+            awaitInFlightDataPackets(maxInFlightDataPackets - 1);
+
+            inFlightDataPackets++;
+            SmackFuture<IQ, Exception> future = connection.sendIqRequestAsync(iq);
+            future.onSuccess(new SuccessCallback<IQ>() {
+                @Override
+                public void onSuccess(IQ result) {
+                    dataPacketAcknowledged(seq, null);
+                }
+            }).onError(new ExceptionCallback<Exception>() {
+                @Override
+                public void processException(Exception exception) {
+                    dataPacketAcknowledged(seq, exception);
+                }
+            });
+        }
+
+        private synchronized void dataPacketAcknowledged(long seq, Exception exception) {
+            inFlightDataPackets--;
+            if (exception != null && inFlightError == null) {
+                inFlightError = new IOException("Data packet with sequence " + seq + " was not acknowledged");
+                inFlightError.initCause(exception);
+            }
+            notifyAll();
+        }
+
+        /**
+         * Waits until at most the given number of data packets are unacknowledged. The futures of
+         * the data packets fail after the reply timeout, hence this does not block forever.
+         */
+        private synchronized void awaitInFlightDataPackets(int max) throws IOException {
+            while (inFlightDataPackets > max && inFlightError == null) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    IOException ioException = new IOException();
+                    ioException.initCause(e);
+                    throw ioException;
+                }
+            }
+
+            if (inFlightError != null) {
+                // close session unless it is already closed
+                if (!this.isClosed) {
+                    try {
+                        InBandBytestreamSession.this.close();
+                    }
+                    catch (IOException e) {
+                        // ignore, the error of the data packet is the one to report
+                    }
+                }
+                throw inFlightError;
+            }
+        }
+
+        @Override
+        protected synchronized void awaitAcknowledgements() throws IOException {
+            awaitInFlightDataPackets(0);
+        }
+
     }
 
     /**
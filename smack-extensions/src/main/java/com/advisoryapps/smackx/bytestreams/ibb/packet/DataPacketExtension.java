@@ -45,8 +45,8 @@ public class DataPacketExtension implements ExtensionElement {
     /* sequence of this packet in regard to the other data packets */
     private final long seq;
 
-    /* the data contained in this packet */
-    private final String data;
+    /* the data contained in this packet, lazily encoded if the packet was created from raw data */
+    private String data;
 
     private byte[] decodedData;
 
@@ -58,18 +58,37 @@ public class DataPacketExtension implements ExtensionElement {
      * @param data the base64 encoded data contained in this packet
      */
     public DataPacketExtension(String sessionID, long seq, String data) {
+        this(sessionID, seq, data, null);
+    }
+
+    private DataPacketExtension(String sessionID, long seq, String data, byte[] decodedData) {
         if (sessionID == null || "".equals(sessionID)) {
             throw new IllegalArgumentException("Session ID must not be null or empty");
         }
         if (seq < 0 || seq > 65535) {
             throw new IllegalArgumentException("Sequence must not be between 0 and 65535");
         }
-        if (data == null) {
+        if (data == null && decodedData == null) {
             throw new IllegalArgumentException("Data must not be null");
         }
         this.sessionID = sessionID;
         this.seq = seq;
         this.data = data;
+        this.decodedData = decodedData;
+    }
+
+    /**
+     * Creates a new In-Band Bytestream data packet from raw data. The data is Base64 encoded while the packet is
+     * serialized, without creating an intermediate String of the encoded data.
+     *
+     * @param sessionID unique session ID identifying this In-Band Bytestream
+     * @param seq sequence of this stanza in regard to the other data packets
+     * @param decodedData the raw data contained in this packet, must not be modified afterwards
+     * @return the data packet.
+     * @since 4.4.0
+     */
+    public static DataPacketExtension from(String sessionID, long seq, byte[] decodedData) {
+        return new DataPacketExtension(sessionID, seq, null, decodedData);
     }
 
     /**
@@ -96,6 +115,9 @@ public class DataPacketExtension implements ExtensionElement {
      * @return the data contained in this packet.
      */
     public String getData() {
+        if (data == null) {
+            data = Base64.encodeToString(decodedData);
+        }
         return data;
     }
 
@@ -147,7 +169,11 @@ public class DataPacketExtension implements ExtensionElement {
         xml.attribute("seq", Long.toString(seq));
         xml.attribute("sid", sessionID);
         xml.rightAngleBracket();
-        xml.append(data);
+        if (data != null) {
+            xml.append(data);
+        } else {
+            xml.append(Base64.encodeToCharSequence(decodedData));
+        }
         return xml;
     }
 }
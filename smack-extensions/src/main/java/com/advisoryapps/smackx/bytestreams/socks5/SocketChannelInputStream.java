@@ -0,0 +1,126 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smackx.bytestreams.socks5;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import com.advisoryapps.smack.util.CloseableUtil;
+
+/**
+ * An input stream reading from a non-blocking {@link SocketChannel}. Unlike the input stream of
+ * the channel's socket adapter, reading does not block concurrent writes to the channel and
+ * honors a read timeout.
+ */
+final class SocketChannelInputStream extends InputStream {
+
+    private final SocketChannel socketChannel;
+
+    private final byte[] singleByte = new byte[1];
+
+    /* selector waiting for the channel to become readable, opened on first use */
+    private volatile Selector selector;
+
+    private volatile int readTimeout;
+
+    SocketChannelInputStream(SocketChannel socketChannel) {
+        this.socketChannel = socketChannel;
+    }
+
+    int getReadTimeout() {
+        return readTimeout;
+    }
+
+    void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        int read = read(singleByte, 0, 1);
+        if (read < 0) {
+            return -1;
+        }
+        return singleByte[0] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        int timeout = readTimeout;
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            int read = socketChannel.read(buffer);
+            if (read != 0) {
+                return read;
+            }
+
+            long remaining = 0;
+            if (timeout > 0) {
+                remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+            }
+            awaitReadable(remaining);
+        }
+    }
+
+    private void awaitReadable(long timeout) throws IOException {
+        Selector selector = this.selector;
+        if (selector == null) {
+            selector = Selector.open();
+            socketChannel.register(selector, SelectionKey.OP_READ);
+            this.selector = selector;
+        }
+        try {
+            selector.select(timeout);
+            selector.selectedKeys().clear();
+        }
+        catch (ClosedSelectorException e) {
+            throw new IOException("Stream closed", e);
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            socketChannel.close();
+        }
+        finally {
+            CloseableUtil.maybeClose(selector);
+        }
+    }
+
+}
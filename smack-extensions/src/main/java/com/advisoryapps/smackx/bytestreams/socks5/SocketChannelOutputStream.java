@@ -0,0 +1,125 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smackx.bytestreams.socks5;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import com.advisoryapps.smack.util.CloseableUtil;
+
+/**
+ * An output stream writing to a non-blocking {@link SocketChannel}. Unlike the output stream of
+ * the channel's socket adapter, writing does not block concurrent reads from the channel.
+ * <p>
+ * Files can be sent with {@link #transferFrom(FileChannel, long, long)}, which lets the operating
+ * system copy the data from the file to the socket, instead of copying it through user space.
+ * </p>
+ *
+ * @since 4.4.0
+ */
+public final class SocketChannelOutputStream extends OutputStream {
+
+    private final SocketChannel socketChannel;
+
+    /* selector waiting for the channel to become writable, opened on first use */
+    private volatile Selector selector;
+
+    SocketChannelOutputStream(SocketChannel socketChannel) {
+        this.socketChannel = socketChannel;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+            if (socketChannel.write(buffer) == 0) {
+                awaitWritable();
+            }
+        }
+    }
+
+    /**
+     * Transfers <code>count</code> bytes, starting at <code>position</code>, from the given file
+     * channel to this stream. Returns early only if the end of the file is reached.
+     *
+     * @param source the file channel to transfer the data from.
+     * @param position the position in the file where the transfer begins.
+     * @param count the number of bytes to transfer.
+     * @return the number of bytes transferred.
+     * @throws IOException if an I/O error occurred.
+     */
+    public synchronized long transferFrom(FileChannel source, long position, long count) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long sent = source.transferTo(position + transferred, count - transferred, socketChannel);
+            if (sent == 0) {
+                if (position + transferred >= source.size()) {
+                    break;
+                }
+                awaitWritable();
+            }
+            transferred += sent;
+        }
+        return transferred;
+    }
+
+    private void awaitWritable() throws IOException {
+        Selector selector = this.selector;
+        if (selector == null) {
+            selector = Selector.open();
+            socketChannel.register(selector, SelectionKey.OP_WRITE);
+            this.selector = selector;
+        }
+        try {
+            selector.select();
+            selector.selectedKeys().clear();
+        }
+        catch (ClosedSelectorException e) {
+            throw new IOException("Stream closed", e);
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            socketChannel.close();
+        }
+        finally {
+            CloseableUtil.maybeClose(selector);
+        }
+    }
+
+}
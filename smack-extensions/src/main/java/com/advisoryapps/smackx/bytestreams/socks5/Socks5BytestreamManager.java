@@ -21,6 +21,7 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -29,6 +30,8 @@ import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
 import com.advisoryapps.smack.ConnectionCreationListener;
 import com.advisoryapps.smack.Manager;
@@ -37,6 +40,7 @@ import com.advisoryapps.smack.SmackException.FeatureNotSupportedException;
 import com.advisoryapps.smack.SmackException.NoResponseException;
 import com.advisoryapps.smack.SmackException.NotConnectedException;
 import com.advisoryapps.smack.SmackException.SmackMessageException;
+import com.advisoryapps.smack.SmackFuture;
 import com.advisoryapps.smack.XMPPConnection;
 import com.advisoryapps.smack.XMPPConnectionRegistry;
 import com.advisoryapps.smack.XMPPException;
@@ -44,6 +48,7 @@ import com.advisoryapps.smack.XMPPException.XMPPErrorException;
 import com.advisoryapps.smack.packet.IQ;
 import com.advisoryapps.smack.packet.Stanza;
 import com.advisoryapps.smack.packet.StanzaError;
+import com.advisoryapps.smack.util.LastDuration;
 import com.advisoryapps.smack.util.StringUtils;
 
 import com.advisoryapps.smackx.bytestreams.BytestreamListener;
@@ -57,8 +62,10 @@ import com.advisoryapps.smackx.disco.packet.DiscoverItems;
 import com.advisoryapps.smackx.disco.packet.DiscoverItems.Item;
 import com.advisoryapps.smackx.filetransfer.FileTransferManager;
 
+import org.jxmpp.jid.DomainBareJid;
 import org.jxmpp.jid.EntityFullJid;
 import org.jxmpp.jid.Jid;
+import org.jxmpp.util.cache.ExpirationCache;
 
 /**
  * The Socks5BytestreamManager class handles establishing SOCKS5 Bytestreams as specified in the <a
@@ -112,9 +119,14 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
         });
     }
 
+    private static final Logger LOGGER = Logger.getLogger(Socks5BytestreamManager.class.getName());
+
     /* prefix used to generate session IDs */
     private static final String SESSION_ID_PREFIX = "js5_";
 
+    /* default lifetime of the cached SOCKS5 proxies and their stream hosts */
+    private static final long DEFAULT_PROXY_CACHE_LIFETIME = 10 * 60 * 1000;
+
     /* stores one Socks5BytestreamManager for each XMPP connection */
     private static final Map<XMPPConnection, Socks5BytestreamManager> managers = new WeakHashMap<>();
 
@@ -142,6 +154,16 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
     /* blacklist of errornous SOCKS5 proxies */
     private final Set<Jid> proxyBlacklist = Collections.synchronizedSet(new HashSet<Jid>());
 
+    /* SOCKS5 proxies of the XMPP service */
+    private final ExpirationCache<DomainBareJid, List<Jid>> proxyCache = new ExpirationCache<>(10,
+                    DEFAULT_PROXY_CACHE_LIFETIME);
+
+    /* network settings of the SOCKS5 proxies */
+    private final ExpirationCache<Jid, List<StreamHost>> streamHostCache = new ExpirationCache<>(100,
+                    DEFAULT_PROXY_CACHE_LIFETIME);
+
+    private long proxyCacheLifetime = DEFAULT_PROXY_CACHE_LIFETIME;
+
     /* remember the last proxy that worked to prioritize it */
     private Jid lastWorkingProxy;
 
@@ -156,6 +178,15 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
      */
     private final List<String> ignoredBytestreamRequests = Collections.synchronizedList(new LinkedList<String>());
 
+    private final AtomicLong initiatedSessions = new AtomicLong();
+    private final AtomicLong acceptedSessions = new AtomicLong();
+    private final AtomicLong proxyCacheHits = new AtomicLong();
+
+    private final LastDuration proxyDiscoveryDuration = new LastDuration();
+    private final LastDuration targetResponseDuration = new LastDuration();
+    private final LastDuration proxyConnectDuration = new LastDuration();
+    private final LastDuration streamHostConnectDuration = new LastDuration();
+
     /**
      * Returns the Socks5BytestreamManager to handle SOCKS5 Bytestreams for a given
      * {@link XMPPConnection}.
@@ -289,6 +320,7 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
         // reset internal state
         this.lastWorkingProxy = null;
         this.proxyBlacklist.clear();
+        clearProxyCache();
         this.ignoredBytestreamRequests.clear();
 
         // remove manager from static managers map
@@ -355,6 +387,53 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
         this.proxyConnectionTimeout = proxyConnectionTimeout;
     }
 
+    /**
+     * Returns how long the SOCKS5 proxies of the XMPP service and their network settings are
+     * cached. Default is 10 minutes.
+     *
+     * @return the lifetime of the cached SOCKS5 proxies in milliseconds
+     * @since 4.4.0
+     */
+    public long getProxyCacheLifetime() {
+        return proxyCacheLifetime;
+    }
+
+    /**
+     * Sets how long the SOCKS5 proxies of the XMPP service and their network settings are cached.
+     * While cached, establishing a SOCKS5 Bytestream does not query the XMPP service for its SOCKS5
+     * proxies again. Setting the lifetime to zero disables the cache.
+     *
+     * @param proxyCacheLifetime the lifetime of the cached SOCKS5 proxies in milliseconds
+     * @since 4.4.0
+     */
+    public void setProxyCacheLifetime(long proxyCacheLifetime) {
+        this.proxyCacheLifetime = proxyCacheLifetime;
+        proxyCache.setDefaultExpirationTime(Math.max(proxyCacheLifetime, 1));
+        streamHostCache.setDefaultExpirationTime(Math.max(proxyCacheLifetime, 1));
+        clearProxyCache();
+    }
+
+    /**
+     * Removes the cached SOCKS5 proxies and their network settings, so that they are discovered
+     * again when the next SOCKS5 Bytestream is established.
+     *
+     * @since 4.4.0
+     */
+    public void clearProxyCache() {
+        proxyCache.clear();
+        streamHostCache.clear();
+    }
+
+    /**
+     * Get the timing statistics of the SOCKS5 Bytestream negotiations of this manager.
+     *
+     * @return the negotiation statistics.
+     * @since 4.4.0
+     */
+    public NegotiationStats getNegotiationStats() {
+        return new NegotiationStats(this);
+    }
+
     /**
      * Returns if the prioritization of the last working SOCKS5 proxy on successive SOCKS5
      * Bytestream connections is enabled. Default is <code>true</code>.
@@ -451,19 +530,34 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
             throw new FeatureNotSupportedException("SOCKS5 Bytestream", targetJID);
         }
 
-        List<Jid> proxies = new ArrayList<>();
-        // determine SOCKS5 proxies from XMPP-server
-        try {
-            proxies.addAll(determineProxies());
-        } catch (XMPPErrorException e) {
-            // don't abort here, just remember the exception thrown by determineProxies()
-            // determineStreamHostInfos() will at least add the local Socks5 proxy (if enabled)
-            discoveryException = e;
+        initiatedSessions.incrementAndGet();
+        final long discoveryStart = LastDuration.start();
+
+        DomainBareJid service = connection.getXMPPServiceDomain();
+        List<Jid> proxies = proxyCache.lookup(service);
+        if (proxies != null) {
+            proxyCacheHits.incrementAndGet();
+        } else {
+            proxies = new ArrayList<>();
+            // determine SOCKS5 proxies from XMPP-server
+            try {
+                proxies.addAll(determineProxies());
+                if (!proxies.isEmpty() && proxyCacheLifetime > 0) {
+                    proxyCache.put(service, proxies);
+                }
+            } catch (XMPPErrorException e) {
+                // don't abort here, just remember the exception thrown by determineProxies()
+                // determineStreamHostInfos() will at least add the local Socks5 proxy (if enabled)
+                discoveryException = e;
+            }
         }
 
         // determine address and port of each proxy
         List<StreamHost> streamHosts = determineStreamHostInfos(proxies);
 
+        long proxyDiscoveryTime = proxyDiscoveryDuration.stop(discoveryStart);
+        LOGGER.fine("Determined " + streamHosts.size() + " SOCKS5 stream hosts in " + proxyDiscoveryTime + "ms");
+
         if (streamHosts.isEmpty()) {
             if (discoveryException != null) {
                 throw discoveryException;
@@ -499,8 +593,10 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
             Bytestream initiation = createBytestreamInitiation(sessionID, targetJID, streamHosts);
 
             // send initiation packet
+            final long initiationStart = LastDuration.start();
             Stanza response = connection.createStanzaCollectorAndSend(initiation).nextResultOrThrow(
                             getTargetResponseTimeout());
+            long targetResponseTime = targetResponseDuration.stop(initiationStart);
 
             // extract used stream host from response
             StreamHostUsed streamHostUsed = ((Bytestream) response).getUsedHost();
@@ -515,7 +611,19 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
                             connection, sessionID, targetJID);
 
             // establish connection to proxy
-            Socket socket = socks5Client.getSocket(getProxyConnectionTimeout());
+            final long connectStart = LastDuration.start();
+            Socket socket;
+            try {
+                socket = socks5Client.getSocket(getProxyConnectionTimeout());
+            }
+            catch (TimeoutException | IOException e) {
+                // the network settings of the proxy may be outdated, query them again next time
+                streamHostCache.remove(usedStreamHost.getJID());
+                throw e;
+            }
+            long proxyConnectTime = proxyConnectDuration.stop(connectStart);
+            LOGGER.fine("Established SOCKS5 Bytestream via " + usedStreamHost + ", the target responded after "
+                            + targetResponseTime + "ms, connecting took " + proxyConnectTime + "ms");
 
             // remember last working SOCKS5 proxy to prioritize it for next request
             this.lastWorkingProxy = usedStreamHost.getJID();
@@ -551,7 +659,8 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
 
     /**
      * Returns a list of JIDs of SOCKS5 proxies by querying the XMPP server. The SOCKS5 proxies are
-     * in the same order as returned by the XMPP server.
+     * in the same order as returned by the XMPP server. The items of the XMPP server are queried
+     * concurrently.
      *
      * @return list of JIDs of SOCKS5 proxies
      * @throws XMPPErrorException if there was an error querying the XMPP server for SOCKS5 proxies
@@ -568,31 +677,44 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
         // get all items from XMPP server
         DiscoverItems discoverItems = serviceDiscoveryManager.discoverItems(connection.getXMPPServiceDomain());
 
-        // query all items if they are SOCKS5 proxies
+        // query all items concurrently if they are SOCKS5 proxies
+        List<Jid> items = new ArrayList<>();
+        List<SmackFuture<DiscoverInfo, Exception>> futures = new ArrayList<>();
         for (Item item : discoverItems.getItems()) {
             // skip blacklisted servers
             if (this.proxyBlacklist.contains(item.getEntityID())) {
                 continue;
             }
+            items.add(item.getEntityID());
+            futures.add(serviceDiscoveryManager.discoverInfoAsync(item.getEntityID()));
+        }
 
+        for (int i = 0; i < items.size(); i++) {
+            Jid item = items.get(i);
             DiscoverInfo proxyInfo;
             try {
-                proxyInfo = serviceDiscoveryManager.discoverInfo(item.getEntityID());
+                proxyInfo = futures.get(i).getOrThrow();
             }
             catch (NoResponseException | XMPPErrorException e) {
                 // blacklist errornous server
-                proxyBlacklist.add(item.getEntityID());
+                proxyBlacklist.add(item);
                 continue;
             }
+            catch (NotConnectedException | InterruptedException | RuntimeException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
 
             if (proxyInfo.hasIdentity("proxy", "bytestreams")) {
-                proxies.add(item.getEntityID());
+                proxies.add(item);
             } else {
                 /*
                  * server is not a SOCKS5 proxy, blacklist server to skip next time a Socks5
                  * bytestream should be established
                  */
-                this.proxyBlacklist.add(item.getEntityID());
+                this.proxyBlacklist.add(item);
             }
         }
 
@@ -604,11 +726,15 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
      * SOCKS5 proxy JIDs. The order of the returned list is the same as the given list of JIDs
      * excluding all SOCKS5 proxies who's network settings could not be determined. If a local
      * SOCKS5 proxy is running it will be the first item in the list returned.
+     * <p>
+     * The SOCKS5 proxies whose network settings are not cached are queried concurrently.
+     * </p>
      *
      * @param proxies a list of SOCKS5 proxy JIDs
      * @return a list of stream hosts containing the IP address an the port
+     * @throws InterruptedException if the calling thread was interrupted.
      */
-    private List<StreamHost> determineStreamHostInfos(List<Jid> proxies) {
+    private List<StreamHost> determineStreamHostInfos(List<Jid> proxies) throws InterruptedException {
         XMPPConnection connection = connection();
         List<StreamHost> streamHosts = new ArrayList<>();
 
@@ -621,22 +747,58 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
         }
 
         // query SOCKS5 proxies for network settings
+        Map<Jid, SmackFuture<IQ, Exception>> futures = new HashMap<>();
         for (Jid proxy : proxies) {
-            Bytestream streamHostRequest = createStreamHostRequest(proxy);
-            try {
-                Bytestream response = connection.createStanzaCollectorAndSend(
-                                streamHostRequest).nextResultOrThrow();
-                streamHosts.addAll(response.getStreamHosts());
+            if (this.proxyBlacklist.contains(proxy) || streamHostCache.lookup(proxy) != null) {
+                continue;
             }
-            catch (Exception e) {
-                // blacklist errornous proxies
-                this.proxyBlacklist.add(proxy);
+            Bytestream streamHostRequest = createStreamHostRequest(proxy);
+            futures.put(proxy, connection.sendIqRequestAsync(streamHostRequest));
+        }
+
+        for (Jid proxy : proxies) {
+            List<StreamHost> proxyStreamHosts;
+            SmackFuture<IQ, Exception> future = futures.get(proxy);
+            if (future == null) {
+                proxyStreamHosts = streamHostCache.lookup(proxy);
+                if (proxyStreamHosts == null) {
+                    // blacklisted, or expired in the meantime
+                    continue;
+                }
+            } else {
+                try {
+                    IQ response = future.getOrThrow();
+                    proxyStreamHosts = ((Bytestream) response).getStreamHosts();
+                }
+                catch (InterruptedException e) {
+                    throw e;
+                }
+                catch (Exception e) {
+                    // blacklist errornous proxies
+                    this.proxyBlacklist.add(proxy);
+                    continue;
+                }
+                if (proxyCacheLifetime > 0) {
+                    streamHostCache.put(proxy, proxyStreamHosts);
+                }
             }
+            streamHosts.addAll(proxyStreamHosts);
         }
 
         return streamHosts;
     }
 
+    /**
+     * Records that the target side of a SOCKS5 Bytestream connected to one of the stream hosts.
+     *
+     * @param connectStart the timestamp returned by {@link LastDuration#start()} before connecting.
+     * @return the time it took to connect to the first stream host in milliseconds.
+     */
+    long streamHostConnected(long connectStart) {
+        acceptedSessions.incrementAndGet();
+        return streamHostConnectDuration.stop(connectStart);
+    }
+
     /**
      * Returns a IQ stanza to query a SOCKS5 proxy its network settings.
      *
@@ -794,4 +956,79 @@ public final class Socks5BytestreamManager extends Manager implements Bytestream
         return ignoredBytestreamRequests;
     }
 
+    /**
+     * Timing statistics of the SOCKS5 Bytestream negotiations of a manager. The times are those of
+     * {@link LastDuration#getMillis()}.
+     */
+    public static final class NegotiationStats {
+
+        /**
+         * The number of SOCKS5 Bytestreams this manager tried to establish as initiator.
+         */
+        public final long initiatedSessions;
+
+        /**
+         * The number of SOCKS5 Bytestreams accepted as target.
+         */
+        public final long acceptedSessions;
+
+        /**
+         * The number of initiated SOCKS5 Bytestreams that used the cached SOCKS5 proxies.
+         */
+        public final long proxyCacheHits;
+
+        /**
+         * The time it took to determine the stream hosts of the last initiated SOCKS5 Bytestream.
+         */
+        public final long lastProxyDiscoveryTime;
+
+        /**
+         * The time the target took to answer the last SOCKS5 Bytestream initiation.
+         */
+        public final long lastTargetResponseTime;
+
+        /**
+         * The time it took to connect to the stream host used for the last initiated SOCKS5
+         * Bytestream.
+         */
+        public final long lastProxyConnectTime;
+
+        /**
+         * The time it took to connect to the first stream host of the last accepted SOCKS5
+         * Bytestream.
+         */
+        public final long lastStreamHostConnectTime;
+
+        private NegotiationStats(Socks5BytestreamManager manager) {
+            initiatedSessions = manager.initiatedSessions.get();
+            acceptedSessions = manager.acceptedSessions.get();
+            proxyCacheHits = manager.proxyCacheHits.get();
+            lastProxyDiscoveryTime = manager.proxyDiscoveryDuration.getMillis();
+            lastTargetResponseTime = manager.targetResponseDuration.getMillis();
+            lastProxyConnectTime = manager.proxyConnectDuration.getMillis();
+            lastStreamHostConnectTime = manager.streamHostConnectDuration.getMillis();
+        }
+
+        private transient String toStringCache;
+
+        @Override
+        public String toString() {
+            if (toStringCache != null) {
+                return toStringCache;
+            }
+
+            toStringCache =
+                "initiated-sessions: " + initiatedSessions + '\n'
+              + "accepted-sessions: " + acceptedSessions + '\n'
+              + "proxy-cache-hits: " + proxyCacheHits + '\n'
+              + "last-proxy-discovery-time: " + lastProxyDiscoveryTime + '\n'
+              + "last-target-response-time: " + lastTargetResponseTime + '\n'
+              + "last-proxy-connect-time: " + lastProxyConnectTime + '\n'
+              + "last-stream-host-connect-time: " + lastStreamHostConnectTime + '\n'
+              ;
+
+            return toStringCache;
+        }
+    }
+
 }
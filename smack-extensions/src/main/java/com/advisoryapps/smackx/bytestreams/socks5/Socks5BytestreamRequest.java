@@ -18,10 +18,14 @@ package com.advisoryapps.smackx.bytestreams.socks5;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
 
 import com.advisoryapps.smack.SmackException;
 import com.advisoryapps.smack.SmackException.NotConnectedException;
@@ -29,6 +33,9 @@ import com.advisoryapps.smack.XMPPException;
 import com.advisoryapps.smack.XMPPException.XMPPErrorException;
 import com.advisoryapps.smack.packet.IQ;
 import com.advisoryapps.smack.packet.StanzaError;
+import com.advisoryapps.smack.util.Async;
+import com.advisoryapps.smack.util.CloseableUtil;
+import com.advisoryapps.smack.util.LastDuration;
 
 import com.advisoryapps.smackx.bytestreams.BytestreamRequest;
 import com.advisoryapps.smackx.bytestreams.socks5.Socks5Exception.CouldNotConnectToAnyProvidedSocks5Host;
@@ -47,6 +54,8 @@ import org.jxmpp.util.cache.ExpirationCache;
  */
 public class Socks5BytestreamRequest implements BytestreamRequest {
 
+    private static final Logger LOGGER = Logger.getLogger(Socks5BytestreamRequest.class.getName());
+
     /* lifetime of an Item in the blacklist */
     private static final long BLACKLIST_LIFETIME = 60 * 1000 * 120;
 
@@ -78,6 +87,9 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
     /* minimum timeout to connect to one SOCKS5 proxy */
     private int minimumConnectTimeout = 2000;
 
+    /* delay before the connection attempt to the next SOCKS5 proxy is started */
+    private int connectionAttemptDelay = 250;
+
     /**
      * Returns the default connection failure threshold.
      *
@@ -141,8 +153,8 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
      * Returns the maximum timeout to connect to SOCKS5 proxies. Default is 10000ms.
      * <p>
      * When accepting a SOCKS5 Bytestream request Smack tries to connect to all SOCKS5 proxies given
-     * by the initiator until a connection is established. This timeout divided by the number of
-     * SOCKS5 proxies determines the timeout for every connection attempt.
+     * by the initiator concurrently until a connection is established. Every connection attempt may
+     * use what is left of this timeout when it is started.
      * <p>
      * You can set the minimum timeout for establishing a connection to one SOCKS5 proxy by invoking
      * {@link #setMinimumConnectTimeout(int)}.
@@ -160,8 +172,8 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
      * Sets the maximum timeout to connect to SOCKS5 proxies. Default is 10000ms.
      * <p>
      * When accepting a SOCKS5 Bytestream request Smack tries to connect to all SOCKS5 proxies given
-     * by the initiator until a connection is established. This timeout divided by the number of
-     * SOCKS5 proxies determines the timeout for every connection attempt.
+     * by the initiator concurrently until a connection is established. Every connection attempt may
+     * use what is left of this timeout when it is started.
      * <p>
      * You can set the minimum timeout for establishing a connection to one SOCKS5 proxy by invoking
      * {@link #setMinimumConnectTimeout(int)}.
@@ -195,6 +207,35 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
         this.minimumConnectTimeout = minimumConnectTimeout;
     }
 
+    /**
+     * Returns the delay before the connection attempt to the next SOCKS5 proxy is started while
+     * accepting the SOCKS5 Bytestream request. Default is 250ms.
+     *
+     * @return the delay between the connection attempts in milliseconds
+     * @see #setConnectionAttemptDelay(int)
+     * @since 4.4.0
+     */
+    public int getConnectionAttemptDelay() {
+        return connectionAttemptDelay;
+    }
+
+    /**
+     * Sets the delay before the connection attempt to the next SOCKS5 proxy is started while
+     * accepting the SOCKS5 Bytestream request. Default is 250ms.
+     * <p>
+     * The SOCKS5 proxies are tried in the order given by the initiator. The delay gives the
+     * preferred proxies a head start, while an unreachable proxy only holds up the next one for the
+     * delay instead of its whole connect timeout. The next attempt is started right away once all
+     * running attempts failed. The first connection established wins, all other attempts are
+     * cancelled. Setting the delay to zero starts all attempts at once.
+     *
+     * @param connectionAttemptDelay the delay between the connection attempts in milliseconds
+     * @since 4.4.0
+     */
+    public void setConnectionAttemptDelay(int connectionAttemptDelay) {
+        this.connectionAttemptDelay = connectionAttemptDelay;
+    }
+
     /**
      * Returns the sender of the SOCKS5 Bytestream initialization request.
      *
@@ -220,7 +261,8 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
      * data.
      * <p>
      * Before accepting the SOCKS5 Bytestream request you can set timeouts by invoking
-     * {@link #setTotalConnectTimeout(int)} and {@link #setMinimumConnectTimeout(int)}.
+     * {@link #setTotalConnectTimeout(int)} and {@link #setMinimumConnectTimeout(int)}. The SOCKS5
+     * proxies are connected to concurrently, see {@link #setConnectionAttemptDelay(int)}.
      *
      * @return the socket to send/receive data
      * @throws InterruptedException if the current thread was interrupted while waiting
@@ -240,54 +282,61 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
             cancelRequest(streamHostsExceptions);
         }
 
-        StreamHost selectedHost = null;
-        Socket socket = null;
-
         String digest = Socks5Utils.createDigest(this.bytestreamRequest.getSessionID(),
                         this.bytestreamRequest.getFrom(), this.manager.getConnection().getUser());
 
-        /*
-         * determine timeout for each connection attempt; each SOCKS5 proxy has the same amount of
-         * time so that the first does not consume the whole timeout
-         */
-        int timeout = Math.max(getTotalConnectTimeout() / streamHosts.size(),
-                        getMinimumConnectTimeout());
-
-        for (StreamHost streamHost : streamHosts) {
-            String address = streamHost.getAddress() + ":" + streamHost.getPort();
-
-            // check to see if this address has been blacklisted
-            int failures = getConnectionFailures(address);
-            if (connectionFailureThreshold > 0 && failures >= connectionFailureThreshold) {
-                continue;
+        final long start = LastDuration.start();
+        ConnectionAttempts connectionAttempts = new ConnectionAttempts(digest);
+        try {
+            for (StreamHost streamHost : streamHosts) {
+                String address = streamHost.getAddress() + ":" + streamHost.getPort();
+
+                // check to see if this address has been blacklisted
+                int failures = getConnectionFailures(address);
+                if (connectionFailureThreshold > 0 && failures >= connectionFailureThreshold) {
+                    continue;
+                }
+
+                // give the previous attempts a head start, unless all of them already failed
+                if (connectionAttempts.awaitResult(getConnectionAttemptDelay()) != null) {
+                    break;
+                }
+
+                /*
+                 * determine timeout for this connection attempt; the attempts run concurrently, so
+                 * each may use what is left of the total timeout, but at least the minimum timeout
+                 */
+                long remaining = getTotalConnectTimeout() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                int timeout = (int) Math.max(remaining, getMinimumConnectTimeout());
+
+                connectionAttempts.start(streamHost, timeout);
             }
 
-            // establish socket
-            try {
-
-                // build SOCKS5 client
-                final Socks5Client socks5Client = new Socks5Client(streamHost, digest);
-
-                // connect to SOCKS5 proxy with a timeout
-                socket = socks5Client.getSocket(timeout);
-
-                // set selected host
-                selectedHost = streamHost;
-                break;
-
-            }
-            catch (TimeoutException | IOException | SmackException | XMPPException e) {
-                streamHostsExceptions.put(streamHost, e);
-                incrementConnectionFailures(address);
-            }
+            connectionAttempts.awaitResult();
+        }
+        finally {
+            // cancel all attempts still running, the first successful one has won
+            connectionAttempts.cancel();
+        }
 
+        for (Map.Entry<StreamHost, Exception> entry : connectionAttempts.getExceptions().entrySet()) {
+            StreamHost streamHost = entry.getKey();
+            streamHostsExceptions.put(streamHost, entry.getValue());
+            incrementConnectionFailures(streamHost.getAddress() + ":" + streamHost.getPort());
         }
 
+        StreamHost selectedHost = connectionAttempts.getSelectedHost();
+        Socket socket = connectionAttempts.getSocket();
+
         // throw exception if connecting to all SOCKS5 proxies failed
         if (selectedHost == null || socket == null) {
             cancelRequest(streamHostsExceptions);
         }
 
+        long connectTime = this.manager.streamHostConnected(start);
+        LOGGER.fine("Connected to " + selectedHost + " after " + connectTime + "ms, "
+                        + streamHostsExceptions.size() + " stream hosts failed before");
+
         // send used-host confirmation
         Bytestream response = createUsedHostResponse(selectedHost);
         this.manager.getConnection().sendStanza(response);
@@ -380,4 +429,127 @@ public class Socks5BytestreamRequest implements BytestreamRequest {
         return count != null ? count : 0;
     }
 
+    /**
+     * Concurrent connection attempts to the stream hosts of a request. The first attempt that
+     * establishes a connection wins, all other attempts are cancelled and their sockets closed.
+     */
+    private static final class ConnectionAttempts {
+
+        private final String digest;
+
+        private final List<Thread> threads = new ArrayList<>();
+
+        /* exceptions of the attempts that failed before a connection was established */
+        private final Map<StreamHost, Exception> exceptions = new HashMap<>();
+
+        private int running;
+
+        private boolean cancelled;
+
+        private StreamHost selectedHost;
+
+        private Socket socket;
+
+        private ConnectionAttempts(String digest) {
+            this.digest = digest;
+        }
+
+        private synchronized void start(final StreamHost streamHost, final int timeout) {
+            running++;
+            Thread thread = Async.go(new Runnable() {
+                @Override
+                public void run() {
+                    Socket socket;
+                    try {
+                        // build SOCKS5 client and connect to SOCKS5 proxy with a timeout
+                        socket = new Socks5Client(streamHost, digest).getSocket(timeout);
+                    }
+                    catch (InterruptedException e) {
+                        // the attempt was cancelled
+                        failed(streamHost, null);
+                        return;
+                    }
+                    catch (TimeoutException | IOException | SmackException | XMPPException e) {
+                        failed(streamHost, e);
+                        return;
+                    }
+                    connected(streamHost, socket);
+                }
+            }, "SOCKS5 connection attempt to " + streamHost);
+            threads.add(thread);
+        }
+
+        private synchronized void connected(StreamHost streamHost, Socket socket) {
+            running--;
+            if (this.socket != null || cancelled) {
+                // another attempt was faster
+                CloseableUtil.maybeClose(socket, LOGGER);
+                return;
+            }
+            this.selectedHost = streamHost;
+            this.socket = socket;
+            notifyAll();
+        }
+
+        private synchronized void failed(StreamHost streamHost, Exception exception) {
+            running--;
+            if (exception != null && socket == null && !cancelled) {
+                exceptions.put(streamHost, exception);
+            }
+            notifyAll();
+        }
+
+        /**
+         * Waits until a connection was established or all running attempts failed.
+         *
+         * @return the established connection or <code>null</code>.
+         * @throws InterruptedException if the calling thread was interrupted.
+         */
+        private synchronized Socket awaitResult() throws InterruptedException {
+            while (socket == null && running > 0) {
+                wait();
+            }
+            return socket;
+        }
+
+        /**
+         * Waits until a connection was established, all running attempts failed, or the timeout
+         * elapsed.
+         *
+         * @param timeout the timeout in milliseconds.
+         * @return the established connection or <code>null</code>.
+         * @throws InterruptedException if the calling thread was interrupted.
+         */
+        private synchronized Socket awaitResult(long timeout) throws InterruptedException {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (socket == null && running > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return socket;
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+
+        private synchronized Map<StreamHost, Exception> getExceptions() {
+            return new HashMap<>(exceptions);
+        }
+
+        private synchronized StreamHost getSelectedHost() {
+            return selectedHost;
+        }
+
+        private synchronized Socket getSocket() {
+            return socket;
+        }
+    }
+
 }
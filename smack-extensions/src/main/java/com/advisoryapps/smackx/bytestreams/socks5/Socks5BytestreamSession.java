@@ -21,25 +21,57 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.advisoryapps.smackx.bytestreams.BytestreamSession;
 
 /**
  * Socks5BytestreamSession class represents a SOCKS5 Bytestream session.
+ * <p>
+ * If the socket of the session has a {@link SocketChannel}, like the sockets of connections to the
+ * local SOCKS5 proxy, then the streams of the session read from and write to the channel directly.
+ * The output stream is then a {@link SocketChannelOutputStream}, which is able to send files
+ * without copying them through user space.
+ * </p>
  *
  * @author Henning Staib
  */
 public class Socks5BytestreamSession implements BytestreamSession {
 
+    private static final Logger LOGGER = Logger.getLogger(Socks5BytestreamSession.class.getName());
+
     /* the underlying socket of the SOCKS5 Bytestream */
     private final Socket socket;
 
     /* flag to indicate if this session is a direct or mediated connection */
     private final boolean isDirect;
 
+    /* the streams of the session if the socket has a channel */
+    private final SocketChannelInputStream channelInputStream;
+    private final SocketChannelOutputStream channelOutputStream;
+
     public Socks5BytestreamSession(Socket socket, boolean isDirect) {
         this.socket = socket;
         this.isDirect = isDirect;
+
+        SocketChannelInputStream channelInputStream = null;
+        SocketChannelOutputStream channelOutputStream = null;
+        SocketChannel socketChannel = socket.getChannel();
+        if (socketChannel != null) {
+            // The streams of the socket adapter of a channel block each other, use the channel directly.
+            try {
+                socketChannel.configureBlocking(false);
+                channelInputStream = new SocketChannelInputStream(socketChannel);
+                channelOutputStream = new SocketChannelOutputStream(socketChannel);
+            }
+            catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not switch " + socketChannel + " to non-blocking mode", e);
+            }
+        }
+        this.channelInputStream = channelInputStream;
+        this.channelOutputStream = channelOutputStream;
     }
 
     /**
@@ -66,16 +98,25 @@ public class Socks5BytestreamSession implements BytestreamSession {
 
     @Override
     public InputStream getInputStream() throws IOException {
+        if (this.channelInputStream != null) {
+            return this.channelInputStream;
+        }
         return this.socket.getInputStream();
     }
 
     @Override
     public OutputStream getOutputStream() throws IOException {
+        if (this.channelOutputStream != null) {
+            return this.channelOutputStream;
+        }
         return this.socket.getOutputStream();
     }
 
     @Override
     public int getReadTimeout() throws IOException {
+        if (this.channelInputStream != null) {
+            return this.channelInputStream.getReadTimeout();
+        }
         try {
             return this.socket.getSoTimeout();
         }
@@ -86,6 +127,13 @@ public class Socks5BytestreamSession implements BytestreamSession {
 
     @Override
     public void setReadTimeout(int timeout) throws IOException {
+        if (this.channelInputStream != null) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("Timeout must be >= 0");
+            }
+            this.channelInputStream.setReadTimeout(timeout);
+            return;
+        }
         try {
             this.socket.setSoTimeout(timeout);
         }
@@ -96,6 +144,11 @@ public class Socks5BytestreamSession implements BytestreamSession {
 
     @Override
     public void close() throws IOException {
+        if (this.channelInputStream != null) {
+            this.channelInputStream.close();
+            this.channelOutputStream.close();
+            return;
+        }
         this.socket.close();
     }
 
@@ -72,6 +72,10 @@ public class Socks5Client {
     /**
      * Returns the initialized socket that can be used to transfer data between peers via the SOCKS5
      * proxy.
+     * <p>
+     * If connecting times out or the calling thread is interrupted while waiting, then the connection attempt is
+     * aborted and its socket is closed.
+     * </p>
      *
      * @param timeout timeout to connect to SOCKS5 proxy in milliseconds
      * @return socket the initialized socket
@@ -85,14 +89,15 @@ public class Socks5Client {
      */
     public Socket getSocket(int timeout) throws IOException, InterruptedException,
                     TimeoutException, XMPPException, SmackMessageException, NotConnectedException, NoResponseException {
+        // initialize socket
+        final Socket socket = new Socket();
+
         // wrap connecting in future for timeout
         FutureTask<Socket> futureTask = new FutureTask<>(new Callable<Socket>() {
 
             @Override
             public Socket call() throws IOException, SmackMessageException {
 
-                // initialize socket
-                Socket socket = new Socket();
                 SocketAddress socketAddress = new InetSocketAddress(streamHost.getAddress().asInetAddress(),
                                 streamHost.getPort());
                 socket.connect(socketAddress);
@@ -121,6 +126,12 @@ public class Socks5Client {
         catch (ExecutionException e) {
             throw new IOException("ExecutionException while SOCKS5 client attempting to connect to " + streamHost, e);
         }
+        catch (TimeoutException | InterruptedException e) {
+            // closing the socket unblocks the thread that is still connecting
+            futureTask.cancel(true);
+            CloseableUtil.maybeClose(socket, LOGGER);
+            throw e;
+        }
 
     }
 
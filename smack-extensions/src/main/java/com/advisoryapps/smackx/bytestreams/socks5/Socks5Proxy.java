@@ -16,20 +16,26 @@
  */
 package com.advisoryapps.smackx.bytestreams.socks5;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.InterfaceAddress;
 import java.net.NetworkInterface;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -60,6 +66,9 @@ import com.advisoryapps.smack.util.CloseableUtil;
  * in the process of establishing a SOCKS5 Bytestream (
  * {@link Socks5BytestreamManager#establishSession(org.jxmpp.jid.Jid)}).
  * <p>
+ * The SOCKS5 negotiations of all incoming connections are performed concurrently by a single thread
+ * using non-blocking I/O, so a slow or unresponsive peer does not delay the other connections.
+ * <p>
  * This Implementation has the following limitations:
  * <ul>
  * <li>only supports the no-authentication authentication method</li>
@@ -97,14 +106,25 @@ public class Socks5Proxy {
     /* reusable implementation of a SOCKS5 proxy server process */
     private final Socks5ServerProcess serverProcess;
 
+    /**
+     * The time in milliseconds a peer has to complete the SOCKS5 negotiation, before its connection is closed.
+     */
+    private static final int NEGOTIATION_TIMEOUT = 30000;
+
     /* thread running the SOCKS5 server process */
     private Thread serverThread;
 
-    /* server socket to accept SOCKS5 connections */
+    /* server socket channel to accept SOCKS5 connections */
+    private ServerSocketChannel serverSocketChannel;
+
+    /* server socket of the server socket channel */
     private ServerSocket serverSocket;
 
+    /* selector used by the server process */
+    private Selector selector;
+
     /* assigns a connection to a digest */
-    private final Map<String, Socket> connectionMap = new ConcurrentHashMap<>();
+    private final Map<String, SocketChannel> connectionMap = new ConcurrentHashMap<>();
 
     /* list of digests connections should be stored */
     private final List<String> allowedConnections = Collections.synchronizedList(new LinkedList<String>());
@@ -147,10 +167,15 @@ public class Socks5Proxy {
     /**
      * Constructor a Socks5Proxy with the given socket. Used for unit test purposes.
      *
-     * @param serverSocket the server socket to use
+     * @param serverSocket the server socket to use, which must have been created by a {@link ServerSocketChannel}
+     * @throws IOException if the channel of the server socket could not be registered with a selector
      */
-    protected Socks5Proxy(ServerSocket serverSocket) {
+    protected Socks5Proxy(ServerSocket serverSocket) throws IOException {
+        if (serverSocket.getChannel() == null) {
+            throw new IllegalArgumentException("The server socket must have a channel");
+        }
         this.serverProcess = new Socks5ServerProcess();
+        this.serverSocketChannel = serverSocket.getChannel();
         this.serverSocket = serverSocket;
 
         allowAllConnections = true;
@@ -242,7 +267,7 @@ public class Socks5Proxy {
                 int port = Math.abs(getLocalSocks5ProxyPort());
                 for (int i = 0; i < 65535 - port; i++) {
                     try {
-                        this.serverSocket = new ServerSocket(port + i);
+                        this.serverSocketChannel = openServerSocketChannel(port + i);
                         break;
                     }
                     catch (IOException e) {
@@ -251,22 +276,43 @@ public class Socks5Proxy {
                 }
             }
             else {
-                this.serverSocket = new ServerSocket(getLocalSocks5ProxyPort());
+                this.serverSocketChannel = openServerSocketChannel(getLocalSocks5ProxyPort());
             }
 
-            if (this.serverSocket != null) {
+            if (this.serverSocketChannel != null) {
+                this.serverSocket = this.serverSocketChannel.socket();
                 startServerThread();
             }
         }
         catch (IOException e) {
             // couldn't setup server
             LOGGER.log(Level.SEVERE, "couldn't setup local SOCKS5 proxy on port " + getLocalSocks5ProxyPort(), e);
+            CloseableUtil.maybeClose(this.serverSocketChannel, LOGGER);
+            this.serverSocketChannel = null;
+            this.serverSocket = null;
         }
 
         return this.serverSocket;
     }
 
-    private synchronized void startServerThread() {
+    private static ServerSocketChannel openServerSocketChannel(int port) throws IOException {
+        ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+        try {
+            // ServerSocketChannel.bind() requires Android API 24, bind the server socket instead.
+            serverSocketChannel.socket().bind(new InetSocketAddress(port));
+        }
+        catch (IOException e) {
+            CloseableUtil.maybeClose(serverSocketChannel, LOGGER);
+            throw e;
+        }
+        return serverSocketChannel;
+    }
+
+    private synchronized void startServerThread() throws IOException {
+        this.selector = Selector.open();
+        this.serverSocketChannel.configureBlocking(false);
+        this.serverSocketChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+
         this.serverThread = new Thread(this.serverProcess);
         this.serverThread.setName("Smack Local SOCKS5 Proxy [" + this.serverSocket + ']');
         this.serverThread.setDaemon(true);
@@ -285,7 +331,7 @@ public class Socks5Proxy {
 
         RUNNING_PROXIES.remove(this);
 
-        CloseableUtil.maybeClose(this.serverSocket, LOGGER);
+        CloseableUtil.maybeClose(this.serverSocketChannel, LOGGER);
 
         if (this.serverThread != null && this.serverThread.isAlive()) {
             try {
@@ -297,7 +343,9 @@ public class Socks5Proxy {
             }
         }
         this.serverThread = null;
+        this.serverSocketChannel = null;
         this.serverSocket = null;
+        this.selector = null;
     }
 
     /**
@@ -390,7 +438,11 @@ public class Socks5Proxy {
      * @return socket or null if there is no socket for the given digest
      */
     protected Socket getSocket(String digest) {
-        return this.connectionMap.get(digest);
+        SocketChannel socketChannel = this.connectionMap.get(digest);
+        if (socketChannel == null) {
+            return null;
+        }
+        return socketChannel.socket();
     }
 
     /**
@@ -436,99 +488,309 @@ public class Socks5Proxy {
 
         @Override
         public void run() {
-            while (true) {
-                ServerSocket serverSocket = Socks5Proxy.this.serverSocket;
-                if (serverSocket == null || serverSocket.isClosed() || Thread.currentThread().isInterrupted()) {
+            Selector selector = Socks5Proxy.this.selector;
+            try {
+                while (true) {
+                    ServerSocketChannel serverSocketChannel = Socks5Proxy.this.serverSocketChannel;
+                    if (serverSocketChannel == null || !serverSocketChannel.isOpen() || Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+
+                    try {
+                        selector.select(NEGOTIATION_TIMEOUT);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Exception while " + Socks5Proxy.this + " was selecting", e);
+                        return;
+                    }
+
+                    List<Socks5Negotiation> completedNegotiations = new ArrayList<>();
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey selectionKey = it.next();
+                        it.remove();
+                        if (!selectionKey.isValid()) {
+                            continue;
+                        }
+
+                        if (selectionKey.isAcceptable()) {
+                            accept(serverSocketChannel, selector);
+                            continue;
+                        }
+
+                        Socks5Negotiation negotiation = (Socks5Negotiation) selectionKey.attachment();
+                        try {
+                            if (negotiation.onChannelSelected(selectionKey)) {
+                                completedNegotiations.add(negotiation);
+                            }
+                        } catch (SmackException | IOException e) {
+                            LOGGER.log(Level.FINE, "Exception while " + Socks5Proxy.this + " was handling connection", e);
+                            CloseableUtil.maybeClose(negotiation.socketChannel, LOGGER);
+                        }
+                    }
+
+                    if (!completedNegotiations.isEmpty()) {
+                        establishConnections(selector, completedNegotiations);
+                    }
+
+                    closeTimedOutNegotiations(selector);
+                }
+            }
+            finally {
+                for (SelectionKey selectionKey : selector.keys()) {
+                    if (selectionKey.attachment() instanceof Socks5Negotiation) {
+                        CloseableUtil.maybeClose(selectionKey.channel(), LOGGER);
+                    }
+                }
+                CloseableUtil.maybeClose(selector, LOGGER);
+            }
+        }
+
+        private void accept(ServerSocketChannel serverSocketChannel, Selector selector) {
+            SocketChannel socketChannel = null;
+            try {
+                socketChannel = serverSocketChannel.accept();
+                if (socketChannel == null) {
                     return;
                 }
+                socketChannel.configureBlocking(false);
+                socketChannel.register(selector, SelectionKey.OP_READ, new Socks5Negotiation(socketChannel));
+            } catch (IOException e) {
+                // Do nothing, if caused by closing the server socket, thread will terminate in next loop.
+                LOGGER.log(Level.FINE, "Exception while " + Socks5Proxy.this + " was accepting connection", e);
+                CloseableUtil.maybeClose(socketChannel, LOGGER);
+            }
+        }
+
+        /**
+         * Stores the connections which completed the SOCKS5 negotiation and sends them the success
+         * status. The connections are switched to blocking mode, as users of the proxy expect
+         * blocking sockets.
+         *
+         * @param selector the selector of this server process
+         * @param completedNegotiations the completed negotiations
+         */
+        private void establishConnections(Selector selector, List<Socks5Negotiation> completedNegotiations) {
+            try {
+                // Deregister the cancelled keys of the channels, which is required to switch them to blocking mode.
+                selector.selectNow();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Exception while " + Socks5Proxy.this + " was selecting", e);
+            }
 
-                // accept connection
-                Socket socket = null;
+            for (Socks5Negotiation negotiation : completedNegotiations) {
+                SocketChannel socketChannel = negotiation.socketChannel;
                 try {
-                    socket = serverSocket.accept();
-                    // initialize connection
-                    establishConnection(socket);
-                } catch (SmackException | IOException e) {
-                    // Do nothing, if caused by closing the server socket, thread will terminate in next loop.
+                    socketChannel.configureBlocking(true);
+
+                    // Store the connection before we send the return status.
+                    Socks5Proxy.this.connectionMap.put(negotiation.digest, socketChannel);
+
+                    ByteBuffer response = ByteBuffer.wrap(negotiation.connectionRequest);
+                    while (response.hasRemaining()) {
+                        socketChannel.write(response);
+                    }
+                } catch (IOException e) {
                     LOGGER.log(Level.FINE, "Exception while " + Socks5Proxy.this + " was handling connection", e);
-                    CloseableUtil.maybeClose(socket, LOGGER);
+                    Socks5Proxy.this.connectionMap.remove(negotiation.digest);
+                    CloseableUtil.maybeClose(socketChannel, LOGGER);
                 }
             }
         }
 
+        private void closeTimedOutNegotiations(Selector selector) {
+            long now = System.currentTimeMillis();
+            for (SelectionKey selectionKey : selector.keys()) {
+                Object attachment = selectionKey.attachment();
+                if (!(attachment instanceof Socks5Negotiation)) {
+                    continue;
+                }
+                Socks5Negotiation negotiation = (Socks5Negotiation) attachment;
+                if (now - negotiation.started > NEGOTIATION_TIMEOUT) {
+                    LOGGER.fine(Socks5Proxy.this + " closes connection which did not complete the SOCKS5 negotiation");
+                    CloseableUtil.maybeClose(negotiation.socketChannel, LOGGER);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * The state of the non-blocking SOCKS5 negotiation of an incoming connection.
+     */
+    private final class Socks5Negotiation {
+
+        private final SocketChannel socketChannel;
+
+        private final long started = System.currentTimeMillis();
+
+        /* the authentication method selection and the connection request fit into this buffer */
+        private final ByteBuffer in = ByteBuffer.allocate(2 + 255 + 7 + 255);
+
+        private ByteBuffer out;
+
+        private boolean authMethodSelected;
+
+        private boolean closeAfterWrite;
+
+        private byte[] connectionRequest;
+
+        private String digest;
+
+        private Socks5Negotiation(SocketChannel socketChannel) {
+            this.socketChannel = socketChannel;
+        }
+
         /**
-         * Negotiates a SOCKS5 connection and stores it on success.
+         * Handles the readiness of the channel.
          *
-         * @param socket connection to the client
+         * @param selectionKey the selection key of the channel
+         * @return <code>true</code> if the negotiation is complete and the connection allowed
          * @throws SmackException if client requests a connection in an unsupported way
          * @throws IOException if a network error occurred
          */
-        private void establishConnection(Socket socket) throws SmackException, IOException {
-            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
-            DataInputStream in = new DataInputStream(socket.getInputStream());
+        private boolean onChannelSelected(SelectionKey selectionKey) throws SmackException, IOException {
+            if (selectionKey.isWritable()) {
+                return write(selectionKey);
+            }
+
+            if (socketChannel.read(in) < 0) {
+                throw new IOException("Connection closed by peer during SOCKS5 negotiation");
+            }
+
+            in.flip();
+            try {
+                if (!authMethodSelected) {
+                    processAuthMethods();
+                }
+                if (authMethodSelected && connectionRequest == null) {
+                    processConnectionRequest();
+                }
+            }
+            finally {
+                in.compact();
+            }
+
+            return write(selectionKey);
+        }
+
+        private void processAuthMethods() throws SmackException {
+            if (in.remaining() < 2) {
+                return;
+            }
 
             // first byte is version should be 5
-            int b = in.read();
+            int b = in.get(in.position());
             if (b != 5) {
                 throw new SmackException.SmackMessageException("Only SOCKS5 supported: Peer send " + b + " but we expect 5");
             }
 
             // second byte number of authentication methods supported
-            b = in.read();
-
-            // read list of supported authentication methods
-            byte[] auth = new byte[b];
-            in.readFully(auth);
-
-            byte[] authMethodSelectionResponse = new byte[2];
-            authMethodSelectionResponse[0] = (byte) 0x05; // protocol version
+            int methods = in.get(in.position() + 1) & 0xff;
+            if (in.remaining() < 2 + methods) {
+                return;
+            }
 
             // only authentication method 0, no authentication, supported
             boolean noAuthMethodFound = false;
-            for (int i = 0; i < auth.length; i++) {
-                if (auth[i] == (byte) 0x00) {
+            for (int i = 0; i < methods; i++) {
+                if (in.get(in.position() + 2 + i) == (byte) 0x00) {
                     noAuthMethodFound = true;
                     break;
                 }
             }
+            in.position(in.position() + 2 + methods);
+
+            byte[] authMethodSelectionResponse = new byte[2];
+            authMethodSelectionResponse[0] = (byte) 0x05; // protocol version
 
             if (!noAuthMethodFound) {
                 authMethodSelectionResponse[1] = (byte) 0xFF; // no acceptable methods
-                out.write(authMethodSelectionResponse);
-                out.flush();
-                throw new SmackException.SmackMessageException("Authentication method not supported");
+                LOGGER.fine("Authentication method not supported");
+                closeAfterWrite = true;
             }
+            else {
+                authMethodSelectionResponse[1] = (byte) 0x00; // no-authentication method
+                authMethodSelected = true;
+            }
+            out = ByteBuffer.wrap(authMethodSelectionResponse);
+        }
 
-            authMethodSelectionResponse[1] = (byte) 0x00; // no-authentication method
-            out.write(authMethodSelectionResponse);
-            out.flush();
+        private void processConnectionRequest() throws SmackException {
+            if (in.remaining() < 5) {
+                return;
+            }
+
+            if (in.get(in.position() + 3) != (byte) 0x03) {
+                throw new SmackException.SmackMessageException("Unsupported SOCKS5 address type: "
+                                + in.get(in.position() + 3) + " (expected: 0x03)");
+            }
 
-            // receive connection request
-            byte[] connectionRequest = Socks5Utils.receiveSocks5Message(in);
+            int addressLength = in.get(in.position() + 4) & 0xff;
+            if (in.remaining() < 7 + addressLength) {
+                return;
+            }
+
+            connectionRequest = new byte[7 + addressLength];
+            in.get(connectionRequest);
 
             // extract digest
-            String responseDigest = new String(connectionRequest, 5, connectionRequest[4], StandardCharsets.UTF_8);
+            digest = new String(connectionRequest, 5, addressLength, StandardCharsets.UTF_8);
 
             // return error if digest is not allowed
-            if (!allowAllConnections && !Socks5Proxy.this.allowedConnections.contains(responseDigest)) {
+            if (!allowAllConnections && !Socks5Proxy.this.allowedConnections.contains(digest)) {
                 connectionRequest[1] = (byte) 0x05; // set return status to 5 (connection refused)
-                out.write(connectionRequest);
-                out.flush();
+                LOGGER.fine("Connection with digest '" + digest + "' is not allowed");
+                closeAfterWrite = true;
+                // The auth method selection response may still be pending.
+                out = concat(out, connectionRequest);
+            }
+            else {
+                connectionRequest[1] = (byte) 0x00; // set return status to 0 (success)
+            }
+        }
 
-                throw new SmackException.SmackMessageException(
-                                "Connection with digest '" + responseDigest + "' is not allowed");
+        /**
+         * Writes the pending response, if any.
+         *
+         * @return <code>true</code> if the negotiation is complete and the connection allowed
+         */
+        private boolean write(SelectionKey selectionKey) throws IOException {
+            if (out != null) {
+                socketChannel.write(out);
+                if (out.hasRemaining()) {
+                    selectionKey.interestOps(SelectionKey.OP_WRITE);
+                    return false;
+                }
+                out = null;
             }
 
-            // Store the connection before we send the return status.
-            Socks5Proxy.this.connectionMap.put(responseDigest, socket);
+            if (closeAfterWrite) {
+                socketChannel.close();
+                return false;
+            }
+
+            if (connectionRequest != null) {
+                // The success status is sent once the connection is stored.
+                selectionKey.cancel();
+                return true;
+            }
 
-            connectionRequest[1] = (byte) 0x00; // set return status to 0 (success)
-            out.write(connectionRequest);
-            out.flush();
+            selectionKey.interestOps(SelectionKey.OP_READ);
+            return false;
         }
 
     }
 
+    private static ByteBuffer concat(ByteBuffer pending, byte[] bytes) {
+        if (pending == null || !pending.hasRemaining()) {
+            return ByteBuffer.wrap(bytes);
+        }
+        ByteBuffer res = ByteBuffer.allocate(pending.remaining() + bytes.length);
+        res.put(pending).put(bytes);
+        res.flip();
+        return res;
+    }
+
     public static Socket getSocketForDigest(String digest) {
         for (Socks5Proxy socks5Proxy : RUNNING_PROXIES) {
             Socket socket = socks5Proxy.getSocket(digest);
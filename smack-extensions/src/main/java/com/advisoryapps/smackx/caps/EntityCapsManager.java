@@ -16,6 +16,7 @@
  */
 package com.advisoryapps.smackx.caps;
 
+import java.lang.ref.WeakReference;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -35,10 +36,13 @@ import java.util.logging.Logger;
 
 import com.advisoryapps.smack.AbstractConnectionListener;
 import com.advisoryapps.smack.ConnectionCreationListener;
+import com.advisoryapps.smack.InFlightRequests;
 import com.advisoryapps.smack.Manager;
 import com.advisoryapps.smack.SmackConfiguration;
 import com.advisoryapps.smack.SmackException.NoResponseException;
 import com.advisoryapps.smack.SmackException.NotConnectedException;
+import com.advisoryapps.smack.SmackFuture;
+import com.advisoryapps.smack.SmackFuture.InternalSmackFuture;
 import com.advisoryapps.smack.StanzaListener;
 import com.advisoryapps.smack.XMPPConnection;
 import com.advisoryapps.smack.XMPPConnectionRegistry;
@@ -54,7 +58,9 @@ import com.advisoryapps.smack.packet.Presence;
 import com.advisoryapps.smack.packet.Stanza;
 import com.advisoryapps.smack.roster.AbstractPresenceEventListener;
 import com.advisoryapps.smack.roster.Roster;
+import com.advisoryapps.smack.util.ExceptionCallback;
 import com.advisoryapps.smack.util.StringUtils;
+import com.advisoryapps.smack.util.SuccessCallback;
 import com.advisoryapps.smack.util.stringencoder.Base64;
 
 import com.advisoryapps.smackx.caps.cache.EntityCapsPersistentCache;
@@ -86,7 +92,11 @@ public final class EntityCapsManager extends Manager {
     public static final String NAMESPACE = CapsExtension.NAMESPACE;
     public static final String ELEMENT = CapsExtension.ELEMENT;
 
-    private static final Map<String, MessageDigest> SUPPORTED_HASHES = new HashMap<String, MessageDigest>();
+    /**
+     * Map of the supported hashes to per-thread message digests, so that verification strings can be calculated
+     * concurrently.
+     */
+    private static final Map<String, ThreadLocal<MessageDigest>> SUPPORTED_HASHES = new HashMap<>();
 
     /**
      * The default hash. Currently 'sha-1'.
@@ -101,6 +111,12 @@ public final class EntityCapsManager extends Manager {
 
     private static final Map<XMPPConnection, EntityCapsManager> instances = new WeakHashMap<>();
 
+    /**
+     * The instances keyed by their ServiceDiscoveryManager. The values are weak references, as every instance
+     * references its ServiceDiscoveryManager.
+     */
+    private static final Map<ServiceDiscoveryManager, WeakReference<EntityCapsManager>> instancesBySdm = new WeakHashMap<>();
+
     private static final StanzaFilter PRESENCES_WITH_CAPS = new AndFilter(new StanzaTypeFilter(Presence.class), new StanzaExtensionFilter(
                     ELEMENT, NAMESPACE));
 
@@ -126,8 +142,18 @@ public final class EntityCapsManager extends Manager {
         });
 
         try {
-            MessageDigest sha1MessageDigest = MessageDigest.getInstance(DEFAULT_HASH);
-            SUPPORTED_HASHES.put(DEFAULT_HASH, sha1MessageDigest);
+            // Ensure that the algorithm is available before adding it.
+            MessageDigest.getInstance(DEFAULT_HASH);
+            SUPPORTED_HASHES.put(DEFAULT_HASH, new ThreadLocal<MessageDigest>() {
+                @Override
+                protected MessageDigest initialValue() {
+                    try {
+                        return MessageDigest.getInstance(DEFAULT_HASH);
+                    } catch (NoSuchAlgorithmException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
         } catch (NoSuchAlgorithmException e) {
             // Ignore
         }
@@ -135,9 +161,15 @@ public final class EntityCapsManager extends Manager {
         ServiceDiscoveryManager.addDiscoInfoLookupShortcutMechanism(new DiscoInfoLookupShortcutMechanism("XEP-0115: Entity Capabilities", 100) {
             @Override
             public DiscoverInfo getDiscoverInfoByUser(ServiceDiscoveryManager serviceDiscoveryManager, Jid jid) {
+                return EntityCapsManager.getDiscoverInfoByUser(jid);
+            }
+
+            @Override
+            public SmackFuture<DiscoverInfo, Exception> getDiscoverInfoByUserAsync(
+                            ServiceDiscoveryManager serviceDiscoveryManager, Jid jid) {
                 DiscoverInfo info = EntityCapsManager.getDiscoverInfoByUser(jid);
                 if (info != null) {
-                    return info;
+                    return SmackFuture.from(info);
                 }
 
                 NodeVerHash nodeVerHash = getNodeVerHashByJid(jid);
@@ -145,20 +177,11 @@ public final class EntityCapsManager extends Manager {
                     return null;
                 }
 
-                try {
-                    info = serviceDiscoveryManager.discoverInfo(jid, nodeVerHash.getNodeVer());
-                } catch (NoResponseException | XMPPErrorException | NotConnectedException | InterruptedException e) {
-                    // TODO log
+                EntityCapsManager entityCapsManager = getInstanceFor(serviceDiscoveryManager);
+                if (entityCapsManager == null) {
                     return null;
                 }
-
-                if (verifyDiscoverInfoVersion(nodeVerHash.getVer(), nodeVerHash.getHash(), info)) {
-                    addDiscoverInfoByNode(nodeVerHash.getNodeVer(), info);
-                } else {
-                    // TODO log
-                }
-
-                return info;
+                return entityCapsManager.verifyCapsAsync(jid, nodeVerHash);
             }
         });
     }
@@ -262,6 +285,25 @@ public final class EntityCapsManager extends Manager {
         persistentCache = cache;
     }
 
+    /**
+     * Fill the in-memory cache with the most recently used entries of the persistent cache, if one is set.
+     *
+     * @return the number of entries added to the in-memory cache.
+     * @see EntityCapsPersistentCache#getMostRecentlyUsed(int)
+     * @since 4.4.0
+     */
+    public static int warmMemoryCache() {
+        EntityCapsPersistentCache persistentCache = EntityCapsManager.persistentCache;
+        if (persistentCache == null) {
+            return 0;
+        }
+        Map<String, DiscoverInfo> infos = persistentCache.getMostRecentlyUsed(CAPS_CACHE.getMaxCacheSize());
+        for (Map.Entry<String, DiscoverInfo> entry : infos.entrySet()) {
+            CAPS_CACHE.put(entry.getKey(), entry.getValue());
+        }
+        return infos.size();
+    }
+
     /**
      * Sets the maximum cache sizes.
      *
@@ -297,6 +339,14 @@ public final class EntityCapsManager extends Manager {
 
     private final Queue<CapsVersionAndHash> lastLocalCapsVersions = new ConcurrentLinkedQueue<>();
 
+    /**
+     * The caps verifications in progress, keyed by node#ver. Used to query the disco#info of a node#ver only once,
+     * regardless of the number of entities announcing it.
+     */
+    private final InFlightRequests<String, CapsVerification, Exception> inFlightVerifications = new InFlightRequests<>();
+
+    private volatile boolean prefetchUnknownCaps;
+
     private final ServiceDiscoveryManager sdm;
 
     private boolean entityCapsEnabled;
@@ -312,6 +362,7 @@ public final class EntityCapsManager extends Manager {
         super(connection);
         this.sdm = ServiceDiscoveryManager.getInstanceFor(connection);
         instances.put(connection, this);
+        instancesBySdm.put(sdm, new WeakReference<>(this));
 
         connection.addConnectionListener(new AbstractConnectionListener() {
             @Override
@@ -361,6 +412,14 @@ public final class EntityCapsManager extends Manager {
                 CapsExtension capsExtension = CapsExtension.from(packet);
                 Jid from = packet.getFrom();
                 addCapsExtensionInfo(from, capsExtension);
+
+                if (prefetchUnknownCaps) {
+                    NodeVerHash nodeVerHash = JID_TO_NODEVER_CACHE.lookup(from);
+                    if (nodeVerHash != null && getDiscoveryInfoByNodeVer(nodeVerHash.getNodeVer()) == null) {
+                        // The verification happens asynchronously and does not hold up the processing of presences.
+                        verifyCapsAsync(from, nodeVerHash);
+                    }
+                }
             }
 
         }, PRESENCES_WITH_CAPS);
@@ -423,6 +482,14 @@ public final class EntityCapsManager extends Manager {
         return entityCapsManager;
     }
 
+    private static synchronized EntityCapsManager getInstanceFor(ServiceDiscoveryManager serviceDiscoveryManager) {
+        WeakReference<EntityCapsManager> entityCapsManager = instancesBySdm.get(serviceDiscoveryManager);
+        if (entityCapsManager == null) {
+            return null;
+        }
+        return entityCapsManager.get();
+    }
+
     public synchronized void enableEntityCaps() {
         // Add Entity Capabilities (XEP-0115) feature node.
         sdm.addFeature(NAMESPACE);
@@ -439,6 +506,87 @@ public final class EntityCapsManager extends Manager {
         return entityCapsEnabled;
     }
 
+    /**
+     * Set if the disco#info of unknown node#ver strings should be queried and verified as soon as a presence announcing
+     * them is received, instead of on the first lookup. Every node#ver is only queried once, even if it is announced by
+     * many entities at the same time, e.g. the occupants of a MUC. Disabled by default.
+     *
+     * @param prefetchUnknownCaps <code>true</code> to query unknown node#ver strings on reception.
+     * @since 4.4.0
+     */
+    public void setPrefetchUnknownCaps(boolean prefetchUnknownCaps) {
+        this.prefetchUnknownCaps = prefetchUnknownCaps;
+    }
+
+    /**
+     * Asynchronously retrieve the verified disco#info for the given node#ver, which has been announced by the given
+     * entity. If a verification of the same node#ver is already in progress, then no further query is sent and the
+     * returned future is completed once the in-progress verification is done.
+     * <p>
+     * If the disco#info does not match the node#ver, then only the futures for the queried entity are completed with
+     * the disco#info, the ones of other entities announcing the same node#ver fail.
+     * </p>
+     *
+     * @param jid the entity which announced the node#ver.
+     * @param nodeVerHash the node#ver.
+     * @return a future for the disco#info.
+     */
+    SmackFuture<DiscoverInfo, Exception> verifyCapsAsync(final Jid jid, final NodeVerHash nodeVerHash) {
+        final InternalSmackFuture<DiscoverInfo, Exception> future = new InternalSmackFuture<>();
+        inFlightVerifications.request(nodeVerHash.getNodeVer(), new InFlightRequests.Request<CapsVerification, Exception>() {
+            @Override
+            public SmackFuture<CapsVerification, Exception> send() {
+                return sendVerification(jid, nodeVerHash);
+            }
+        }).onSuccess(new SuccessCallback<CapsVerification>() {
+            @Override
+            public void onSuccess(CapsVerification verification) {
+                if (verification.verified || jid.equals(verification.jid)) {
+                    future.setResult(new DiscoverInfo(verification.info));
+                } else {
+                    future.setException(new IllegalStateException("The disco#info of " + verification.jid
+                                    + " does not match its caps"));
+                }
+            }
+        }).onError(new ExceptionCallback<Exception>() {
+            @Override
+            public void processException(Exception exception) {
+                future.setException(exception);
+            }
+        });
+        return future;
+    }
+
+    private SmackFuture<CapsVerification, Exception> sendVerification(final Jid jid, final NodeVerHash nodeVerHash) {
+        final String nodeVer = nodeVerHash.getNodeVer();
+        // The verification may have been completed while we were preparing ours.
+        DiscoverInfo cachedInfo = getDiscoveryInfoByNodeVer(nodeVer);
+        if (cachedInfo != null) {
+            return SmackFuture.from(new CapsVerification(jid, cachedInfo, true));
+        }
+
+        final InternalSmackFuture<CapsVerification, Exception> future = new InternalSmackFuture<>();
+        sdm.discoverInfoAsync(jid, nodeVer).onSuccess(new SuccessCallback<DiscoverInfo>() {
+            @Override
+            public void onSuccess(DiscoverInfo info) {
+                // The callbacks of futures are invoked from a thread pool, hence verifications run concurrently.
+                boolean verified = verifyDiscoverInfoVersion(nodeVerHash.getVer(), nodeVerHash.getHash(), info);
+                if (verified) {
+                    addDiscoverInfoByNode(nodeVer, info);
+                } else {
+                    LOGGER.warning("The disco#info of " + jid + " does not match " + nodeVer);
+                }
+                future.setResult(new CapsVerification(jid, info, verified));
+            }
+        }).onError(new ExceptionCallback<Exception>() {
+            @Override
+            public void processException(Exception exception) {
+                future.setException(exception);
+            }
+        });
+        return future;
+    }
+
     public void setEntityNode(String entityNode) {
         this.entityNode = entityNode;
         updateLocalEntityCaps();
@@ -648,7 +796,7 @@ public final class EntityCapsManager extends Manager {
             hash = DEFAULT_HASH;
         }
         // SUPPORTED_HASHES uses the format of MessageDigest, which is uppercase, e.g. "SHA-1" instead of "sha-1"
-        MessageDigest md = SUPPORTED_HASHES.get(hash.toUpperCase(Locale.US));
+        ThreadLocal<MessageDigest> md = SUPPORTED_HASHES.get(hash.toUpperCase(Locale.US));
         if (md == null)
             return null;
         // Then transform the hash to lowercase, as this value will be put on the wire within the caps element's hash
@@ -751,10 +899,7 @@ public final class EntityCapsManager extends Manager {
         // (note: the Base64 output MUST NOT include whitespace and MUST set
         // padding bits to zero).
         byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
-        byte[] digest;
-        synchronized (md) {
-            digest = md.digest(bytes);
-        }
+        byte[] digest = md.get().digest(bytes);
         String version = Base64.encodeToString(digest);
         return new CapsVersionAndHash(version, hash);
     }
@@ -768,6 +913,22 @@ public final class EntityCapsManager extends Manager {
         }
     }
 
+    /**
+     * The result of a caps verification, i.e. the disco#info of the queried entity and whether it matches the
+     * node#ver.
+     */
+    private static final class CapsVerification {
+        private final Jid jid;
+        private final DiscoverInfo info;
+        private final boolean verified;
+
+        private CapsVerification(Jid jid, DiscoverInfo info, boolean verified) {
+            this.jid = jid;
+            this.info = info;
+            this.verified = verified;
+        }
+    }
+
     public static class NodeVerHash {
         private String node;
         private String hash;
@@ -16,6 +16,9 @@
  */
 package com.advisoryapps.smackx.caps.cache;
 
+import java.util.Collections;
+import java.util.Map;
+
 import com.advisoryapps.smackx.disco.packet.DiscoverInfo;
 
 public interface EntityCapsPersistentCache {
@@ -39,4 +42,16 @@ public interface EntityCapsPersistentCache {
      * Empty the Cache.
      */
     void emptyCache();
+
+    /**
+     * Get up to the given number of the most recently used entries of the cache, ordered from the least to the most
+     * recently used one. Used to warm the in-memory cache. The default implementation returns an empty map.
+     *
+     * @param max the maximum number of entries.
+     * @return a map of node#ver strings to DiscoverInfos.
+     * @since 4.4.0
+     */
+    default Map<String, DiscoverInfo> getMostRecentlyUsed(int max) {
+        return Collections.emptyMap();
+    }
 }
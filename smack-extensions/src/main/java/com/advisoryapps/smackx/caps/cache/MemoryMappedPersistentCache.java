@@ -0,0 +1,412 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smackx.caps.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.advisoryapps.smack.packet.ExtensionElement;
+import com.advisoryapps.smack.packet.IQ;
+import com.advisoryapps.smack.parsing.SmackParsingException;
+import com.advisoryapps.smack.util.PacketParserUtils;
+import com.advisoryapps.smack.util.RecordLog;
+import com.advisoryapps.smack.util.StringUtils;
+import com.advisoryapps.smack.xml.XmlPullParser;
+import com.advisoryapps.smack.xml.XmlPullParserException;
+
+import com.advisoryapps.smackx.disco.packet.DiscoverInfo;
+
+import org.jxmpp.jid.impl.JidCreate;
+
+/**
+ * An EntityCapsPersistentCache which stores all entries in a single, memory-mapped {@link RecordLog}. The identities and features of
+ * the DiscoverInfo are stored in a compact binary encoding, only extended information (XEP-0128) is stored as XML. An
+ * index of the node#ver strings and the positions of their entries is kept on the heap.
+ * <p>
+ * The size of the file is bounded. Once adding an entry would exceed the bound, the least recently used entries are
+ * evicted and the file is compacted. Lookups are not persisted, hence after a restart the entries are considered to be
+ * used in the order they have been added.
+ * </p>
+ * <p>
+ * Use {@link #getMostRecentlyUsed(int)}, or {@link com.advisoryapps.smackx.caps.EntityCapsManager#warmMemoryCache()},
+ * to fill the in-memory cache of the EntityCapsManager from the file on startup.
+ * </p>
+ *
+ * @since 4.4.0
+ */
+public final class MemoryMappedPersistentCache implements EntityCapsPersistentCache, Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(MemoryMappedPersistentCache.class.getName());
+
+    /**
+     * The default maximum size of the cache's file in bytes. Currently {@value #DEFAULT_MAX_FILE_SIZE}.
+     */
+    public static final int DEFAULT_MAX_FILE_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The magic number "SCAP" at the beginning of the file.
+     */
+    private static final int MAGIC = 0x53434150;
+
+    private static final int VERSION = 1;
+
+    private static final byte RECORD_TYPE_ENTRY = 1;
+
+    private final File file;
+
+    private final int maxFileSize;
+
+    /**
+     * The positions of the entries, in access order.
+     */
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(16, 0.75f, true);
+
+    private RecordLog log;
+
+    /**
+     * The number of bytes of all records which are in the index.
+     */
+    private int liveBytes;
+
+    private MemoryMappedPersistentCache(File file, int maxFileSize) {
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Open the cache in the given file, with a maximum size of {@value #DEFAULT_MAX_FILE_SIZE} bytes. The file is
+     * created if it does not exist.
+     *
+     * @param file the file of the cache.
+     * @return the cache.
+     * @throws IOException if the file could not be opened or is not an entity caps cache.
+     */
+    public static MemoryMappedPersistentCache open(File file) throws IOException {
+        return open(file, DEFAULT_MAX_FILE_SIZE);
+    }
+
+    /**
+     * Open the cache in the given file. The file is created if it does not exist.
+     *
+     * @param file the file of the cache.
+     * @param maxFileSize the maximum size of the file in bytes.
+     * @return the cache.
+     * @throws IOException if the file could not be opened or is not an entity caps cache.
+     */
+    public static MemoryMappedPersistentCache open(File file, int maxFileSize) throws IOException {
+        if (maxFileSize <= RecordLog.FILE_HEADER_LENGTH) {
+            throw new IllegalArgumentException("The maximum file size must be larger than " + RecordLog.FILE_HEADER_LENGTH);
+        }
+        final MemoryMappedPersistentCache cache = new MemoryMappedPersistentCache(file, maxFileSize);
+        cache.log = RecordLog.open(file, MAGIC, VERSION, new RecordLog.RecordHandler() {
+            @Override
+            public void handleRecord(byte type, ByteBuffer payload, long payloadPosition) throws IOException {
+                if (type != RECORD_TYPE_ENTRY) {
+                    throw new IOException("Unknown record type " + type);
+                }
+                String nodeVer = RecordLog.readString(payload);
+                cache.putIndex(nodeVer, new Entry((int) payloadPosition, payload.capacity(), payload.position()));
+            }
+        });
+        return cache;
+    }
+
+    @Override
+    public synchronized void addDiscoverInfoByNodePersistent(String nodeVer, DiscoverInfo info) {
+        if (index.get(nodeVer) != null) {
+            // The information behind a node#ver string never changes.
+            return;
+        }
+
+        byte[] record = encodeRecord(nodeVer, info);
+        if (RecordLog.FILE_HEADER_LENGTH + record.length > maxFileSize) {
+            LOGGER.warning("Not caching the disco info of " + nodeVer + " as it exceeds the maximum size of " + file);
+            return;
+        }
+        if (log.getSize() + record.length > maxFileSize && !evictAndCompact(record.length)) {
+            return;
+        }
+
+        long position;
+        try {
+            position = log.append(record);
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Exception while appending to " + file, e);
+            return;
+        }
+        int payloadPosition = (int) position + RecordLog.RECORD_HEADER_LENGTH;
+        int infoOffset = 4 + StringUtils.toUtf8Bytes(nodeVer).length;
+        putIndex(nodeVer, new Entry(payloadPosition, record.length - RecordLog.RECORD_OVERHEAD, infoOffset));
+    }
+
+    @Override
+    public synchronized DiscoverInfo lookup(String nodeVer) {
+        Entry entry = index.get(nodeVer);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return readDiscoverInfo(entry);
+        }
+        catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Could not restore the disco info of " + nodeVer + " from " + file, e);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void emptyCache() {
+        index.clear();
+        liveBytes = 0;
+        try {
+            log.replace(new byte[0]);
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Exception while emptying " + file, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Entries which can not be restored are skipped.
+     * </p>
+     */
+    @Override
+    public synchronized Map<String, DiscoverInfo> getMostRecentlyUsed(int max) {
+        int skip = Math.max(0, index.size() - max);
+        Map<String, DiscoverInfo> result = new LinkedHashMap<>(Math.min(index.size(), max));
+        // Iterate over a copy, as the index is in access order and lookups would modify it.
+        List<Map.Entry<String, Entry>> entries = new ArrayList<>(index.entrySet());
+        for (Map.Entry<String, Entry> entry : entries.subList(skip, entries.size())) {
+            try {
+                result.put(entry.getKey(), readDiscoverInfo(entry.getValue()));
+            }
+            catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Could not restore the disco info of " + entry.getKey() + " from " + file, e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of entries in the cache.
+     *
+     * @return the number of entries.
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Get the size of the cache's file in bytes.
+     *
+     * @return the size of the file.
+     */
+    public synchronized int getFileSize() {
+        return (int) log.getSize();
+    }
+
+    /**
+     * Force all added entries to the storage device and close the cache.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        log.close();
+    }
+
+    private void putIndex(String nodeVer, Entry entry) {
+        Entry previous = index.put(nodeVer, entry);
+        if (previous != null) {
+            liveBytes -= previous.recordLength();
+        }
+        liveBytes += entry.recordLength();
+    }
+
+    /**
+     * Evict the least recently used entries, so that the file has room for a record with the given length even after
+     * some further additions, and compact the file.
+     *
+     * @param recordLength the length of the record which should be added.
+     * @return <code>true</code> if the file has room for the record.
+     */
+    private boolean evictAndCompact(int recordLength) {
+        int targetLiveBytes = maxFileSize / 4 * 3 - RecordLog.FILE_HEADER_LENGTH - recordLength;
+        Iterator<Entry> iterator = index.values().iterator();
+        while (liveBytes > targetLiveBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            liveBytes -= entry.recordLength();
+            iterator.remove();
+        }
+
+        ByteBuffer buffer;
+        try {
+            buffer = log.getMappedBuffer();
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Exception while compacting " + file, e);
+            return false;
+        }
+        RecordLog.RecordBuilder snapshot = new RecordLog.RecordBuilder();
+        List<Entry> entries = new ArrayList<>(index.values());
+        int[] newPayloadOffsets = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            byte[] payload = new byte[entry.payloadLength];
+            buffer.position(entry.payloadPosition);
+            buffer.get(payload);
+            newPayloadOffsets[i] = snapshot.write(payload).endRecord(RECORD_TYPE_ENTRY);
+        }
+
+        long position;
+        try {
+            position = log.replace(snapshot.toByteArray());
+        }
+        catch (IOException e) {
+            // The file is unchanged, it merely contains the evicted entries, which are no longer in the index.
+            LOGGER.log(Level.SEVERE, "Exception while compacting " + file, e);
+            return false;
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            entries.get(i).payloadPosition = (int) position + newPayloadOffsets[i];
+        }
+        return log.getSize() + recordLength <= maxFileSize;
+    }
+
+    private DiscoverInfo readDiscoverInfo(Entry entry)
+                    throws IOException, XmlPullParserException, SmackParsingException {
+        ByteBuffer buffer = log.getMappedBuffer();
+        buffer.position(entry.payloadPosition + entry.infoOffset);
+        buffer.limit(entry.payloadPosition + entry.payloadLength);
+        return decodeDiscoverInfo(buffer);
+    }
+
+    private static byte[] encodeRecord(String nodeVer, DiscoverInfo info) {
+        RecordLog.RecordBuilder record = new RecordLog.RecordBuilder();
+        record.writeString(nodeVer);
+
+        record.writeString(info.getType() != null ? info.getType().name() : null);
+        record.writeString(info.getStanzaId());
+        record.writeString(info.getFrom() != null ? info.getFrom().toString() : null);
+        record.writeString(info.getTo() != null ? info.getTo().toString() : null);
+        record.writeString(info.getNode());
+
+        List<DiscoverInfo.Identity> identities = info.getIdentities();
+        record.writeInt(identities.size());
+        for (DiscoverInfo.Identity identity : identities) {
+            record.writeString(identity.getCategory());
+            record.writeString(identity.getType());
+            record.writeString(identity.getName());
+            record.writeString(identity.getLanguage());
+        }
+
+        List<DiscoverInfo.Feature> features = info.getFeatures();
+        record.writeInt(features.size());
+        for (DiscoverInfo.Feature feature : features) {
+            record.writeString(feature.getVar());
+        }
+
+        // Extended information, i.e. data forms, is rare and stored as XML.
+        List<ExtensionElement> extensions = info.getExtensions();
+        record.writeInt(extensions.size());
+        for (ExtensionElement extension : extensions) {
+            record.writeString(extension.getElementName());
+            record.writeString(extension.getNamespace());
+            record.writeString(extension.toXML().toString());
+        }
+        record.endRecord(RECORD_TYPE_ENTRY);
+        return record.toByteArray();
+    }
+
+    private static DiscoverInfo decodeDiscoverInfo(ByteBuffer buffer)
+                    throws IOException, XmlPullParserException, SmackParsingException {
+        DiscoverInfo info = new DiscoverInfo();
+        String type = RecordLog.readString(buffer);
+        if (type != null) {
+            info.setType(IQ.Type.valueOf(type));
+        }
+        info.setStanzaId(RecordLog.readString(buffer));
+        String from = RecordLog.readString(buffer);
+        if (from != null) {
+            info.setFrom(JidCreate.from(from));
+        }
+        String to = RecordLog.readString(buffer);
+        if (to != null) {
+            info.setTo(JidCreate.from(to));
+        }
+        info.setNode(RecordLog.readString(buffer));
+
+        int identitiesCount = readCount(buffer);
+        for (int i = 0; i < identitiesCount; i++) {
+            String category = RecordLog.readString(buffer);
+            String identityType = RecordLog.readString(buffer);
+            String name = RecordLog.readString(buffer);
+            String lang = RecordLog.readString(buffer);
+            info.addIdentity(new DiscoverInfo.Identity(category, identityType, name, lang));
+        }
+
+        int featuresCount = readCount(buffer);
+        for (int i = 0; i < featuresCount; i++) {
+            info.addFeature(RecordLog.readString(buffer));
+        }
+
+        int extensionsCount = readCount(buffer);
+        for (int i = 0; i < extensionsCount; i++) {
+            String elementName = RecordLog.readString(buffer);
+            String namespace = RecordLog.readString(buffer);
+            XmlPullParser parser = PacketParserUtils.getParserFor(RecordLog.readString(buffer));
+            info.addExtension(PacketParserUtils.parseExtensionElement(elementName, namespace, parser, null));
+        }
+        return info;
+    }
+
+    private static int readCount(ByteBuffer buffer) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0) {
+            throw new IOException("Invalid count " + count);
+        }
+        return count;
+    }
+
+    private static final class Entry {
+        private int payloadPosition;
+        private final int payloadLength;
+        private final int infoOffset;
+
+        private Entry(int payloadPosition, int payloadLength, int infoOffset) {
+            this.payloadPosition = payloadPosition;
+            this.payloadLength = payloadLength;
+            this.infoOffset = infoOffset;
+        }
+
+        private int recordLength() {
+            return RecordLog.RECORD_OVERHEAD + payloadLength;
+        }
+    }
+}
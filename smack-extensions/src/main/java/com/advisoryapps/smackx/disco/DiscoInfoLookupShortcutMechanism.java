@@ -16,6 +16,8 @@
  */
 package com.advisoryapps.smackx.disco;
 
+import com.advisoryapps.smack.SmackFuture;
+
 import com.advisoryapps.smackx.disco.packet.DiscoverInfo;
 
 import org.jxmpp.jid.Jid;
@@ -43,8 +45,39 @@ public abstract class DiscoInfoLookupShortcutMechanism implements Comparable<Dis
         return priority;
     }
 
+    /**
+     * Get the disco#info of the given entity without querying it. Implementations must not block, as this is also
+     * invoked by {@link ServiceDiscoveryManager#discoverInfoAsync(Jid)}.
+     *
+     * @param serviceDiscoveryManager the service discovery manager.
+     * @param jid the entity.
+     * @return the disco#info or <code>null</code>.
+     */
     public abstract DiscoverInfo getDiscoverInfoByUser(ServiceDiscoveryManager serviceDiscoveryManager, Jid jid);
 
+    /**
+     * Asynchronously get the disco#info of the given entity. Mechanisms which need to query other entities in order to
+     * retrieve the information should override this method. The default implementation uses
+     * {@link #getDiscoverInfoByUser(ServiceDiscoveryManager, Jid)}.
+     * <p>
+     * If the returned future fails, then {@link ServiceDiscoveryManager} continues with the next mechanism, and
+     * eventually falls back to a standard disco#info request.
+     * </p>
+     *
+     * @param serviceDiscoveryManager the service discovery manager.
+     * @param jid the entity.
+     * @return a future for the disco#info or <code>null</code> if this mechanism is not able to provide it.
+     * @since 4.4.0
+     */
+    public SmackFuture<DiscoverInfo, Exception> getDiscoverInfoByUserAsync(
+                    ServiceDiscoveryManager serviceDiscoveryManager, Jid jid) {
+        DiscoverInfo info = getDiscoverInfoByUser(serviceDiscoveryManager, jid);
+        if (info == null) {
+            return null;
+        }
+        return SmackFuture.from(info);
+    }
+
     @Override
     public final int compareTo(DiscoInfoLookupShortcutMechanism other) {
         Integer ourPriority = getPriority();
@@ -21,7 +21,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -30,9 +30,12 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 import com.advisoryapps.smack.ConnectionCreationListener;
+import com.advisoryapps.smack.InFlightRequests;
 import com.advisoryapps.smack.Manager;
 import com.advisoryapps.smack.SmackException.NoResponseException;
 import com.advisoryapps.smack.SmackException.NotConnectedException;
+import com.advisoryapps.smack.SmackFuture;
+import com.advisoryapps.smack.SmackFuture.InternalSmackFuture;
 import com.advisoryapps.smack.XMPPConnection;
 import com.advisoryapps.smack.XMPPConnectionRegistry;
 import com.advisoryapps.smack.XMPPException.XMPPErrorException;
@@ -42,8 +45,10 @@ import com.advisoryapps.smack.packet.ExtensionElement;
 import com.advisoryapps.smack.packet.IQ;
 import com.advisoryapps.smack.packet.Stanza;
 import com.advisoryapps.smack.packet.StanzaError;
+import com.advisoryapps.smack.util.ExceptionCallback;
 import com.advisoryapps.smack.util.Objects;
 import com.advisoryapps.smack.util.StringUtils;
+import com.advisoryapps.smack.util.SuccessCallback;
 
 import com.advisoryapps.smackx.disco.packet.DiscoverInfo;
 import com.advisoryapps.smackx.disco.packet.DiscoverInfo.Identity;
@@ -90,6 +95,12 @@ public final class ServiceDiscoveryManager extends Manager {
     private DataForm extendedInfo = null;
     private final Map<String, NodeInformationProvider> nodeInformationProviders = new ConcurrentHashMap<>();
 
+    /**
+     * The disco#info requests which are currently in flight, keyed by the queried JID and node, so that concurrent
+     * requests for the same information share a single round-trip.
+     */
+    private final InFlightRequests<String, DiscoverInfo, Exception> inFlightDiscoverInfoRequests = new InFlightRequests<>();
+
     // Create a new ServiceDiscoveryManager on every established connection
     static {
         XMPPConnectionRegistry.addConnectionCreationListener(new ConnectionCreationListener() {
@@ -490,19 +501,19 @@ public final class ServiceDiscoveryManager extends Manager {
         if (entityID == null)
             return discoverInfo(null, null);
 
-        synchronized (discoInfoLookupShortcutMechanisms) {
-            for (DiscoInfoLookupShortcutMechanism discoInfoLookupShortcutMechanism : discoInfoLookupShortcutMechanisms) {
-                DiscoverInfo info = discoInfoLookupShortcutMechanism.getDiscoverInfoByUser(this, entityID);
-                if (info != null) {
-                    // We were able to retrieve the information from Entity Caps and
-                    // avoided a disco request, hurray!
-                    return info;
-                }
-            }
+        SmackFuture<DiscoverInfo, Exception> future = discoverInfoAsync(entityID);
+        try {
+            return future.getOrThrow();
+        }
+        catch (NoResponseException | XMPPErrorException | NotConnectedException | InterruptedException e) {
+            throw e;
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
         }
-
-        // Last resort: Standard discovery.
-        return discoverInfo(entityID, null);
     }
 
     /**
@@ -571,6 +582,143 @@ public final class ServiceDiscoveryManager extends Manager {
         return (DiscoverItems) result;
     }
 
+    /**
+     * Asynchronously discover the information of a given XMPP entity addressed by its JID. This first consults the
+     * registered {@link DiscoInfoLookupShortcutMechanism}s, in the order of their priority, and falls back to a
+     * standard disco#info request if none of them is able to provide the information.
+     *
+     * @param entityID the address of the XMPP entity.
+     * @return a future for the discovered information.
+     * @since 4.4.0
+     */
+    public SmackFuture<DiscoverInfo, Exception> discoverInfoAsync(Jid entityID) {
+        if (entityID == null) {
+            return discoverInfoAsync(null, null);
+        }
+
+        List<DiscoInfoLookupShortcutMechanism> mechanisms;
+        synchronized (discoInfoLookupShortcutMechanisms) {
+            mechanisms = new ArrayList<>(discoInfoLookupShortcutMechanisms);
+        }
+
+        InternalSmackFuture<DiscoverInfo, Exception> future = new InternalSmackFuture<>();
+        discoverInfoAsync(entityID, mechanisms.iterator(), future);
+        return future;
+    }
+
+    private void discoverInfoAsync(final Jid entityID, final Iterator<DiscoInfoLookupShortcutMechanism> mechanisms,
+                    final InternalSmackFuture<DiscoverInfo, Exception> future) {
+        SmackFuture<DiscoverInfo, Exception> infoFuture = null;
+        while (infoFuture == null && mechanisms.hasNext()) {
+            infoFuture = mechanisms.next().getDiscoverInfoByUserAsync(this, entityID);
+        }
+
+        final boolean lastResort = infoFuture == null;
+        if (lastResort) {
+            // Last resort: Standard discovery.
+            infoFuture = discoverInfoAsync(entityID, null);
+        }
+
+        infoFuture.onSuccess(new SuccessCallback<DiscoverInfo>() {
+            @Override
+            public void onSuccess(DiscoverInfo info) {
+                future.setResult(info);
+            }
+        }).onError(new ExceptionCallback<Exception>() {
+            @Override
+            public void processException(Exception exception) {
+                if (lastResort) {
+                    future.setException(exception);
+                    return;
+                }
+                // The shortcut mechanism was not able to retrieve the information, try the next one.
+                discoverInfoAsync(entityID, mechanisms, future);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously discover the information of a given XMPP entity addressed by its JID and node attribute. If
+     * there is already a request for the same JID and node in flight, then no new request is send, instead the
+     * returned future is completed once the response to the existing request arrives.
+     *
+     * @param entityID the address of the XMPP entity.
+     * @param node the optional attribute that supplements the 'jid' attribute.
+     * @return a future for the discovered information.
+     * @since 4.4.0
+     */
+    public SmackFuture<DiscoverInfo, Exception> discoverInfoAsync(final Jid entityID, final String node) {
+        String key = entityID + " " + node;
+        return inFlightDiscoverInfoRequests.request(key, new InFlightRequests.Request<DiscoverInfo, Exception>() {
+            @Override
+            public SmackFuture<DiscoverInfo, Exception> send() {
+                return sendDiscoverInfoRequest(entityID, node);
+            }
+        });
+    }
+
+    private SmackFuture<DiscoverInfo, Exception> sendDiscoverInfoRequest(Jid entityID, String node) {
+        final InternalSmackFuture<DiscoverInfo, Exception> future = new InternalSmackFuture<>();
+
+        DiscoverInfo disco = new DiscoverInfo();
+        disco.setType(IQ.Type.get);
+        disco.setTo(entityID);
+        disco.setNode(node);
+
+        connection().sendIqRequestAsync(disco).onSuccess(new SuccessCallback<IQ>() {
+            @Override
+            public void onSuccess(IQ result) {
+                if (!(result instanceof DiscoverInfo)) {
+                    future.setException(new IllegalStateException("Unexpected disco#info response: " + result));
+                    return;
+                }
+                future.setResult((DiscoverInfo) result);
+            }
+        }).onError(new ExceptionCallback<Exception>() {
+            @Override
+            public void processException(Exception exception) {
+                future.setException(exception);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Asynchronously discover the items of a given XMPP entity addressed by its JID and node attribute.
+     *
+     * @param entityID the address of the XMPP entity.
+     * @param node the optional attribute that supplements the 'jid' attribute.
+     * @return a future for the discovered items.
+     * @since 4.4.0
+     */
+    public SmackFuture<DiscoverItems, Exception> discoverItemsAsync(Jid entityID, String node) {
+        final InternalSmackFuture<DiscoverItems, Exception> future = new InternalSmackFuture<>();
+
+        DiscoverItems disco = new DiscoverItems();
+        disco.setType(IQ.Type.get);
+        disco.setTo(entityID);
+        disco.setNode(node);
+
+        connection().sendIqRequestAsync(disco).onSuccess(new SuccessCallback<IQ>() {
+            @Override
+            public void onSuccess(IQ result) {
+                if (!(result instanceof DiscoverItems)) {
+                    future.setException(new IllegalStateException("Unexpected disco#items response: " + result));
+                    return;
+                }
+                future.setResult((DiscoverItems) result);
+            }
+        }).onError(new ExceptionCallback<Exception>() {
+            @Override
+            public void processException(Exception exception) {
+                future.setException(exception);
+            }
+        });
+
+        return future;
+    }
+
     /**
      * Returns true if the server supports the given feature.
      *
@@ -724,71 +872,93 @@ public final class ServiceDiscoveryManager extends Manager {
     public List<DiscoverInfo> findServicesDiscoverInfo(DomainBareJid serviceName, String feature, boolean stopOnFirst,
                     boolean useCache, Map<? super Jid, Exception> encounteredExceptions)
             throws NoResponseException, XMPPErrorException, NotConnectedException, InterruptedException {
-        List<DiscoverInfo> serviceDiscoInfo;
+        SmackFuture<List<DiscoverInfo>, Exception> future = findServicesDiscoverInfoAsync(serviceName, feature,
+                        stopOnFirst, useCache, encounteredExceptions);
+        try {
+            return future.getOrThrow();
+        }
+        catch (NoResponseException | XMPPErrorException | NotConnectedException | InterruptedException e) {
+            throw e;
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Asynchronously find all services under the users service that provide a given feature.
+     *
+     * @param feature the feature to search for
+     * @param stopOnFirst if true, stop searching after the first service was found
+     * @param useCache if true, query a cache first to avoid network I/O
+     * @return a future for the possible empty list of services providing the given feature
+     * @see #findServicesDiscoverInfoAsync(DomainBareJid, String, boolean, boolean, Map)
+     * @since 4.4.0
+     */
+    public SmackFuture<List<DiscoverInfo>, Exception> findServicesDiscoverInfoAsync(String feature, boolean stopOnFirst,
+                    boolean useCache) {
+        DomainBareJid serviceName = connection().getXMPPServiceDomain();
+        return findServicesDiscoverInfoAsync(serviceName, feature, stopOnFirst, useCache, null);
+    }
+
+    /**
+     * Asynchronously find all services under a given service that provide a given feature.
+     * <p>
+     * The disco#info and disco#items requests for the service are sent right away, and once the items are known, the
+     * disco#info requests for all items are sent concurrently. Hence the discovery takes about two round-trips,
+     * regardless of the number of items. The order of the result is the same as the one of
+     * {@link #findServicesDiscoverInfo(DomainBareJid, String, boolean, boolean, Map)}, i.e. the service itself first,
+     * followed by its items in the order announced by the service.
+     * </p>
+     *
+     * @param serviceName the service to query
+     * @param feature the feature to search for
+     * @param stopOnFirst if true, stop searching after the first service was found
+     * @param useCache if true, query a cache first to avoid network I/O
+     * @param encounteredExceptions an optional map which will be filled with the exceptions encountered
+     * @return a future for the possible empty list of services providing the given feature
+     * @since 4.4.0
+     */
+    public SmackFuture<List<DiscoverInfo>, Exception> findServicesDiscoverInfoAsync(DomainBareJid serviceName,
+                    String feature, boolean stopOnFirst, boolean useCache,
+                    Map<? super Jid, Exception> encounteredExceptions) {
         if (useCache) {
-            serviceDiscoInfo = services.lookup(feature);
+            List<DiscoverInfo> serviceDiscoInfo = services.lookup(feature);
             if (serviceDiscoInfo != null) {
-                return serviceDiscoInfo;
+                return SmackFuture.from(serviceDiscoInfo);
             }
         }
-        serviceDiscoInfo = new LinkedList<>();
-        // Send the disco packet to the server itself
-        DiscoverInfo info;
-        try {
-            info = discoverInfo(serviceName);
-        } catch (XMPPErrorException e) {
-            if (encounteredExceptions != null) {
-                encounteredExceptions.put(serviceName, e);
-            }
-            return serviceDiscoInfo;
-        }
-        // Check if the server supports the feature
-        if (info.containsFeature(feature)) {
-            serviceDiscoInfo.add(info);
-            if (stopOnFirst) {
-                if (useCache) {
-                    // Cache the discovered information
-                    services.put(feature, serviceDiscoInfo);
-                }
-                return serviceDiscoInfo;
-            }
-        }
-        DiscoverItems items;
-        try {
-            // Get the disco items and send the disco packet to each server item
-            items = discoverItems(serviceName);
-        } catch (XMPPErrorException e) {
-            if (encounteredExceptions != null) {
-                encounteredExceptions.put(serviceName, e);
+
+        final ServicesDiscovery servicesDiscovery = new ServicesDiscovery(feature, stopOnFirst, useCache,
+                        encounteredExceptions);
+        final Jid serviceJid = serviceName;
+        discoverInfoAsync(serviceJid).onSuccess(new SuccessCallback<DiscoverInfo>() {
+            @Override
+            public void onSuccess(DiscoverInfo info) {
+                servicesDiscovery.onServiceInfo(info);
             }
-            return serviceDiscoInfo;
-        }
-        for (DiscoverItems.Item item : items.getItems()) {
-            Jid address = item.getEntityID();
-            try {
-                // TODO is it OK here in all cases to query without the node attribute?
-                // MultipleRecipientManager queried initially also with the node attribute, but this
-                // could be simply a fault instead of intentional.
-                info = discoverInfo(address);
+        }).onError(new ExceptionCallback<Exception>() {
+            @Override
+            public void processException(Exception exception) {
+                servicesDiscovery.onServiceError(serviceJid, exception);
             }
-            catch (XMPPErrorException | NoResponseException e) {
-                if (encounteredExceptions != null) {
-                    encounteredExceptions.put(address, e);
-                }
-                continue;
+        });
+        discoverItemsAsync(serviceJid, null).onSuccess(new SuccessCallback<DiscoverItems>() {
+            @Override
+            public void onSuccess(DiscoverItems items) {
+                servicesDiscovery.onServiceItems(items);
             }
-            if (info.containsFeature(feature)) {
-                serviceDiscoInfo.add(info);
-                if (stopOnFirst) {
-                    break;
-                }
+        }).onError(new ExceptionCallback<Exception>() {
+            @Override
+            public void processException(Exception exception) {
+                servicesDiscovery.onServiceItemsError(serviceJid, exception);
             }
-        }
-        if (useCache) {
-            // Cache the discovered information
-            services.put(feature, serviceDiscoInfo);
-        }
-        return serviceDiscoInfo;
+        });
+
+        return servicesDiscovery;
     }
 
     /**
@@ -842,6 +1012,172 @@ public final class ServiceDiscoveryManager extends Manager {
         return findService(feature, useCache, null, null);
     }
 
+    /**
+     * The state of an asynchronous service discovery. The result is determined once the disco#info of the service and
+     * either the first matching item, or, if all matching items are requested, all items are known.
+     */
+    private final class ServicesDiscovery extends InternalSmackFuture<List<DiscoverInfo>, Exception> {
+        private final String feature;
+        private final boolean stopOnFirst;
+        private final boolean useCache;
+        private final Map<? super Jid, Exception> encounteredExceptions;
+
+        private boolean serviceInfoReceived;
+        private DiscoverInfo serviceInfo;
+
+        private List<DiscoverItems.Item> items;
+        private DiscoverInfo[] itemInfos;
+        private boolean[] itemInfoReceived;
+
+        /**
+         * Set if the items of the service could not be discovered, in which case the result is not cached.
+         */
+        private boolean serviceItemsError;
+
+        private ServicesDiscovery(String feature, boolean stopOnFirst, boolean useCache,
+                        Map<? super Jid, Exception> encounteredExceptions) {
+            this.feature = feature;
+            this.stopOnFirst = stopOnFirst;
+            this.useCache = useCache;
+            this.encounteredExceptions = encounteredExceptions;
+        }
+
+        private synchronized void onServiceInfo(DiscoverInfo info) {
+            serviceInfoReceived = true;
+            serviceInfo = info;
+            maybeComplete();
+        }
+
+        private synchronized void onServiceError(Jid serviceName, Exception exception) {
+            if (!(exception instanceof XMPPErrorException)) {
+                fail(exception);
+                return;
+            }
+            recordException(serviceName, exception);
+            // Do not cache the result, as the service could not be queried.
+            if (!isDone()) {
+                setResult(new ArrayList<DiscoverInfo>(0));
+            }
+        }
+
+        private void onServiceItems(DiscoverItems discoverItems) {
+            final List<DiscoverItems.Item> items = discoverItems.getItems();
+            synchronized (this) {
+                if (isDone()) {
+                    return;
+                }
+                this.items = items;
+                itemInfos = new DiscoverInfo[items.size()];
+                itemInfoReceived = new boolean[items.size()];
+                if (items.isEmpty()) {
+                    maybeComplete();
+                    return;
+                }
+            }
+
+            for (int i = 0; i < items.size(); i++) {
+                final int itemIndex = i;
+                final Jid address = items.get(i).getEntityID();
+                // TODO is it OK here in all cases to query without the node attribute?
+                // MultipleRecipientManager queried initially also with the node attribute, but this
+                // could be simply a fault instead of intentional.
+                discoverInfoAsync(address).onSuccess(new SuccessCallback<DiscoverInfo>() {
+                    @Override
+                    public void onSuccess(DiscoverInfo info) {
+                        onItemInfo(itemIndex, info);
+                    }
+                }).onError(new ExceptionCallback<Exception>() {
+                    @Override
+                    public void processException(Exception exception) {
+                        onItemInfoError(itemIndex, address, exception);
+                    }
+                });
+            }
+        }
+
+        private synchronized void onServiceItemsError(Jid serviceName, Exception exception) {
+            if (!(exception instanceof XMPPErrorException)) {
+                fail(exception);
+                return;
+            }
+            recordException(serviceName, exception);
+            serviceItemsError = true;
+            items = Collections.emptyList();
+            itemInfos = new DiscoverInfo[0];
+            itemInfoReceived = new boolean[0];
+            maybeComplete();
+        }
+
+        private synchronized void onItemInfo(int itemIndex, DiscoverInfo info) {
+            itemInfos[itemIndex] = info;
+            itemInfoReceived[itemIndex] = true;
+            maybeComplete();
+        }
+
+        private synchronized void onItemInfoError(int itemIndex, Jid address, Exception exception) {
+            if (!(exception instanceof XMPPErrorException || exception instanceof NoResponseException)) {
+                fail(exception);
+                return;
+            }
+            recordException(address, exception);
+            itemInfoReceived[itemIndex] = true;
+            maybeComplete();
+        }
+
+        private void maybeComplete() {
+            if (isDone() || !serviceInfoReceived) {
+                return;
+            }
+
+            List<DiscoverInfo> serviceDiscoInfo = new ArrayList<>();
+            if (serviceInfo.containsFeature(feature)) {
+                serviceDiscoInfo.add(serviceInfo);
+                if (stopOnFirst) {
+                    complete(serviceDiscoInfo, true);
+                    return;
+                }
+            }
+            if (items == null) {
+                return;
+            }
+            for (int i = 0; i < itemInfos.length; i++) {
+                if (!itemInfoReceived[i]) {
+                    // The result depends on the information of this item, which is not known yet.
+                    return;
+                }
+                DiscoverInfo info = itemInfos[i];
+                if (info != null && info.containsFeature(feature)) {
+                    serviceDiscoInfo.add(info);
+                    if (stopOnFirst) {
+                        break;
+                    }
+                }
+            }
+            // Do not cache the result if the items of the service could not be queried.
+            complete(serviceDiscoInfo, !serviceItemsError);
+        }
+
+        private void complete(List<DiscoverInfo> serviceDiscoInfo, boolean cacheResult) {
+            if (useCache && cacheResult) {
+                // Cache the discovered information
+                services.put(feature, serviceDiscoInfo);
+            }
+            setResult(serviceDiscoInfo);
+        }
+
+        private void fail(Exception exception) {
+            if (!isDone()) {
+                setException(exception);
+            }
+        }
+
+        private void recordException(Jid jid, Exception exception) {
+            if (encounteredExceptions != null) {
+                encounteredExceptions.put(jid, exception);
+            }
+        }
+    }
+
     public boolean addEntityCapabilitiesChangedListener(EntityCapabilitiesChangedListener entityCapabilitiesChangedListener) {
         return entityCapabilitiesChangedListeners.add(entityCapabilitiesChangedListener);
     }
@@ -16,9 +16,13 @@
  */
 package com.advisoryapps.smackx.filetransfer;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+import com.advisoryapps.smackx.bytestreams.socks5.SocketChannelOutputStream;
 
 import org.jxmpp.jid.Jid;
 
@@ -58,6 +62,9 @@ public abstract class FileTransfer {
      */
     private static final int BUFFER_SIZE = 8192;
 
+    /* the number of bytes transferred at once from a file channel, between checks for cancellation */
+    private static final int TRANSFER_SIZE = 1024 * 1024;
+
     protected FileTransfer(Jid peer, String streamID,
             FileTransferNegotiator negotiator) {
         this.peer = peer;
@@ -205,13 +212,28 @@ public abstract class FileTransfer {
 
     protected void writeToStream(final InputStream in, final OutputStream out)
                     throws IOException {
-        final byte[] b = new byte[BUFFER_SIZE];
-        int count = 0;
         amountWritten = 0;
 
-        while ((count = in.read(b)) > 0 && !getStatus().equals(Status.cancelled)) {
-            out.write(b, 0, count);
-            amountWritten += count;
+        if (in instanceof FileInputStream && out instanceof SocketChannelOutputStream) {
+            // Let the operating system copy the file to the socket.
+            FileChannel fileChannel = ((FileInputStream) in).getChannel();
+            SocketChannelOutputStream socketChannelOutputStream = (SocketChannelOutputStream) out;
+            long position = fileChannel.position();
+            long count;
+            while ((count = socketChannelOutputStream.transferFrom(fileChannel, position, TRANSFER_SIZE)) > 0
+                            && !getStatus().equals(Status.cancelled)) {
+                position += count;
+                amountWritten += count;
+            }
+        }
+        else {
+            final byte[] b = new byte[BUFFER_SIZE];
+            int count = 0;
+
+            while ((count = in.read(b)) > 0 && !getStatus().equals(Status.cancelled)) {
+                out.write(b, 0, count);
+                amountWritten += count;
+            }
         }
 
         // the connection was likely terminated abruptly if these are not equal
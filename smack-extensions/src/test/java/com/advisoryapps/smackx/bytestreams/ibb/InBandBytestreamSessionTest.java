@@ -25,6 +25,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Random;
 
+import com.advisoryapps.smack.DummyConnection;
 import com.advisoryapps.smack.SmackException;
 import com.advisoryapps.smack.StanzaListener;
 import com.advisoryapps.smack.XMPPConnection;
@@ -667,4 +668,145 @@ public class InBandBytestreamSessionTest extends InitExtensions {
 
     }
 
+    /**
+     * Test that data packets are sent without waiting for their acknowledgement if more than one
+     * data packet may be in flight, and that flush() waits for all acknowledgements.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldPipelineDataPackets() throws Exception {
+        final DummyConnection dummyConnection = DummyConnection.newConnectedDummyConnection();
+        InBandBytestreamSession session = new InBandBytestreamSession(dummyConnection, initBytestream,
+                        targetJID);
+        session.setMaxInFlightDataPackets(3);
+
+        // the fourth block stays in the buffer until the stream is flushed
+        final OutputStream outputStream = session.getOutputStream();
+        outputStream.write(new byte[blockSize * 4]);
+
+        Data[] sent = new Data[3];
+        for (int i = 0; i < sent.length; i++) {
+            sent[i] = dummyConnection.getSentPacket(5);
+            assertEquals(i, sent[i].getDataPacketExtension().getSeq());
+            assertEquals(blockSize, sent[i].getDataPacketExtension().getDecodedData().length);
+        }
+        assertEquals(0, dummyConnection.getNumberOfSentPackets());
+
+        final Exception[] flushException = new Exception[1];
+        Thread flusher = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    outputStream.flush();
+                }
+                catch (Exception e) {
+                    flushException[0] = e;
+                }
+            }
+
+        });
+        flusher.start();
+
+        for (Data data : sent) {
+            acknowledge(dummyConnection, data);
+        }
+        Data last = dummyConnection.getSentPacket(5);
+        assertEquals(3, last.getDataPacketExtension().getSeq());
+        acknowledge(dummyConnection, last);
+
+        flusher.join(5000);
+        assertTrue(!flusher.isAlive());
+        assertEquals(null, flushException[0]);
+    }
+
+    /**
+     * Test that an error response to a pipelined data packet closes the session and is thrown by
+     * the output stream.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldFailIfPipelinedDataPacketIsNotAcknowledged() throws Exception {
+        DummyConnection dummyConnection = DummyConnection.newConnectedDummyConnection();
+        // the close request sent by the failing session is never answered
+        dummyConnection.setReplyTimeout(100);
+        InBandBytestreamSession session = new InBandBytestreamSession(dummyConnection, initBytestream,
+                        targetJID);
+        session.setMaxInFlightDataPackets(2);
+
+        OutputStream outputStream = session.getOutputStream();
+        outputStream.write(new byte[blockSize * 2]);
+
+        Data data = dummyConnection.getSentPacket(5);
+        IQ errorIQ = IBBPacketUtils.createErrorIQ(targetJID, dummyConnection.getUser(),
+                        StanzaError.Condition.item_not_found);
+        errorIQ.setStanzaId(data.getStanzaId());
+        dummyConnection.processStanza(errorIQ);
+
+        try {
+            outputStream.flush();
+            fail("should throw an exception");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage().contains("sequence 0"));
+        }
+    }
+
+    /**
+     * Test that closing the output stream waits for the last pipelined data packet and throws if it
+     * is not acknowledged.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldFailOnCloseIfLastPipelinedDataPacketIsNotAcknowledged() throws Exception {
+        DummyConnection dummyConnection = DummyConnection.newConnectedDummyConnection();
+        // the close request sent by the failing session is never answered
+        dummyConnection.setReplyTimeout(100);
+        InBandBytestreamSession session = new InBandBytestreamSession(dummyConnection, initBytestream,
+                        targetJID);
+        session.setMaxInFlightDataPackets(2);
+
+        // the block stays in the buffer until the stream is closed
+        final OutputStream outputStream = session.getOutputStream();
+        outputStream.write(new byte[blockSize]);
+        assertEquals(0, dummyConnection.getNumberOfSentPackets());
+
+        final Exception[] closeException = new Exception[1];
+        Thread closer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    outputStream.close();
+                }
+                catch (Exception e) {
+                    closeException[0] = e;
+                }
+            }
+
+        });
+        closer.start();
+
+        Data data = dummyConnection.getSentPacket(5);
+        assertEquals(0, data.getDataPacketExtension().getSeq());
+        IQ errorIQ = IBBPacketUtils.createErrorIQ(targetJID, dummyConnection.getUser(),
+                        StanzaError.Condition.item_not_found);
+        errorIQ.setStanzaId(data.getStanzaId());
+        dummyConnection.processStanza(errorIQ);
+
+        closer.join(5000);
+        assertTrue(!closer.isAlive());
+        assertTrue(closeException[0] instanceof IOException);
+        assertTrue(closeException[0].getMessage().contains("sequence 0"));
+    }
+
+    private static void acknowledge(DummyConnection dummyConnection, Data data) {
+        IQ resultIQ = IBBPacketUtils.createResultIQ(data.getTo(), dummyConnection.getUser());
+        resultIQ.setStanzaId(data.getStanzaId());
+        dummyConnection.processStanza(resultIQ);
+    }
+
 }
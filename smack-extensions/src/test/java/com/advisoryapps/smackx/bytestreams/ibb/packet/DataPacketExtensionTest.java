@@ -17,6 +17,7 @@
 package com.advisoryapps.smackx.bytestreams.ibb.packet;
 
 import static com.advisoryapps.smack.test.util.XmlUnitUtils.assertXmlSimilar;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
@@ -97,4 +98,15 @@ public class DataPacketExtensionTest extends InitExtensions {
         assertXmlSimilar(control, data.toXML().toString());
     }
 
+    @Test
+    public void shouldEncodeRawDataWhenSerialized() throws Exception {
+        byte[] rawData = "DATA".getBytes(StandardCharsets.UTF_8);
+        DataPacketExtension encoded = new DataPacketExtension("i781hf64", 0, "REFUQQ==");
+        DataPacketExtension raw = DataPacketExtension.from("i781hf64", 0, rawData);
+
+        assertXmlSimilar(encoded.toXML().toString(), raw.toXML().toString());
+        assertEquals("REFUQQ==", raw.getData());
+        assertArrayEquals(rawData, raw.getDecodedData());
+    }
+
 }
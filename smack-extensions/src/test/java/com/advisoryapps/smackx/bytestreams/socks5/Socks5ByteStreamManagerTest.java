@@ -909,7 +909,8 @@ public class Socks5ByteStreamManagerTest {
                 }
 
             };
-            createResponses(protocol, sessionID, streamHostUsedVerification2, socks5Proxy);
+            // the SOCKS5 proxies and their stream hosts are cached
+            createResponses(protocol, sessionID, streamHostUsedVerification2, socks5Proxy, true);
 
             // call the method that should be tested again
             outputStream = byteStreamManager.establishSession(targetJID, sessionID).getOutputStream();
@@ -924,6 +925,10 @@ public class Socks5ByteStreamManagerTest {
             assertArrayEquals(data, result);
 
             protocol.verifyAll();
+
+            Socks5BytestreamManager.NegotiationStats stats = byteStreamManager.getNegotiationStats();
+            assertEquals(2, stats.initiatedSessions);
+            assertEquals(1, stats.proxyCacheHits);
         }
     }
 
@@ -987,7 +992,8 @@ public class Socks5ByteStreamManagerTest {
 
             protocol.verifyAll();
 
-            createResponses(protocol, sessionID, streamHostUsedVerification, socks5Proxy);
+            // the SOCKS5 proxies and their stream hosts are cached
+            createResponses(protocol, sessionID, streamHostUsedVerification, socks5Proxy, true);
 
             // call the method that should be tested again
             outputStream = byteStreamManager.establishSession(targetJID, sessionID).getOutputStream();
@@ -1005,9 +1011,64 @@ public class Socks5ByteStreamManagerTest {
         protocol.verifyAll();
     }
 
+    /**
+     * Invoking {@link Socks5BytestreamManager#establishSession(org.jxmpp.jid.Jid, String)} twice
+     * should query the SOCKS5 proxies again if the proxy cache is disabled.
+     *
+     * @throws IOException if an I/O error occured.
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @throws SmackException if Smack detected an exceptional situation.
+     * @throws XMPPException if an XMPP protocol error was received.
+     */
+    @Test
+    public void shouldDiscoverProxiesAgainIfProxyCacheDisabled() throws IOException, SmackException, InterruptedException, XMPPException {
+        final Protocol protocol = new Protocol();
+        final XMPPConnection connection = ConnectionUtils.createMockedConnection(protocol, initiatorJID);
+        final String sessionID = "session_id_shouldDiscoverProxiesAgainIfProxyCacheDisabled";
+
+        // get Socks5ByteStreamManager for connection
+        Socks5BytestreamManager byteStreamManager = Socks5BytestreamManager.getBytestreamManager(connection);
+        byteStreamManager.setAnnounceLocalStreamHost(false);
+        byteStreamManager.setProxyCacheLifetime(0);
+
+        Verification<Bytestream, Bytestream> streamHostUsedVerification = new Verification<Bytestream, Bytestream>() {
+
+            @Override
+            public void verify(Bytestream request, Bytestream response) {
+                assertEquals(2, request.getStreamHosts().size());
+            }
+
+        };
+
+        // start a local SOCKS5 proxy
+        try (Socks5TestProxy socks5Proxy = new Socks5TestProxy()) {
+            for (int i = 0; i < 2; i++) {
+                createResponses(protocol, sessionID, streamHostUsedVerification, socks5Proxy, false);
+
+                byteStreamManager.establishSession(targetJID, sessionID).close();
+
+                protocol.verifyAll();
+            }
+        }
+
+        Socks5BytestreamManager.NegotiationStats stats = byteStreamManager.getNegotiationStats();
+        assertEquals(2, stats.initiatedSessions);
+        assertEquals(0, stats.proxyCacheHits);
+        assertTrue(stats.lastProxyDiscoveryTime >= 0);
+        assertTrue(stats.lastTargetResponseTime >= 0);
+        assertTrue(stats.lastProxyConnectTime >= 0);
+    }
+
     private static void createResponses(Protocol protocol, String sessionID,
                     Verification<Bytestream, Bytestream> streamHostUsedVerification, Socks5TestProxy socks5TestProxy)
                     throws XmppStringprepException {
+        createResponses(protocol, sessionID, streamHostUsedVerification, socks5TestProxy, false);
+    }
+
+    private static void createResponses(Protocol protocol, String sessionID,
+                    Verification<Bytestream, Bytestream> streamHostUsedVerification, Socks5TestProxy socks5TestProxy,
+                    boolean proxiesCached)
+                    throws XmppStringprepException {
         // build discover info that supports the SOCKS5 feature
         DiscoverInfo discoverInfo = Socks5PacketUtils.createDiscoverInfo(targetJID, initiatorJID);
         discoverInfo.addFeature(Bytestream.NAMESPACE);
@@ -1016,6 +1077,37 @@ public class Socks5ByteStreamManagerTest {
         protocol.addResponse(discoverInfo, Verification.correspondingSenderReceiver,
                         Verification.requestTypeGET);
 
+        if (!proxiesCached) {
+            createProxyDiscoveryResponses(protocol, socks5TestProxy);
+        }
+
+        // build used stream host response
+        Bytestream streamHostUsedPacket = Socks5PacketUtils.createBytestreamResponse(targetJID,
+                        initiatorJID);
+        streamHostUsedPacket.setSessionID(sessionID);
+        streamHostUsedPacket.setUsedHost(proxyJID);
+
+        // return used stream host info as response to the bytestream initiation
+        protocol.addResponse(streamHostUsedPacket, streamHostUsedVerification,
+                        Verification.correspondingSenderReceiver, Verification.requestTypeSET);
+
+        // build response to proxy activation
+        IQ activationResponse = Socks5PacketUtils.createActivationConfirmation(proxyJID,
+                        initiatorJID);
+
+        // return proxy activation response if proxy should be activated
+        protocol.addResponse(activationResponse, new Verification<Bytestream, IQ>() {
+
+            @Override
+            public void verify(Bytestream request, IQ response) {
+                assertEquals(targetJID, request.getToActivate().getTarget());
+            }
+
+        }, Verification.correspondingSenderReceiver, Verification.requestTypeSET);
+    }
+
+    private static void createProxyDiscoveryResponses(Protocol protocol, Socks5TestProxy socks5TestProxy)
+                    throws XmppStringprepException {
         // build discover items containing a proxy item
         DiscoverItems discoverItems = Socks5PacketUtils.createDiscoverItems(xmppServer,
                         initiatorJID);
@@ -1068,30 +1160,6 @@ public class Socks5ByteStreamManagerTest {
         // return stream host info if it is queried
         protocol.addResponse(streamHostInfo2, Verification.correspondingSenderReceiver,
                         Verification.requestTypeGET);
-
-        // build used stream host response
-        Bytestream streamHostUsedPacket = Socks5PacketUtils.createBytestreamResponse(targetJID,
-                        initiatorJID);
-        streamHostUsedPacket.setSessionID(sessionID);
-        streamHostUsedPacket.setUsedHost(proxyJID);
-
-        // return used stream host info as response to the bytestream initiation
-        protocol.addResponse(streamHostUsedPacket, streamHostUsedVerification,
-                        Verification.correspondingSenderReceiver, Verification.requestTypeSET);
-
-        // build response to proxy activation
-        IQ activationResponse = Socks5PacketUtils.createActivationConfirmation(proxyJID,
-                        initiatorJID);
-
-        // return proxy activation response if proxy should be activated
-        protocol.addResponse(activationResponse, new Verification<Bytestream, IQ>() {
-
-            @Override
-            public void verify(Bytestream request, IQ response) {
-                assertEquals(targetJID, request.getToActivate().getTarget());
-            }
-
-        }, Verification.correspondingSenderReceiver, Verification.requestTypeSET);
     }
 
 }
@@ -334,6 +334,81 @@ public class Socks5ByteStreamRequestTest {
         }
     }
 
+    /**
+     * Accepting a SOCKS5 Bytestream request should connect to the given SOCKS5 proxies
+     * concurrently, so that unresponsive proxies do not delay the connection to a working one, and
+     * should cancel the connection attempts to the unresponsive proxies.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldConnectToSocks5ProxiesConcurrently() throws Exception {
+        final Protocol protocol = new Protocol();
+        final XMPPConnection connection = ConnectionUtils.createMockedConnection(protocol, targetJID);
+
+        // start a local SOCKS5 proxy
+        try (Socks5TestProxy socks5Proxy = new Socks5TestProxy()) {
+            // create fake SOCKS5 proxies that don't respond to a request
+            ServerSocket[] unresponsiveSocks5Sockets = new ServerSocket[3];
+            for (int i = 0; i < unresponsiveSocks5Sockets.length; i++) {
+                unresponsiveSocks5Sockets[i] = NetworkUtil.getSocketOnLoopback();
+            }
+
+            try {
+                // build SOCKS5 Bytestream initialization request
+                Bytestream bytestreamInitialization = Socks5PacketUtils.createBytestreamInitiation(
+                                initiatorJID, targetJID, sessionID);
+                for (ServerSocket unresponsiveSocks5Socket : unresponsiveSocks5Sockets) {
+                    bytestreamInitialization.addStreamHost(proxyJID, proxyAddress,
+                                    unresponsiveSocks5Socket.getLocalPort());
+                }
+                bytestreamInitialization.addStreamHost(proxyJID, proxyAddress, socks5Proxy.getPort());
+
+                // get SOCKS5 Bytestream manager for connection
+                Socks5BytestreamManager byteStreamManager = Socks5BytestreamManager.getBytestreamManager(connection);
+
+                // build SOCKS5 Bytestream request with the bytestream initialization
+                Socks5BytestreamRequest byteStreamRequest = new Socks5BytestreamRequest(byteStreamManager,
+                                bytestreamInitialization);
+
+                // connecting one SOCKS5 proxy after the other would take at least 15 seconds
+                byteStreamRequest.setTotalConnectTimeout(20000);
+                byteStreamRequest.setMinimumConnectTimeout(5000);
+
+                final long start = System.currentTimeMillis();
+                InputStream inputStream = byteStreamRequest.accept().getInputStream();
+                assertTrue(System.currentTimeMillis() - start < 5000);
+
+                // test stream by sending some data
+                String digest = Socks5Utils.createDigest(sessionID, initiatorJID, targetJID);
+                OutputStream outputStream = socks5Proxy.getSocket(digest).getOutputStream();
+                byte[] data = new byte[] { 1, 2, 3 };
+                outputStream.write(data);
+
+                byte[] result = new byte[3];
+                inputStream.read(result);
+                assertArrayEquals(data, result);
+
+                // assert that the connection attempts to the unresponsive SOCKS5 proxies were cancelled
+                for (ServerSocket unresponsiveSocks5Socket : unresponsiveSocks5Sockets) {
+                    Socket socket = unresponsiveSocks5Socket.accept();
+                    socket.setSoTimeout(5000);
+                    InputStream in = socket.getInputStream();
+                    while (in.read() != -1) {
+                        // skip the authentication request of the client
+                    }
+                    socket.close();
+                }
+
+                assertEquals(1, byteStreamManager.getNegotiationStats().acceptedSessions);
+            } finally {
+                for (ServerSocket unresponsiveSocks5Socket : unresponsiveSocks5Sockets) {
+                    unresponsiveSocks5Socket.close();
+                }
+            }
+        }
+    }
+
     /**
      * Accepting the SOCKS5 Bytestream request should be successfully.
      *
@@ -22,15 +22,23 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -294,4 +302,118 @@ public class Socks5ProxyTest {
             proxy.stop();
         }
     }
+
+    /**
+     * A peer which does not complete the SOCKS5 negotiation must not delay the negotiation of
+     * other peers.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldNegotiateConcurrently() throws Exception {
+        Socks5Proxy proxy = new Socks5Proxy();
+        proxy.start();
+
+        try (Socket slowSocket = new Socket(loopbackAddress, proxy.getPort())) {
+            // only send the first byte of the authentication method selection
+            slowSocket.getOutputStream().write(0x05);
+
+            String digest = new String(new byte[] { (byte) 0xAB }, StandardCharsets.UTF_8);
+            proxy.addTransfer(digest);
+            try (Socket socket = connect(proxy, (byte) 0xAB)) {
+                assertTrue(socket.isConnected());
+                assertNotNull(proxy.getSocket(digest));
+            }
+        } finally {
+            proxy.stop();
+        }
+    }
+
+    /**
+     * A session on a connection of the local SOCKS5 proxy should read and write concurrently, honor
+     * the read timeout and send files by transferring them from their channel.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void shouldUseChannelStreamsForLocalProxyConnections() throws Exception {
+        Socks5Proxy proxy = new Socks5Proxy();
+        proxy.start();
+
+        File file = File.createTempFile("smack-socks5-", ".bin");
+        try {
+            String digest = new String(new byte[] { (byte) 0xAC }, StandardCharsets.UTF_8);
+            proxy.addTransfer(digest);
+            try (Socket socket = connect(proxy, (byte) 0xAC)) {
+                Socks5BytestreamSession session = new Socks5BytestreamSession(proxy.getSocket(digest), true);
+                proxy.removeTransfer(digest);
+
+                // a blocked read must neither block writes nor block forever
+                session.setReadTimeout(200);
+                try {
+                    session.getInputStream().read();
+                    throw new AssertionError("should time out");
+                } catch (SocketTimeoutException e) {
+                    // expected
+                }
+                socket.getOutputStream().write(42);
+                assertEquals(42, session.getInputStream().read());
+
+                byte[] data = new byte[3 * 1024 * 1024 + 7];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = (byte) i;
+                }
+                try (FileOutputStream fileOutputStream = new FileOutputStream(file)) {
+                    fileOutputStream.write(data);
+                }
+
+                assertTrue(session.getOutputStream() instanceof SocketChannelOutputStream);
+                final SocketChannelOutputStream out = (SocketChannelOutputStream) session.getOutputStream();
+                final Exception[] transferException = new Exception[1];
+                final long[] transferred = new long[1];
+                Thread sender = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try (FileInputStream fileInputStream = new FileInputStream(file)) {
+                            FileChannel fileChannel = fileInputStream.getChannel();
+                            transferred[0] = out.transferFrom(fileChannel, 0, fileChannel.size() + 1);
+                        } catch (IOException e) {
+                            transferException[0] = e;
+                        }
+                    }
+                });
+                sender.start();
+
+                byte[] received = new byte[data.length];
+                new DataInputStream(socket.getInputStream()).readFully(received);
+                sender.join();
+
+                assertEquals(null, transferException[0]);
+                assertEquals(data.length, transferred[0]);
+                assertTrue(Arrays.equals(data, received));
+
+                session.close();
+                assertEquals(-1, socket.getInputStream().read());
+            }
+        } finally {
+            proxy.stop();
+            file.delete();
+        }
+    }
+
+    private static Socket connect(Socks5Proxy proxy, byte digest) throws IOException {
+        Socket socket = new Socket(loopbackAddress, proxy.getPort());
+        OutputStream out = socket.getOutputStream();
+        InputStream in = socket.getInputStream();
+        out.write(new byte[] { (byte) 0x05, (byte) 0x01, (byte) 0x00 });
+        assertEquals((byte) 0x05, (byte) in.read());
+        assertEquals((byte) 0x00, (byte) in.read());
+
+        out.write(new byte[] { (byte) 0x05, (byte) 0x00, (byte) 0x00, (byte) 0x03, (byte) 0x01, digest,
+                        (byte) 0x00, (byte) 0x00 });
+        byte[] response = new byte[8];
+        new DataInputStream(in).readFully(response);
+        assertEquals((byte) 0x00, response[1]); // success
+        return socket;
+    }
 }
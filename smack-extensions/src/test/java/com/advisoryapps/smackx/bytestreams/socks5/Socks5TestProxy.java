@@ -29,7 +29,7 @@ import com.advisoryapps.smack.util.NetworkUtil;
  */
 public final class Socks5TestProxy extends Socks5Proxy implements AutoCloseable {
 
-    public Socks5TestProxy(ServerSocket serverSocket) {
+    public Socks5TestProxy(ServerSocket serverSocket) throws IOException {
         super(serverSocket);
     }
 
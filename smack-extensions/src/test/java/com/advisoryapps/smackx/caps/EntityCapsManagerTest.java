@@ -18,12 +18,19 @@ package com.advisoryapps.smackx.caps;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.advisoryapps.smack.DummyConnection;
+import com.advisoryapps.smack.SmackFuture;
 
 import com.advisoryapps.smack.packet.IQ;
 import com.advisoryapps.smack.util.StringUtils;
@@ -31,13 +38,16 @@ import com.advisoryapps.smack.util.stringencoder.Base32;
 import com.advisoryapps.smack.util.stringencoder.StringEncoder;
 
 import com.advisoryapps.smackx.InitExtensions;
+import com.advisoryapps.smackx.caps.EntityCapsManager.NodeVerHash;
 import com.advisoryapps.smackx.caps.cache.EntityCapsPersistentCache;
+import com.advisoryapps.smackx.caps.cache.MemoryMappedPersistentCache;
 import com.advisoryapps.smackx.caps.cache.SimpleDirectoryPersistentCache;
 import com.advisoryapps.smackx.disco.packet.DiscoverInfo;
 import com.advisoryapps.smackx.xdata.FormField;
 import com.advisoryapps.smackx.xdata.packet.DataForm;
 
 import org.junit.Test;
+import org.jxmpp.jid.Jid;
 import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.stringprep.XmppStringprepException;
 
@@ -63,6 +73,119 @@ public class EntityCapsManagerTest extends InitExtensions {
         testSimpleDirectoryCache(Base32.getStringEncoder());
     }
 
+    @Test
+    public void testMemoryMappedCache() throws IOException {
+        File file = new File(createTempDirectory(), "caps");
+        MemoryMappedPersistentCache cache = MemoryMappedPersistentCache.open(file);
+        EntityCapsManager.setPersistentCache(cache);
+
+        DiscoverInfo di = createComplexSamplePacket();
+        CapsVersionAndHash versionAndHash = EntityCapsManager.generateVerificationString(di, StringUtils.SHA1);
+        String nodeVer = di.getNode() + "#" + versionAndHash.version;
+        EntityCapsManager.addDiscoverInfoByNode(nodeVer, di);
+        cache.close();
+
+        // Lose all the data, then warm the memory cache from the file.
+        EntityCapsManager.clearMemoryCache();
+        cache = MemoryMappedPersistentCache.open(file);
+        EntityCapsManager.setPersistentCache(cache);
+        assertEquals(1, EntityCapsManager.warmMemoryCache());
+        EntityCapsManager.setPersistentCache(null);
+
+        DiscoverInfo restored_di = EntityCapsManager.getDiscoveryInfoByNodeVer(nodeVer);
+        assertNotNull(restored_di);
+        assertEquals(di.toXML().toString(), restored_di.toXML().toString());
+        cache.close();
+    }
+
+    @Test
+    public void testMemoryMappedCacheEvictsLeastRecentlyUsed() throws IOException {
+        File file = new File(createTempDirectory(), "caps");
+        final int maxFileSize = 4096;
+        MemoryMappedPersistentCache cache = MemoryMappedPersistentCache.open(file, maxFileSize);
+        DiscoverInfo di = createComplexSamplePacket();
+
+        cache.addDiscoverInfoByNodePersistent("node#0", di);
+        for (int i = 1; i < 20; i++) {
+            // Keep the first entry in use.
+            assertNotNull(cache.lookup("node#0"));
+            cache.addDiscoverInfoByNodePersistent("node#" + i, di);
+            assertTrue(cache.getFileSize() <= maxFileSize);
+        }
+
+        assertNotNull(cache.lookup("node#0"));
+        assertNull(cache.lookup("node#1"));
+        assertNotNull(cache.lookup("node#19"));
+        int size = cache.size();
+        cache.close();
+
+        cache = MemoryMappedPersistentCache.open(file, maxFileSize);
+        assertEquals(size, cache.size());
+        assertEquals(di.toXML().toString(), cache.lookup("node#19").toXML().toString());
+        cache.emptyCache();
+        assertNull(cache.lookup("node#19"));
+        cache.close();
+    }
+
+    @Test
+    public void concurrentVerificationsOfTheSameNodeVerAreShared() throws Exception {
+        EntityCapsManager.setPersistentCache(null);
+        EntityCapsManager.clearMemoryCache();
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        EntityCapsManager entityCapsManager = EntityCapsManager.getInstanceFor(connection);
+
+        DiscoverInfo di = createComplexSamplePacket();
+        CapsVersionAndHash versionAndHash = EntityCapsManager.generateVerificationString(di, StringUtils.SHA1);
+        NodeVerHash nodeVerHash = new NodeVerHash("http://psi-im.org", versionAndHash);
+        Jid benvolio = di.getFrom();
+        Jid mercutio = JidCreate.from("mercutio@capulet.lit/street");
+
+        SmackFuture<DiscoverInfo, Exception> first = entityCapsManager.verifyCapsAsync(benvolio, nodeVerHash);
+        SmackFuture<DiscoverInfo, Exception> second = entityCapsManager.verifyCapsAsync(mercutio, nodeVerHash);
+
+        DiscoverInfo request = connection.getSentPacket(5);
+        assertEquals(0, connection.getNumberOfSentPackets());
+        assertEquals(benvolio, request.getTo());
+        assertEquals(nodeVerHash.getNodeVer(), request.getNode());
+        di.setStanzaId(request.getStanzaId());
+        di.setTo(connection.getUser());
+        connection.processStanza(di);
+
+        assertEquals(4, first.get(5, TimeUnit.SECONDS).getFeatures().size());
+        assertEquals(4, second.get(5, TimeUnit.SECONDS).getFeatures().size());
+        assertNotNull(EntityCapsManager.getDiscoveryInfoByNodeVer(nodeVerHash.getNodeVer()));
+    }
+
+    @Test
+    public void unverifiedDiscoverInfoIsOnlyReturnedToTheQueriedEntity() throws Exception {
+        EntityCapsManager.setPersistentCache(null);
+        EntityCapsManager.clearMemoryCache();
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        EntityCapsManager entityCapsManager = EntityCapsManager.getInstanceFor(connection);
+
+        DiscoverInfo di = createComplexSamplePacket();
+        NodeVerHash nodeVerHash = new NodeVerHash("http://psi-im.org", new CapsVersionAndHash("bogus", "sha-1"));
+        Jid benvolio = di.getFrom();
+        Jid mercutio = JidCreate.from("mercutio@capulet.lit/street");
+
+        SmackFuture<DiscoverInfo, Exception> first = entityCapsManager.verifyCapsAsync(benvolio, nodeVerHash);
+        SmackFuture<DiscoverInfo, Exception> second = entityCapsManager.verifyCapsAsync(mercutio, nodeVerHash);
+
+        DiscoverInfo request = connection.getSentPacket(5);
+        di.setStanzaId(request.getStanzaId());
+        di.setTo(connection.getUser());
+        connection.processStanza(di);
+
+        assertNotNull(first.get(5, TimeUnit.SECONDS));
+        try {
+            second.get(5, TimeUnit.SECONDS);
+            fail("The unverified disco#info must not be used for other entities");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertNull(EntityCapsManager.getDiscoveryInfoByNodeVer(nodeVerHash.getNodeVer()));
+    }
+
     @Test
     public void testVerificationDuplicateFeatures() throws XmppStringprepException {
         DiscoverInfo di = createMalformedDiscoverInfo();
@@ -0,0 +1,137 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smackx.disco;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.advisoryapps.smack.DummyConnection;
+import com.advisoryapps.smack.SmackFuture;
+import com.advisoryapps.smack.packet.IQ;
+import com.advisoryapps.smack.packet.StanzaError;
+
+import com.advisoryapps.smackx.InitExtensions;
+import com.advisoryapps.smackx.disco.packet.DiscoverInfo;
+import com.advisoryapps.smackx.disco.packet.DiscoverItems;
+
+import org.junit.Test;
+import org.jxmpp.jid.DomainBareJid;
+import org.jxmpp.jid.impl.JidCreate;
+
+public class ServiceDiscoveryManagerTest extends InitExtensions {
+
+    private static final String FEATURE = "urn:example:feature";
+
+    @Test
+    public void servicesAreDiscoveredConcurrently() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        ServiceDiscoveryManager sdm = ServiceDiscoveryManager.getInstanceFor(connection);
+        DomainBareJid service = connection.getXMPPServiceDomain();
+
+        SmackFuture<List<DiscoverInfo>, Exception> future = sdm.findServicesDiscoverInfoAsync(service, FEATURE,
+                        false, false, null);
+
+        DiscoverInfo serviceInfoRequest = connection.getSentPacket(5);
+        DiscoverItems serviceItemsRequest = connection.getSentPacket(5);
+        connection.processStanza(infoResult(serviceInfoRequest, false));
+
+        DiscoverItems serviceItems = new DiscoverItems();
+        serviceItems.setType(IQ.Type.result);
+        serviceItems.setStanzaId(serviceItemsRequest.getStanzaId());
+        serviceItems.setFrom(service);
+        for (String component : new String[] { "a", "b", "c" }) {
+            serviceItems.addItem(new DiscoverItems.Item(JidCreate.domainBareFrom(component + '.' + service)));
+        }
+        connection.processStanza(serviceItems);
+
+        // All disco#info requests for the items are sent before any of them is answered.
+        List<DiscoverInfo> itemInfoRequests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            itemInfoRequests.add(connection.<DiscoverInfo>getSentPacket(5));
+        }
+        assertFalse(future.isDone());
+
+        // Answer in reverse order, the result must still be in the order of the items.
+        connection.processStanza(infoResult(itemInfoRequests.get(2), true));
+        connection.processStanza(infoResult(itemInfoRequests.get(1), false));
+        connection.processStanza(infoResult(itemInfoRequests.get(0), true));
+
+        List<DiscoverInfo> result = future.get(5, TimeUnit.SECONDS);
+        assertEquals(2, result.size());
+        assertEquals(itemInfoRequests.get(0).getTo(), result.get(0).getFrom());
+        assertEquals(itemInfoRequests.get(2).getTo(), result.get(1).getFrom());
+    }
+
+    @Test
+    public void concurrentRequestsForTheSameEntityAreShared() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        ServiceDiscoveryManager sdm = ServiceDiscoveryManager.getInstanceFor(connection);
+        DomainBareJid component = JidCreate.domainBareFrom("component.example.org");
+
+        SmackFuture<DiscoverInfo, Exception> first = sdm.discoverInfoAsync(component, null);
+        SmackFuture<DiscoverInfo, Exception> second = sdm.discoverInfoAsync(component, null);
+
+        DiscoverInfo request = connection.getSentPacket(5);
+        assertEquals(0, connection.getNumberOfSentPackets());
+        DiscoverInfo response = infoResult(request, true);
+        connection.processStanza(response);
+
+        assertSame(response, first.get(5, TimeUnit.SECONDS));
+        assertSame(response, second.get(5, TimeUnit.SECONDS));
+        assertTrue(response.containsFeature(FEATURE));
+    }
+
+    @Test
+    public void resultIsNotCachedIfTheItemsCouldNotBeDiscovered() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        ServiceDiscoveryManager sdm = ServiceDiscoveryManager.getInstanceFor(connection);
+        DomainBareJid service = connection.getXMPPServiceDomain();
+
+        SmackFuture<List<DiscoverInfo>, Exception> future = sdm.findServicesDiscoverInfoAsync(service, FEATURE,
+                        false, true, null);
+
+        DiscoverInfo serviceInfoRequest = connection.getSentPacket(5);
+        DiscoverItems serviceItemsRequest = connection.getSentPacket(5);
+        connection.processStanza(infoResult(serviceInfoRequest, true));
+        connection.processStanza(IQ.createErrorResponse(serviceItemsRequest, StanzaError.Condition.item_not_found));
+
+        List<DiscoverInfo> result = future.get(5, TimeUnit.SECONDS);
+        assertEquals(1, result.size());
+
+        // The service is queried again, as the previous result is incomplete.
+        sdm.findServicesDiscoverInfoAsync(service, FEATURE, false, true, null);
+        assertTrue(connection.getSentPacket(5) instanceof DiscoverInfo);
+    }
+
+    private static DiscoverInfo infoResult(DiscoverInfo request, boolean withFeature) {
+        DiscoverInfo result = new DiscoverInfo();
+        result.setType(IQ.Type.result);
+        result.setStanzaId(request.getStanzaId());
+        result.setFrom(request.getTo());
+        result.addIdentity(new DiscoverInfo.Identity("component", "generic"));
+        if (withFeature) {
+            result.addFeature(FEATURE);
+        }
+        return result;
+    }
+}
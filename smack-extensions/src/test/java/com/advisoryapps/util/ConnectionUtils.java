@@ -24,6 +24,9 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import com.advisoryapps.smack.SmackException;
+import com.advisoryapps.smack.SmackException.NoResponseException;
+import com.advisoryapps.smack.SmackFuture;
+import com.advisoryapps.smack.SmackFuture.InternalSmackFuture;
 import com.advisoryapps.smack.StanzaCollector;
 import com.advisoryapps.smack.XMPPConnection;
 import com.advisoryapps.smack.XMPPException.XMPPErrorException;
@@ -74,7 +77,7 @@ public class ConnectionUtils {
         DomainBareJid xmppServer = initiatorJID.asDomainBareJid();
 
         // mock XMPP connection
-        XMPPConnection connection = mock(XMPPConnection.class);
+        final XMPPConnection connection = mock(XMPPConnection.class);
         when(connection.getUser()).thenReturn(initiatorJID);
         when(connection.getXMPPServiceDomain()).thenReturn(xmppServer);
 
@@ -124,6 +127,29 @@ public class ConnectionUtils {
         when(collector.nextResultOrThrow()).thenAnswer(answerOrThrow);
         when(collector.nextResultOrThrow(anyLong())).thenAnswer(answerOrThrow);
 
+        // mock asynchronous IQ requests, they are answered right away
+        Answer<SmackFuture<IQ, Exception>> iqRequestAsync = new Answer<SmackFuture<IQ, Exception>>() {
+            @Override
+            public SmackFuture<IQ, Exception> answer(InvocationOnMock invocation) throws Throwable {
+                protocol.getRequests().add((Stanza) invocation.getArguments()[0]);
+                InternalSmackFuture<IQ, Exception> future = new InternalSmackFuture<>();
+                Stanza packet = protocol.getResponses().poll();
+                if (packet == null) {
+                    future.setException(NoResponseException.newWith(connection, "IQ response"));
+                    return future;
+                }
+                try {
+                    XMPPErrorException.ifHasErrorThenThrow(packet);
+                    future.setResult((IQ) packet);
+                }
+                catch (XMPPErrorException e) {
+                    future.setException(e);
+                }
+                return future;
+            }
+        };
+        when(connection.sendIqRequestAsync(isA(IQ.class))).thenAnswer(iqRequestAsync);
+
         // initialize service discovery manager for this connection
         ServiceDiscoveryManager.getInstanceFor(connection);
 
@@ -0,0 +1,41 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.roster;
+
+import java.util.Map;
+
+import com.advisoryapps.smack.packet.Presence;
+
+import org.jxmpp.jid.Jid;
+
+/**
+ * A listener which receives presence changes in batches instead of one by one, see
+ * {@link Roster#addBatchedPresenceListener(BatchedPresenceListener, long, java.util.concurrent.TimeUnit)}. This
+ * reduces the number of invocations when many presences are received in a short time, for example right after login.
+ *
+ * @since 4.4.0
+ */
+public interface BatchedPresenceListener {
+
+    /**
+     * Called with the presence changes since the last invocation. Only the latest presence of every address is
+     * included, in the order in which the addresses first changed their presence.
+     *
+     * @param presences the latest presence of every address whose presence changed, keyed by address.
+     */
+    void presencesChanged(Map<Jid, Presence> presences);
+}
@@ -0,0 +1,167 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.roster;
+
+import com.advisoryapps.smack.packet.Presence;
+
+import org.jxmpp.jid.parts.Resourcepart;
+
+/**
+ * The presences of an entity, keyed by resource. Instances are immutable, every update returns a new instance, which
+ * allows the roster to replace them atomically without locking.
+ * <p>
+ * Entities typically have only one to three resources, hence the presences are kept in two small parallel arrays
+ * which are searched linearly, instead of a hash map per entity.
+ * </p>
+ */
+final class ResourcePresences {
+
+    static final ResourcePresences EMPTY = new ResourcePresences(new Resourcepart[0], new Presence[0]);
+
+    enum Update {
+        /**
+         * Add or replace the presence of the resource.
+         */
+        put,
+
+        /**
+         * Like {@link #put}, but also remove the presence stored for {@link Resourcepart#EMPTY}, which is the offline
+         * presence of the entity.
+         */
+        putAvailable,
+
+        /**
+         * Remove all presences and add the presence of the resource.
+         */
+        replaceAll,
+    }
+
+    private final Resourcepart[] resources;
+
+    private final Presence[] presences;
+
+    private ResourcePresences(Resourcepart[] resources, Presence[] presences) {
+        this.resources = resources;
+        this.presences = presences;
+    }
+
+    int size() {
+        return resources.length;
+    }
+
+    boolean isEmpty() {
+        return resources.length == 0;
+    }
+
+    Resourcepart getResource(int index) {
+        return resources[index];
+    }
+
+    Presence getPresence(int index) {
+        return presences[index];
+    }
+
+    Presence get(Resourcepart resource) {
+        int index = indexOf(resource);
+        if (index < 0) {
+            return null;
+        }
+        return presences[index];
+    }
+
+    /**
+     * Get a copy of this instance with the given update applied. If the number of resources would exceed the given
+     * maximum, then the presence of the resource which was added first is dropped.
+     *
+     * @param resource the resource.
+     * @param presence the presence of the resource.
+     * @param update how to apply the presence.
+     * @param maxResources the maximum number of resources.
+     * @return the updated presences.
+     */
+    ResourcePresences update(Resourcepart resource, Presence presence, Update update, int maxResources) {
+        if (update == Update.replaceAll) {
+            return new ResourcePresences(new Resourcepart[] { resource }, new Presence[] { presence });
+        }
+
+        int removedIndex = -1;
+        if (update == Update.putAvailable && !resource.equals(Resourcepart.EMPTY)) {
+            removedIndex = indexOf(Resourcepart.EMPTY);
+        }
+        int index = indexOf(resource);
+        if (index >= 0 && removedIndex < 0) {
+            Presence[] newPresences = presences.clone();
+            newPresences[index] = presence;
+            return new ResourcePresences(resources, newPresences);
+        }
+
+        int retained = resources.length;
+        if (removedIndex >= 0) {
+            retained--;
+        }
+        if (index >= 0) {
+            retained--;
+        }
+        // Skip the oldest resources if the maximum would be exceeded.
+        int skip = Math.max(0, retained + 1 - maxResources);
+
+        Resourcepart[] newResources = new Resourcepart[retained - skip + 1];
+        Presence[] newPresences = new Presence[newResources.length];
+        int newIndex = 0;
+        for (int i = 0; i < resources.length; i++) {
+            if (i == removedIndex || i == index) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            newResources[newIndex] = resources[i];
+            newPresences[newIndex] = presences[i];
+            newIndex++;
+        }
+        newResources[newIndex] = resource;
+        newPresences[newIndex] = presence;
+        return new ResourcePresences(newResources, newPresences);
+    }
+
+    /**
+     * Get a copy of this instance with all presences of the given instance applied, which take precedence over the
+     * presences of this instance. An available presence of the given instance replaces the offline presence of this
+     * instance.
+     *
+     * @param newerPresences the presences to apply.
+     * @return the merged presences.
+     */
+    ResourcePresences merge(ResourcePresences newerPresences) {
+        ResourcePresences merged = this;
+        for (int i = 0; i < newerPresences.resources.length; i++) {
+            merged = merged.update(newerPresences.resources[i], newerPresences.presences[i], Update.putAvailable,
+                            Integer.MAX_VALUE);
+        }
+        return merged;
+    }
+
+    private int indexOf(Resourcepart resource) {
+        for (int i = 0; i < resources.length; i++) {
+            if (resources[i].equals(resource)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -22,14 +22,15 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -156,26 +157,51 @@ public final class Roster extends Manager {
      */
     private final Map<BareJid, RosterEntry> entries = new ConcurrentHashMap<>();
 
-    private final Set<RosterEntry> unfiledEntries = new CopyOnWriteArraySet<>();
+    /**
+     * The names of the groups every roster entry belongs to, keyed by the entry's JID. The values are immutable and
+     * replaced on every update. Used to apply roster pushes without scanning all groups.
+     */
+    private final Map<BareJid, Set<String>> entryGroupNames = new ConcurrentHashMap<>();
+
+    private final Set<RosterEntry> unfiledEntries = Collections.newSetFromMap(
+                    new ConcurrentHashMap<RosterEntry, Boolean>());
     private final Set<RosterListener> rosterListeners = new LinkedHashSet<>();
 
     private final Set<PresenceEventListener> presenceEventListeners = new CopyOnWriteArraySet<>();
 
     /**
-     * A map of JIDs to another Map of Resourceparts to Presences. The 'inner' map may contain
-     * {@link Resourcepart#EMPTY} if there are no other Presences available.
+     * A map of JIDs to their presences, keyed by resource. The presences may contain {@link Resourcepart#EMPTY} if
+     * there are no other Presences available. The values are immutable and replaced atomically on every update.
      */
-    private final Map<BareJid, Map<Resourcepart, Presence>> presenceMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<BareJid, ResourcePresences> presenceMap = new ConcurrentHashMap<>();
 
     /**
-     * Like {@link presenceMap} but for presences of entities not in our Roster.
+     * Like {@link presenceMap} but for presences of entities not in our Roster. Updates are synchronized on the map.
      */
     // TODO Ideally we want here to use a LRU cache like Map which will evict all superfluous items
     // if their maximum size is lowered below the current item count. LruCache does not provide
     // this.
-    private final LruCache<BareJid, Map<Resourcepart, Presence>> nonRosterPresenceMap = new LruCache<>(
+    private final LruCache<BareJid, ResourcePresences> nonRosterPresenceMap = new LruCache<>(
                     defaultNonRosterPresenceMapMaxSize);
 
+    /**
+     * The maximum number of resources for which presences are stored per entity not in our Roster.
+     */
+    private static final int NON_ROSTER_MAX_RESOURCES = 32;
+
+    /**
+     * The batch of presence changes which are reported to the roster listeners in presence storm mode, or
+     * <code>null</code> if presence storm mode is disabled.
+     */
+    private volatile PresenceBatch presenceStormBatch;
+
+    private final Map<BatchedPresenceListener, PresenceBatch> batchedPresenceListeners = new ConcurrentHashMap<>();
+
+    /**
+     * Delivers the batched presence changes off the thread which flushes the batch, in order per key.
+     */
+    private final AsyncButOrdered<Object> presenceBatchAsyncButOrdered = new AsyncButOrdered<>();
+
     /**
      * Listeners called when the Roster was loaded.
      */
@@ -370,8 +396,8 @@ public final class Roster extends Manager {
      * @param entity the entity
      * @return the user presences
      */
-    private Map<Resourcepart, Presence> getPresencesInternal(BareJid entity) {
-        Map<Resourcepart, Presence> entityPresences = presenceMap.get(entity);
+    private ResourcePresences getPresencesInternal(BareJid entity) {
+        ResourcePresences entityPresences = presenceMap.get(entity);
         if (entityPresences == null) {
             entityPresences = nonRosterPresenceMap.lookup(entity);
         }
@@ -379,25 +405,50 @@ public final class Roster extends Manager {
     }
 
     /**
-     * Retrieve the user presences (a map from resource to {@link Presence}) for a given XMPP entity represented by their bare JID.
+     * Update the presences of the given XMPP entity represented by their bare JID. Presences of entities in the
+     * roster are updated without locking.
      *
      * @param entity the entity
-     * @return the user presences
-     */
-    private synchronized Map<Resourcepart, Presence> getOrCreatePresencesInternal(BareJid entity) {
-        Map<Resourcepart, Presence> entityPresences = getPresencesInternal(entity);
-        if (entityPresences == null) {
+     * @param resource the resource the presence is from
+     * @param presence the presence
+     * @param update how the presence is applied to the existing presences of the entity
+     */
+    private void updatePresencesInternal(BareJid entity, Resourcepart resource, Presence presence,
+                    ResourcePresences.Update update) {
+        while (true) {
+            ResourcePresences entityPresences = presenceMap.get(entity);
+            if (entityPresences != null) {
+                ResourcePresences updatedPresences = entityPresences.update(resource, presence, update,
+                                Integer.MAX_VALUE);
+                if (presenceMap.replace(entity, entityPresences, updatedPresences)) {
+                    return;
+                }
+                continue;
+            }
+
             if (contains(entity)) {
-                entityPresences = new ConcurrentHashMap<>();
-                presenceMap.put(entity, entityPresences);
+                ResourcePresences newPresences = ResourcePresences.EMPTY.update(resource, presence, update,
+                                Integer.MAX_VALUE);
+                if (presenceMap.putIfAbsent(entity, newPresences) == null) {
+                    return;
+                }
+                continue;
             }
-            else {
-                LruCache<Resourcepart, Presence> nonRosterEntityPresences = new LruCache<>(32);
-                nonRosterPresenceMap.put(entity, nonRosterEntityPresences);
-                entityPresences = nonRosterEntityPresences;
+
+            synchronized (nonRosterPresenceMap) {
+                if (presenceMap.containsKey(entity)) {
+                    // The entity was added to the roster in the meantime.
+                    continue;
+                }
+                ResourcePresences nonRosterEntityPresences = nonRosterPresenceMap.lookup(entity);
+                if (nonRosterEntityPresences == null) {
+                    nonRosterEntityPresences = ResourcePresences.EMPTY;
+                }
+                nonRosterPresenceMap.put(entity, nonRosterEntityPresences.update(resource, presence, update,
+                                NON_ROSTER_MAX_RESOURCES));
+                return;
             }
         }
-        return entityPresences;
     }
 
     /**
@@ -610,6 +661,53 @@ public final class Roster extends Manager {
         return presenceEventListeners.remove(presenceEventListener);
     }
 
+    /**
+     * Add a {@link BatchedPresenceListener}. The listener is invoked at most once per the given interval with the
+     * latest 'available', 'unavailable' and 'error' presence of every address whose presence changed since the last
+     * invocation. Other listeners are not affected by batched listeners. The listener is not invoked concurrently.
+     *
+     * @param batchedPresenceListener listener to add.
+     * @param interval the interval in which presence changes are batched.
+     * @param unit the unit of the interval.
+     * @return true if the listener was not already added.
+     * @since 4.4.0
+     */
+    public boolean addBatchedPresenceListener(final BatchedPresenceListener batchedPresenceListener, long interval,
+                    TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("The interval must be positive");
+        }
+        PresenceBatch batch = new PresenceBatch(unit.toMillis(interval)) {
+            @Override
+            void deliver(final Map<Jid, Presence> presences) {
+                final PresenceBatch batch = this;
+                presenceBatchAsyncButOrdered.performAsyncButOrdered(batchedPresenceListener, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (batchedPresenceListeners.get(batchedPresenceListener) != batch) {
+                            // The listener has been removed in the meantime.
+                            return;
+                        }
+                        batchedPresenceListener.presencesChanged(Collections.unmodifiableMap(presences));
+                    }
+                });
+            }
+        };
+        return batchedPresenceListeners.putIfAbsent(batchedPresenceListener, batch) == null;
+    }
+
+    /**
+     * Remove a {@link BatchedPresenceListener}. Presence changes which have not yet been delivered to the listener
+     * are discarded.
+     *
+     * @param batchedPresenceListener listener to remove.
+     * @return true if the listener was removed.
+     * @since 4.4.0
+     */
+    public boolean removeBatchedPresenceListener(BatchedPresenceListener batchedPresenceListener) {
+        return batchedPresenceListeners.remove(batchedPresenceListener) != null;
+    }
+
     /**
      * Creates a new group.
      * <p>
@@ -998,7 +1096,7 @@ public final class Roster extends Manager {
      *         or if no presence information is available..
      */
     public Presence getPresence(BareJid jid) {
-        Map<Resourcepart, Presence> userPresences = getPresencesInternal(jid);
+        ResourcePresences userPresences = getPresencesInternal(jid);
         if (userPresences == null) {
             Presence presence = new Presence(Presence.Type.unavailable);
             presence.setFrom(jid);
@@ -1011,7 +1109,8 @@ public final class Roster extends Manager {
             // This is used in case no available presence is found
             Presence unavailable = null;
 
-            for (Presence p : userPresences.values()) {
+            for (int i = 0; i < userPresences.size(); i++) {
+                Presence p = userPresences.getPresence(i);
                 if (!p.isAvailable()) {
                     unavailable = p;
                     continue;
@@ -1065,7 +1164,7 @@ public final class Roster extends Manager {
     public Presence getPresenceResource(FullJid userWithResource) {
         BareJid key = userWithResource.asBareJid();
         Resourcepart resource = userWithResource.getResourcepart();
-        Map<Resourcepart, Presence> userPresences = getPresencesInternal(key);
+        ResourcePresences userPresences = getPresencesInternal(key);
         if (userPresences == null) {
             Presence presence = new Presence(Presence.Type.unavailable);
             presence.setFrom(userWithResource);
@@ -1093,7 +1192,7 @@ public final class Roster extends Manager {
      *         presence information is available.
      */
     public List<Presence> getAllPresences(BareJid bareJid) {
-        Map<Resourcepart, Presence> userPresences = getPresencesInternal(bareJid);
+        ResourcePresences userPresences = getPresencesInternal(bareJid);
         List<Presence> res;
         if (userPresences == null) {
             // Create an unavailable presence if none was found
@@ -1101,9 +1200,9 @@ public final class Roster extends Manager {
             unavailable.setFrom(bareJid);
             res = new ArrayList<>(Arrays.asList(unavailable));
         } else {
-            res = new ArrayList<>(userPresences.values().size());
-            for (Presence presence : userPresences.values()) {
-                res.add(presence.clone());
+            res = new ArrayList<>(userPresences.size());
+            for (int i = 0; i < userPresences.size(); i++) {
+                res.add(userPresences.getPresence(i).clone());
             }
         }
         return res;
@@ -1141,7 +1240,7 @@ public final class Roster extends Manager {
      */
     public List<Presence> getPresences(BareJid jid) {
         List<Presence> res;
-        Map<Resourcepart, Presence> userPresences = getPresencesInternal(jid);
+        ResourcePresences userPresences = getPresencesInternal(jid);
         if (userPresences == null) {
             Presence presence = new Presence(Presence.Type.unavailable);
             presence.setFrom(jid);
@@ -1151,7 +1250,8 @@ public final class Roster extends Manager {
             List<Presence> answer = new ArrayList<>();
             // Used in case no available presence is found
             Presence unavailable = null;
-            for (Presence presence : userPresences.values()) {
+            for (int i = 0; i < userPresences.size(); i++) {
+                Presence presence = userPresences.getPresence(i);
                 if (presence.isAvailable()) {
                     answer.add(presence.clone());
                 }
@@ -1268,9 +1368,10 @@ public final class Roster extends Manager {
     private void setOfflinePresences() {
         Presence packetUnavailable;
         outerloop: for (Jid user : presenceMap.keySet()) {
-            Map<Resourcepart, Presence> resources = presenceMap.get(user);
+            ResourcePresences resources = presenceMap.get(user);
             if (resources != null) {
-                for (Resourcepart resource : resources.keySet()) {
+                for (int i = 0; i < resources.size(); i++) {
+                    Resourcepart resource = resources.getResource(i);
                     packetUnavailable = new Presence(Presence.Type.unavailable);
                     EntityBareJid bareUserJid = user.asEntityBareJidIfPossible();
                     if (bareUserJid == null) {
@@ -1336,6 +1437,11 @@ public final class Roster extends Manager {
      * @param presence the presence change.
      */
     private void fireRosterPresenceEvent(final Presence presence) {
+        final PresenceBatch presenceStormBatch = this.presenceStormBatch;
+        if (presenceStormBatch != null) {
+            presenceStormBatch.add(presence);
+            return;
+        }
         synchronized (rosterListenersAndEntriesLock) {
             for (RosterListener listener : rosterListeners) {
                 listener.presenceChanged(presence);
@@ -1343,6 +1449,55 @@ public final class Roster extends Manager {
         }
     }
 
+    /**
+     * Add the presence to the batches of the {@link BatchedPresenceListener}s.
+     *
+     * @param presence the presence change.
+     */
+    private void batchPresence(Presence presence) {
+        for (PresenceBatch batch : batchedPresenceListeners.values()) {
+            batch.add(presence);
+        }
+    }
+
+    /**
+     * Collects presence changes, of which only the latest per address is kept, and delivers them once the interval
+     * after the first change of the batch has passed.
+     */
+    private abstract class PresenceBatch implements Runnable {
+        private final long intervalMillis;
+
+        private Map<Jid, Presence> pendingPresences = new LinkedHashMap<>();
+
+        private PresenceBatch(long intervalMillis) {
+            this.intervalMillis = intervalMillis;
+        }
+
+        void add(Presence presence) {
+            synchronized (this) {
+                boolean flushScheduled = !pendingPresences.isEmpty();
+                // The latest presence wins, but the address keeps its position in the order of changes.
+                pendingPresences.put(presence.getFrom(), presence);
+                if (flushScheduled) {
+                    return;
+                }
+            }
+            schedule(this, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public final void run() {
+            Map<Jid, Presence> presences;
+            synchronized (this) {
+                presences = pendingPresences;
+                pendingPresences = new LinkedHashMap<>();
+            }
+            deliver(presences);
+        }
+
+        abstract void deliver(Map<Jid, Presence> presences);
+    }
+
     private void addUpdateEntry(Collection<Jid> addedEntries, Collection<Jid> updatedEntries,
                     Collection<Jid> unchangedEntries, RosterPacket.Item item, RosterEntry entry) {
         RosterEntry oldEntry;
@@ -1353,7 +1508,7 @@ public final class Roster extends Manager {
             BareJid jid = item.getJid();
             addedEntries.add(jid);
             // Move the eventually existing presences from nonRosterPresenceMap to presenceMap.
-            move(jid, nonRosterPresenceMap, presenceMap);
+            moveToRosterPresences(jid);
         }
         else {
             RosterPacket.Item oldItem = RosterEntry.toRosterItem(oldEntry);
@@ -1375,11 +1530,8 @@ public final class Roster extends Manager {
         }
 
         // Add the entry/user to the groups
-        List<String> newGroupNames = new ArrayList<>();
-        for (String groupName : item.getGroupNames()) {
-            // Add the group name to the list.
-            newGroupNames.add(groupName);
-
+        Set<String> newGroupNames = Collections.unmodifiableSet(new LinkedHashSet<>(item.getGroupNames()));
+        for (String groupName : newGroupNames) {
             // Add the entry to the group.
             RosterGroup group = getGroup(groupName);
             if (group == null) {
@@ -1390,18 +1542,19 @@ public final class Roster extends Manager {
             group.addEntryLocal(entry);
         }
 
-        // Remove user from the remaining groups.
-        List<String> oldGroupNames = new ArrayList<>();
-        for (RosterGroup group : getGroups()) {
-            oldGroupNames.add(group.getName());
+        // Remove user from the groups it no longer belongs to.
+        Set<String> oldGroupNames;
+        if (newGroupNames.isEmpty()) {
+            oldGroupNames = entryGroupNames.remove(item.getJid());
         }
-        oldGroupNames.removeAll(newGroupNames);
-
-        for (String groupName : oldGroupNames) {
-            RosterGroup group = getGroup(groupName);
-            group.removeEntryLocal(entry);
-            if (group.getEntryCount() == 0) {
-                groups.remove(groupName);
+        else {
+            oldGroupNames = entryGroupNames.put(item.getJid(), newGroupNames);
+        }
+        if (oldGroupNames != null) {
+            for (String groupName : oldGroupNames) {
+                if (!newGroupNames.contains(groupName)) {
+                    removeEntryFromGroup(groupName, entry);
+                }
             }
         }
     }
@@ -1411,16 +1564,47 @@ public final class Roster extends Manager {
         entries.remove(user);
         unfiledEntries.remove(entry);
         // Move the presences from the presenceMap to the nonRosterPresenceMap.
-        move(user, presenceMap, nonRosterPresenceMap);
+        moveToNonRosterPresences(user);
         deletedEntries.add(user);
 
-        for (Entry<String, RosterGroup> e : groups.entrySet()) {
-            RosterGroup group = e.getValue();
-            group.removeEntryLocal(entry);
-            if (group.getEntryCount() == 0) {
-                groups.remove(e.getKey());
+        Set<String> groupNames = entryGroupNames.remove(user);
+        if (groupNames != null) {
+            for (String groupName : groupNames) {
+                removeEntryFromGroup(groupName, entry);
+            }
+        }
+    }
+
+    private void removeEntryFromGroup(String groupName, RosterEntry entry) {
+        RosterGroup group = getGroup(groupName);
+        if (group == null) {
+            return;
+        }
+        group.removeEntryLocal(entry);
+        if (group.getEntryCount() == 0) {
+            groups.remove(groupName);
+        }
+    }
+
+    /**
+     * Get the groups the roster entry with the given JID belongs to.
+     *
+     * @param jid the JID of the roster entry.
+     * @return the groups of the roster entry.
+     */
+    List<RosterGroup> getGroupsOf(BareJid jid) {
+        Set<String> groupNames = entryGroupNames.get(jid);
+        if (groupNames == null) {
+            return new ArrayList<>();
+        }
+        List<RosterGroup> result = new ArrayList<>(groupNames.size());
+        for (String groupName : groupNames) {
+            RosterGroup group = getGroup(groupName);
+            if (group != null) {
+                result.add(group);
             }
         }
+        return result;
     }
 
     /**
@@ -1441,16 +1625,46 @@ public final class Roster extends Manager {
     }
 
     /**
-     * Move presences from 'entity' from one presence map to another.
+     * Move the presences of an entity which has been added to the roster from the non-roster presences to the roster
+     * presences. Presences which have been received after the entity was added are merged with the moved presences
+     * and take precedence.
      *
      * @param entity the entity
-     * @param from the map to move presences from
-     * @param to the map to move presences to
      */
-    private static void move(BareJid entity, Map<BareJid, Map<Resourcepart, Presence>> from, Map<BareJid, Map<Resourcepart, Presence>> to) {
-        Map<Resourcepart, Presence> presences = from.remove(entity);
-        if (presences != null && !presences.isEmpty()) {
-            to.put(entity, presences);
+    private void moveToRosterPresences(BareJid entity) {
+        ResourcePresences presences;
+        synchronized (nonRosterPresenceMap) {
+            presences = nonRosterPresenceMap.remove(entity);
+        }
+        if (presences == null || presences.isEmpty()) {
+            return;
+        }
+        while (true) {
+            ResourcePresences newerPresences = presenceMap.get(entity);
+            if (newerPresences == null) {
+                if (presenceMap.putIfAbsent(entity, presences) == null) {
+                    return;
+                }
+                continue;
+            }
+            if (presenceMap.replace(entity, newerPresences, presences.merge(newerPresences))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Move the presences of an entity which has been removed from the roster from the roster presences to the
+     * non-roster presences.
+     *
+     * @param entity the entity
+     */
+    private void moveToNonRosterPresences(BareJid entity) {
+        synchronized (nonRosterPresenceMap) {
+            ResourcePresences presences = presenceMap.remove(entity);
+            if (presences != null && !presences.isEmpty()) {
+                nonRosterPresenceMap.put(entity, presences);
+            }
         }
     }
 
@@ -1573,19 +1787,15 @@ public final class Roster extends Manager {
                             assert fullFrom != null;
                         }
                     }
-                    Map<Resourcepart, Presence> userPresences;
                     // If an "available" presence, add it to the presence map. Each presence
-                    // map will hold for a particular user a map with the presence
-                    // packets saved for each resource.
+                    // map will hold for a particular user the presence packets saved for
+                    // each resource.
                     switch (presence.getType()) {
                     case available:
-                        // Get the user presence map
-                        userPresences = getOrCreatePresencesInternal(key);
-                        // See if an offline presence was being stored in the map. If so, remove
-                        // it since we now have an online presence.
-                        userPresences.remove(Resourcepart.EMPTY);
-                        // Add the new presence, using the resources as a key.
-                        userPresences.put(fromResource, presence);
+                        // Add the new presence, using the resources as a key. If an offline presence
+                        // was being stored, remove it since we now have an online presence.
+                        updatePresencesInternal(key, fromResource, presence, ResourcePresences.Update.putAvailable);
+                        batchPresence(presence);
                         // If the user is in the roster, fire an event.
                         if (contains(key)) {
                             fireRosterPresenceEvent(presence);
@@ -1597,18 +1807,11 @@ public final class Roster extends Manager {
                     // If an "unavailable" packet.
                     case unavailable:
                         // If no resource, this is likely an offline presence as part of
-                        // a roster presence flood. In that case, we store it.
-                        userPresences = getOrCreatePresencesInternal(key);
-                        if (from.hasNoResource()) {
-                            // Get the user presence map
-                            userPresences.put(Resourcepart.EMPTY, presence);
-                        }
-                        // Otherwise, this is a normal offline presence.
-                        else {
-                            // Store the offline presence, as it may include extra information
-                            // such as the user being on vacation.
-                            userPresences.put(fromResource, presence);
-                        }
+                        // a roster presence flood. In that case, we store it under
+                        // Resourcepart.EMPTY. Otherwise, this is a normal offline presence. Store
+                        // it, as it may include extra information such as the user being on vacation.
+                        updatePresencesInternal(key, fromResource, presence, ResourcePresences.Update.put);
+                        batchPresence(presence);
                         // If the user is in the roster, fire an event.
                         if (contains(key)) {
                             fireRosterPresenceEvent(presence);
@@ -1640,12 +1843,11 @@ public final class Roster extends Manager {
                         if (from == null || !from.isEntityBareJid()) {
                             break;
                         }
-                        userPresences = getOrCreatePresencesInternal(key);
-                        // Any other presence data is invalidated by the error packet.
-                        userPresences.clear();
-
-                        // Set the new presence using the empty resource as a key.
-                        userPresences.put(Resourcepart.EMPTY, presence);
+                        // Any other presence data is invalidated by the error packet. Set the new presence
+                        // using the empty resource as a key.
+                        updatePresencesInternal(key, Resourcepart.EMPTY, presence,
+                                        ResourcePresences.Update.replaceAll);
+                        batchPresence(presence);
                         // If the user is in the roster, fire an event.
                         if (contains(key)) {
                             fireRosterPresenceEvent(presence);
@@ -1868,6 +2070,44 @@ public final class Roster extends Manager {
         defaultNonRosterPresenceMapMaxSize = maximumSize;
     }
 
+    /**
+     * Enable or disable the presence storm mode. In presence storm mode, {@link RosterListener#presenceChanged(Presence)}
+     * is not invoked for every single presence. Instead, the presence changes are collected for the given interval and
+     * only the latest presence of every address is reported. This is useful, for example, when thousands of presences
+     * are received right after login. Other listeners, e.g. {@link PresenceEventListener}s, are not affected.
+     *
+     * @param interval the interval in which presence changes are coalesced, or <code>0</code> to disable the presence
+     *        storm mode.
+     * @param unit the unit of the interval.
+     * @since 4.4.0
+     */
+    public void setPresenceStormMode(long interval, TimeUnit unit) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("The interval must not be negative");
+        }
+        if (interval == 0) {
+            presenceStormBatch = null;
+            return;
+        }
+        presenceStormBatch = new PresenceBatch(unit.toMillis(interval)) {
+            @Override
+            void deliver(final Map<Jid, Presence> presences) {
+                presenceBatchAsyncButOrdered.performAsyncButOrdered(this, new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (rosterListenersAndEntriesLock) {
+                            for (RosterListener listener : rosterListeners) {
+                                for (Presence presence : presences.values()) {
+                                    listener.presenceChanged(presence);
+                                }
+                            }
+                        }
+                    }
+                });
+            }
+        };
+    }
+
     /**
      * Set the maximum size of the non-Roster presence map.
      *
@@ -0,0 +1,376 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.roster.rosterstore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.advisoryapps.smack.roster.packet.RosterPacket.Item;
+import com.advisoryapps.smack.roster.packet.RosterPacket.ItemType;
+import com.advisoryapps.smack.util.RecordLog;
+
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.Jid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.jxmpp.stringprep.XmppStringprepException;
+
+/**
+ * Stores roster entries as specified by RFC 6121 for roster versioning in a single {@link RecordLog}.
+ * <p>
+ * All entries are held in memory, hence loading the store is a single sequential read of the log and every roster
+ * push results in a single append to it. Once the log contains considerably more records than there are entries, it
+ * is compacted by writing a snapshot of the current entries to a new file, which then replaces the log.
+ * </p>
+ * <p>
+ * Use {@link #migrate(RosterStore, File)} to migrate the entries of an existing store, e.g. a
+ * {@link DirectoryRosterStore}, to a new log file. The store keeps the log file open until it is
+ * {@link #close() closed}.
+ * </p>
+ *
+ * @since 4.4.0
+ */
+public final class LogRosterStore implements RosterStore, Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(LogRosterStore.class.getName());
+
+    /**
+     * The magic number "SMRL" at the beginning of the file.
+     */
+    private static final int MAGIC = 0x534d524c;
+
+    private static final int VERSION = 1;
+
+    private static final byte RECORD_TYPE_ITEM = 1;
+
+    private static final byte RECORD_TYPE_REMOVE = 2;
+
+    private static final byte RECORD_TYPE_VERSION = 3;
+
+    private static final byte FLAG_SUBSCRIPTION_PENDING = 0x01;
+
+    private static final byte FLAG_APPROVED = 0x02;
+
+    /**
+     * The number of obsolete records which are tolerated in the log regardless of the number of entries.
+     */
+    private static final int COMPACTION_MIN_OBSOLETE_RECORDS = 1000;
+
+    private final File file;
+
+    private final Map<BareJid, Item> entries = new LinkedHashMap<>();
+
+    private String rosterVersion = "";
+
+    /**
+     * The number of records in the log.
+     */
+    private int records;
+
+    private RecordLog log;
+
+    private LogRosterStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Creates a new, empty roster store in the given file. An existing file is replaced.
+     *
+     * @param file the file of the store.
+     * @return A {@link LogRosterStore} instance if successful, <code>null</code> else.
+     */
+    public static LogRosterStore init(File file) {
+        LogRosterStore store = new LogRosterStore(file);
+        if (!store.create()) {
+            return null;
+        }
+        return store;
+    }
+
+    /**
+     * Opens a roster store.
+     *
+     * @param file the file containing the roster store.
+     * @return A {@link LogRosterStore} instance if successful, <code>null</code> else.
+     */
+    public static LogRosterStore open(File file) {
+        final LogRosterStore store = new LogRosterStore(file);
+        try {
+            if (!file.isFile()) {
+                throw new FileNotFoundException(file + " does not exist");
+            }
+            store.log = RecordLog.open(file, MAGIC, VERSION, new RecordLog.RecordHandler() {
+                @Override
+                public void handleRecord(byte type, ByteBuffer payload, long payloadPosition) throws IOException {
+                    store.applyRecord(type, payload);
+                    store.records++;
+                }
+            });
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not open roster store " + file, e);
+            return null;
+        }
+        return store;
+    }
+
+    /**
+     * Creates a new roster store in the given file which contains the entries and the roster version of the given
+     * store.
+     *
+     * @param source the store to migrate.
+     * @param file the file of the new store.
+     * @return A {@link LogRosterStore} instance if successful, <code>null</code> else.
+     */
+    public static LogRosterStore migrate(RosterStore source, File file) {
+        List<Item> sourceEntries = source.getEntries();
+        String sourceVersion = source.getRosterVersion();
+        if (sourceEntries == null || sourceVersion == null) {
+            return null;
+        }
+        LogRosterStore store = new LogRosterStore(file);
+        for (Item item : sourceEntries) {
+            store.entries.put(item.getJid(), copy(item));
+        }
+        store.rosterVersion = sourceVersion;
+        if (!store.create()) {
+            return null;
+        }
+        return store;
+    }
+
+    private boolean create() {
+        try {
+            log = RecordLog.create(file, MAGIC, VERSION, snapshot(entries.values(), rosterVersion));
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Exception while creating roster store " + file, e);
+            return false;
+        }
+        records = entries.size() + 1;
+        return true;
+    }
+
+    private void applyRecord(byte type, ByteBuffer payload) throws XmppStringprepException {
+        String version = RecordLog.readString(payload);
+        switch (type) {
+        case RECORD_TYPE_ITEM:
+            Item item = readItem(payload);
+            entries.put(item.getJid(), item);
+            break;
+        case RECORD_TYPE_REMOVE:
+            entries.remove(JidCreate.bareFrom(RecordLog.readString(payload)));
+            break;
+        case RECORD_TYPE_VERSION:
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown record type " + type);
+        }
+        rosterVersion = version;
+    }
+
+    @Override
+    public synchronized List<Item> getEntries() {
+        List<Item> items = new ArrayList<>(entries.size());
+        for (Item item : entries.values()) {
+            items.add(copy(item));
+        }
+        return items;
+    }
+
+    @Override
+    public synchronized Item getEntry(Jid bareJid) {
+        Item item = entries.get(bareJid);
+        if (item == null) {
+            return null;
+        }
+        return copy(item);
+    }
+
+    @Override
+    public synchronized String getRosterVersion() {
+        return rosterVersion;
+    }
+
+    @Override
+    public synchronized boolean addEntry(Item item, String version) {
+        RecordLog.RecordBuilder record = new RecordLog.RecordBuilder();
+        writeItem(record.writeString(version), item).endRecord(RECORD_TYPE_ITEM);
+        if (!append(record)) {
+            return false;
+        }
+        entries.put(item.getJid(), copy(item));
+        rosterVersion = version;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean resetEntries(Collection<Item> items, String version) {
+        Map<BareJid, Item> newEntries = new LinkedHashMap<>(items.size());
+        for (Item item : items) {
+            newEntries.put(item.getJid(), copy(item));
+        }
+        if (!replaceLog(newEntries.values(), version)) {
+            return false;
+        }
+        entries.clear();
+        entries.putAll(newEntries);
+        rosterVersion = version;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeEntry(Jid bareJid, String version) {
+        if (!entries.containsKey(bareJid)) {
+            return false;
+        }
+        RecordLog.RecordBuilder record = new RecordLog.RecordBuilder();
+        record.writeString(version).writeString(bareJid.toString()).endRecord(RECORD_TYPE_REMOVE);
+        if (!append(record)) {
+            return false;
+        }
+        entries.remove(bareJid);
+        rosterVersion = version;
+        return true;
+    }
+
+    @Override
+    public synchronized void resetStore() {
+        resetEntries(new ArrayList<Item>(0), "");
+    }
+
+    /**
+     * Get the number of records in the log, which includes records made obsolete by later records.
+     *
+     * @return the number of records in the log.
+     */
+    public synchronized int getRecordsCount() {
+        return records;
+    }
+
+    /**
+     * Write a snapshot of the current entries to a new file, which then replaces the log. If compacting fails, then
+     * the log remains unchanged.
+     *
+     * @return <code>true</code> if successful.
+     */
+    public synchronized boolean compact() {
+        return replaceLog(entries.values(), rosterVersion);
+    }
+
+    /**
+     * Force all appended records to the storage device and close the store. Afterwards the store can be opened again
+     * with {@link #open(File)}.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        log.close();
+    }
+
+    private boolean replaceLog(Collection<Item> items, String version) {
+        try {
+            log.replace(snapshot(items, version));
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Exception while compacting roster store " + file, e);
+            return false;
+        }
+        records = items.size() + 1;
+        return true;
+    }
+
+    private boolean append(RecordLog.RecordBuilder record) {
+        try {
+            log.append(record.toByteArray());
+        }
+        catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Exception while appending to roster store " + file, e);
+            return false;
+        }
+        records++;
+        int obsoleteRecords = records - entries.size() - 1;
+        if (obsoleteRecords > COMPACTION_MIN_OBSOLETE_RECORDS && obsoleteRecords > entries.size()) {
+            // The record was appended successfully. A failed compaction is logged and retried with the next record.
+            compact();
+        }
+        return true;
+    }
+
+    private static byte[] snapshot(Collection<Item> items, String version) {
+        RecordLog.RecordBuilder snapshot = new RecordLog.RecordBuilder();
+        for (Item item : items) {
+            writeItem(snapshot.writeString(version), item).endRecord(RECORD_TYPE_ITEM);
+        }
+        snapshot.writeString(version).endRecord(RECORD_TYPE_VERSION);
+        return snapshot.toByteArray();
+    }
+
+    private static RecordLog.RecordBuilder writeItem(RecordLog.RecordBuilder payload, Item item) {
+        payload.writeString(item.getJid().toString());
+        payload.writeString(item.getName());
+        payload.writeString(item.getItemType().name());
+        byte flags = 0;
+        if (item.isSubscriptionPending()) {
+            flags |= FLAG_SUBSCRIPTION_PENDING;
+        }
+        if (item.isApproved()) {
+            flags |= FLAG_APPROVED;
+        }
+        payload.writeByte(flags);
+        payload.writeInt(item.getGroupNames().size());
+        for (String groupName : item.getGroupNames()) {
+            payload.writeString(groupName);
+        }
+        return payload;
+    }
+
+    private static Item readItem(ByteBuffer payload) throws XmppStringprepException {
+        BareJid jid = JidCreate.bareFrom(RecordLog.readString(payload));
+        String name = RecordLog.readString(payload);
+        ItemType itemType = ItemType.fromString(RecordLog.readString(payload));
+        byte flags = payload.get();
+        Item item = new Item(jid, name, (flags & FLAG_SUBSCRIPTION_PENDING) != 0);
+        item.setItemType(itemType);
+        item.setApproved((flags & FLAG_APPROVED) != 0);
+        int groupCount = payload.getInt();
+        for (int i = 0; i < groupCount; i++) {
+            item.addGroupName(RecordLog.readString(payload));
+        }
+        return item;
+    }
+
+    private static Item copy(Item item) {
+        Item copy = new Item(item.getJid(), item.getName(), item.isSubscriptionPending());
+        copy.setItemType(item.getItemType());
+        copy.setApproved(item.isApproved());
+        for (String groupName : item.getGroupNames()) {
+            copy.addGroupName(groupName);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.roster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.advisoryapps.smack.packet.Presence;
+
+import org.junit.Test;
+import org.jxmpp.jid.parts.Resourcepart;
+import org.jxmpp.stringprep.XmppStringprepException;
+
+public class ResourcePresencesTest {
+
+    @Test
+    public void availablePresenceReplacesOfflinePresence() throws XmppStringprepException {
+        Presence offline = new Presence(Presence.Type.unavailable);
+        ResourcePresences presences = ResourcePresences.EMPTY.update(Resourcepart.EMPTY, offline,
+                        ResourcePresences.Update.put, Integer.MAX_VALUE);
+        assertSame(offline, presences.get(Resourcepart.EMPTY));
+
+        Resourcepart orchard = Resourcepart.from("orchard");
+        Presence available = new Presence(Presence.Type.available);
+        ResourcePresences updated = presences.update(orchard, available, ResourcePresences.Update.putAvailable,
+                        Integer.MAX_VALUE);
+        assertEquals(1, updated.size());
+        assertSame(available, updated.get(orchard));
+        assertNull(updated.get(Resourcepart.EMPTY));
+        // Instances are immutable.
+        assertSame(offline, presences.get(Resourcepart.EMPTY));
+
+        Presence error = new Presence(Presence.Type.error);
+        updated = updated.update(Resourcepart.EMPTY, error, ResourcePresences.Update.replaceAll, Integer.MAX_VALUE);
+        assertEquals(1, updated.size());
+        assertSame(error, updated.get(Resourcepart.EMPTY));
+    }
+
+    @Test
+    public void oldestResourceIsDroppedWhenExceedingTheMaximum() throws XmppStringprepException {
+        ResourcePresences presences = ResourcePresences.EMPTY;
+        for (int i = 0; i < 5; i++) {
+            presences = presences.update(Resourcepart.from("resource" + i), new Presence(Presence.Type.available),
+                            ResourcePresences.Update.put, 3);
+        }
+        assertEquals(3, presences.size());
+        assertEquals(Resourcepart.from("resource2"), presences.getResource(0));
+        assertEquals(Resourcepart.from("resource4"), presences.getResource(2));
+
+        // Replacing the presence of an existing resource does not drop any resource.
+        Presence away = new Presence(Presence.Type.available);
+        away.setMode(Presence.Mode.away);
+        presences = presences.update(Resourcepart.from("resource3"), away, ResourcePresences.Update.put, 3);
+        assertEquals(3, presences.size());
+        assertSame(away, presences.get(Resourcepart.from("resource3")));
+    }
+
+    @Test
+    public void newerPresencesTakePrecedenceWhenMerging() throws XmppStringprepException {
+        Resourcepart orchard = Resourcepart.from("orchard");
+        Resourcepart garden = Resourcepart.from("garden");
+        ResourcePresences presences = ResourcePresences.EMPTY
+                        .update(Resourcepart.EMPTY, new Presence(Presence.Type.unavailable),
+                                        ResourcePresences.Update.put, Integer.MAX_VALUE)
+                        .update(orchard, new Presence(Presence.Type.available), ResourcePresences.Update.put,
+                                        Integer.MAX_VALUE);
+
+        Presence away = new Presence(Presence.Type.available);
+        away.setMode(Presence.Mode.away);
+        Presence available = new Presence(Presence.Type.available);
+        ResourcePresences newerPresences = ResourcePresences.EMPTY
+                        .update(orchard, away, ResourcePresences.Update.put, Integer.MAX_VALUE)
+                        .update(garden, available, ResourcePresences.Update.put, Integer.MAX_VALUE);
+
+        ResourcePresences merged = presences.merge(newerPresences);
+        assertEquals(2, merged.size());
+        assertSame(away, merged.get(orchard));
+        assertSame(available, merged.get(garden));
+        assertNull(merged.get(Resourcepart.EMPTY));
+    }
+}
@@ -25,10 +25,13 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import com.advisoryapps.smack.DummyConnection;
 import com.advisoryapps.smack.SmackException;
@@ -127,6 +130,110 @@ public class RosterTest extends InitSmackIm {
                 rosterListener.getUpdatedAddresses().size());
     }
 
+    /**
+     * Tests that presence changes are coalesced in presence storm mode and that the presences are stored per
+     * resource.
+     */
+    @Test
+    public void testPresenceStormMode() throws Throwable {
+        initRoster();
+        final List<Presence> changedPresences = new CopyOnWriteArrayList<>();
+        roster.addRosterListener(new AbstractRosterListener() {
+            @Override
+            public void presenceChanged(Presence presence) {
+                changedPresences.add(presence);
+            }
+        });
+        roster.setPresenceStormMode(200, TimeUnit.MILLISECONDS);
+
+        connection.processStanza(presence("romeo@example.net/orchard", Presence.Type.available, null));
+        connection.processStanza(presence("romeo@example.net/orchard", Presence.Type.available, Presence.Mode.away));
+        connection.processStanza(presence("romeo@example.net/garden", Presence.Type.available, null));
+        connection.processStanza(presence("mercutio@example.com/street", Presence.Type.unavailable, null));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (changedPresences.size() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // Give further, superfluous, invocations of the listener a chance to happen.
+        Thread.sleep(300);
+
+        assertEquals(3, changedPresences.size());
+        // Presences of different entities are processed concurrently, hence only the order per entity is defined.
+        List<Jid> changedAddresses = new ArrayList<>();
+        for (Presence presence : changedPresences) {
+            changedAddresses.add(presence.getFrom());
+        }
+        int orchard = changedAddresses.indexOf(JidCreate.from("romeo@example.net/orchard"));
+        assertTrue(orchard >= 0);
+        assertTrue(orchard < changedAddresses.indexOf(JidCreate.from("romeo@example.net/garden")));
+        assertEquals(Presence.Mode.away, changedPresences.get(orchard).getMode());
+        assertTrue(changedAddresses.contains(JidCreate.from("mercutio@example.com/street")));
+
+        BareJid romeo = JidCreate.bareFrom("romeo@example.net");
+        assertEquals(2, roster.getAvailablePresences(romeo).size());
+        assertEquals(Presence.Mode.away,
+                        roster.getPresenceResource(JidCreate.fullFrom("romeo@example.net/orchard")).getMode());
+        assertFalse(roster.getPresence(JidCreate.bareFrom("mercutio@example.com")).isAvailable());
+    }
+
+    /**
+     * Tests that batched presence listeners receive the latest presence of every address, while other listeners
+     * still receive every presence.
+     */
+    @Test
+    public void testBatchedPresenceListener() throws Throwable {
+        initRoster();
+        final List<Map<Jid, Presence>> batches = new CopyOnWriteArrayList<>();
+        BatchedPresenceListener batchedPresenceListener = new BatchedPresenceListener() {
+            @Override
+            public void presencesChanged(Map<Jid, Presence> presences) {
+                batches.add(presences);
+            }
+        };
+        assertTrue(roster.addBatchedPresenceListener(batchedPresenceListener, 200, TimeUnit.MILLISECONDS));
+        final List<Presence> changedPresences = new CopyOnWriteArrayList<>();
+        roster.addRosterListener(new AbstractRosterListener() {
+            @Override
+            public void presenceChanged(Presence presence) {
+                changedPresences.add(presence);
+            }
+        });
+
+        connection.processStanza(presence("romeo@example.net/orchard", Presence.Type.available, null));
+        connection.processStanza(presence("juliet@example.com/balcony", Presence.Type.available, null));
+        connection.processStanza(presence("romeo@example.net/orchard", Presence.Type.unavailable, null));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (batches.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, batches.size());
+        Map<Jid, Presence> batch = batches.get(0);
+        assertEquals(2, batch.size());
+        assertEquals(Presence.Type.unavailable, batch.get(JidCreate.from("romeo@example.net/orchard")).getType());
+        // Presences of entities not in the roster are batched too.
+        assertTrue(batch.containsKey(JidCreate.from("juliet@example.com/balcony")));
+        // Roster listeners are not affected.
+        assertEquals(2, changedPresences.size());
+
+        assertTrue(roster.removeBatchedPresenceListener(batchedPresenceListener));
+        connection.processStanza(presence("romeo@example.net/orchard", Presence.Type.available, null));
+        Thread.sleep(300);
+        assertEquals(1, batches.size());
+    }
+
+    private static Presence presence(String from, Presence.Type type, Presence.Mode mode)
+                    throws XmppStringprepException {
+        Presence presence = new Presence(type);
+        presence.setFrom(JidCreate.from(from));
+        if (mode != null) {
+            presence.setMode(mode);
+        }
+        return presence;
+    }
+
     /**
      * Test adding a roster item according to the example in
      * <a href="http://xmpp.org/rfcs/rfc3921.html#roster-add"
@@ -367,6 +474,64 @@ public class RosterTest extends InitSmackIm {
         assertSame("Wrong number of roster entries.", 4, roster.getEntries().size());
     }
 
+    /**
+     * Tests that the groups and the unfiled entries follow roster pushes which move an entry between groups.
+     */
+    @Test
+    public void testGroupMembershipFollowsRosterPushes() throws Throwable {
+        initRoster();
+        final BareJid romeoJid = JidCreate.entityBareFrom("romeo@example.net");
+        final BareJid mercutioJid = JidCreate.entityBareFrom("mercutio@example.com");
+
+        rosterListener.reset();
+        connection.processStanza(rosterPush(romeoJid, ItemType.both, "Family", "Montagues"));
+        rosterListener.waitUntilInvocationOrTimeout();
+
+        assertNull(roster.getGroup("Friends"));
+        assertEquals(2, roster.getGroupCount());
+        assertTrue(roster.getGroup("Family").contains(romeoJid));
+        assertTrue(roster.getGroup("Montagues").contains(romeoJid));
+        assertEquals(2, roster.getEntry(romeoJid).getGroups().size());
+        assertEquals(2, roster.getUnfiledEntryCount());
+
+        rosterListener.reset();
+        connection.processStanza(rosterPush(mercutioJid, ItemType.from, "Montagues"));
+        rosterListener.waitUntilInvocationOrTimeout();
+
+        assertEquals(2, roster.getGroup("Montagues").getEntryCount());
+        assertEquals(1, roster.getUnfiledEntryCount());
+
+        rosterListener.reset();
+        connection.processStanza(rosterPush(romeoJid, ItemType.both));
+        rosterListener.waitUntilInvocationOrTimeout();
+
+        assertNull(roster.getGroup("Family"));
+        assertEquals(1, roster.getGroupCount());
+        assertEquals(0, roster.getEntry(romeoJid).getGroups().size());
+        assertEquals(2, roster.getUnfiledEntryCount());
+
+        rosterListener.reset();
+        connection.processStanza(rosterPush(mercutioJid, ItemType.remove));
+        rosterListener.waitUntilInvocationOrTimeout();
+
+        assertEquals(0, roster.getGroupCount());
+        assertEquals(2, roster.getUnfiledEntryCount());
+        assertEquals(2, roster.getEntryCount());
+    }
+
+    private RosterPacket rosterPush(BareJid jid, ItemType itemType, String... groupNames) {
+        final RosterPacket rosterPush = new RosterPacket();
+        rosterPush.setType(Type.set);
+        rosterPush.setTo(connection.getUser());
+        final Item item = new Item(jid, null);
+        item.setItemType(itemType);
+        for (String groupName : groupNames) {
+            item.addGroupName(groupName);
+        }
+        rosterPush.addRosterItem(item);
+        return rosterPush;
+    }
+
     /**
      * Tests that roster pushes with invalid from are ignored.
      * @throws XmppStringprepException if the provided string is invalid.
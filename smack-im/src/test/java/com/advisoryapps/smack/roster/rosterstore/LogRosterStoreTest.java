@@ -0,0 +1,201 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.roster.rosterstore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.advisoryapps.smack.roster.packet.RosterPacket.Item;
+import com.advisoryapps.smack.roster.packet.RosterPacket.ItemType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jxmpp.jid.BareJid;
+import org.jxmpp.jid.JidTestUtil;
+import org.jxmpp.jid.impl.JidCreate;
+
+/**
+ * Tests the implementation of {@link LogRosterStore}.
+ */
+public class LogRosterStoreTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testStoreUninitialized() throws IOException {
+        File storeFile = new File(tmpFolder.newFolder(), "roster");
+        assertNull(LogRosterStore.open(storeFile));
+    }
+
+    @Test
+    public void testEntriesSurviveReopening() throws IOException {
+        File storeFile = tmpFolder.newFile();
+        LogRosterStore store = LogRosterStore.init(storeFile);
+        assertNotNull(store);
+        assertEquals("", store.getRosterVersion());
+        assertEquals(0, store.getEntries().size());
+
+        Item item1 = new Item(JidTestUtil.BARE_JID_1, "Foo Bar", true);
+        item1.addGroupName("The Foo Fighters");
+        item1.addGroupName("Bar Friends");
+        item1.setItemType(ItemType.both);
+        item1.setApproved(true);
+        assertTrue(store.addEntry(item1, "1"));
+        assertTrue(store.addEntry(new Item(JidTestUtil.BARE_JID_2, null), "2"));
+        assertTrue(store.addEntry(new Item(JidTestUtil.DUMMY_AT_EXAMPLE_ORG, "Ursula Example"), "3"));
+        assertTrue(store.removeEntry(JidTestUtil.BARE_JID_2, "4"));
+        store.close();
+
+        store = LogRosterStore.open(storeFile);
+        assertNotNull(store);
+        assertEquals("4", store.getRosterVersion());
+        assertEquals(2, store.getEntries().size());
+        assertNull(store.getEntry(JidTestUtil.BARE_JID_2));
+
+        Item storedItem = store.getEntry(JidTestUtil.BARE_JID_1);
+        assertEquals(item1.getJid(), storedItem.getJid());
+        assertEquals(item1.getName(), storedItem.getName());
+        assertEquals(item1.getGroupNames(), storedItem.getGroupNames());
+        assertEquals(item1.getItemType(), storedItem.getItemType());
+        assertEquals(item1.isSubscriptionPending(), storedItem.isSubscriptionPending());
+        assertEquals(item1.isApproved(), storedItem.isApproved());
+    }
+
+    @Test
+    public void testClosedStoreCanBeReopened() throws IOException {
+        File storeFile = tmpFolder.newFile();
+        LogRosterStore store = LogRosterStore.init(storeFile);
+        assertTrue(store.addEntry(new Item(JidTestUtil.BARE_JID_1, "Foo"), "1"));
+        store.close();
+
+        // Appending to a closed store fails, but leaves the store unchanged.
+        assertFalse(store.addEntry(new Item(JidTestUtil.BARE_JID_2, "Bar"), "2"));
+        assertEquals("1", store.getRosterVersion());
+
+        LogRosterStore reopenedStore = LogRosterStore.open(storeFile);
+        assertNotNull(reopenedStore);
+        assertEquals("1", reopenedStore.getRosterVersion());
+        assertEquals(1, reopenedStore.getEntries().size());
+        assertTrue(reopenedStore.addEntry(new Item(JidTestUtil.BARE_JID_2, "Bar"), "2"));
+        reopenedStore.close();
+
+        reopenedStore = LogRosterStore.open(storeFile);
+        assertEquals("2", reopenedStore.getRosterVersion());
+        assertEquals(2, reopenedStore.getEntries().size());
+        reopenedStore.close();
+    }
+
+    @Test
+    public void testIncompleteTrailingRecordIsDiscarded() throws IOException {
+        File storeFile = tmpFolder.newFile();
+        LogRosterStore store = LogRosterStore.init(storeFile);
+        store.addEntry(new Item(JidTestUtil.BARE_JID_1, "Foo"), "1");
+        store.addEntry(new Item(JidTestUtil.BARE_JID_2, "Bar"), "2");
+        store.close();
+
+        // Simulate a crash while the second entry was appended.
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(storeFile, "rw")) {
+            randomAccessFile.setLength(randomAccessFile.length() - 3);
+        }
+
+        store = LogRosterStore.open(storeFile);
+        assertNotNull(store);
+        assertEquals("1", store.getRosterVersion());
+        assertEquals(1, store.getEntries().size());
+        assertTrue(store.addEntry(new Item(JidTestUtil.BARE_JID_2, "Bar"), "2"));
+        store.close();
+
+        store = LogRosterStore.open(storeFile);
+        assertEquals("2", store.getRosterVersion());
+        assertEquals(2, store.getEntries().size());
+    }
+
+    @Test
+    public void testLogIsCompacted() throws IOException {
+        File storeFile = tmpFolder.newFile();
+        LogRosterStore store = LogRosterStore.init(storeFile);
+        BareJid jid = JidTestUtil.BARE_JID_1;
+        for (int i = 0; i < 2000; i++) {
+            assertTrue(store.addEntry(new Item(jid, "Name " + i), Integer.toString(i)));
+        }
+        assertTrue(store.getRecordsCount() < 1100);
+        store.close();
+
+        store = LogRosterStore.open(storeFile);
+        assertEquals("1999", store.getRosterVersion());
+        assertEquals("Name 1999", store.getEntry(jid).getName());
+    }
+
+    @Test
+    public void testFailedCompactionLeavesStoreWritable() throws IOException {
+        File storeFile = tmpFolder.newFile();
+        LogRosterStore store = LogRosterStore.init(storeFile);
+        assertTrue(store.addEntry(new Item(JidTestUtil.BARE_JID_1, "Foo"), "1"));
+
+        // The snapshot can not be written, as its temporary file is blocked by a directory.
+        File tempFile = new File(storeFile.getPath() + ".tmp");
+        assertTrue(tempFile.mkdir());
+        List<Item> items = new ArrayList<>();
+        items.add(new Item(JidTestUtil.BARE_JID_2, "Bar"));
+        assertFalse(store.resetEntries(items, "2"));
+        assertFalse(store.compact());
+        assertEquals("1", store.getRosterVersion());
+        assertEquals(1, store.getEntries().size());
+
+        assertTrue(tempFile.delete());
+        assertTrue(store.addEntry(new Item(JidTestUtil.DUMMY_AT_EXAMPLE_ORG, "Baz"), "3"));
+        store.close();
+
+        store = LogRosterStore.open(storeFile);
+        assertEquals("3", store.getRosterVersion());
+        assertEquals(2, store.getEntries().size());
+        assertNotNull(store.getEntry(JidTestUtil.BARE_JID_1));
+    }
+
+    @Test
+    public void testMigrationFromDirectoryRosterStore() throws IOException {
+        DirectoryRosterStore directoryRosterStore = DirectoryRosterStore.init(tmpFolder.newFolder());
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Item item = new Item(JidCreate.bareFrom("contact" + i + "@example.org"), "Contact " + i);
+            item.addGroupName("Contacts");
+            items.add(item);
+        }
+        directoryRosterStore.resetEntries(items, "42");
+
+        File storeFile = tmpFolder.newFile();
+        LogRosterStore store = LogRosterStore.migrate(directoryRosterStore, storeFile);
+        assertNotNull(store);
+        store.close();
+
+        store = LogRosterStore.open(storeFile);
+        assertEquals("42", store.getRosterVersion());
+        assertEquals(10, store.getEntries().size());
+        assertEquals("Contact 3", store.getEntry(JidCreate.bareFrom("contact3@example.org")).getName());
+    }
+}
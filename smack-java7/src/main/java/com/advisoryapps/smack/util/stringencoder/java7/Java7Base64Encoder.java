@@ -18,6 +18,8 @@ package com.advisoryapps.smack.util.stringencoder.java7;
 
 import java.util.Base64;
 
+import com.advisoryapps.smack.util.stringencoder.Base64CharSequence;
+
 /**
  * A Base 64 encoding implementation.
  * @author Florian Schmaus
@@ -60,4 +62,9 @@ public final class Java7Base64Encoder implements com.advisoryapps.smack.util.str
     public byte[] encode(byte[] input) {
         return encoder.encode(input);
     }
+
+    @Override
+    public CharSequence encodeToCharSequence(byte[] input) {
+        return new Base64CharSequence(input);
+    }
 }
@@ -25,6 +25,7 @@ public final class OmemoConfiguration {
 
     private static boolean IGNORE_READ_ONLY_DEVICES = true;
     private static int MAX_READ_ONLY_MESSAGE_COUNT = 400;
+    private static long BUNDLE_CACHE_LIFETIME = 5 * 60 * 1000;
 
     /**
      * Set to true, in order to ignore read-only devices.
@@ -239,4 +240,27 @@ public final class OmemoConfiguration {
     public static void setCompleteSessionWithEmptyMessage(boolean complete) {
         COMPLETE_SESSION_WITH_EMPTY_MESSAGE = complete;
     }
+
+    /**
+     * Set for how long fetched bundles of contacts devices are cached, so that building sessions with several devices
+     * does not fetch the same bundle twice. Bundles fetched to repair a broken session are never taken from the cache.
+     * A lifetime of 0 disables the cache.
+     *
+     * @param lifetime the lifetime of cached bundles in milliseconds.
+     */
+    public static void setBundleCacheLifetime(long lifetime) {
+        if (lifetime < 0) {
+            throw new IllegalArgumentException("Bundle cache lifetime MUST NOT be negative.");
+        }
+        BUNDLE_CACHE_LIFETIME = lifetime;
+    }
+
+    /**
+     * Get for how long fetched bundles of contacts devices are cached.
+     *
+     * @return the lifetime of cached bundles in milliseconds, or 0 if bundles are not cached.
+     */
+    public static long getBundleCacheLifetime() {
+        return BUNDLE_CACHE_LIFETIME;
+    }
 }
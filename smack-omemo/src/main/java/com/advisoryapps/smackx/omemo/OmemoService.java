@@ -30,8 +30,10 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,11 +42,14 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 
 import com.advisoryapps.smack.SmackException;
+import com.advisoryapps.smack.SmackFuture;
 import com.advisoryapps.smack.XMPPConnection;
 import com.advisoryapps.smack.XMPPException;
+import com.advisoryapps.smack.packet.IQ;
 import com.advisoryapps.smack.packet.Message;
 import com.advisoryapps.smack.packet.Stanza;
 import com.advisoryapps.smack.packet.StanzaError;
+import com.advisoryapps.smack.util.LastDuration;
 import com.advisoryapps.smackx.carbons.packet.CarbonExtension;
 import com.advisoryapps.smackx.mam.MamManager;
 import com.advisoryapps.smackx.muc.MultiUserChat;
@@ -75,15 +80,20 @@ import com.advisoryapps.smackx.omemo.util.MessageOrOmemoMessage;
 import com.advisoryapps.smackx.omemo.util.OmemoConstants;
 import com.advisoryapps.smackx.omemo.util.OmemoMessageBuilder;
 import com.advisoryapps.smackx.pep.PepManager;
+import com.advisoryapps.smackx.pubsub.GetItemsRequest;
+import com.advisoryapps.smackx.pubsub.ItemsExtension;
 import com.advisoryapps.smackx.pubsub.LeafNode;
 import com.advisoryapps.smackx.pubsub.PayloadItem;
+import com.advisoryapps.smackx.pubsub.PubSubElementType;
 import com.advisoryapps.smackx.pubsub.PubSubException;
 import com.advisoryapps.smackx.pubsub.PubSubException.NotALeafNodeException;
 import com.advisoryapps.smackx.pubsub.PubSubManager;
+import com.advisoryapps.smackx.pubsub.packet.PubSub;
 
 import org.jxmpp.jid.BareJid;
 import org.jxmpp.jid.EntityBareJid;
 import org.jxmpp.jid.Jid;
+import org.jxmpp.util.cache.ExpirationCache;
 
 /**
  * This class contains OMEMO related logic and registers listeners etc.
@@ -114,6 +124,21 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
     private OmemoStore<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey, T_Sess, T_Addr, T_ECPub, T_Bundle, T_Ciph> omemoStore;
     private final HashMap<OmemoManager, OmemoRatchet<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey, T_Sess, T_Addr, T_ECPub, T_Bundle, T_Ciph>> omemoRatchets = new HashMap<>();
 
+    /**
+     * Recently fetched bundles of contacts devices. See {@link OmemoConfiguration#setBundleCacheLifetime(long)}.
+     */
+    private final ExpirationCache<OmemoDevice, OmemoBundleElement> bundleCache = new ExpirationCache<>(1000,
+            OmemoConfiguration.getBundleCacheLifetime());
+
+    private final AtomicLong bundlesFetched = new AtomicLong();
+    private final AtomicLong bundleCacheHits = new AtomicLong();
+    private final AtomicLong sessionsBuilt = new AtomicLong();
+    private final AtomicLong failedSessions = new AtomicLong();
+
+    private final LastDuration bundleFetchDuration = new LastDuration();
+    private final LastDuration sessionBuildDuration = new LastDuration();
+    private final LastDuration messageEncryptionDuration = new LastDuration();
+
     /**
      * Create a new OmemoService object. This should only happen once.
      */
@@ -355,15 +380,18 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
         // Do not encrypt for our own device.
         removeOurDevice(userDevice, contactsDevices);
 
-        buildMissingSessionsWithDevices(manager.getConnection(), userDevice, contactsDevices);
+        // Keep track of skipped devices
+        HashMap<OmemoDevice, Throwable> skippedRecipients = new HashMap<>();
+
+        Set<OmemoDevice> devicesWithSession = buildMissingSessionsWithDevices(manager.getConnection(), userDevice,
+                contactsDevices, skippedRecipients);
 
         Set<OmemoDevice> undecidedDevices = getUndecidedDevices(userDevice, manager.getTrustCallback(), contactsDevices);
         if (!undecidedDevices.isEmpty()) {
             throw new UndecidedOmemoIdentityException(undecidedDevices);
         }
 
-        // Keep track of skipped devices
-        HashMap<OmemoDevice, Throwable> skippedRecipients = new HashMap<>();
+        final long encryptionStart = LastDuration.start();
 
         OmemoMessageBuilder<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey, T_Sess, T_Addr, T_ECPub, T_Bundle, T_Ciph> builder;
         try {
@@ -375,15 +403,9 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
         }
 
         for (OmemoDevice contactsDevice : contactsDevices) {
-            // Build missing sessions
-            if (!hasSession(userDevice, contactsDevice)) {
-                try {
-                    buildFreshSessionWithDevice(manager.getConnection(), userDevice, contactsDevice);
-                } catch (CorruptedOmemoKeyException | CannotEstablishOmemoSessionException e) {
-                    LOGGER.log(Level.WARNING, "Could not build session with " + contactsDevice + ".", e);
-                    skippedRecipients.put(contactsDevice, e);
-                    continue;
-                }
+            // Skip devices we could not build a session with. The reason was recorded in skippedRecipients.
+            if (!devicesWithSession.contains(contactsDevice)) {
+                continue;
             }
 
             int messageCounter = omemoStore.loadOmemoMessageCounter(userDevice, contactsDevice);
@@ -428,6 +450,8 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
 
         OmemoElement element = builder.finish();
 
+        messageEncryptionDuration.stop(encryptionStart);
+
         return new OmemoMessage.Sent(element, messageKey, iv, contactsDevices, skippedRecipients);
     }
 
@@ -574,6 +598,66 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
         return bundleItems.get(bundleItems.size() - 1).getPayload();
     }
 
+    /**
+     * Retrieve the OMEMO bundles of several devices at once. All requests are sent before waiting for the first
+     * response, so that fetching the bundles takes about one round trip instead of one per device. Unlike
+     * {@link #fetchBundle(XMPPConnection, OmemoDevice)}, the items of the bundle nodes are requested directly, without
+     * discovering the type of the nodes first.
+     *
+     * @param connection authenticated XMPP connection.
+     * @param contactsDevices devices of which we want to retrieve the bundles.
+     * @param failures map which gets filled with the devices whose bundle could not be retrieved and the reasons why.
+     * @return the bundles of all devices whose bundle could be retrieved.
+     * @throws SmackException.NotConnectedException if the XMPP connection is not connected.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    static Map<OmemoDevice, OmemoBundleElement> fetchBundles(XMPPConnection connection,
+                                                             Collection<OmemoDevice> contactsDevices,
+                                                             Map<OmemoDevice, Throwable> failures)
+            throws SmackException.NotConnectedException, InterruptedException {
+
+        Map<OmemoDevice, SmackFuture<IQ, Exception>> futures = new HashMap<>();
+        for (OmemoDevice contactsDevice : contactsDevices) {
+            PubSub request = PubSub.createPubsubPacket(contactsDevice.getJid(), IQ.Type.get,
+                    new GetItemsRequest(contactsDevice.getBundleNodeName()));
+            futures.put(contactsDevice, connection.sendIqRequestAsync(request));
+        }
+
+        Map<OmemoDevice, OmemoBundleElement> bundles = new HashMap<>();
+        for (Map.Entry<OmemoDevice, SmackFuture<IQ, Exception>> entry : futures.entrySet()) {
+            OmemoDevice contactsDevice = entry.getKey();
+            OmemoBundleElement bundle = null;
+            try {
+                IQ response = entry.getValue().getOrThrow();
+                ItemsExtension items = response.getExtension(PubSubElementType.ITEMS.getElementName(),
+                        PubSubElementType.ITEMS.getNamespace().getXmlns());
+                if (items != null && !items.getItems().isEmpty()) {
+                    Object item = items.getItems().get(items.getItems().size() - 1);
+                    if (item instanceof PayloadItem && ((PayloadItem<?>) item).getPayload() instanceof OmemoBundleElement) {
+                        bundle = (OmemoBundleElement) ((PayloadItem<?>) item).getPayload();
+                    }
+                }
+            }
+            catch (SmackException.NoResponseException | XMPPException.XMPPErrorException e) {
+                failures.put(contactsDevice, new CannotEstablishOmemoSessionException(contactsDevice, e));
+                continue;
+            }
+            catch (SmackException.NotConnectedException | InterruptedException | RuntimeException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+
+            if (bundle == null) {
+                failures.put(contactsDevice, new CannotEstablishOmemoSessionException(contactsDevice, null));
+                continue;
+            }
+            bundles.put(contactsDevice, bundle);
+        }
+        return bundles;
+    }
+
     /**
      * Publish the given OMEMO bundle to the server using PubSub.
      * @param connection our connection.
@@ -780,55 +864,132 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
                 PubSubException.NotAPubSubNodeException e) {
             throw new CannotEstablishOmemoSessionException(contactsDevice, e);
         }
+        if (bundleElement == null) {
+            throw new CannotEstablishOmemoSessionException(contactsDevice, null);
+        }
+        bundlesFetched.incrementAndGet();
+        cacheBundle(contactsDevice, bundleElement);
 
-        // Select random Bundle
-        HashMap<Integer, T_Bundle> bundlesList = getOmemoStoreBackend().keyUtil().BUNDLE.bundles(bundleElement, contactsDevice);
-        int randomIndex = new Random().nextInt(bundlesList.size());
-        T_Bundle randomPreKeyBundle = new ArrayList<>(bundlesList.values()).get(randomIndex);
-
-        // build the session
         OmemoManager omemoManager = OmemoManager.getInstanceFor(connection, userDevice.getDeviceId());
-        processBundle(omemoManager, randomPreKeyBundle, contactsDevice);
+        buildSessionFromBundle(omemoManager, contactsDevice, bundleElement);
+    }
+
+    /**
+     * Build a fresh session with the contacts device from one randomly selected preKey of its bundle.
+     *
+     * @param omemoManager our OmemoManager
+     * @param contactsDevice OmemoDevice of a contact.
+     * @param bundleElement the bundle of the contacts device.
+     * @throws CorruptedOmemoKeyException if the bundle is corrupted.
+     */
+    private void buildSessionFromBundle(OmemoManager omemoManager, OmemoDevice contactsDevice,
+                                        OmemoBundleElement bundleElement)
+            throws CorruptedOmemoKeyException {
+
+        try {
+            // Select random Bundle
+            HashMap<Integer, T_Bundle> bundlesList = getOmemoStoreBackend().keyUtil().BUNDLE.bundles(bundleElement, contactsDevice);
+            int randomIndex = new Random().nextInt(bundlesList.size());
+            T_Bundle randomPreKeyBundle = new ArrayList<>(bundlesList.values()).get(randomIndex);
+
+            // build the session
+            processBundle(omemoManager, randomPreKeyBundle, contactsDevice);
+        } catch (CorruptedOmemoKeyException e) {
+            // Do not try the same bundle again.
+            bundleCache.remove(contactsDevice);
+            failedSessions.incrementAndGet();
+            throw e;
+        }
+        sessionsBuilt.incrementAndGet();
     }
 
     /**
      * Build sessions with all devices from the set, we don't have a session with yet.
      * Return the set of all devices we have a session with afterwards.
+     * The bundles of all those devices are fetched concurrently, recently fetched bundles are taken from the cache.
+     *
      * @param connection authenticated XMPP connection
      * @param userDevice our OmemoDevice
      * @param devices set of devices we may want to build a session with if necessary
+     * @param failures map which gets filled with the devices we could not build a session with and the reasons why
      * @return set of all devices with sessions
      *
      * @throws SmackException.NotConnectedException if the XMPP connection is not connected.
      * @throws InterruptedException if the calling thread was interrupted.
-     * @throws SmackException.NoResponseException if there was no response from the remote entity.
      * @throws IOException if an I/O error occured.
      */
     private Set<OmemoDevice> buildMissingSessionsWithDevices(XMPPConnection connection,
                                                              OmemoDevice userDevice,
-                                                             Set<OmemoDevice> devices)
-            throws SmackException.NotConnectedException, InterruptedException, SmackException.NoResponseException, IOException {
+                                                             Set<OmemoDevice> devices,
+                                                             Map<OmemoDevice, Throwable> failures)
+            throws SmackException.NotConnectedException, InterruptedException, IOException {
 
         Set<OmemoDevice> devicesWithSession = new HashSet<>();
+        Map<OmemoDevice, OmemoBundleElement> bundles = new HashMap<>();
+        List<OmemoDevice> devicesToFetch = new ArrayList<>();
         for (OmemoDevice device : devices) {
 
-            if (hasSession(userDevice, device)) {
+            // Do not build a session with yourself.
+            if (device.equals(userDevice) || hasSession(userDevice, device)) {
                 devicesWithSession.add(device);
                 continue;
             }
 
+            OmemoBundleElement cachedBundle = lookupCachedBundle(device);
+            if (cachedBundle != null) {
+                bundles.put(device, cachedBundle);
+                bundleCacheHits.incrementAndGet();
+            } else {
+                devicesToFetch.add(device);
+            }
+        }
+
+        if (bundles.isEmpty() && devicesToFetch.isEmpty()) {
+            return devicesWithSession;
+        }
+
+        final int cachedBundles = bundles.size();
+        final long fetchStart = LastDuration.start();
+        if (!devicesToFetch.isEmpty()) {
+            Map<OmemoDevice, OmemoBundleElement> fetchedBundles = fetchBundles(connection, devicesToFetch, failures);
+            for (Map.Entry<OmemoDevice, OmemoBundleElement> entry : fetchedBundles.entrySet()) {
+                cacheBundle(entry.getKey(), entry.getValue());
+            }
+            bundlesFetched.addAndGet(fetchedBundles.size());
+            bundles.putAll(fetchedBundles);
+
+            for (OmemoDevice device : devicesToFetch) {
+                if (failures.containsKey(device)) {
+                    LOGGER.log(Level.WARNING, userDevice + " cannot establish session with " + device +
+                            " because their bundle could not be fetched.", failures.get(device));
+                    failedSessions.incrementAndGet();
+                }
+            }
+        }
+        long bundleFetchTime = bundleFetchDuration.stop(fetchStart);
+        final long buildStart = LastDuration.start();
+
+        // Processing the bundles modifies the OmemoStore, which is not thread-safe, hence this is done sequentially.
+        OmemoManager omemoManager = OmemoManager.getInstanceFor(connection, userDevice.getDeviceId());
+        int builtSessions = 0;
+        for (Map.Entry<OmemoDevice, OmemoBundleElement> entry : bundles.entrySet()) {
+            OmemoDevice device = entry.getKey();
             try {
-                buildFreshSessionWithDevice(connection, userDevice, device);
+                buildSessionFromBundle(omemoManager, device, entry.getValue());
                 devicesWithSession.add(device);
-            } catch (CannotEstablishOmemoSessionException e) {
-                LOGGER.log(Level.WARNING, userDevice + " cannot establish session with " + device +
-                        " because their bundle could not be fetched.", e);
+                builtSessions++;
             } catch (CorruptedOmemoKeyException e) {
                 LOGGER.log(Level.WARNING, userDevice + " could not establish session with " + device +
-                        "because their bundle seems to be corrupt.", e);
+                        " because their bundle seems to be corrupt.", e);
+                failures.put(device, e);
             }
-
         }
+        long sessionBuildTime = sessionBuildDuration.stop(buildStart);
+
+        LOGGER.log(Level.FINE, userDevice + " built " + builtSessions + " of " + (cachedBundles + devicesToFetch.size())
+                + " missing sessions. Fetching " + devicesToFetch.size() + " bundles took " + bundleFetchTime
+                + "ms (" + cachedBundles + " bundles were cached), building the sessions took "
+                + sessionBuildTime + "ms.");
 
         return devicesWithSession;
     }
@@ -878,6 +1039,37 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
         return getOmemoStoreBackend().loadRawSession(userDevice, contactsDevice) != null;
     }
 
+    private OmemoBundleElement lookupCachedBundle(OmemoDevice contactsDevice) {
+        if (OmemoConfiguration.getBundleCacheLifetime() <= 0) {
+            return null;
+        }
+        return bundleCache.lookup(contactsDevice);
+    }
+
+    private void cacheBundle(OmemoDevice contactsDevice, OmemoBundleElement bundle) {
+        long lifetime = OmemoConfiguration.getBundleCacheLifetime();
+        if (lifetime <= 0) {
+            return;
+        }
+        bundleCache.put(contactsDevice, bundle, lifetime);
+    }
+
+    /**
+     * Remove all bundles from the cache of fetched bundles.
+     */
+    public void clearBundleCache() {
+        bundleCache.clear();
+    }
+
+    /**
+     * Get statistics about the sessions this service built and how long that took.
+     *
+     * @return a snapshot of the session statistics.
+     */
+    public SessionStats getSessionStats() {
+        return new SessionStats(this);
+    }
+
     /**
      * Process a received bundle. Typically that includes saving keys and building a session.
      *
@@ -1396,4 +1588,77 @@ public abstract class OmemoService<T_IdKeyPair, T_IdKey, T_PreKey, T_SigPreKey,
 
         OmemoService.publishDeviceList(omemoManager.getConnection(), newList);
     }
+
+    /**
+     * Statistics about the OMEMO sessions built by a service. The times are those of {@link LastDuration#getMillis()}.
+     */
+    public static final class SessionStats {
+
+        /**
+         * The number of bundles fetched from the server.
+         */
+        public final long bundlesFetched;
+
+        /**
+         * The number of bundles taken from the bundle cache instead of fetching them.
+         */
+        public final long bundleCacheHits;
+
+        /**
+         * The number of sessions built.
+         */
+        public final long sessionsBuilt;
+
+        /**
+         * The number of sessions which could not be built, because the bundle could not be fetched or was corrupt.
+         */
+        public final long failedSessions;
+
+        /**
+         * The time it took to fetch the bundles of the devices, which were missing a session when the last message
+         * was encrypted.
+         */
+        public final long lastBundleFetchTime;
+
+        /**
+         * The time it took to build the missing sessions from the bundles when the last message was encrypted.
+         */
+        public final long lastSessionBuildTime;
+
+        /**
+         * The time it took to encrypt the message key of the last message for all recipients.
+         */
+        public final long lastMessageEncryptionTime;
+
+        private SessionStats(OmemoService<?, ?, ?, ?, ?, ?, ?, ?, ?> service) {
+            bundlesFetched = service.bundlesFetched.get();
+            bundleCacheHits = service.bundleCacheHits.get();
+            sessionsBuilt = service.sessionsBuilt.get();
+            failedSessions = service.failedSessions.get();
+            lastBundleFetchTime = service.bundleFetchDuration.getMillis();
+            lastSessionBuildTime = service.sessionBuildDuration.getMillis();
+            lastMessageEncryptionTime = service.messageEncryptionDuration.getMillis();
+        }
+
+        private transient String toStringCache;
+
+        @Override
+        public String toString() {
+            if (toStringCache != null) {
+                return toStringCache;
+            }
+
+            toStringCache =
+                "bundles-fetched: " + bundlesFetched + '\n'
+              + "bundle-cache-hits: " + bundleCacheHits + '\n'
+              + "sessions-built: " + sessionsBuilt + '\n'
+              + "failed-sessions: " + failedSessions + '\n'
+              + "last-bundle-fetch-time: " + lastBundleFetchTime + '\n'
+              + "last-session-build-time: " + lastSessionBuildTime + '\n'
+              + "last-message-encryption-time: " + lastMessageEncryptionTime + '\n'
+              ;
+
+            return toStringCache;
+        }
+    }
 }
@@ -85,5 +85,18 @@ public class OmemoConfigurationTest {
         assertFalse(OmemoConfiguration.getCompleteSessionWithEmptyMessage());
         OmemoConfiguration.setCompleteSessionWithEmptyMessage(true);
         assertTrue(OmemoConfiguration.getCompleteSessionWithEmptyMessage());
+
+        // Bundle cache
+        long bundleCacheLifetime = OmemoConfiguration.getBundleCacheLifetime();
+        OmemoConfiguration.setBundleCacheLifetime(0);
+        assertEquals(0, OmemoConfiguration.getBundleCacheLifetime());
+        OmemoConfiguration.setBundleCacheLifetime(bundleCacheLifetime);
+        assertEquals(bundleCacheLifetime, OmemoConfiguration.getBundleCacheLifetime());
+        try {
+            OmemoConfiguration.setBundleCacheLifetime(-1);
+            TestCase.fail("OmemoConfiguration.setBundleCacheLifetime should not accept values < 0");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
     }
 }
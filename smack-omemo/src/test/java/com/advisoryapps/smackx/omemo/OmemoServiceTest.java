@@ -16,15 +16,34 @@
  */
 package com.advisoryapps.smackx.omemo;
 
+import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertSame;
 import static junit.framework.TestCase.assertTrue;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
-
+import java.util.Map;
+
+import com.advisoryapps.smack.DummyConnection;
+import com.advisoryapps.smack.SmackException;
+import com.advisoryapps.smack.SmackFuture;
+import com.advisoryapps.smack.SmackFuture.InternalSmackFuture;
+import com.advisoryapps.smack.packet.IQ;
+import com.advisoryapps.smack.packet.StanzaError;
 import com.advisoryapps.smack.test.util.SmackTestSuite;
 
+import com.advisoryapps.smackx.omemo.element.OmemoBundleElement;
+import com.advisoryapps.smackx.omemo.element.OmemoBundleElement_VAxolotl;
+import com.advisoryapps.smackx.omemo.exceptions.CannotEstablishOmemoSessionException;
 import com.advisoryapps.smackx.omemo.internal.OmemoDevice;
+import com.advisoryapps.smackx.pubsub.ItemsExtension;
+import com.advisoryapps.smackx.pubsub.PayloadItem;
+import com.advisoryapps.smackx.pubsub.packet.PubSub;
 
 import org.junit.Test;
 import org.jxmpp.jid.impl.JidCreate;
@@ -82,4 +101,84 @@ public class OmemoServiceTest extends SmackTestSuite {
         assertFalse(devices.contains(a));
         assertTrue(devices.contains(b));
     }
+
+    @Test
+    public void fetchBundlesConcurrentlyTest() throws Exception {
+        final DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        final OmemoDevice alice = new OmemoDevice(JidCreate.bareFrom("alice@wonderland.lit"), 1);
+        final OmemoDevice bob = new OmemoDevice(JidCreate.bareFrom("bob@builder.tv"), 2);
+        final OmemoDevice mallory = new OmemoDevice(JidCreate.bareFrom("mallory@evil.corp"), 3);
+
+        final Map<OmemoDevice, Throwable> failures = new HashMap<>();
+        final Map<OmemoDevice, OmemoBundleElement> bundles = new HashMap<>();
+        Thread fetcher = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    bundles.putAll(OmemoService.fetchBundles(connection, Arrays.asList(alice, bob, mallory), failures));
+                } catch (SmackException.NotConnectedException | InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        fetcher.start();
+
+        // All requests must be sent before the first response arrives.
+        Map<OmemoDevice, PubSub> requests = new HashMap<>();
+        for (int i = 0; i < 3; i++) {
+            PubSub request = connection.getSentPacket(10);
+            assertNotNull(request);
+            for (OmemoDevice device : Arrays.asList(alice, bob, mallory)) {
+                if (device.getJid().equals(request.getTo())) {
+                    requests.put(device, request);
+                }
+            }
+        }
+        assertEquals(3, requests.size());
+        assertTrue(fetcher.isAlive());
+
+        OmemoBundleElement aliceBundle = createBundle();
+        OmemoBundleElement bobBundle = createBundle();
+        connection.processStanza(createBundleResponse(requests.get(alice), alice, aliceBundle));
+        connection.processStanza(createBundleResponse(requests.get(bob), bob, bobBundle));
+        connection.processStanza(IQ.createErrorResponse(requests.get(mallory), StanzaError.Condition.item_not_found));
+
+        fetcher.join(10000);
+        assertFalse(fetcher.isAlive());
+
+        assertEquals(2, bundles.size());
+        assertSame(aliceBundle, bundles.get(alice));
+        assertSame(bobBundle, bundles.get(bob));
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(mallory) instanceof CannotEstablishOmemoSessionException);
+    }
+
+    @Test(expected = SmackException.NotConnectedException.class)
+    public void fetchBundlesRethrowsNotConnectedExceptionTest() throws Exception {
+        DummyConnection connection = new DummyConnection() {
+            @Override
+            public SmackFuture<IQ, Exception> sendIqRequestAsync(IQ request, long timeout) {
+                InternalSmackFuture<IQ, Exception> future = new InternalSmackFuture<>();
+                future.setException(new SmackException.NotConnectedException());
+                return future;
+            }
+        };
+        OmemoDevice alice = new OmemoDevice(JidCreate.bareFrom("alice@wonderland.lit"), 1);
+
+        OmemoService.fetchBundles(connection, Collections.singletonList(alice), new HashMap<OmemoDevice, Throwable>());
+    }
+
+    private static OmemoBundleElement createBundle() {
+        return new OmemoBundleElement_VAxolotl(1, "c2lnbmVkUHJlS2V5", "c2lnbmF0dXJl", "aWRlbnRpdHlLZXk=",
+                new HashMap<>(Collections.singletonMap(1, "cHJlS2V5")));
+    }
+
+    private static PubSub createBundleResponse(PubSub request, OmemoDevice device, OmemoBundleElement bundle) {
+        PubSub response = PubSub.createPubsubPacket(null, IQ.Type.result, new ItemsExtension(
+                ItemsExtension.ItemsElementType.items, device.getBundleNodeName(),
+                Collections.singletonList(new PayloadItem<>("current", bundle))));
+        response.setStanzaId(request.getStanzaId());
+        response.setFrom(request.getTo());
+        return response;
+    }
 }
@@ -17,9 +17,9 @@
 package com.advisoryapps.smack.sm;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 
 import com.advisoryapps.smack.SmackException;
 import com.advisoryapps.smack.packet.Element;
@@ -152,7 +152,7 @@ public abstract class StreamManagementException extends SmackException {
         }
 
         public static UnacknowledgedQueueFullException newWith(int overflowElementNum, List<Element> elements,
-                BlockingQueue<Stanza> unacknowledgedStanzas) {
+                Collection<Stanza> unacknowledgedStanzas) {
             final int unacknowledgesStanzasQueueSize = unacknowledgedStanzas.size();
             List<Stanza> localUnacknowledgesStanzas = new ArrayList<>(unacknowledgesStanzasQueueSize);
             localUnacknowledgesStanzas.addAll(unacknowledgedStanzas);
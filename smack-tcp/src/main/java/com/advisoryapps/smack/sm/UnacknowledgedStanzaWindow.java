@@ -0,0 +1,233 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.sm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.advisoryapps.smack.packet.Stanza;
+
+/**
+ * The window of stanzas which have been sent but not yet acknowledged by the server, as required by Stream Management
+ * (XEP-0198). The stanzas are kept in a ring buffer which grows on demand, up to a budget of stanzas and, optionally,
+ * characters. If the budget is exhausted, {@link #put(Stanza, int)} blocks until the server acknowledged enough stanzas.
+ * <p>
+ * Stanzas are added by the connection's writer thread and removed, in the same order, once the server acknowledges
+ * them. All methods are thread-safe.
+ * </p>
+ */
+public final class UnacknowledgedStanzaWindow {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int maxStanzas;
+    private final int maxChars;
+
+    private Stanza[] stanzas;
+    private int[] stanzaChars;
+
+    /**
+     * The index of the oldest stanza in the ring buffer.
+     */
+    private int head;
+
+    private int size;
+
+    private long chars;
+
+    private int maxSize;
+
+    /**
+     * Create a new window.
+     *
+     * @param maxStanzas the maximum number of unacknowledged stanzas.
+     * @param maxChars the maximum number of characters of all unacknowledged stanzas, or <code>0</code> if unbounded.
+     */
+    public UnacknowledgedStanzaWindow(int maxStanzas, int maxChars) {
+        if (maxStanzas <= 0) {
+            throw new IllegalArgumentException("The maximum number of unacknowledged stanzas must be positive");
+        }
+        if (maxChars < 0) {
+            throw new IllegalArgumentException("The maximum number of unacknowledged characters must not be negative");
+        }
+        this.maxStanzas = maxStanzas;
+        this.maxChars = maxChars;
+        int initialCapacity = Math.min(INITIAL_CAPACITY, maxStanzas);
+        stanzas = new Stanza[initialCapacity];
+        stanzaChars = new int[initialCapacity];
+    }
+
+    /**
+     * Add the given stanza to the window, waiting if necessary until there is room for it. A single stanza which
+     * exceeds the character budget on its own is accepted once the window is empty.
+     *
+     * @param stanza the stanza.
+     * @param length the length of the stanza's XML in characters.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public synchronized void put(Stanza stanza, int length) throws InterruptedException {
+        while (!hasRoomFor(length)) {
+            wait();
+        }
+        add(stanza, length);
+    }
+
+    /**
+     * Add the given stanza to the window if there is room for it.
+     *
+     * @param stanza the stanza.
+     * @param length the length of the stanza's XML in characters, or <code>0</code> if the stanza should only count
+     *        against the stanza budget.
+     * @return <code>true</code> if the stanza was added, <code>false</code> if the window is full.
+     */
+    public synchronized boolean offer(Stanza stanza, int length) {
+        if (!hasRoomFor(length)) {
+            return false;
+        }
+        add(stanza, length);
+        return true;
+    }
+
+    /**
+     * Remove the oldest unacknowledged stanza from the window.
+     *
+     * @return the oldest stanza or <code>null</code> if the window is empty.
+     */
+    public synchronized Stanza poll() {
+        if (size == 0) {
+            return null;
+        }
+        Stanza stanza = stanzas[head];
+        stanzas[head] = null;
+        chars -= stanzaChars[head];
+        head = (head + 1) % stanzas.length;
+        size--;
+        notifyAll();
+        return stanza;
+    }
+
+    /**
+     * Remove all stanzas from the window and add them, oldest first, to the given collection.
+     *
+     * @param collection the collection to drain the stanzas to.
+     * @return the number of stanzas drained.
+     */
+    public synchronized int drainTo(Collection<? super Stanza> collection) {
+        int drained = size;
+        for (int i = 0; i < drained; i++) {
+            int index = (head + i) % stanzas.length;
+            collection.add(stanzas[index]);
+            stanzas[index] = null;
+        }
+        head = 0;
+        size = 0;
+        chars = 0;
+        notifyAll();
+        return drained;
+    }
+
+    /**
+     * Get a copy of the stanzas currently in the window, oldest first.
+     *
+     * @return the unacknowledged stanzas.
+     */
+    public synchronized List<Stanza> toList() {
+        List<Stanza> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(stanzas[(head + i) % stanzas.length]);
+        }
+        return list;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of characters of all stanzas in the window.
+     *
+     * @return the number of unacknowledged characters.
+     */
+    public synchronized long getChars() {
+        return chars;
+    }
+
+    /**
+     * Get the largest number of stanzas that have been in the window at the same time.
+     *
+     * @return the largest window size.
+     */
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized boolean isFull() {
+        return !hasRoomFor(0);
+    }
+
+    /**
+     * Check if the window has used up 80% of its stanza or character budget. Callers should request an
+     * acknowledgement from the server in this case, in order to avoid that adding further stanzas blocks.
+     *
+     * @return <code>true</code> if the window is nearly full.
+     */
+    public synchronized boolean isNearlyFull() {
+        if (size >= 0.8 * maxStanzas) {
+            return true;
+        }
+        return maxChars > 0 && chars >= 0.8 * maxChars;
+    }
+
+    private boolean hasRoomFor(int length) {
+        if (size >= maxStanzas) {
+            return false;
+        }
+        if (maxChars == 0 || size == 0) {
+            return true;
+        }
+        return chars + length <= maxChars;
+    }
+
+    private void add(Stanza stanza, int length) {
+        if (size == stanzas.length) {
+            grow();
+        }
+        int tail = (head + size) % stanzas.length;
+        stanzas[tail] = stanza;
+        stanzaChars[tail] = length;
+        chars += length;
+        size++;
+        if (size > maxSize) {
+            maxSize = size;
+        }
+    }
+
+    private void grow() {
+        int newCapacity = Math.min(stanzas.length * 2, maxStanzas);
+        Stanza[] newStanzas = new Stanza[newCapacity];
+        int[] newStanzaChars = new int[newCapacity];
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % stanzas.length;
+            newStanzas[i] = stanzas[index];
+            newStanzaChars[i] = stanzaChars[index];
+        }
+        stanzas = newStanzas;
+        stanzaChars = newStanzaChars;
+        head = 0;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.sm.predicates;
+
+import java.util.concurrent.TimeUnit;
+
+import com.advisoryapps.smack.filter.StanzaFilter;
+import com.advisoryapps.smack.packet.Stanza;
+import com.advisoryapps.smack.tcp.XMPPTCPConnection;
+
+/**
+ * A Stream Management acknowledgement request predicate which requests an acknowledgement once a certain number of
+ * stanzas, a certain amount of data, or a certain time has passed since the last request. Unlike
+ * {@link ForEveryStanza}, this keeps the number of acknowledgement requests low when sending at high rates, while
+ * still bounding the amount of unacknowledged data.
+ * <p>
+ * The amount of data is determined using {@link XMPPTCPConnection#getSmWrittenStanzaChars()}, i.e. it only includes
+ * the stanzas already written when the predicate is evaluated.
+ * </p>
+ */
+public class AdaptiveAckPolicy implements StanzaFilter {
+
+    private final XMPPTCPConnection connection;
+    private final int maxStanzas;
+    private final long maxChars;
+    private final long maxDelayNanos;
+
+    private int stanzasSinceLastRequest;
+    private long writtenCharsAtLastRequest;
+    private long lastRequestTimestamp = System.nanoTime();
+
+    /**
+     * Create a new adaptive acknowledgement request policy. Each limit can be disabled by setting it to
+     * <code>0</code>.
+     *
+     * @param connection the connection the policy is used for.
+     * @param maxStanzas the number of stanzas after which an acknowledgement is requested.
+     * @param maxChars the number of written characters after which an acknowledgement is requested.
+     * @param maxDelayMillis the time in milliseconds after which the next stanza causes an acknowledgement request.
+     */
+    public AdaptiveAckPolicy(XMPPTCPConnection connection, int maxStanzas, long maxChars, long maxDelayMillis) {
+        if (maxStanzas < 0 || maxChars < 0 || maxDelayMillis < 0) {
+            throw new IllegalArgumentException("Limits must not be negative");
+        }
+        this.connection = connection;
+        this.maxStanzas = maxStanzas;
+        this.maxChars = maxChars;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+    }
+
+    @Override
+    public synchronized boolean accept(Stanza packet) {
+        stanzasSinceLastRequest++;
+        long writtenChars = connection.getSmWrittenStanzaChars();
+        long now = System.nanoTime();
+
+        if (maxStanzas > 0 && stanzasSinceLastRequest >= maxStanzas) {
+            return requestAck(writtenChars, now);
+        }
+        // The written characters counter is reset when Stream Management is re-enabled.
+        if (writtenChars < writtenCharsAtLastRequest) {
+            writtenCharsAtLastRequest = 0;
+        }
+        if (maxChars > 0 && writtenChars - writtenCharsAtLastRequest >= maxChars) {
+            return requestAck(writtenChars, now);
+        }
+        if (maxDelayNanos > 0 && now - lastRequestTimestamp >= maxDelayNanos) {
+            return requestAck(writtenChars, now);
+        }
+        return false;
+    }
+
+    private boolean requestAck(long writtenChars, long now) {
+        stanzasSinceLastRequest = 0;
+        writtenCharsAtLastRequest = writtenChars;
+        lastRequestTimestamp = now;
+        return true;
+    }
+}
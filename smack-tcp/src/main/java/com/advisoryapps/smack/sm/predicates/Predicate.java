@@ -17,6 +17,7 @@
 package com.advisoryapps.smack.sm.predicates;
 
 import com.advisoryapps.smack.filter.StanzaFilter;
+import com.advisoryapps.smack.tcp.XMPPTCPConnection;
 
 public class Predicate {
 
@@ -27,4 +28,15 @@ public class Predicate {
     public static AfterXStanzas after5Stanzas() {
         return new AfterXStanzas(5);
     }
+
+    /**
+     * Get an adaptive acknowledgement request policy which requests an acknowledgement after 20 stanzas, 32768 written
+     * characters, or for the first stanza after 5 seconds since the last request, whatever comes first.
+     *
+     * @param connection the connection.
+     * @return an adaptive acknowledgement request policy.
+     */
+    public static AdaptiveAckPolicy adaptive(XMPPTCPConnection connection) {
+        return new AdaptiveAckPolicy(connection, 20, 32768, 5000);
+    }
 }
@@ -35,15 +35,13 @@ import java.security.cert.CertificateException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -88,6 +86,7 @@ import com.advisoryapps.smack.packet.Stanza;
 import com.advisoryapps.smack.packet.StartTls;
 import com.advisoryapps.smack.packet.StreamError;
 import com.advisoryapps.smack.packet.StreamOpen;
+import com.advisoryapps.smack.packet.XmlEnvironment;
 import com.advisoryapps.smack.proxy.ProxyInfo;
 import com.advisoryapps.smack.sasl.packet.SaslStreamElements;
 import com.advisoryapps.smack.sasl.packet.SaslStreamElements.Challenge;
@@ -98,6 +97,7 @@ import com.advisoryapps.smack.sm.StreamManagementException;
 import com.advisoryapps.smack.sm.StreamManagementException.StreamIdDoesNotMatchException;
 import com.advisoryapps.smack.sm.StreamManagementException.StreamManagementCounterError;
 import com.advisoryapps.smack.sm.StreamManagementException.StreamManagementNotEnabledException;
+import com.advisoryapps.smack.sm.UnacknowledgedStanzaWindow;
 import com.advisoryapps.smack.sm.packet.StreamManagement;
 import com.advisoryapps.smack.sm.packet.StreamManagement.AckAnswer;
 import com.advisoryapps.smack.sm.packet.StreamManagement.AckRequest;
@@ -109,10 +109,10 @@ import com.advisoryapps.smack.sm.packet.StreamManagement.Resumed;
 import com.advisoryapps.smack.sm.packet.StreamManagement.StreamManagementFeature;
 import com.advisoryapps.smack.sm.predicates.Predicate;
 import com.advisoryapps.smack.sm.provider.ParseStreamManagement;
-import com.advisoryapps.smack.util.ArrayBlockingQueueWithShutdown;
 import com.advisoryapps.smack.util.Async;
 import com.advisoryapps.smack.util.CloseableUtil;
 import com.advisoryapps.smack.util.PacketParserUtils;
+import com.advisoryapps.smack.util.PrioritizedBlockingQueueWithShutdown;
 import com.advisoryapps.smack.util.StringUtils;
 import com.advisoryapps.smack.util.TLSUtils;
 import com.advisoryapps.smack.util.XmlStringBuilder;
@@ -138,6 +138,8 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
     private static final int QUEUE_SIZE = 500;
     private static final Logger LOGGER = Logger.getLogger(XMPPTCPConnection.class.getName());
 
+    private static final XmlEnvironment CLIENT_XML_ENVIRONMENT = new XmlEnvironment(StreamOpen.CLIENT_NAMESPACE);
+
     /**
      * The socket which is used for this connection.
      */
@@ -239,7 +241,27 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      */
     private long clientHandledStanzasCount = 0;
 
-    private BlockingQueue<Stanza> unacknowledgedStanzas;
+    private UnacknowledgedStanzaWindow unacknowledgedStanzas;
+
+    /**
+     * The total number of characters of all stanzas added to {@link #unacknowledgedStanzas} since Stream Management
+     * was enabled. Only modified by the writer thread.
+     */
+    private volatile long smWrittenStanzaChars;
+
+    /**
+     * The {@link System#nanoTime()} when the currently outstanding acknowledgement request was written, or
+     * <code>-1</code> if there is no outstanding request.
+     */
+    private volatile long smAckRequestTimestamp = -1;
+
+    // The ack statistics are only modified by the writer thread (requests) and the reader thread (answers).
+    private volatile long smAckRequestsSent;
+    private volatile long smAckAnswersReceived;
+    private volatile long smAckRoundTrips;
+    private volatile long smAckRoundTripTimeNanosTotal;
+    private volatile long smAckRoundTripTimeNanosLast;
+    private volatile long smAckRoundTripTimeNanosMax;
 
     /**
      * Set to true if Stream Management was at least once enabled for this connection.
@@ -273,11 +295,12 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
     /**
      * Predicates that determine if an stream management ack should be requested from the server.
      * <p>
-     * We use a linked hash set here, so that the order how the predicates are added matches the
-     * order in which they are invoked in order to determine if an ack request should be send or not.
+     * We use a copy-on-write set here, so that the order how the predicates are added matches the
+     * order in which they are invoked in order to determine if an ack request should be send or not,
+     * and so that the predicates can be evaluated for every outgoing stanza without locking.
      * </p>
      */
-    private final Set<StanzaFilter> requestAckPredicates = new LinkedHashSet<>();
+    private final Set<StanzaFilter> requestAckPredicates = new CopyOnWriteArraySet<>();
 
     @SuppressWarnings("HidingField")
     private final XMPPTCPConnectionConfiguration config;
@@ -419,13 +442,11 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             // XEP-198 3. Enabling Stream Management. If the server response to 'Enable' is 'Failed'
             // then this is a non recoverable error and we therefore throw an exception.
             smEnabledSyncPoint.sendAndWaitForResponseOrThrow(new Enable(useSmResumption, smClientMaxResumptionTime));
-            synchronized (requestAckPredicates) {
-                if (requestAckPredicates.isEmpty()) {
-                    // Assure that we have at lest one predicate set up that so that we request acks
-                    // for the server and eventually flush some stanzas from the unacknowledged
-                    // stanza queue
-                    requestAckPredicates.add(Predicate.forMessagesOrAfter5Stanzas());
-                }
+            if (requestAckPredicates.isEmpty()) {
+                // Assure that we have at lest one predicate set up that so that we request acks
+                // for the server and eventually flush some stanzas from the unacknowledged
+                // stanza queue
+                requestAckPredicates.add(Predicate.forMessagesOrAfter5Stanzas());
             }
         }
         // Inform client about failed resumption if possible, resend stanzas otherwise
@@ -545,14 +566,49 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
     @Override
     protected void sendStanzaInternal(Stanza packet) throws NotConnectedException, InterruptedException {
         packetWriter.sendStreamElement(packet);
-        if (isSmEnabled()) {
-            for (StanzaFilter requestAckPredicate : requestAckPredicates) {
-                if (requestAckPredicate.accept(packet)) {
-                    requestSmAcknowledgementInternal();
-                    break;
-                }
+        if (shouldRequestAckFor(packet)) {
+            requestSmAcknowledgementInternal();
+        }
+    }
+
+    @Override
+    public boolean trySendStanza(Stanza stanza) throws NotConnectedException {
+        if (!packetWriter.trySendStanza(stanza)) {
+            return false;
+        }
+        maybeTryRequestSmAcknowledgement(stanza);
+        return true;
+    }
+
+    @Override
+    public boolean trySendStanza(Stanza stanza, long timeout, TimeUnit unit)
+                    throws NotConnectedException, InterruptedException {
+        if (!packetWriter.trySendStanza(stanza, timeout, unit)) {
+            return false;
+        }
+        maybeTryRequestSmAcknowledgement(stanza);
+        return true;
+    }
+
+    private boolean shouldRequestAckFor(Stanza stanza) {
+        if (!isSmEnabled()) {
+            return false;
+        }
+        for (StanzaFilter requestAckPredicate : requestAckPredicates) {
+            if (requestAckPredicate.accept(stanza)) {
+                return true;
             }
         }
+        return false;
+    }
+
+    private void maybeTryRequestSmAcknowledgement(Stanza stanza) throws NotConnectedException {
+        if (!shouldRequestAckFor(stanza)) {
+            return;
+        }
+        // Acknowledgement requests are put into the priority lane of the writer queue, hence this will only fail if
+        // the priority lane is full, in which case there is already a pending acknowledgement request.
+        packetWriter.trySendStreamElement(AckRequest.INSTANCE);
     }
 
     private void connectUsingConfiguration() throws ConnectionException, IOException, InterruptedException {
@@ -1079,6 +1135,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                             break;
                         case AckAnswer.ELEMENT:
                             AckAnswer ackAnswer = ParseStreamManagement.ackAnswer(parser);
+                            recordSmAckAnswer();
                             processHandledCount(ackAnswer.getHandledCount());
                             break;
                         case AckRequest.ELEMENT:
@@ -1159,10 +1216,20 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
     protected class PacketWriter {
         public static final int QUEUE_SIZE = XMPPTCPConnection.QUEUE_SIZE;
 
+        /**
+         * The capacity of the priority lane of the queue, which holds Stream Management acknowledgements, IQ responses
+         * and pings, so that those are never stuck behind a burst of other elements.
+         */
+        public static final int PRIORITY_QUEUE_SIZE = 100;
+
         private final String threadName = "Smack Writer (" + getConnectionCounter() + ')';
 
-        private final ArrayBlockingQueueWithShutdown<Element> queue = new ArrayBlockingQueueWithShutdown<>(
-                        QUEUE_SIZE, true);
+        private final PrioritizedBlockingQueueWithShutdown<Element> queue = new PrioritizedBlockingQueueWithShutdown<>(
+                        QUEUE_SIZE, PRIORITY_QUEUE_SIZE, true);
+
+        protected PacketWriter() {
+            queue.setWatermarks(QUEUE_SIZE / 4, QUEUE_SIZE * 3 / 4, outgoingQueueWatermarkCallback);
+        }
 
         /**
          * Needs to be protected for unit testing purposes.
@@ -1187,6 +1254,38 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
          */
         private boolean shouldBundleAndDefer;
 
+        /**
+         * The maximum time in milliseconds to wait for further elements before flushing a batch, see
+         * {@link XMPPTCPConnectionConfiguration.Builder#setWriteCoalescing(int, int)}.
+         */
+        private int coalescingMaxDelay;
+
+        private int coalescingMaxBatchSize;
+
+        /**
+         * The number of elements written since the last flush. Only accessed by the writer thread.
+         */
+        private int batchElements;
+
+        /**
+         * The number of characters written since the last flush. Only accessed by the writer thread.
+         */
+        private int batchSize;
+
+        private int previousBatchElements;
+
+        /**
+         * The stanzas written since the last flush. The stanza sending listeners are notified about them once they were
+         * flushed. Only accessed by the writer thread.
+         */
+        private final List<Stanza> unflushedStanzas = new ArrayList<>();
+
+        // The statistics are only modified by the writer thread.
+        private volatile long flushedBatches;
+        private volatile long batchedElements;
+        private volatile long batchedChars;
+        private volatile int maxBatchElements;
+
         /**
         * Initializes the writer in order to be used. It is called at the first connection and also
         * is invoked if the connection is disconnected by an error.
@@ -1195,6 +1294,16 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             shutdownDone.init();
             shutdownTimestamp = null;
 
+            coalescingMaxDelay = config.getWriteCoalescingMaxDelay();
+            coalescingMaxBatchSize = config.getWriteCoalescingMaxBatchSize();
+            batchElements = 0;
+            batchSize = 0;
+            previousBatchElements = 0;
+            unflushedStanzas.clear();
+
+            // An acknowledgement request which was outstanding when the connection was lost will never be answered.
+            smAckRequestTimestamp = -1;
+
             if (unacknowledgedStanzas != null) {
                 // It's possible that there are new stanzas in the writer queue that
                 // came in while we were disconnected but resumable, drain those into
@@ -1243,7 +1352,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         protected void sendStreamElement(Element element) throws NotConnectedException, InterruptedException {
             throwNotConnectedExceptionIfDoneAndResumptionNotPossible();
             try {
-                queue.put(element);
+                queue.put(element, isPriorityElement(element));
             }
             catch (InterruptedException e) {
                 // put() may throw an InterruptedException for two reasons:
@@ -1256,6 +1365,90 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             }
         }
 
+        /**
+         * Try to schedule the specified element for sending without blocking.
+         *
+         * @param element the element to send.
+         * @return <code>true</code> if the element was scheduled for sending, <code>false</code> if the queue is full.
+         * @throws NotConnectedException if the XMPP connection is not connected.
+         */
+        protected boolean trySendStreamElement(Element element) throws NotConnectedException {
+            throwNotConnectedExceptionIfDoneAndResumptionNotPossible();
+            return queue.offer(element, isPriorityElement(element));
+        }
+
+        /**
+         * Try to schedule the specified stanza for sending without blocking. The stanza is only prepared for sending,
+         * i.e. the stanza interceptors are only invoked, once capacity in the queue was reserved for it. Hence a
+         * rejected stanza is left unchanged and can be retried later.
+         *
+         * @param stanza the stanza to send.
+         * @return <code>true</code> if the stanza was scheduled for sending, <code>false</code> if the queue is full.
+         * @throws NotConnectedException if the XMPP connection is not connected.
+         */
+        protected boolean trySendStanza(Stanza stanza) throws NotConnectedException {
+            throwNotConnectedExceptionIfDoneAndResumptionNotPossible();
+            boolean priority = isPriorityElement(stanza);
+            if (!queue.tryReserve(priority)) {
+                return false;
+            }
+            prepareAndPutReserved(stanza, priority);
+            return true;
+        }
+
+        /**
+         * Try to schedule the specified stanza for sending, waiting up to the given timeout for space in the queue. Like
+         * {@link #trySendStanza(Stanza)}, a rejected stanza is left unchanged.
+         *
+         * @param stanza the stanza to send.
+         * @param timeout how long to wait before giving up, in units of {@code unit}.
+         * @param unit a {@code TimeUnit} determining how to interpret the {@code timeout} parameter.
+         * @return <code>true</code> if the stanza was scheduled for sending, <code>false</code> if the queue is full.
+         * @throws NotConnectedException if the XMPP connection is not connected.
+         * @throws InterruptedException if the calling thread was interrupted.
+         */
+        protected boolean trySendStanza(Stanza stanza, long timeout, TimeUnit unit)
+                        throws NotConnectedException, InterruptedException {
+            throwNotConnectedExceptionIfDoneAndResumptionNotPossible();
+            boolean priority = isPriorityElement(stanza);
+            try {
+                if (!queue.tryReserve(priority, timeout, unit)) {
+                    return false;
+                }
+            }
+            catch (InterruptedException e) {
+                // See sendStreamElement() for why we need to check this.
+                throwNotConnectedExceptionIfDoneAndResumptionNotPossible();
+                throw e;
+            }
+            prepareAndPutReserved(stanza, priority);
+            return true;
+        }
+
+        private void prepareAndPutReserved(Stanza stanza, boolean priority) throws NotConnectedException {
+            boolean enqueued = false;
+            try {
+                prepareStanzaForSending(stanza);
+                queue.putReserved(stanza, priority);
+                enqueued = true;
+            }
+            finally {
+                if (!enqueued) {
+                    queue.cancelReservation(priority);
+                }
+            }
+        }
+
+        private boolean isPriorityElement(Element element) {
+            if (element instanceof AckRequest || element instanceof AckAnswer) {
+                return true;
+            }
+            if (element instanceof Stanza) {
+                return isPriorityStanza((Stanza) element);
+            }
+            return false;
+        }
+
         /**
          * Shuts down the stanza writer. Once this method has been called, no further
          * packets will be written to the server.
@@ -1280,14 +1473,23 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
          * that case.
          *
          * @return the next element for writing or null.
+         * @throws IOException if flushing the current batch failed.
          */
-        private Element nextStreamElement() {
+        private Element nextStreamElement() throws IOException {
             // It is important the we check if the queue is empty before removing an element from it
             if (queue.isEmpty()) {
                 shouldBundleAndDefer = true;
             }
             Element packet = null;
             try {
+                if (batchElements > 0) {
+                    // The current batch was not flushed, because we decided to wait for further elements.
+                    packet = queue.poll(coalescingMaxDelay, TimeUnit.MILLISECONDS);
+                    if (packet != null) {
+                        return packet;
+                    }
+                    flushBatch();
+                }
                 packet = queue.take();
             }
             catch (InterruptedException e) {
@@ -1343,37 +1545,44 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                         // The client needs to add messages to the unacknowledged stanzas queue
                         // right after it sent 'enabled'. Stanza will be added once
                         // unacknowledgedStanzas is not null.
-                        unacknowledgedStanzas = new ArrayBlockingQueue<>(QUEUE_SIZE);
+                        unacknowledgedStanzas = new UnacknowledgedStanzaWindow(
+                                        config.getSmUnacknowledgedStanzasMaxCount(),
+                                        config.getSmUnacknowledgedStanzasMaxChars());
+                        smWrittenStanzaChars = 0;
+                        smAckRequestTimestamp = -1;
                     }
-                    maybeAddToUnacknowledgedStanzas(packet);
-
-                    CharSequence elementXml = element.toXML(StreamOpen.CLIENT_NAMESPACE);
-                    if (elementXml instanceof XmlStringBuilder) {
-                        ((XmlStringBuilder) elementXml).write(writer, StreamOpen.CLIENT_NAMESPACE);
-                    }
-                    else {
-                        writer.write(elementXml.toString());
+                    else if (element instanceof AckRequest) {
+                        recordSmAckRequest();
                     }
+                    CharSequence elementXml = element.toXML(StreamOpen.CLIENT_NAMESPACE);
+                    maybeAddToUnacknowledgedStanzas(packet, elementXml.length());
 
-                    if (queue.isEmpty()) {
-                        writer.flush();
-                    }
+                    writeElementXml(elementXml);
+                    batchSize += elementXml.length();
+                    batchElements++;
                     if (packet != null) {
-                        firePacketSendingListeners(packet);
+                        unflushedStanzas.add(packet);
+                    }
+
+                    if (coalescingMaxBatchSize > 0 && batchSize >= coalescingMaxBatchSize) {
+                        flushBatch();
+                    } else if (queue.isEmpty() && !shouldWaitForFurtherElements()) {
+                        flushBatch();
                     }
                 }
                 if (!instantShutdown) {
                     // Flush out the rest of the queue.
                     try {
-                        while (!queue.isEmpty()) {
-                            Element packet = queue.remove();
+                        Element packet;
+                        while ((packet = queue.poll()) != null) {
+                            CharSequence elementXml = packet.toXML(StreamOpen.CLIENT_NAMESPACE);
                             if (packet instanceof Stanza) {
                                 Stanza stanza = (Stanza) packet;
-                                maybeAddToUnacknowledgedStanzas(stanza);
+                                maybeAddToUnacknowledgedStanzas(stanza, elementXml.length());
                             }
-                            writer.write(packet.toXML().toString());
+                            writeElementXml(elementXml);
                         }
-                        writer.flush();
+                        flushBatch();
                     }
                     catch (Exception e) {
                         LOGGER.log(Level.WARNING,
@@ -1425,36 +1634,100 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             queue.drainTo(elements);
             for (int i = 0; i < elements.size(); i++) {
                 Element element = elements.get(i);
+                if (!(element instanceof Stanza)) {
+                    continue;
+                }
+                Stanza stanza = (Stanza) element;
+                // The drained stanzas have not been written, hence they are only accounted for by their count. Their
+                // length is recorded once they are resent after the stream was resumed.
                 // If the unacknowledgedStanza queue is full, then bail out with a warning message. See SMACK-844.
-                if (unacknowledgedStanzas.remainingCapacity() == 0) {
+                if (!unacknowledgedStanzas.offer(stanza, 0)) {
                     StreamManagementException.UnacknowledgedQueueFullException exception = StreamManagementException.UnacknowledgedQueueFullException
-                            .newWith(i, elements, unacknowledgedStanzas);
+                            .newWith(i, elements, unacknowledgedStanzas.toList());
                     LOGGER.log(Level.WARNING,
                             "Some stanzas may be lost as not all could be drained to the unacknowledged stanzas queue", exception);
                     return;
                 }
-                if (element instanceof Stanza) {
-                    unacknowledgedStanzas.add((Stanza) element);
-                }
             }
         }
 
-        private void maybeAddToUnacknowledgedStanzas(Stanza stanza) throws IOException {
+        /**
+         * Check if the writer should wait for further elements before flushing the current batch. This is the case if
+         * adaptive write coalescing is enabled and there is currently a burst of outgoing elements, i.e. the current or
+         * the previous batch consists of more than one element. At low load, batches are flushed right away.
+         *
+         * @return <code>true</code> if the writer should wait for further elements.
+         */
+        private boolean shouldWaitForFurtherElements() {
+            return coalescingMaxDelay > 0 && (batchElements > 1 || previousBatchElements > 1);
+        }
+
+        private void flushBatch() throws IOException {
+            writer.flush();
+
+            for (Stanza stanza : unflushedStanzas) {
+                firePacketSendingListeners(stanza);
+            }
+            unflushedStanzas.clear();
+
+            if (batchElements == 0) {
+                return;
+            }
+            flushedBatches++;
+            batchedElements += batchElements;
+            batchedChars += batchSize;
+            if (batchElements > maxBatchElements) {
+                maxBatchElements = batchElements;
+            }
+            previousBatchElements = batchElements;
+            batchElements = 0;
+            batchSize = 0;
+        }
+
+        /**
+         * Write the given XML of an element to the writer. If the XML is represented by an {@link XmlStringBuilder},
+         * then its fragments are streamed one-by-one into the writer.
+         *
+         * @param elementXml the XML of the element to write.
+         * @throws IOException if an I/O error occurred.
+         */
+        private void writeElementXml(CharSequence elementXml) throws IOException {
+            if (elementXml instanceof XmlStringBuilder) {
+                ((XmlStringBuilder) elementXml).appendXmlTo(writer, CLIENT_XML_ENVIRONMENT);
+            }
+            else {
+                writer.append(elementXml);
+            }
+        }
+
+        private void maybeAddToUnacknowledgedStanzas(Stanza stanza, int length) throws IOException {
             // Check if the stream element should be put to the unacknowledgedStanza
             // queue. Note that we can not do the put() in sendStanzaInternal() and the
             // packet order is not stable at this point (sendStanzaInternal() can be
             // called concurrently).
             if (unacknowledgedStanzas != null && stanza != null) {
-                // If the unacknowledgedStanza queue is nearly full, request an new ack
-                // from the server in order to drain it
-                if (unacknowledgedStanzas.size() == 0.8 * XMPPTCPConnection.QUEUE_SIZE) {
+                // If the unacknowledgedStanza window is nearly full, request an new ack
+                // from the server in order to drain it, unless there is already an outstanding request.
+                if (smAckRequestTimestamp == -1 && unacknowledgedStanzas.isNearlyFull()) {
+                    recordSmAckRequest();
                     writer.write(AckRequest.INSTANCE.toXML().toString());
                     writer.flush();
                 }
                 try {
                     // It is important the we put the stanza in the unacknowledged stanza
                     // queue before we put it on the wire
-                    unacknowledgedStanzas.put(stanza);
+                    if (!unacknowledgedStanzas.offer(stanza, length)) {
+                        // The window is full, hence put() will block until the server acknowledged some stanzas. Ensure
+                        // that an ack request is actually on the wire before blocking: the outstanding one may still
+                        // sit unflushed in the writer's buffer, and there may be none at all.
+                        if (smAckRequestTimestamp == -1) {
+                            recordSmAckRequest();
+                            writer.write(AckRequest.INSTANCE.toXML().toString());
+                        }
+                        flushBatch();
+                        unacknowledgedStanzas.put(stanza, length);
+                    }
+                    smWrittenStanzaChars += length;
                 }
                 catch (InterruptedException e) {
                     throw new IllegalStateException(e);
@@ -1463,6 +1736,46 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         }
     }
 
+    /**
+     * Get the statistics of the writer of this connection.
+     *
+     * @return the writer statistics.
+     */
+    public WriterStats getWriterStats() {
+        return new WriterStats(packetWriter);
+    }
+
+    /**
+     * Statistics about the batches written by the writer of a connection. A batch consists of all elements written
+     * between two flushes of the socket's output stream.
+     */
+    public static final class WriterStats {
+        public final long flushedBatches;
+        public final long batchedElements;
+        public final long batchedChars;
+        public final int maxBatchElements;
+
+        /**
+         * The average number of elements per batch.
+         */
+        public final double averageBatchElements;
+
+        private WriterStats(PacketWriter packetWriter) {
+            flushedBatches = packetWriter.flushedBatches;
+            batchedElements = packetWriter.batchedElements;
+            batchedChars = packetWriter.batchedChars;
+            maxBatchElements = packetWriter.maxBatchElements;
+            averageBatchElements = flushedBatches == 0 ? 0 : (double) batchedElements / flushedBatches;
+        }
+
+        @Override
+        public String toString() {
+            return "WriterStats(flushedBatches=" + flushedBatches + ", batchedElements=" + batchedElements
+                            + ", batchedChars=" + batchedChars + ", maxBatchElements=" + maxBatchElements
+                            + ", averageBatchElements=" + averageBatchElements + ')';
+        }
+    }
+
     /**
      * Set if Stream Management should be used by default for new connections.
      *
@@ -1540,9 +1853,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      * @return if the predicate was not already active.
      */
     public boolean addRequestAckPredicate(StanzaFilter predicate) {
-        synchronized (requestAckPredicates) {
-            return requestAckPredicates.add(predicate);
-        }
+        return requestAckPredicates.add(predicate);
     }
 
     /**
@@ -1551,18 +1862,14 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      * @return true if the predicate was removed.
      */
     public boolean removeRequestAckPredicate(StanzaFilter predicate) {
-        synchronized (requestAckPredicates) {
-            return requestAckPredicates.remove(predicate);
-        }
+        return requestAckPredicates.remove(predicate);
     }
 
     /**
      * Remove all predicates for Stream Management acknowledgment requests.
      */
     public void removeAllRequestAckPredicates() {
-        synchronized (requestAckPredicates) {
-            requestAckPredicates.clear();
-        }
+        requestAckPredicates.clear();
     }
 
     /**
@@ -1606,6 +1913,97 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         packetWriter.sendStreamElement(new AckAnswer(clientHandledStanzasCount));
     }
 
+    private void recordSmAckRequest() {
+        smAckRequestsSent++;
+        if (smAckRequestTimestamp == -1) {
+            smAckRequestTimestamp = System.nanoTime();
+        }
+    }
+
+    private void recordSmAckAnswer() {
+        smAckAnswersReceived++;
+        long requestTimestamp = smAckRequestTimestamp;
+        if (requestTimestamp == -1) {
+            // An unsolicited acknowledgement.
+            return;
+        }
+        smAckRequestTimestamp = -1;
+        long roundTripTime = System.nanoTime() - requestTimestamp;
+        smAckRoundTrips++;
+        smAckRoundTripTimeNanosTotal += roundTripTime;
+        smAckRoundTripTimeNanosLast = roundTripTime;
+        if (roundTripTime > smAckRoundTripTimeNanosMax) {
+            smAckRoundTripTimeNanosMax = roundTripTime;
+        }
+    }
+
+    /**
+     * Get the total number of characters of all stanzas that have been written since Stream Management was enabled.
+     * This number only ever increases (until Stream Management is enabled again) and can be used to determine how much
+     * data was sent since a certain point in time, e.g. the last acknowledgement request. Note that stanzas are
+     * accounted for once they are written, not when they are queued for sending.
+     *
+     * @return the total number of written stanza characters.
+     * @see com.advisoryapps.smack.sm.predicates.AdaptiveAckPolicy
+     */
+    public long getSmWrittenStanzaChars() {
+        return smWrittenStanzaChars;
+    }
+
+    /**
+     * Get the Stream Management statistics of this connection.
+     *
+     * @return the Stream Management statistics.
+     */
+    public StreamManagementStats getStreamManagementStats() {
+        return new StreamManagementStats(this);
+    }
+
+    /**
+     * Statistics about the window of unacknowledged stanzas and the acknowledgement round-trip time of a Stream
+     * Managed connection.
+     */
+    public static final class StreamManagementStats {
+        public final int unacknowledgedStanzas;
+        public final long unacknowledgedChars;
+        public final int maxUnacknowledgedStanzas;
+        public final long ackRequestsSent;
+        public final long ackAnswersReceived;
+        public final long lastAckRoundTripTimeMillis;
+        public final long maxAckRoundTripTimeMillis;
+        public final double averageAckRoundTripTimeMillis;
+
+        private StreamManagementStats(XMPPTCPConnection connection) {
+            UnacknowledgedStanzaWindow window = connection.unacknowledgedStanzas;
+            if (window != null) {
+                unacknowledgedStanzas = window.size();
+                unacknowledgedChars = window.getChars();
+                maxUnacknowledgedStanzas = window.getMaxSize();
+            } else {
+                unacknowledgedStanzas = 0;
+                unacknowledgedChars = 0;
+                maxUnacknowledgedStanzas = 0;
+            }
+            ackRequestsSent = connection.smAckRequestsSent;
+            ackAnswersReceived = connection.smAckAnswersReceived;
+            lastAckRoundTripTimeMillis = TimeUnit.NANOSECONDS.toMillis(connection.smAckRoundTripTimeNanosLast);
+            maxAckRoundTripTimeMillis = TimeUnit.NANOSECONDS.toMillis(connection.smAckRoundTripTimeNanosMax);
+            long roundTrips = connection.smAckRoundTrips;
+            averageAckRoundTripTimeMillis = roundTrips == 0 ? 0
+                            : (double) connection.smAckRoundTripTimeNanosTotal / roundTrips / 1000000;
+        }
+
+        @Override
+        public String toString() {
+            return "StreamManagementStats(unacknowledgedStanzas=" + unacknowledgedStanzas + ", unacknowledgedChars="
+                            + unacknowledgedChars + ", maxUnacknowledgedStanzas=" + maxUnacknowledgedStanzas
+                            + ", ackRequestsSent=" + ackRequestsSent + ", ackAnswersReceived=" + ackAnswersReceived
+                            + ", lastAckRoundTripTimeMillis=" + lastAckRoundTripTimeMillis
+                            + ", maxAckRoundTripTimeMillis=" + maxAckRoundTripTimeMillis
+                            + ", averageAckRoundTripTimeMillis=" + averageAckRoundTripTimeMillis + ')';
+        }
+    }
+
     /**
      * Add a Stanza acknowledged listener.
      * <p>
@@ -41,14 +41,32 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
      */
     public static int DEFAULT_CONNECT_TIMEOUT = 30000;
 
+    /**
+     * The default maximum number of stanzas which may be unacknowledged by the server when Stream Management is
+     * enabled. If this value is changed, new Builder instances will use the new value as default.
+     */
+    public static int DEFAULT_SM_UNACKNOWLEDGED_STANZAS_MAX_COUNT = 500;
+
     /**
      * How long the socket will wait until a TCP connection is established (in milliseconds).
      */
     private final int connectTimeout;
 
+    private final int writeCoalescingMaxDelay;
+
+    private final int writeCoalescingMaxBatchSize;
+
+    private final int smUnacknowledgedStanzasMaxCount;
+
+    private final int smUnacknowledgedStanzasMaxChars;
+
     private XMPPTCPConnectionConfiguration(Builder builder) {
         super(builder);
         connectTimeout = builder.connectTimeout;
+        writeCoalescingMaxDelay = builder.writeCoalescingMaxDelay;
+        writeCoalescingMaxBatchSize = builder.writeCoalescingMaxBatchSize;
+        smUnacknowledgedStanzasMaxCount = builder.smUnacknowledgedStanzasMaxCount;
+        smUnacknowledgedStanzasMaxChars = builder.smUnacknowledgedStanzasMaxChars;
     }
 
     /**
@@ -60,6 +78,49 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
         return connectTimeout;
     }
 
+    /**
+     * The maximum time in milliseconds the writer waits for further outgoing elements before flushing a batch, or
+     * <code>0</code> if adaptive write coalescing is disabled.
+     *
+     * @return the maximum write coalescing delay in milliseconds.
+     * @see Builder#setWriteCoalescing(int, int)
+     */
+    public int getWriteCoalescingMaxDelay() {
+        return writeCoalescingMaxDelay;
+    }
+
+    /**
+     * The maximum number of characters written in one batch before the writer flushes, or <code>0</code> if the batch
+     * size is unbounded.
+     *
+     * @return the maximum write coalescing batch size in characters.
+     * @see Builder#setWriteCoalescing(int, int)
+     */
+    public int getWriteCoalescingMaxBatchSize() {
+        return writeCoalescingMaxBatchSize;
+    }
+
+    /**
+     * The maximum number of stanzas which may be unacknowledged by the server when Stream Management is enabled.
+     *
+     * @return the maximum number of unacknowledged stanzas.
+     * @see Builder#setSmUnacknowledgedStanzasBudget(int, int)
+     */
+    public int getSmUnacknowledgedStanzasMaxCount() {
+        return smUnacknowledgedStanzasMaxCount;
+    }
+
+    /**
+     * The maximum number of characters of all stanzas which may be unacknowledged by the server when Stream Management
+     * is enabled, or <code>0</code> if unbounded.
+     *
+     * @return the maximum number of unacknowledged characters.
+     * @see Builder#setSmUnacknowledgedStanzasBudget(int, int)
+     */
+    public int getSmUnacknowledgedStanzasMaxChars() {
+        return smUnacknowledgedStanzasMaxChars;
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -70,6 +131,10 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
      */
     public static final class Builder extends ConnectionConfiguration.Builder<Builder, XMPPTCPConnectionConfiguration> {
         private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+        private int writeCoalescingMaxDelay;
+        private int writeCoalescingMaxBatchSize;
+        private int smUnacknowledgedStanzasMaxCount = DEFAULT_SM_UNACKNOWLEDGED_STANZAS_MAX_COUNT;
+        private int smUnacknowledgedStanzasMaxChars;
 
         private Builder() {
         }
@@ -85,6 +150,51 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
             return this;
         }
 
+        /**
+         * Configure adaptive write coalescing. The writer always writes all elements which are queued at the time into
+         * one batch, before flushing the batch to the socket. With adaptive write coalescing, the writer additionally
+         * waits up to <code>maxDelay</code> milliseconds for further elements once the queue is drained, but only if
+         * the previous batch consisted of more than one element, i.e. while there is a burst of outgoing elements.
+         * Hence a burst of small stanzas results in few large writes, while there is no additional latency at low load.
+         * <p>
+         * A batch is flushed once it reaches <code>maxBatchSize</code> characters, regardless of the queue state.
+         * </p>
+         *
+         * @param maxDelay the maximum delay in milliseconds, or <code>0</code> to disable waiting for further elements.
+         * @param maxBatchSize the maximum batch size in characters, or <code>0</code> for an unbounded batch size.
+         * @return a reference to this object.
+         */
+        public Builder setWriteCoalescing(int maxDelay, int maxBatchSize) {
+            if (maxDelay < 0 || maxBatchSize < 0) {
+                throw new IllegalArgumentException("Write coalescing parameters must not be negative");
+            }
+            this.writeCoalescingMaxDelay = maxDelay;
+            this.writeCoalescingMaxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Set the budget of the window of stanzas which are not yet acknowledged by the server when Stream Management
+         * is enabled. Once the budget is exhausted, the writer waits for acknowledgements before it writes further
+         * stanzas. An acknowledgement is requested when 80% of the budget are used up.
+         *
+         * @param maxStanzas the maximum number of unacknowledged stanzas.
+         * @param maxChars the maximum number of characters of all unacknowledged stanzas, or <code>0</code> for no
+         *        limit.
+         * @return a reference to this object.
+         */
+        public Builder setSmUnacknowledgedStanzasBudget(int maxStanzas, int maxChars) {
+            if (maxStanzas <= 0) {
+                throw new IllegalArgumentException("The maximum number of unacknowledged stanzas must be positive");
+            }
+            if (maxChars < 0) {
+                throw new IllegalArgumentException("The maximum number of unacknowledged characters must not be negative");
+            }
+            this.smUnacknowledgedStanzasMaxCount = maxStanzas;
+            this.smUnacknowledgedStanzasMaxChars = maxChars;
+            return this;
+        }
+
         @Override
         protected Builder getThis() {
             return this;
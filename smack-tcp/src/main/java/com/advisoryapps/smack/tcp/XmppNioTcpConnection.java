@@ -32,7 +32,6 @@ import java.security.NoSuchProviderException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
@@ -40,8 +39,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
@@ -82,23 +81,20 @@ import com.advisoryapps.smack.packet.StreamOpen;
 import com.advisoryapps.smack.packet.TlsFailure;
 import com.advisoryapps.smack.packet.TlsProceed;
 import com.advisoryapps.smack.packet.TopLevelStreamElement;
+import com.advisoryapps.smack.packet.XmlEnvironment;
 import com.advisoryapps.smack.sasl.SASLErrorException;
-import com.advisoryapps.smack.util.ArrayBlockingQueueWithShutdown;
 import com.advisoryapps.smack.util.Async;
-import com.advisoryapps.smack.util.CollectionUtil;
-import com.advisoryapps.smack.util.PacketParserUtils;
-import com.advisoryapps.smack.util.StringUtils;
-import com.advisoryapps.smack.util.UTF8;
+import com.advisoryapps.smack.util.ByteBufferPool;
+import com.advisoryapps.smack.util.PrioritizedBlockingQueueWithShutdown;
+import com.advisoryapps.smack.util.Utf8ByteBufferSink;
 import com.advisoryapps.smack.util.XmlStringBuilder;
 import com.advisoryapps.smack.util.dns.HostAddress;
+import com.advisoryapps.smack.xml.NonBlockingXmlStreamParser;
 import com.advisoryapps.smack.xml.XmlPullParser;
 import com.advisoryapps.smack.xml.XmlPullParserException;
 
-import org.jxmpp.jid.DomainBareJid;
 import org.jxmpp.jid.Jid;
-import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.jid.util.JidUtil;
-import org.jxmpp.stringprep.XmppStringprepException;
 import org.jxmpp.xml.splitter.Utf8ByteXmppXmlSplitter;
 import org.jxmpp.xml.splitter.XmlPrettyPrinter;
 import org.jxmpp.xml.splitter.XmlPrinter;
@@ -146,6 +142,10 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
 
     private static final int MAX_ELEMENT_SIZE = 64 * 1024;
 
+    private static final int OUTGOING_CHAR_BUFFER_SIZE = 1024;
+
+    private static final XmlEnvironment CLIENT_XML_ENVIRONMENT = new XmlEnvironment(StreamOpen.CLIENT_NAMESPACE);
+
     private SelectionKey selectionKey;
     private SelectionKeyAttachment selectionKeyAttachment;
     private SocketChannel socketChannel;
@@ -155,7 +155,13 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
     /**
      * Note that this field is effective final, but due to https://stackoverflow.com/q/30360824/194894 we have to declare it non-final.
      */
-    private Utf8ByteXmppXmlSplitter splitter;
+    private NonBlockingXmlStreamParser incomingStreamParser;
+
+    /**
+     * Only set if there is a debugger. Note that this field is effective final, but due to
+     * https://stackoverflow.com/q/30360824/194894 we have to declare it non-final.
+     */
+    private Utf8ByteXmppXmlSplitter incomingDebugSplitter;
 
     /**
      * Note that this field is effective final, but due to https://stackoverflow.com/q/30360824/194894 we have to declare it non-final.
@@ -164,114 +170,76 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
 
     private static final Level STREAM_OPEN_CLOSE_DEBUG_LOG_LEVEL = Level.FINER;
 
-    private final XmppElementCallback xmppElementCallback = new XmppElementCallback() {
-        private String streamOpen;
-        private String streamClose;
-
+    private final NonBlockingXmlStreamParser.Callback incomingStreamCallback = new NonBlockingXmlStreamParser.Callback() {
         @Override
-        public void onCompleteElement(String completeElement) {
-            assert streamOpen != null;
-            assert streamClose != null;
-
-            if (debugger != null) {
-                debugger.onIncomingElementCompleted();
+        public void onStreamOpened(XmlPullParser parser) {
+            if (LOGGER.isLoggable(STREAM_OPEN_CLOSE_DEBUG_LOG_LEVEL)) {
+                LOGGER.log(STREAM_OPEN_CLOSE_DEBUG_LOG_LEVEL, "Stream of " + this + " opened. prefix="
+                                + parser.getPrefix() + " namespace=" + parser.getNamespace(null));
             }
 
-            String wrappedCompleteElement = streamOpen + completeElement + streamClose;
+            onStreamOpen(parser);
+        }
+
+        @Override
+        public void onCompleteElement(XmlPullParser parser) {
             try {
-                parseAndProcessElement(wrappedCompleteElement);
+                parseAndProcessElement(parser);
             } catch (Exception e) {
                 notifyConnectionError(e);
             }
         }
 
-
         @Override
-        public void streamOpened(String prefix, Map<String, String> attributes) {
+        public void onStreamClosed() {
             if (LOGGER.isLoggable(STREAM_OPEN_CLOSE_DEBUG_LOG_LEVEL)) {
-                LOGGER.log(STREAM_OPEN_CLOSE_DEBUG_LOG_LEVEL,
-                                "Stream of " + this + " opened. prefix=" + prefix + " attributes=" + attributes);
+                LOGGER.log(STREAM_OPEN_CLOSE_DEBUG_LOG_LEVEL, "Stream of " + this + " closed");
             }
 
-            final String prefixXmlns = "xmlns:" + prefix;
-            final StringBuilder streamClose = new StringBuilder(32);
-            final StringBuilder streamOpen = new StringBuilder(256);
-
-            streamOpen.append('<');
-            streamClose.append("</");
-            if (StringUtils.isNotEmpty(prefix)) {
-                streamOpen.append(prefix).append(':');
-                streamClose.append(prefix).append(':');
-            }
-            streamOpen.append("stream");
-            streamClose.append("stream>");
-            for (Entry<String, String> entry : attributes.entrySet()) {
-                String attributeName = entry.getKey();
-                String attributeValue = entry.getValue();
-                switch (attributeName) {
-                case "id":
-                    streamId = attributeValue;
-                    break;
-                case "version":
-                    break;
-                case "xml:lang":
-                    streamOpen.append(" xml:lang='").append(attributeValue).append('\'');
-                    break;
-                case "to":
-                    break;
-                case "from":
-                    DomainBareJid reportedServerDomain;
-                    try {
-                        reportedServerDomain = JidCreate.domainBareFrom(attributeValue);
-                    } catch (XmppStringprepException e) {
-                        IllegalStateException ise = new IllegalStateException(
-                                "Reporting server domain '" + attributeValue + "' is not a valid JID", e);
-                        notifyConnectionError(ise);
-                        return;
-                    }
-                    assert config.getXMPPServiceDomain().equals(reportedServerDomain);
-                    break;
-                case "xmlns":
-                    streamOpen.append(" xmlns='").append(attributeValue).append('\'');
-                    break;
-                default:
-                    if (attributeName.equals(prefixXmlns)) {
-                        streamOpen.append(' ').append(prefixXmlns).append("='").append(attributeValue).append('\'');
-                        break;
-                    }
-                    LOGGER.info("Unknown <stream/> attribute: " + attributeName);
-                    break;
-                }
-            }
-            streamOpen.append('>');
+            closingStreamReceived.reportSuccess();
+        }
+    };
 
-            this.streamOpen = streamOpen.toString();
-            this.streamClose = streamClose.toString();
+    /**
+     * The callback of the incoming debug splitter, which is only used to pretty print the incoming stream for the
+     * debugger. The incoming elements are processed by {@link #incomingStreamCallback}.
+     */
+    private final XmppElementCallback incomingDebugCallback = new XmppElementCallback() {
+        @Override
+        public void onCompleteElement(String completeElement) {
+            debugger.onIncomingElementCompleted();
+        }
 
-            XmlPullParser streamOpenParser;
-            try {
-                streamOpenParser = PacketParserUtils.getParserFor(this.streamOpen);
-            } catch (XmlPullParserException | IOException e) {
-                // Should never happen.
-                throw new AssertionError(e);
-            }
-            onStreamOpen(streamOpenParser);
+        @Override
+        public void streamOpened(String prefix, Map<String, String> attributes) {
         }
 
         @Override
         public void streamClosed() {
-            if (LOGGER.isLoggable(STREAM_OPEN_CLOSE_DEBUG_LOG_LEVEL)) {
-                LOGGER.log(STREAM_OPEN_CLOSE_DEBUG_LOG_LEVEL, "Stream of " + this + " closed");
-            }
-
-            closingStreamReceived.reportSuccess();
         }
     };
 
-    private final ArrayBlockingQueueWithShutdown<TopLevelStreamElement> outgoingElementsQueue = new ArrayBlockingQueueWithShutdown<>(
-                    100, true);
+    private static final int OUTGOING_ELEMENTS_QUEUE_SIZE = 100;
+
+    private static final int OUTGOING_ELEMENTS_PRIORITY_QUEUE_SIZE = 25;
+
+    private final PrioritizedBlockingQueueWithShutdown<TopLevelStreamElement> outgoingElementsQueue =
+                    new PrioritizedBlockingQueueWithShutdown<>(OUTGOING_ELEMENTS_QUEUE_SIZE,
+                                    OUTGOING_ELEMENTS_PRIORITY_QUEUE_SIZE, true);
+
+    private final ByteBufferPool outgoingBufferPool = getDirectByteBufferPool();
 
-    private Iterator<CharSequence> outgoingCharSequenceIterator;
+    /**
+     * The sink the outgoing elements are serialized into. Once an element was serialized, its encoded buffers are
+     * retrieved one-by-one from the sink and processed by the output filters.
+     */
+    private final Utf8ByteBufferSink outgoingElementSink = new Utf8ByteBufferSink(outgoingBufferPool,
+                    OUTGOING_CHAR_BUFFER_SIZE);
+
+    /**
+     * The buffers acquired from the {@link #outgoingBufferPool} which have not yet been released.
+     */
+    private final List<ByteBuffer> acquiredOutgoingBuffers = new ArrayList<>();
 
     private final List<TopLevelStreamElement> currentlyOutgoingElements = new ArrayList<>();
     private final Map<ByteBuffer, List<TopLevelStreamElement>> bufferToElementMap = new IdentityHashMap<>();
@@ -279,6 +247,7 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
     private ByteBuffer outgoingBuffer;
     private ByteBuffer filteredOutgoingBuffer;
     private final List<ByteBuffer> networkOutgoingBuffers = new ArrayList<>();
+    private ByteBuffer[] networkOutgoingBuffersArray = new ByteBuffer[0];
     private long networkOutgoingBuffersBytes;
 
     // TODO: Make the size of the incomingBuffer configurable.
@@ -290,6 +259,7 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
     private long totalBytesWritten;
     private long totalBytesReadAfterFilter;
     private long totalBytesWrittenBeforeFilter;
+    private long acquiredOutgoingBuffersCount;
     private long handledChannelSelectedCallbacks;
     private long callbackPreemtBecauseBytesWritten;
     private long callbackPreemtBecauseBytesRead;
@@ -334,9 +304,16 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
             outputDebugSplitter = new XmppXmlSplitter(outgoingDebugPrettyPrinter);
         }
 
-        XmppXmlSplitter xmppXmlSplitter = new XmppXmlSplitter(MAX_ELEMENT_SIZE, xmppElementCallback,
-                incomingDebugPrettyPrinter);
-        splitter = new Utf8ByteXmppXmlSplitter(xmppXmlSplitter);
+        if (incomingDebugPrettyPrinter != null) {
+            XmppXmlSplitter xmppXmlSplitter = new XmppXmlSplitter(MAX_ELEMENT_SIZE, incomingDebugCallback,
+                    incomingDebugPrettyPrinter);
+            incomingDebugSplitter = new Utf8ByteXmppXmlSplitter(xmppXmlSplitter);
+        }
+
+        incomingStreamParser = new NonBlockingXmlStreamParser(MAX_ELEMENT_SIZE, incomingStreamCallback);
+
+        outgoingElementsQueue.setWatermarks(OUTGOING_ELEMENTS_QUEUE_SIZE / 4, OUTGOING_ELEMENTS_QUEUE_SIZE * 3 / 4,
+                        outgoingQueueWatermarkCallback);
     }
 
     private final ChannelSelectedCallback channelSelectedCallback =
@@ -363,7 +340,6 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
             boolean destinationAddressChanged = false;
             boolean isLastPartOfElement = false;
             TopLevelStreamElement currentlyOutgonigTopLevelStreamElement = null;
-            StringBuilder outgoingStreamForDebugger = null;
 
             writeLoop: while (true) {
                 final boolean moreDataAvailable = !isLastPartOfElement || !outgoingElementsQueue.isEmpty();
@@ -379,10 +355,11 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
                         }
                     }
 
-                    ByteBuffer[] output = networkOutgoingBuffers.toArray(new ByteBuffer[networkOutgoingBuffers.size()]);
+                    networkOutgoingBuffersArray = toArray(networkOutgoingBuffers, networkOutgoingBuffersArray);
                     long bytesWritten;
                     try {
-                        bytesWritten = selectedSocketChannel.write(output);
+                        bytesWritten = selectedSocketChannel.write(networkOutgoingBuffersArray, 0,
+                                        networkOutgoingBuffers.size());
                     } catch (IOException e) {
                         // We have seen here so far
                         // - IOException "Broken pipe"
@@ -399,9 +376,8 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
 
                     networkOutgoingBuffersBytes -= bytesWritten;
 
-                    List<? extends Buffer> prunedBuffers = pruneBufferList(networkOutgoingBuffers);
-
-                    for (Buffer prunedBuffer : prunedBuffers) {
+                    while (!networkOutgoingBuffers.isEmpty() && !networkOutgoingBuffers.get(0).hasRemaining()) {
+                        ByteBuffer prunedBuffer = networkOutgoingBuffers.remove(0);
                         List<TopLevelStreamElement> sendElements = bufferToElementMap.remove(prunedBuffer);
                         if (sendElements == null) {
                             continue;
@@ -472,32 +448,11 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
                     if (destinationAddressChanged) {
                         destinationAddressChanged = false;
                     }
-                } else if (outgoingCharSequenceIterator != null) {
-                    CharSequence nextCharSequence = outgoingCharSequenceIterator.next();
-                    outgoingBuffer = UTF8.encode(nextCharSequence);
-                    if (!outgoingCharSequenceIterator.hasNext()) {
-                        outgoingCharSequenceIterator = null;
-                        isLastPartOfElement = true;
-                    } else {
-                        isLastPartOfElement = false;
-                    }
-
-                    if (debugger != null) {
-                        if (outgoingStreamForDebugger == null) {
-                            outgoingStreamForDebugger = new StringBuilder();
-                        }
-                        outgoingStreamForDebugger.append(nextCharSequence);
-
-                        if (isLastPartOfElement) {
-                            try {
-                                outputDebugSplitter.append(outgoingStreamForDebugger);
-                            } catch (IOException e) {
-                                throw new AssertionError(e);
-                            }
-                            debugger.onOutgoingElementCompleted();
-                            outgoingStreamForDebugger = null;
-                        }
-                    }
+                } else if (outgoingElementSink.hasEncodedBuffers()) {
+                    outgoingBuffer = outgoingElementSink.poll();
+                    acquiredOutgoingBuffers.add(outgoingBuffer);
+                    acquiredOutgoingBuffersCount++;
+                    isLastPartOfElement = !outgoingElementSink.hasEncodedBuffers();
                 } else if (!outgoingElementsQueue.isEmpty()) {
                     currentlyOutgonigTopLevelStreamElement = outgoingElementsQueue.poll();
                     if (currentlyOutgonigTopLevelStreamElement instanceof Stanza) {
@@ -507,13 +462,30 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
                         lastDestinationAddress = currentDestinationAddress;
                     }
                     CharSequence nextCharSequence = currentlyOutgonigTopLevelStreamElement.toXML(StreamOpen.CLIENT_NAMESPACE);
-                    if (nextCharSequence instanceof XmlStringBuilder) {
-                        XmlStringBuilder xmlStringBuilder = (XmlStringBuilder) nextCharSequence;
-                        outgoingCharSequenceIterator = xmlStringBuilder.getCharSequenceIterator();
-                    } else {
-                        outgoingCharSequenceIterator = Collections.singletonList(nextCharSequence).iterator();
+
+                    // Release the no longer used outgoing buffers before the sink acquires new ones.
+                    releaseUnusedOutgoingBuffers();
+                    try {
+                        if (nextCharSequence instanceof XmlStringBuilder) {
+                            XmlStringBuilder xmlStringBuilder = (XmlStringBuilder) nextCharSequence;
+                            xmlStringBuilder.appendXmlTo(outgoingElementSink, CLIENT_XML_ENVIRONMENT);
+                        } else {
+                            outgoingElementSink.append(nextCharSequence);
+                        }
+                    } catch (IOException e) {
+                        // Should never happen, as Utf8ByteBufferSink does not throw IOExceptions.
+                        throw new AssertionError(e);
+                    }
+                    outgoingElementSink.finish();
+
+                    if (debugger != null) {
+                        try {
+                            outputDebugSplitter.append(nextCharSequence.toString());
+                        } catch (IOException e) {
+                            throw new AssertionError(e);
+                        }
+                        debugger.onOutgoingElementCompleted();
                     }
-                    assert outgoingCharSequenceIterator != null;
                 } else {
                     // There is nothing more to write.
                     break;
@@ -598,9 +570,19 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
 
                 totalBytesReadAfterFilter += bytesReadAfterFilter;
 
+                if (incomingDebugSplitter != null) {
+                    // Feed the debug splitter with a duplicate, so that the parser below sees the same bytes.
+                    try {
+                        incomingDebugSplitter.write(filteredIncomingBuffer.duplicate());
+                    } catch (IOException e) {
+                        notifyConnectionError(e);
+                        return;
+                    }
+                }
+
                 try {
-                    splitter.write(filteredIncomingBuffer);
-                } catch (IOException e) {
+                    incomingStreamParser.feed(filteredIncomingBuffer);
+                } catch (XmlPullParserException e) {
                     notifyConnectionError(e);
                     return;
                 }
@@ -628,6 +610,23 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
         setInterestOps(selectionKey, newInterestedOps);
     };
 
+    /**
+     * Release the acquired outgoing buffers which are no longer referenced back into the pool. A buffer is no longer
+     * referenced once all its data has been consumed, i.e. either written to the network or consumed by the output
+     * filters (which must not hold on to consumed buffers), and it is not part of the pending network output.
+     */
+    private void releaseUnusedOutgoingBuffers() {
+        for (int i = acquiredOutgoingBuffers.size() - 1; i >= 0; i--) {
+            ByteBuffer buffer = acquiredOutgoingBuffers.get(i);
+            if (buffer.hasRemaining() || buffer == outgoingBuffer || buffer == filteredOutgoingBuffer
+                            || containsIdentical(networkOutgoingBuffers, buffer)) {
+                continue;
+            }
+            acquiredOutgoingBuffers.remove(i);
+            outgoingBufferPool.release(buffer);
+        }
+    }
+
     private void handleReadWriteIoException(IOException e) {
         if (e instanceof ClosedChannelException && !isConnected()) {
             // The connection is already closed.
@@ -1093,6 +1092,7 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
         private ByteBuffer peerAppData;
 
         private final List<ByteBuffer> pendingOutputData = new ArrayList<>();
+        private ByteBuffer[] pendingOutputDataArray = new ByteBuffer[0];
         private int pendingOutputBytes;
         private ByteBuffer pendingInputData;
 
@@ -1140,14 +1140,15 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
                 }
             }
 
-            ByteBuffer[] outputDataArray = pendingOutputData.toArray(new ByteBuffer[pendingOutputData.size()]);
+            pendingOutputDataArray = toArray(pendingOutputData, pendingOutputDataArray);
+            final int pendingOutputDataCount = pendingOutputData.size();
 
             myNetData.clear();
 
             while (true) {
                 SSLEngineResult result;
                 try {
-                    result = engine.wrap(outputDataArray, myNetData);
+                    result = engine.wrap(pendingOutputDataArray, 0, pendingOutputDataCount, myNetData);
                 } catch (SSLException e) {
                     handleSslException(e);
                     throw e;
@@ -1158,6 +1159,8 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
                 SSLEngineResult.Status engineResultStatus = result.getStatus();
 
                 pendingOutputBytes -= result.bytesConsumed();
+                // Do not hold on to consumed output data, as the connection may reuse consumed buffers.
+                pruneBufferList(pendingOutputData);
 
                 if (engineResultStatus == SSLEngineResult.Status.OK) {
                     wrapInBytes += result.bytesConsumed();
@@ -1184,8 +1187,6 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
                 switch (engineResultStatus) {
                 case OK:
                     // No need to outputData.compact() here, since we do not reuse the buffer.
-                    // Clean up the pending output data.
-                    pruneBufferList(pendingOutputData);
                     return new OutputResult(!pendingOutputData.isEmpty(), myNetData);
                 case CLOSED:
                     pendingOutputData.clear();
@@ -1673,7 +1674,50 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
 
     private void sendTopLevelStreamElement(TopLevelStreamElement topLevelStreamElement)
                     throws InterruptedException {
-        outgoingElementsQueue.put(topLevelStreamElement);
+        outgoingElementsQueue.put(topLevelStreamElement, isPriorityElement(topLevelStreamElement));
+        afterOutgoingElementsQueueModified();
+    }
+
+    private static boolean isPriorityElement(TopLevelStreamElement topLevelStreamElement) {
+        if (topLevelStreamElement instanceof Stanza) {
+            return isPriorityStanza((Stanza) topLevelStreamElement);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean trySendStanza(Stanza stanza) throws NotConnectedException {
+        boolean priority = isPriorityElement(stanza);
+        // Reserve the capacity before the stanza is prepared, so that a rejected stanza is left unchanged.
+        if (!outgoingElementsQueue.tryReserve(priority)) {
+            return false;
+        }
+        prepareAndPutReserved(stanza, priority);
+        return true;
+    }
+
+    @Override
+    public boolean trySendStanza(Stanza stanza, long timeout, TimeUnit unit)
+                    throws NotConnectedException, InterruptedException {
+        boolean priority = isPriorityElement(stanza);
+        if (!outgoingElementsQueue.tryReserve(priority, timeout, unit)) {
+            return false;
+        }
+        prepareAndPutReserved(stanza, priority);
+        return true;
+    }
+
+    private void prepareAndPutReserved(Stanza stanza, boolean priority) throws NotConnectedException {
+        boolean enqueued = false;
+        try {
+            prepareStanzaForSending(stanza);
+            outgoingElementsQueue.putReserved(stanza, priority);
+            enqueued = true;
+        } finally {
+            if (!enqueued) {
+                outgoingElementsQueue.cancelReservation(priority);
+            }
+        }
         afterOutgoingElementsQueueModified();
     }
 
@@ -1778,6 +1822,8 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
         public final long totalBytesWritten;
         public final long totalBytesWrittenBeforeFilter;
         public final double writeRatio;
+        public final long acquiredOutgoingBuffers;
+        public final long outgoingBufferPoolAllocatedBuffers;
 
         public final long totalBytesRead;
         public final long totalBytesReadAfterFilter;
@@ -1799,6 +1845,8 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
             totalBytesWritten = connection.totalBytesWritten;
             totalBytesWrittenBeforeFilter = connection.totalBytesWrittenBeforeFilter;
             writeRatio = (double) totalBytesWritten / totalBytesWrittenBeforeFilter;
+            acquiredOutgoingBuffers = connection.acquiredOutgoingBuffersCount;
+            outgoingBufferPoolAllocatedBuffers = connection.outgoingBufferPool.getAllocatedBufferCount();
 
             totalBytesReadAfterFilter = connection.totalBytesReadAfterFilter;
             totalBytesRead = connection.totalBytesRead;
@@ -1838,6 +1886,8 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
             + "send-bef-filter: " + totalBytesWrittenBeforeFilter + '\n'
             + "read-ratio: " + readRatio + '\n'
             + "write-ratio: " + writeRatio + '\n'
+            + "acquired-outgoing-buffers: " + acquiredOutgoingBuffers + '\n'
+            + "outgoing-buffer-pool-allocated-buffers: " + outgoingBufferPoolAllocatedBuffers + '\n'
             + "Events\n"
             + "total-callback-requests: " + totalCallbackRequests + '\n'
             + "handled-channel-selected-callbacks: " + handledChannelSelectedCallbacks + '\n'
@@ -1864,8 +1914,35 @@ public class XmppNioTcpConnection extends AbstractXmppNioConnection {
         }
     }
 
-    private static List<? extends Buffer> pruneBufferList(Collection<? extends Buffer> buffers) {
-        return CollectionUtil.removeUntil(buffers, b -> b.hasRemaining());
+    /**
+     * Remove the leading buffers without remaining data from the given list.
+     *
+     * @param buffers the list of buffers.
+     */
+    private static void pruneBufferList(List<? extends Buffer> buffers) {
+        while (!buffers.isEmpty() && !buffers.get(0).hasRemaining()) {
+            buffers.remove(0);
+        }
+    }
+
+    private static ByteBuffer[] toArray(List<ByteBuffer> buffers, ByteBuffer[] reusableArray) {
+        ByteBuffer[] array = reusableArray;
+        if (array.length < buffers.size()) {
+            array = new ByteBuffer[buffers.size()];
+        }
+        for (int i = 0; i < buffers.size(); i++) {
+            array[i] = buffers.get(i);
+        }
+        return array;
+    }
+
+    private static boolean containsIdentical(List<?> list, Object object) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == object) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
@@ -0,0 +1,116 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.sm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.advisoryapps.smack.packet.Message;
+import com.advisoryapps.smack.packet.Stanza;
+
+import org.junit.jupiter.api.Test;
+
+public class UnacknowledgedStanzaWindowTest {
+
+    @Test
+    public void windowGrowsAndKeepsOrder() throws InterruptedException {
+        UnacknowledgedStanzaWindow window = new UnacknowledgedStanzaWindow(100, 0);
+        List<Stanza> stanzas = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Message message = new Message();
+            stanzas.add(message);
+            window.put(message, 10);
+        }
+        // Move the head, so that growing the ring buffer has to handle wrapped around elements.
+        assertSame(stanzas.get(0), window.poll());
+        assertSame(stanzas.get(1), window.poll());
+        for (int i = 0; i < 50; i++) {
+            Message message = new Message();
+            stanzas.add(message);
+            window.put(message, 10);
+        }
+
+        assertEquals(58, window.size());
+        assertEquals(580, window.getChars());
+        assertEquals(58, window.getMaxSize());
+        assertEquals(stanzas.subList(2, stanzas.size()), window.toList());
+
+        List<Stanza> drained = new ArrayList<>();
+        assertEquals(58, window.drainTo(drained));
+        assertEquals(stanzas.subList(2, stanzas.size()), drained);
+        assertNull(window.poll());
+        assertEquals(0, window.getChars());
+    }
+
+    @Test
+    public void stanzaAndCharBudgetsAreEnforced() {
+        UnacknowledgedStanzaWindow stanzaBudgetWindow = new UnacknowledgedStanzaWindow(5, 0);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(stanzaBudgetWindow.offer(new Message(), 1000));
+        }
+        assertTrue(stanzaBudgetWindow.isNearlyFull());
+        assertTrue(stanzaBudgetWindow.isFull());
+        assertFalse(stanzaBudgetWindow.offer(new Message(), 1));
+
+        UnacknowledgedStanzaWindow charBudgetWindow = new UnacknowledgedStanzaWindow(100, 100);
+        // A single stanza exceeding the budget is accepted if the window is empty.
+        assertTrue(charBudgetWindow.offer(new Message(), 150));
+        assertFalse(charBudgetWindow.offer(new Message(), 1));
+        charBudgetWindow.poll();
+
+        assertTrue(charBudgetWindow.offer(new Message(), 50));
+        assertFalse(charBudgetWindow.isNearlyFull());
+        assertTrue(charBudgetWindow.offer(new Message(), 30));
+        assertTrue(charBudgetWindow.isNearlyFull());
+        assertFalse(charBudgetWindow.offer(new Message(), 30));
+        // Stanzas of unknown length only count against the stanza budget.
+        assertTrue(charBudgetWindow.offer(new Message(), 0));
+        assertEquals(80, charBudgetWindow.getChars());
+    }
+
+    @Test
+    public void putWaitsForAcknowledgements() throws InterruptedException {
+        final UnacknowledgedStanzaWindow window = new UnacknowledgedStanzaWindow(1, 0);
+        final Message first = new Message();
+        window.put(first, 1);
+
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                window.poll();
+            }
+        };
+        thread.start();
+
+        Message second = new Message();
+        window.put(second, 1);
+        assertEquals(1, window.size());
+        assertSame(second, window.poll());
+        thread.join();
+    }
+}
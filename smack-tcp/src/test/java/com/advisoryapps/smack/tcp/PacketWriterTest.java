@@ -16,6 +16,8 @@
  */
 package com.advisoryapps.smack.tcp;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -26,12 +28,16 @@ import java.io.Writer;
 import java.lang.reflect.Field;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.advisoryapps.smack.AbstractXMPPConnection;
 import com.advisoryapps.smack.SmackException;
 import com.advisoryapps.smack.SmackException.NotConnectedException;
+import com.advisoryapps.smack.StanzaListener;
+import com.advisoryapps.smack.filter.StanzaTypeFilter;
 import com.advisoryapps.smack.packet.Message;
+import com.advisoryapps.smack.packet.Stanza;
 import com.advisoryapps.smack.tcp.XMPPTCPConnection.PacketWriter;
 import com.advisoryapps.smack.util.ExceptionUtil;
 
@@ -156,6 +162,49 @@ public class PacketWriterTest {
         }
     }
 
+    /**
+     * Make sure that a stanza rejected by {@link XMPPTCPConnection#trySendStanza(Stanza)} because the queue is full is
+     * not passed to the stanza interceptors, so that retrying it does not invoke them twice.
+     *
+     * @throws Exception if an exception occurs.
+     */
+    @Test
+    public void rejectedStanzaIsNotIntercepted() throws Exception {
+        XMPPTCPConnection connection = new XMPPTCPConnection("user", "pass", "example.org");
+
+        Field readerField = AbstractXMPPConnection.class.getDeclaredField("reader");
+        readerField.setAccessible(true);
+        readerField.set(connection, DUMMY_READER);
+
+        final AtomicInteger interceptorInvocations = new AtomicInteger();
+        connection.addStanzaInterceptor(new StanzaListener() {
+            @Override
+            public void processStanza(Stanza packet) {
+                interceptorInvocations.incrementAndGet();
+            }
+        }, StanzaTypeFilter.MESSAGE);
+
+        PacketWriter pw = connection.packetWriter;
+        BlockingStringWriter blockingStringWriter = new BlockingStringWriter();
+        connection.setWriter(blockingStringWriter);
+        pw.init();
+
+        try {
+            // Fill the queue, the writer thread is blocked writing the first stanza.
+            for (int i = 0; i < XMPPTCPConnection.PacketWriter.QUEUE_SIZE + 1; i++) {
+                pw.sendStreamElement(new Message());
+            }
+
+            assertFalse(connection.trySendStanza(new Message()));
+            assertEquals(0, interceptorInvocations.get());
+        }
+        finally {
+            pw.shutdownDone.reportSuccess();
+            pw.shutdown(false);
+            blockingStringWriter.unblock();
+        }
+    }
+
     public static class BlockingStringWriter extends Writer {
         private boolean blocked = true;
 
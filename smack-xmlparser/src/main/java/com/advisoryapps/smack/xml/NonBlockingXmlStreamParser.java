@@ -0,0 +1,647 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.xml;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+
+import com.advisoryapps.smack.xml.RecordedXmlPullParser.EndElement;
+import com.advisoryapps.smack.xml.RecordedXmlPullParser.StartElement;
+
+/**
+ * A non-blocking XML parser for XMPP streams, which is fed with the UTF-8 encoded bytes of the stream as they arrive.
+ * <p>
+ * The parser tokenizes the incoming bytes exactly once. Every top level stream element is recorded while it is
+ * tokenized and, once it is complete, handed as {@link XmlPullParser} to {@link Callback#onCompleteElement(XmlPullParser)}.
+ * This avoids the round trip of first splitting the stream into strings, just to parse those strings again afterwards.
+ * </p>
+ * <p>
+ * Only the subset of XML allowed in XMPP streams is supported. A document type declaration causes an error, comments and
+ * processing instructions are ignored. A start tag of the root element, i.e. the stream element, within the stream is
+ * treated as stream restart.
+ * </p>
+ * <p>
+ * Instances of this class are not thread-safe.
+ * </p>
+ */
+public final class NonBlockingXmlStreamParser {
+
+    public interface Callback {
+
+        /**
+         * Invoked once the (possibly restarted) stream was opened.
+         *
+         * @param parser a parser positioned at the START_ELEMENT event of the stream element.
+         */
+        void onStreamOpened(XmlPullParser parser);
+
+        /**
+         * Invoked once a top level stream element is complete.
+         *
+         * @param parser a parser positioned at the START_ELEMENT event of the top level stream element.
+         */
+        void onCompleteElement(XmlPullParser parser);
+
+        void onStreamClosed();
+    }
+
+    private enum State {
+        TEXT,
+        TAG_OPEN,
+        START_TAG_NAME,
+        IN_START_TAG,
+        ATTRIBUTE_NAME,
+        AFTER_ATTRIBUTE_NAME,
+        BEFORE_ATTRIBUTE_VALUE,
+        ATTRIBUTE_VALUE,
+        EMPTY_TAG_CLOSE,
+        END_TAG_NAME,
+        AFTER_END_TAG_NAME,
+        PROCESSING_INSTRUCTION,
+        MARKUP_DECLARATION,
+        COMMENT,
+        CDATA,
+        ENTITY,
+    }
+
+    private static final String COMMENT_START = "--";
+
+    private static final String CDATA_START = "[CDATA[";
+
+    private static final int MAX_ENTITY_LENGTH = 10;
+
+    private static final String[] EMPTY_STRING_ARRAY = new String[0];
+
+    private final int maxElementSize;
+
+    private final Callback callback;
+
+    private final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+    private final CharBuffer charBuffer = CharBuffer.allocate(4096);
+
+    /**
+     * The bytes of an incomplete UTF-8 sequence at the end of the previously fed buffer. The buffer is always in "write
+     * mode".
+     */
+    private final ByteBuffer pendingBytes = ByteBuffer.allocate(4);
+
+    private final StringBuilder tokenBuffer = new StringBuilder();
+
+    private final StringBuilder textBuffer = new StringBuilder();
+
+    private final StringBuilder entityBuffer = new StringBuilder();
+
+    private final List<String> pendingAttributes = new ArrayList<>();
+
+    /**
+     * The currently open elements, the first one is the stream element.
+     */
+    private final List<StartElement> openElements = new ArrayList<>();
+
+    private List<Object> recordedEvents = new ArrayList<>();
+
+    private State state = State.TEXT;
+
+    private State stateBeforeEntity;
+
+    private char attributeValueQuote;
+
+    private int markupSuffixCount;
+
+    private int elementSize;
+
+    public NonBlockingXmlStreamParser(int maxElementSize, Callback callback) {
+        this.maxElementSize = maxElementSize;
+        this.callback = callback;
+    }
+
+    /**
+     * Feed the bytes remaining in the given buffer into this parser. All remaining bytes are consumed, an incomplete
+     * UTF-8 sequence at the end of the buffer is kept until the next invocation of this method.
+     *
+     * @param buffer the buffer with the bytes to feed.
+     * @throws XmlPullParserException if the bytes are not valid UTF-8 or the stream is not well-formed.
+     */
+    public void feed(ByteBuffer buffer) throws XmlPullParserException {
+        while (pendingBytes.position() > 0 && buffer.hasRemaining()) {
+            pendingBytes.put(buffer.get());
+            pendingBytes.flip();
+            decode(pendingBytes);
+            pendingBytes.compact();
+        }
+
+        decode(buffer);
+
+        // A UTF-8 sequence is at most 4 bytes long, hence the remaining bytes always fit into pendingBytes.
+        pendingBytes.put(buffer);
+    }
+
+    public int getDepth() {
+        return openElements.size();
+    }
+
+    private void decode(ByteBuffer buffer) throws XmlPullParserException {
+        while (true) {
+            CoderResult coderResult = decoder.decode(buffer, charBuffer, false);
+
+            charBuffer.flip();
+            while (charBuffer.hasRemaining()) {
+                process(charBuffer.get());
+            }
+            charBuffer.clear();
+
+            if (coderResult.isError()) {
+                try {
+                    coderResult.throwException();
+                } catch (CharacterCodingException e) {
+                    throw new XmlPullParserException(e);
+                }
+            }
+            if (coderResult.isUnderflow()) {
+                return;
+            }
+        }
+    }
+
+    private void process(char c) throws XmlPullParserException {
+        if (state != State.TEXT || openElements.size() > 1) {
+            elementSize++;
+            if (elementSize > maxElementSize) {
+                throw new XmlPullParserException("Max element size exceeded");
+            }
+        }
+
+        switch (state) {
+        case TEXT:
+            if (c == '<') {
+                flushText();
+                state = State.TAG_OPEN;
+            } else if (c == '&') {
+                beginEntity();
+            } else if (openElements.size() > 1) {
+                textBuffer.append(c);
+            }
+            break;
+        case TAG_OPEN:
+            if (c == '/') {
+                tokenBuffer.setLength(0);
+                state = State.END_TAG_NAME;
+            } else if (c == '?') {
+                markupSuffixCount = 0;
+                state = State.PROCESSING_INSTRUCTION;
+            } else if (c == '!') {
+                tokenBuffer.setLength(0);
+                state = State.MARKUP_DECLARATION;
+            } else if (isNameChar(c)) {
+                tokenBuffer.setLength(0);
+                tokenBuffer.append(c);
+                pendingAttributes.clear();
+                state = State.START_TAG_NAME;
+            } else {
+                throw unexpected(c);
+            }
+            break;
+        case START_TAG_NAME:
+            if (isNameChar(c)) {
+                tokenBuffer.append(c);
+            } else if (isWhitespace(c)) {
+                pendingAttributes.add(tokenBuffer.toString());
+                state = State.IN_START_TAG;
+            } else if (c == '>') {
+                pendingAttributes.add(tokenBuffer.toString());
+                onStartTag(false);
+            } else if (c == '/') {
+                pendingAttributes.add(tokenBuffer.toString());
+                state = State.EMPTY_TAG_CLOSE;
+            } else {
+                throw unexpected(c);
+            }
+            break;
+        case IN_START_TAG:
+            if (isWhitespace(c)) {
+                break;
+            } else if (c == '>') {
+                onStartTag(false);
+            } else if (c == '/') {
+                state = State.EMPTY_TAG_CLOSE;
+            } else if (isNameChar(c)) {
+                tokenBuffer.setLength(0);
+                tokenBuffer.append(c);
+                state = State.ATTRIBUTE_NAME;
+            } else {
+                throw unexpected(c);
+            }
+            break;
+        case ATTRIBUTE_NAME:
+            if (isNameChar(c)) {
+                tokenBuffer.append(c);
+            } else if (isWhitespace(c)) {
+                state = State.AFTER_ATTRIBUTE_NAME;
+            } else if (c == '=') {
+                state = State.BEFORE_ATTRIBUTE_VALUE;
+            } else {
+                throw unexpected(c);
+            }
+            break;
+        case AFTER_ATTRIBUTE_NAME:
+            if (isWhitespace(c)) {
+                break;
+            } else if (c == '=') {
+                state = State.BEFORE_ATTRIBUTE_VALUE;
+            } else {
+                throw unexpected(c);
+            }
+            break;
+        case BEFORE_ATTRIBUTE_VALUE:
+            if (isWhitespace(c)) {
+                break;
+            } else if (c == '\'' || c == '"') {
+                pendingAttributes.add(tokenBuffer.toString());
+                tokenBuffer.setLength(0);
+                attributeValueQuote = c;
+                state = State.ATTRIBUTE_VALUE;
+            } else {
+                throw unexpected(c);
+            }
+            break;
+        case ATTRIBUTE_VALUE:
+            if (c == attributeValueQuote) {
+                pendingAttributes.add(tokenBuffer.toString());
+                state = State.IN_START_TAG;
+            } else if (c == '&') {
+                beginEntity();
+            } else if (c == '<') {
+                throw unexpected(c);
+            } else {
+                tokenBuffer.append(c);
+            }
+            break;
+        case EMPTY_TAG_CLOSE:
+            if (c != '>') {
+                throw unexpected(c);
+            }
+            onStartTag(true);
+            break;
+        case END_TAG_NAME:
+            if (isNameChar(c)) {
+                tokenBuffer.append(c);
+            } else if (isWhitespace(c)) {
+                state = State.AFTER_END_TAG_NAME;
+            } else if (c == '>') {
+                onEndTag(tokenBuffer.toString());
+            } else {
+                throw unexpected(c);
+            }
+            break;
+        case AFTER_END_TAG_NAME:
+            if (isWhitespace(c)) {
+                break;
+            } else if (c == '>') {
+                onEndTag(tokenBuffer.toString());
+            } else {
+                throw unexpected(c);
+            }
+            break;
+        case PROCESSING_INSTRUCTION:
+            if (c == '>' && markupSuffixCount > 0) {
+                state = State.TEXT;
+            }
+            markupSuffixCount = c == '?' ? 1 : 0;
+            break;
+        case MARKUP_DECLARATION:
+            tokenBuffer.append(c);
+            if (COMMENT_START.contentEquals(tokenBuffer)) {
+                markupSuffixCount = 0;
+                state = State.COMMENT;
+            } else if (CDATA_START.contentEquals(tokenBuffer)) {
+                markupSuffixCount = 0;
+                state = State.CDATA;
+            } else if (!startsWith(COMMENT_START, tokenBuffer) && !startsWith(CDATA_START, tokenBuffer)) {
+                throw new XmlPullParserException("Document type declarations are not allowed in XMPP streams");
+            }
+            break;
+        case COMMENT:
+            if (c == '>' && markupSuffixCount >= 2) {
+                state = State.TEXT;
+            }
+            markupSuffixCount = c == '-' ? markupSuffixCount + 1 : 0;
+            break;
+        case CDATA:
+            if (c == ']') {
+                markupSuffixCount++;
+                break;
+            }
+            if (c == '>' && markupSuffixCount >= 2) {
+                appendBrackets(markupSuffixCount - 2);
+                state = State.TEXT;
+            } else {
+                appendBrackets(markupSuffixCount);
+                if (openElements.size() > 1) {
+                    textBuffer.append(c);
+                }
+            }
+            markupSuffixCount = 0;
+            break;
+        case ENTITY:
+            if (c == ';') {
+                int codePoint = resolveEntity();
+                if (stateBeforeEntity == State.ATTRIBUTE_VALUE) {
+                    tokenBuffer.appendCodePoint(codePoint);
+                } else if (openElements.size() > 1) {
+                    textBuffer.appendCodePoint(codePoint);
+                }
+                state = stateBeforeEntity;
+            } else if (entityBuffer.length() < MAX_ENTITY_LENGTH) {
+                entityBuffer.append(c);
+            } else {
+                throw new XmlPullParserException("Entity reference '&" + entityBuffer + "' is too long");
+            }
+            break;
+        }
+    }
+
+    private void beginEntity() {
+        entityBuffer.setLength(0);
+        stateBeforeEntity = state;
+        state = State.ENTITY;
+    }
+
+    private int resolveEntity() throws XmlPullParserException {
+        String entity = entityBuffer.toString();
+        switch (entity) {
+        case "lt":
+            return '<';
+        case "gt":
+            return '>';
+        case "amp":
+            return '&';
+        case "quot":
+            return '"';
+        case "apos":
+            return '\'';
+        default:
+            break;
+        }
+
+        if (entity.length() > 1 && entity.charAt(0) == '#') {
+            int codePoint;
+            try {
+                if (entity.charAt(1) == 'x') {
+                    codePoint = Integer.parseInt(entity.substring(2), 16);
+                } else {
+                    codePoint = Integer.parseInt(entity.substring(1));
+                }
+            } catch (NumberFormatException e) {
+                throw new XmlPullParserException(e);
+            }
+            if (Character.isValidCodePoint(codePoint)
+                            && (Character.isSupplementaryCodePoint(codePoint) || !Character.isSurrogate((char) codePoint))) {
+                return codePoint;
+            }
+        }
+
+        throw new XmlPullParserException("Unknown entity reference '&" + entity + ";'");
+    }
+
+    private void appendBrackets(int count) {
+        if (openElements.size() <= 1) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            textBuffer.append(']');
+        }
+    }
+
+    private void flushText() {
+        if (textBuffer.length() == 0) {
+            return;
+        }
+        if (openElements.size() > 1) {
+            recordedEvents.add(textBuffer.toString());
+        }
+        textBuffer.setLength(0);
+    }
+
+    private void onStartTag(boolean isEmptyElement) throws XmlPullParserException {
+        state = State.TEXT;
+
+        // The first pending attribute is the qualified name of the element, followed by the name and value pairs.
+        String qualifiedName = pendingAttributes.get(0);
+
+        List<String> namespaceDeclarations = null;
+        int attributeCount = 0;
+        for (int i = 1; i < pendingAttributes.size(); i += 2) {
+            String attributeName = pendingAttributes.get(i);
+            String prefix;
+            if (attributeName.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
+                prefix = null;
+            } else if (attributeName.startsWith("xmlns:")) {
+                prefix = attributeName.substring(6);
+            } else {
+                attributeCount++;
+                continue;
+            }
+            if (namespaceDeclarations == null) {
+                namespaceDeclarations = new ArrayList<>(4);
+            }
+            namespaceDeclarations.add(prefix);
+            namespaceDeclarations.add(pendingAttributes.get(i + 1));
+        }
+
+        String[] namespaceDeclarationsArray = namespaceDeclarations == null ? EMPTY_STRING_ARRAY
+                        : namespaceDeclarations.toArray(new String[namespaceDeclarations.size()]);
+
+        String[] attributes = attributeCount == 0 ? EMPTY_STRING_ARRAY : new String[4 * attributeCount];
+        int attributeIndex = 0;
+        for (int i = 1; i < pendingAttributes.size(); i += 2) {
+            String attributeName = pendingAttributes.get(i);
+            if (attributeName.equals(XMLConstants.XMLNS_ATTRIBUTE) || attributeName.startsWith("xmlns:")) {
+                continue;
+            }
+            int colon = attributeName.indexOf(':');
+            String prefix = null;
+            String localName = attributeName;
+            String namespace = XMLConstants.NULL_NS_URI;
+            if (colon > 0) {
+                prefix = attributeName.substring(0, colon);
+                localName = attributeName.substring(colon + 1);
+                namespace = resolvePrefix(prefix, namespaceDeclarationsArray);
+            }
+            attributes[attributeIndex++] = prefix;
+            attributes[attributeIndex++] = localName;
+            attributes[attributeIndex++] = namespace;
+            attributes[attributeIndex++] = pendingAttributes.get(i + 1);
+        }
+        pendingAttributes.clear();
+
+        int colon = qualifiedName.indexOf(':');
+        String prefix = null;
+        String localName = qualifiedName;
+        if (colon > 0) {
+            prefix = qualifiedName.substring(0, colon);
+            localName = qualifiedName.substring(colon + 1);
+        }
+        String namespace = resolvePrefix(prefix, namespaceDeclarationsArray);
+
+        StartElement startElement = new StartElement(prefix, localName, namespace, attributes,
+                        namespaceDeclarationsArray);
+
+        if (openElements.isEmpty()) {
+            openElements.add(startElement);
+            onStreamOpened(startElement);
+            return;
+        }
+
+        if (openElements.size() == 1 && startElement.hasSameName(openElements.get(0))) {
+            // Stream restart, e.g. after TLS or SASL was established.
+            openElements.set(0, startElement);
+            onStreamOpened(startElement);
+            return;
+        }
+
+        openElements.add(startElement);
+        recordedEvents.add(startElement);
+
+        if (isEmptyElement) {
+            onEndElement();
+        }
+    }
+
+    private void onStreamOpened(StartElement streamElement) {
+        elementSize = 0;
+        recordedEvents.clear();
+        XmlPullParser parser = new RecordedXmlPullParser(Collections.<Object>singletonList(streamElement),
+                        Collections.<StartElement>emptyList());
+        callback.onStreamOpened(parser);
+    }
+
+    private void onEndTag(String qualifiedName) throws XmlPullParserException {
+        state = State.TEXT;
+
+        if (openElements.isEmpty()) {
+            throw new XmlPullParserException("Unexpected end tag </" + qualifiedName + '>');
+        }
+
+        StartElement startElement = openElements.get(openElements.size() - 1);
+        String expectedQualifiedName = startElement.prefix == null ? startElement.localName
+                        : startElement.prefix + ':' + startElement.localName;
+        if (!expectedQualifiedName.equals(qualifiedName)) {
+            throw new XmlPullParserException(
+                            "End tag </" + qualifiedName + "> does not match start tag <" + expectedQualifiedName + '>');
+        }
+
+        if (openElements.size() == 1) {
+            openElements.clear();
+            callback.onStreamClosed();
+            return;
+        }
+
+        onEndElement();
+    }
+
+    private void onEndElement() {
+        StartElement startElement = openElements.remove(openElements.size() - 1);
+        recordedEvents.add(new EndElement(startElement));
+
+        if (openElements.size() > 1) {
+            return;
+        }
+
+        List<Object> completeElementEvents = recordedEvents;
+        recordedEvents = new ArrayList<>();
+        elementSize = 0;
+
+        XmlPullParser parser = new RecordedXmlPullParser(completeElementEvents,
+                        Collections.singletonList(openElements.get(0)));
+        callback.onCompleteElement(parser);
+    }
+
+    private String resolvePrefix(String prefix, String[] namespaceDeclarations) throws XmlPullParserException {
+        if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+            return XMLConstants.XML_NS_URI;
+        }
+
+        for (int i = namespaceDeclarations.length - 2; i >= 0; i -= 2) {
+            String declaredPrefix = namespaceDeclarations[i];
+            if (prefix == null ? declaredPrefix == null : prefix.equals(declaredPrefix)) {
+                return namespaceDeclarations[i + 1];
+            }
+        }
+
+        for (int i = openElements.size() - 1; i >= 0; i--) {
+            String namespace = openElements.get(i).lookupNamespace(prefix);
+            if (namespace != null) {
+                return namespace;
+            }
+        }
+
+        if (prefix == null) {
+            return XMLConstants.NULL_NS_URI;
+        }
+        throw new XmlPullParserException("Unbound namespace prefix '" + prefix + "'");
+    }
+
+    private XmlPullParserException unexpected(char c) {
+        return new XmlPullParserException("Unexpected character '" + c + "' in state " + state);
+    }
+
+    private static boolean startsWith(String string, CharSequence prefix) {
+        if (prefix.length() > string.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (string.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNameChar(char c) {
+        switch (c) {
+        case '<':
+        case '>':
+        case '/':
+        case '=':
+        case '\'':
+        case '"':
+        case '&':
+        case '!':
+        case '?':
+            return false;
+        default:
+            return !isWhitespace(c);
+        }
+    }
+
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+}
@@ -0,0 +1,444 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+/**
+ * A {@link XmlPullParser} replaying the events recorded by {@link NonBlockingXmlStreamParser}. The parser is initially
+ * positioned at the first recorded event, which is always a START_ELEMENT event. After the last recorded event, the
+ * parser reports END_DOCUMENT.
+ */
+final class RecordedXmlPullParser implements XmlPullParser {
+
+    static final class StartElement {
+        final String prefix;
+        final String localName;
+        final String namespace;
+
+        /**
+         * The attributes as consecutive (prefix, local name, namespace, value) quadruples.
+         */
+        final String[] attributes;
+
+        /**
+         * The namespace declarations as consecutive (prefix, namespace) pairs. The prefix of the default namespace
+         * declaration is <code>null</code>.
+         */
+        final String[] namespaceDeclarations;
+
+        StartElement(String prefix, String localName, String namespace, String[] attributes,
+                        String[] namespaceDeclarations) {
+            this.prefix = prefix;
+            this.localName = localName;
+            this.namespace = namespace;
+            this.attributes = attributes;
+            this.namespaceDeclarations = namespaceDeclarations;
+        }
+
+        boolean hasSameName(StartElement other) {
+            return localName.equals(other.localName) && namespace.equals(other.namespace);
+        }
+
+        String lookupNamespace(String prefix) {
+            for (int i = namespaceDeclarations.length - 2; i >= 0; i -= 2) {
+                String declaredPrefix = namespaceDeclarations[i];
+                if (prefix == null ? declaredPrefix == null : prefix.equals(declaredPrefix)) {
+                    return namespaceDeclarations[i + 1];
+                }
+            }
+            return null;
+        }
+    }
+
+    static final class EndElement {
+        final StartElement startElement;
+
+        EndElement(StartElement startElement) {
+            this.startElement = startElement;
+        }
+    }
+
+    private final List<Object> events;
+
+    /**
+     * The elements enclosing the recorded events, outermost first, used to resolve namespace prefixes.
+     */
+    private final List<StartElement> enclosingElements;
+
+    private final List<StartElement> openElements = new ArrayList<>();
+
+    private int index;
+
+    private Event event;
+
+    private int depth;
+
+    private boolean delayedDepthDecrement;
+
+    RecordedXmlPullParser(List<Object> events, List<StartElement> enclosingElements) {
+        assert !events.isEmpty() && events.get(0) instanceof StartElement;
+        this.events = events;
+        this.enclosingElements = enclosingElements;
+        this.depth = enclosingElements.size();
+        setEvent(0);
+    }
+
+    private void setEvent(int newIndex) {
+        if (delayedDepthDecrement) {
+            depth--;
+            openElements.remove(openElements.size() - 1);
+            delayedDepthDecrement = false;
+        }
+
+        index = newIndex;
+        if (index >= events.size()) {
+            event = Event.END_DOCUMENT;
+            return;
+        }
+
+        Object recordedEvent = events.get(index);
+        if (recordedEvent instanceof StartElement) {
+            event = Event.START_ELEMENT;
+            openElements.add((StartElement) recordedEvent);
+            depth++;
+        } else if (recordedEvent instanceof EndElement) {
+            event = Event.END_ELEMENT;
+            delayedDepthDecrement = true;
+        } else {
+            event = Event.TEXT_CHARACTERS;
+        }
+    }
+
+    private StartElement getCurrentElement() {
+        switch (event) {
+        case START_ELEMENT:
+            return (StartElement) events.get(index);
+        case END_ELEMENT:
+            return ((EndElement) events.get(index)).startElement;
+        default:
+            return null;
+        }
+    }
+
+    private StartElement getCurrentStartElement() {
+        if (event != Event.START_ELEMENT) {
+            return null;
+        }
+        return (StartElement) events.get(index);
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return null;
+    }
+
+    @Override
+    public String getInputEncoding() {
+        return "UTF-8";
+    }
+
+    @Override
+    public int getNamespaceCount() {
+        StartElement element = getCurrentElement();
+        if (element == null) {
+            return 0;
+        }
+        return element.namespaceDeclarations.length / 2;
+    }
+
+    @Override
+    public String getNamespacePrefix(int pos) {
+        StartElement element = getCurrentElement();
+        if (element == null) {
+            return null;
+        }
+        return element.namespaceDeclarations[2 * pos];
+    }
+
+    @Override
+    public String getNamespaceUri(int pos) {
+        StartElement element = getCurrentElement();
+        if (element == null) {
+            return null;
+        }
+        return element.namespaceDeclarations[2 * pos + 1];
+    }
+
+    @Override
+    public String getNamespace(String prefix) {
+        if (prefix != null && prefix.isEmpty()) {
+            prefix = null;
+        }
+        if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+            return XMLConstants.XML_NS_URI;
+        }
+
+        String namespace = lookupNamespace(openElements, prefix);
+        if (namespace == null) {
+            namespace = lookupNamespace(enclosingElements, prefix);
+        }
+        if (namespace == null && prefix == null) {
+            return XMLConstants.NULL_NS_URI;
+        }
+        return namespace;
+    }
+
+    private static String lookupNamespace(List<StartElement> elements, String prefix) {
+        for (int i = elements.size() - 1; i >= 0; i--) {
+            String namespace = elements.get(i).lookupNamespace(prefix);
+            if (namespace != null) {
+                return namespace;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public String getPositionDescription() {
+        return "recorded event " + index + " of " + events.size() + " (" + event + ')';
+    }
+
+    @Override
+    public int getLineNumber() {
+        return -1;
+    }
+
+    @Override
+    public int getColumnNumber() {
+        return -1;
+    }
+
+    @Override
+    public boolean isWhiteSpace() {
+        if (event != Event.TEXT_CHARACTERS) {
+            return false;
+        }
+        String text = (String) events.get(index);
+        for (int i = 0; i < text.length(); i++) {
+            if (!NonBlockingXmlStreamParser.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String getText() {
+        if (event != Event.TEXT_CHARACTERS) {
+            return null;
+        }
+        return (String) events.get(index);
+    }
+
+    @Override
+    public String getNamespace() {
+        StartElement element = getCurrentElement();
+        if (element == null) {
+            return null;
+        }
+        return element.namespace;
+    }
+
+    @Override
+    public String getName() {
+        StartElement element = getCurrentElement();
+        if (element == null) {
+            return null;
+        }
+        return element.localName;
+    }
+
+    @Override
+    public QName getQName() {
+        StartElement element = getCurrentElement();
+        if (element == null) {
+            return null;
+        }
+        return new QName(element.namespace, element.localName, nullToEmpty(element.prefix));
+    }
+
+    @Override
+    public String getPrefix() {
+        StartElement element = getCurrentElement();
+        if (element == null) {
+            return null;
+        }
+        return element.prefix;
+    }
+
+    @Override
+    public int getAttributeCount() {
+        StartElement element = getCurrentStartElement();
+        if (element == null) {
+            return -1;
+        }
+        return element.attributes.length / 4;
+    }
+
+    private String getAttributePart(int index, int part) {
+        StartElement element = getCurrentStartElement();
+        if (element == null || index < 0 || 4 * index >= element.attributes.length) {
+            return null;
+        }
+        return element.attributes[4 * index + part];
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        return getAttributePart(index, 2);
+    }
+
+    @Override
+    public String getAttributeName(int index) {
+        return getAttributePart(index, 1);
+    }
+
+    @Override
+    public QName getAttributeQName(int index) {
+        String localName = getAttributeName(index);
+        if (localName == null) {
+            return null;
+        }
+        return new QName(getAttributeNamespace(index), localName, nullToEmpty(getAttributePrefix(index)));
+    }
+
+    @Override
+    public String getAttributePrefix(int index) {
+        return getAttributePart(index, 0);
+    }
+
+    @Override
+    public String getAttributeType(int index) {
+        if (getAttributeName(index) == null) {
+            return null;
+        }
+        return "CDATA";
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        return getAttributePart(index, 3);
+    }
+
+    @Override
+    public String getAttributeValue(String namespace, String name) {
+        StartElement element = getCurrentStartElement();
+        if (element == null) {
+            return null;
+        }
+        String[] attributes = element.attributes;
+        for (int i = 0; i < attributes.length; i += 4) {
+            if (!attributes[i + 1].equals(name)) {
+                continue;
+            }
+            if (namespace == null || namespace.equals(attributes[i + 2])) {
+                return attributes[i + 3];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Event getEventType() {
+        return event;
+    }
+
+    @Override
+    public Event next() {
+        if (event != Event.END_DOCUMENT) {
+            setEvent(index + 1);
+        }
+        return event;
+    }
+
+    @Override
+    public String nextText() throws XmlPullParserException {
+        if (event != Event.START_ELEMENT) {
+            throw new XmlPullParserException("Parser must be on START_ELEMENT to read next text, but was on " + event);
+        }
+
+        String text = null;
+        StringBuilder sb = null;
+        while (true) {
+            switch (next()) {
+            case TEXT_CHARACTERS:
+                String nextText = getText();
+                if (text == null) {
+                    text = nextText;
+                } else {
+                    if (sb == null) {
+                        sb = new StringBuilder(text);
+                    }
+                    sb.append(nextText);
+                }
+                break;
+            case END_ELEMENT:
+                if (sb != null) {
+                    return sb.toString();
+                }
+                if (text == null) {
+                    return "";
+                }
+                return text;
+            default:
+                throw new XmlPullParserException("Element must only contain text, but found " + event + " at "
+                                + getPositionDescription());
+            }
+        }
+    }
+
+    @Override
+    public TagEvent nextTag() throws XmlPullParserException {
+        while (true) {
+            switch (next()) {
+            case START_ELEMENT:
+                return TagEvent.START_ELEMENT;
+            case END_ELEMENT:
+                return TagEvent.END_ELEMENT;
+            case TEXT_CHARACTERS:
+                if (isWhiteSpace()) {
+                    continue;
+                }
+                throw new XmlPullParserException("Expected start or end tag, but found text at " + getPositionDescription());
+            default:
+                throw new XmlPullParserException("Expected start or end tag, but found " + event);
+            }
+        }
+    }
+
+    @Override
+    public boolean supportsRoundtrip() {
+        return false;
+    }
+
+    private static String nullToEmpty(String string) {
+        if (string == null) {
+            return XMLConstants.DEFAULT_NS_PREFIX;
+        }
+        return string;
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ *
+ * Copyright the original author or authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.advisoryapps.smack.xml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class NonBlockingXmlStreamParserTest {
+
+    private static final String STREAM_OPEN = "<?xml version='1.0'?><stream:stream xmlns='jabber:client'"
+                    + " xmlns:stream='http://etherx.jabber.org/streams' id='stream-1' xml:lang='en'>";
+
+    @Test
+    public void elementsAreParsedFromBytesFedOneByOne() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        NonBlockingXmlStreamParser parser = new NonBlockingXmlStreamParser(10000, callback);
+
+        String stream = STREAM_OPEN
+                        + "<message to='juliet@example.org' xml:lang='de'><!-- comment --><body>Grüße &amp; 𝄞&#x1D11E;</body>"
+                        + "<x:data xmlns:x='urn:example:x' x:attr='a&lt;b'/></message> "
+                        + "<iq type='get' id='1'><![CDATA[<foo>]]]]></iq></stream:stream>";
+        byte[] bytes = stream.getBytes(StandardCharsets.UTF_8);
+        for (byte b : bytes) {
+            parser.feed(ByteBuffer.wrap(new byte[] { b }));
+        }
+
+        assertEquals(1, callback.streamOpenedCount);
+        assertEquals(1, callback.streamClosedCount);
+        assertEquals(2, callback.completeElements.size());
+
+        XmlPullParser message = callback.completeElements.get(0);
+        assertEquals(XmlPullParser.Event.START_ELEMENT, message.getEventType());
+        assertEquals("message", message.getName());
+        assertEquals("jabber:client", message.getNamespace());
+        assertEquals(2, message.getDepth());
+        assertEquals("juliet@example.org", message.getAttributeValue("", "to"));
+        assertEquals("de", message.getAttributeValue("http://www.w3.org/XML/1998/namespace", "lang"));
+
+        assertEquals(XmlPullParser.TagEvent.START_ELEMENT, message.nextTag());
+        assertEquals("body", message.getName());
+        assertEquals(3, message.getDepth());
+        assertEquals("Grüße & 𝄞𝄞", message.nextText());
+        assertEquals(3, message.getDepth());
+
+        assertEquals(XmlPullParser.TagEvent.START_ELEMENT, message.nextTag());
+        assertEquals("data", message.getName());
+        assertEquals("x", message.getPrefix());
+        assertEquals("urn:example:x", message.getNamespace());
+        assertEquals("a<b", message.getAttributeValue("urn:example:x", "attr"));
+        assertEquals(1, message.getAttributeCount());
+        assertEquals(XmlPullParser.TagEvent.END_ELEMENT, message.nextTag());
+        assertEquals(XmlPullParser.TagEvent.END_ELEMENT, message.nextTag());
+        assertEquals("message", message.getName());
+        assertEquals(2, message.getDepth());
+        assertEquals(XmlPullParser.Event.END_DOCUMENT, message.next());
+
+        XmlPullParser iq = callback.completeElements.get(1);
+        assertEquals("iq", iq.getName());
+        assertEquals("<foo>]]", iq.nextText());
+    }
+
+    @Test
+    public void streamRestartIsReportedAsStreamOpen() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        NonBlockingXmlStreamParser parser = new NonBlockingXmlStreamParser(10000, callback);
+
+        feed(parser, STREAM_OPEN + "<success xmlns='urn:ietf:params:xml:ns:xmpp-sasl'/>");
+        assertEquals(1, callback.streamOpenedCount);
+        feed(parser, STREAM_OPEN.replace("stream-1", "stream-2") + "<stream:features/>");
+
+        assertEquals(2, callback.streamOpenedCount);
+        assertEquals("stream-2", callback.lastStreamOpen.getAttributeValue("", "id"));
+        assertEquals(1, parser.getDepth());
+
+        XmlPullParser features = callback.completeElements.get(1);
+        assertEquals("features", features.getName());
+        assertEquals("http://etherx.jabber.org/streams", features.getNamespace());
+        assertEquals(XmlPullParser.Event.END_ELEMENT, features.next());
+        assertEquals(XmlPullParser.Event.END_DOCUMENT, features.next());
+    }
+
+    @Test
+    public void malformedStreamsCauseAnException() throws Exception {
+        NonBlockingXmlStreamParser parser = new NonBlockingXmlStreamParser(200, new RecordingCallback());
+        feed(parser, STREAM_OPEN);
+        String body = new String(new char[200]).replace((char) 0, 'a');
+        assertThrows(XmlPullParserException.class, () -> feed(parser, "<message><body>" + body + "</body></message>"));
+
+        NonBlockingXmlStreamParser mismatchedEndTagParser = new NonBlockingXmlStreamParser(200, new RecordingCallback());
+        feed(mismatchedEndTagParser, STREAM_OPEN);
+        assertThrows(XmlPullParserException.class, () -> feed(mismatchedEndTagParser, "<a></b>"));
+
+        NonBlockingXmlStreamParser unboundPrefixParser = new NonBlockingXmlStreamParser(200, new RecordingCallback());
+        feed(unboundPrefixParser, STREAM_OPEN);
+        assertThrows(XmlPullParserException.class, () -> feed(unboundPrefixParser, "<foo:a/>"));
+
+        NonBlockingXmlStreamParser invalidUtf8Parser = new NonBlockingXmlStreamParser(200, new RecordingCallback());
+        assertThrows(XmlPullParserException.class, () -> invalidUtf8Parser.feed(ByteBuffer.wrap(new byte[] { (byte) 0xff })));
+
+        NonBlockingXmlStreamParser doctypeParser = new NonBlockingXmlStreamParser(200, new RecordingCallback());
+        assertThrows(XmlPullParserException.class, () -> feed(doctypeParser, "<!DOCTYPE foo>"));
+    }
+
+    @Test
+    public void textOutsideOfTopLevelElementsIsIgnored() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        NonBlockingXmlStreamParser parser = new NonBlockingXmlStreamParser(200, callback);
+        feed(parser, STREAM_OPEN);
+        // Whitespace keep-alives must not count towards the max element size.
+        for (int i = 0; i < 1000; i++) {
+            feed(parser, " ");
+        }
+        feed(parser, "<r/>");
+
+        assertEquals(1, callback.completeElements.size());
+        XmlPullParser r = callback.completeElements.get(0);
+        assertNull(r.getText());
+        assertTrue(r.getAttributeCount() == 0);
+    }
+
+    private static void feed(NonBlockingXmlStreamParser parser, String string) throws XmlPullParserException {
+        parser.feed(ByteBuffer.wrap(string.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static final class RecordingCallback implements NonBlockingXmlStreamParser.Callback {
+        private final List<XmlPullParser> completeElements = new ArrayList<>();
+        private int streamOpenedCount;
+        private int streamClosedCount;
+        private XmlPullParser lastStreamOpen;
+
+        @Override
+        public void onStreamOpened(XmlPullParser parser) {
+            streamOpenedCount++;
+            lastStreamOpen = parser;
+        }
+
+        @Override
+        public void onCompleteElement(XmlPullParser parser) {
+            completeElements.add(parser);
+        }
+
+        @Override
+        public void onStreamClosed() {
+            streamClosedCount++;
+        }
+    }
+}